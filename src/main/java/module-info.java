@@ -12,6 +12,7 @@ module world.cals.supercollidersnippetmanager {
     requires com.fasterxml.jackson.annotation;
     requires com.fasterxml.jackson.databind;
     requires com.fasterxml.jackson.datatype.jsr310;
+    requires com.fasterxml.jackson.dataformat.smile;
 
     // Optional (RichTextFX). If you decide not to use RichTextFX yet,
     // remove these three lines and also remove the dependency from pom.xml.
@@ -19,8 +20,12 @@ module world.cals.supercollidersnippetmanager {
     requires org.fxmisc.flowless;
     requires reactfx;
 
-    // JavaOSC for SuperCollider communication (automatic module)
-    requires javaosc.core;
+    // Headless HTTP API (--server)
+    requires jdk.httpserver;
+
+    // Embedded SQLite backend
+    requires java.sql;
+    requires org.xerial.sqlitejdbc;
 
     opens world.cals.supercollidersnippetmanager to javafx.fxml, com.fasterxml.jackson.databind, com.fasterxml.jackson.core;
     exports world.cals.supercollidersnippetmanager;
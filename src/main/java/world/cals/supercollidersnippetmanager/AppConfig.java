@@ -0,0 +1,98 @@
+package world.cals.supercollidersnippetmanager;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+public final class AppConfig {
+    public static final String BACKEND_JSON = "json";
+    public static final String BACKEND_SQLITE = "sqlite";
+    public static final String FORMAT_JSON = "json";
+    public static final String FORMAT_SMILE = "smile";
+
+    private boolean compressCode = false;
+    private String codeDictionary = CodeDictionary.DEFAULT_ID;
+    private boolean dedupeCode = false;
+    // Records under two-level id prefix directories instead of directly in their folder
+    private boolean shardRecords = false;
+    // Encoding of new record files: pretty JSON or binary Smile; both are read
+    private String recordFormat = FORMAT_JSON;
+    private String backupDir;
+    private String backend = BACKEND_JSON;
+    // sclang instances (host:port) that play and stop go to
+    private List<String> servers = new ArrayList<>(List.of(ServerRegistry.DEFAULT_TARGET));
+    // UDP port for incoming OSC control messages; 0 turns it off
+    private int controlPort = OscControlServer.DEFAULT_PORT;
+    // Address the control port listens on; loopback unless set, e.g. "0.0.0.0" for controllers on the LAN
+    private String controlBind;
+    // Last SynthDef bundle built; rebuilding the same file is incremental
+    private String synthDefBundle;
+    // Play a snippet as soon as it is selected
+    private boolean autoPlay = false;
+    // Entries in the recently played view
+    private int maxRecent = 10;
+
+    public boolean isCompressCode() { return compressCode; }
+    public void setCompressCode(boolean compressCode) { this.compressCode = compressCode; }
+
+    public String getCodeDictionary() { return codeDictionary; }
+    public void setCodeDictionary(String codeDictionary) { this.codeDictionary = codeDictionary; }
+
+    public boolean isDedupeCode() { return dedupeCode; }
+    public void setDedupeCode(boolean dedupeCode) { this.dedupeCode = dedupeCode; }
+
+    public boolean isShardRecords() { return shardRecords; }
+    public void setShardRecords(boolean shardRecords) { this.shardRecords = shardRecords; }
+
+    public String getRecordFormat() { return recordFormat; }
+    public void setRecordFormat(String recordFormat) { this.recordFormat = recordFormat; }
+
+    public String getBackupDir() { return backupDir; }
+    public void setBackupDir(String backupDir) { this.backupDir = backupDir; }
+
+    public String getBackend() { return backend; }
+    public void setBackend(String backend) { this.backend = backend; }
+
+    public List<String> getServers() { return servers; }
+    public void setServers(List<String> servers) { this.servers = servers; }
+
+    public int getControlPort() { return controlPort; }
+    public void setControlPort(int controlPort) { this.controlPort = controlPort; }
+
+    public String getControlBind() { return controlBind; }
+    public void setControlBind(String controlBind) { this.controlBind = controlBind; }
+
+    public String getSynthDefBundle() { return synthDefBundle; }
+    public void setSynthDefBundle(String synthDefBundle) { this.synthDefBundle = synthDefBundle; }
+
+    public boolean isAutoPlay() { return autoPlay; }
+    public void setAutoPlay(boolean autoPlay) { this.autoPlay = autoPlay; }
+
+    public int getMaxRecent() { return maxRecent; }
+    public void setMaxRecent(int maxRecent) { this.maxRecent = maxRecent; }
+
+    public static AppConfig load() {
+        Path file = AppPaths.configFile();
+        if (!Files.exists(file)) {
+            return new AppConfig();
+        }
+        try {
+            return Json.mapper().readValue(file.toFile(), AppConfig.class);
+        } catch (IOException e) {
+            System.err.println("Failed to read config, using defaults: " + file);
+            e.printStackTrace();
+            return new AppConfig();
+        }
+    }
+
+    public void save() throws IOException {
+        Path file = AppPaths.configFile();
+        Files.createDirectories(file.getParent());
+        Json.mapper().writerWithDefaultPrettyPrinter().writeValue(file.toFile(), this);
+    }
+}
@@ -14,7 +14,31 @@ public final class AppPaths {
         return appRootDir().resolve("data");
     }
 
+    public static Path dictionariesDir() {
+        return appRootDir().resolve("dictionaries");
+    }
+
+    public static Path historyDir() {
+        return appRootDir().resolve("history");
+    }
+
+    public static Path databaseFile() {
+        return appRootDir().resolve("library.db");
+    }
+
     public static Path configFile() {
         return appRootDir().resolve("config.json");
     }
+
+    public static Path draftJournal() {
+        return appRootDir().resolve("drafts.log");
+    }
+
+    public static Path playHistory() {
+        return appRootDir().resolve("plays.json");
+    }
+
+    public static Path startupLog() {
+        return appRootDir().resolve("startup.log");
+    }
 }
@@ -0,0 +1,288 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipException;
+
+/**
+ * Content-addressed storage for snippet code, keyed by the SHA-256 of the code text.
+ * Each blob carries a reference count of the snippet records pointing at it and is
+ * deleted as soon as the count drops to zero. Counts live in an append-only log of
+ * {@code <hash> <+1|-1>} lines, so taking or dropping a reference writes one line, and the
+ * log is compacted to one line per hash once it grows long. A blob released without a count is kept for
+ * {@link #collectGarbage} to decide. A blob returned by {@link #put} is pinned until
+ * its reference is added (or {@link #unpin} is called), so a concurrent release of the same code
+ * cannot delete it first.
+ */
+public final class BlobStore {
+    public static final String REFS_FILE = "refs.log";
+    // Log lines beyond which the ref log may be compacted, whatever the number of hashes
+    private static final int MIN_COMPACT_LINES = 4096;
+
+    public record Blob(String text, CompressedCode compressed) {}
+
+    private final Path dir;
+    private final Path refsFile;
+    private final Path legacyRefsFile;
+    private Map<String, Integer> refs;
+    private int logLines;
+    // Hashes handed out by put() whose reference has not been added yet
+    private final Map<String, Integer> pinned = new HashMap<>();
+
+    public BlobStore(Path dir) {
+        this.dir = dir;
+        this.refsFile = dir.resolve(REFS_FILE);
+        this.legacyRefsFile = dir.resolve("refs.json");
+    }
+
+    public static String hash(String code) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(code.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean contains(String hash) {
+        return Files.exists(blobFile(hash));
+    }
+
+    /**
+     * Writes the blob if it is not stored yet and returns its hash, pinned. Does not add a
+     * reference: pass the hash to {@link #acquire}, or to {@link #unpin}.
+     */
+    public String put(String code, CodeDictionary dictionary) throws IOException {
+        String hash = hash(code);
+        Path file = blobFile(hash);
+        synchronized (this) {
+            pinned.merge(hash, 1, Integer::sum);
+            if (Files.exists(file)) {
+                return hash;
+            }
+        }
+        try {
+            write(file, code, dictionary);
+        } catch (IOException | RuntimeException e) {
+            unpin(hash);
+            throw e;
+        }
+        return hash;
+    }
+
+    /** Drops a pin from {@link #put} without adding a reference, deleting the blob if unreferenced. */
+    public synchronized void unpin(String hash) throws IOException {
+        unpinOnce(hash);
+        if (!pinned.containsKey(hash) && !refs().containsKey(hash)) {
+            Files.deleteIfExists(blobFile(hash));
+        }
+    }
+
+    private void unpinOnce(String hash) {
+        pinned.computeIfPresent(hash, (h, n) -> n <= 1 ? null : n - 1);
+    }
+
+    private static void write(Path file, String code, CodeDictionary dictionary) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(buf)) {
+            if (dictionary == null) {
+                byte[] raw = code.getBytes(StandardCharsets.UTF_8);
+                out.writeUTF("");
+                out.writeInt(raw.length);
+                out.write(raw);
+            } else {
+                CompressedCode compressed = CompressedCode.compress(code, dictionary);
+                out.writeUTF(dictionary.getId());
+                out.writeInt(compressed.getRawLength());
+                out.write(compressed.getData());
+            }
+        }
+
+        Files.createDirectories(file.getParent());
+        writeAtomically(file, buf.toByteArray());
+    }
+
+    public Blob read(String hash) throws IOException {
+        try (InputStream in = Files.newInputStream(blobFile(hash));
+             DataInputStream data = new DataInputStream(in)) {
+            String dictId = data.readUTF();
+            int rawLength = data.readInt();
+            byte[] bytes = data.readAllBytes();
+            if (dictId.isEmpty()) {
+                return new Blob(new String(bytes, StandardCharsets.UTF_8), null);
+            }
+            try {
+                return new Blob(null, CompressedCode.read(CodeDictionary.get(dictId), bytes, rawLength));
+            } catch (ZipException e) {
+                // Rethrown as a plain IOException: the records pointing here are intact and must not be quarantined
+                throw new IOException("Code blob " + hash + " is damaged: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    public synchronized void release(String hash) throws IOException {
+        releaseAll(List.of(hash));
+    }
+
+    /**
+     * Adds a reference to a hash returned by {@link #put} and drops its pin. Call before the record
+     * holding the reference is published, and release the reference it replaced only after, so a
+     * crash in between can leave a count too high (fixed by {@link #collectGarbage}) but never too low.
+     */
+    public synchronized void acquire(String hash) throws IOException {
+        Map<String, Integer> counts = refs();
+        // Forced to disk: the record published next must not outlive its reference
+        appendRefs(hash + " 1\n", true);
+        unpinOnce(hash);
+        counts.merge(hash, 1, Integer::sum);
+        compactIfLong();
+    }
+
+    /** Drops one reference per hash, deleting blobs whose count reaches zero, with a single log append. */
+    public synchronized void releaseAll(List<String> hashes) throws IOException {
+        Map<String, Integer> counts = refs();
+        StringBuilder log = new StringBuilder();
+        List<String> unused = new ArrayList<>();
+        for (String hash : hashes) {
+            Integer count = counts.get(hash);
+            // Not counted: the index is missing or stale, so other records may still use it.
+            // collectGarbage() recounts and removes it if it really is unused
+            if (count == null) continue;
+            log.append(hash).append(" -1\n");
+            if (count <= 1) {
+                counts.remove(hash);
+                unused.add(hash);
+            } else {
+                counts.put(hash, count - 1);
+            }
+        }
+        if (log.isEmpty()) return;
+        appendRefs(log.toString(), false);
+        for (String hash : unused) {
+            if (!pinned.containsKey(hash)) Files.deleteIfExists(blobFile(hash));
+        }
+        compactIfLong();
+    }
+
+    /**
+     * Replaces the reference counts with {@code liveRefs} (as counted from the snippet records)
+     * and deletes every blob that is no longer referenced. Returns the number of blobs removed.
+     */
+    public synchronized int collectGarbage(Map<String, Integer> liveRefs) throws IOException {
+        refs = new HashMap<>(liveRefs);
+        compactRefs();
+        Files.deleteIfExists(legacyRefsFile);
+
+        if (!Files.exists(dir)) return 0;
+        Set<String> live = liveRefs.keySet();
+        int removed = 0;
+        try (var stream = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) stream::iterator) {
+                String name = p.getFileName().toString();
+                if (!name.endsWith(".blob")) continue;
+                String hash = name.substring(0, name.length() - ".blob".length());
+                if (!live.contains(hash) && !pinned.containsKey(hash)) {
+                    Files.deleteIfExists(p);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /** False if there are no counts to trust, including a store last written with the older refs.json index. */
+    public boolean hasRefIndex() {
+        return Files.exists(refsFile);
+    }
+
+    /** The current reference counts, by hash. */
+    synchronized Map<String, Integer> refCounts() throws IOException {
+        return Map.copyOf(refs());
+    }
+
+    // Replays the log; a line cut short by a crash is skipped and the log rewritten without it
+    private Map<String, Integer> refs() throws IOException {
+        if (refs == null) {
+            Map<String, Integer> counts = new HashMap<>();
+            boolean torn = false;
+            int lines = 0;
+            if (Files.exists(refsFile)) {
+                String text = Files.readString(refsFile, StandardCharsets.UTF_8);
+                for (String line : text.split("\n")) {
+                    if (line.isEmpty()) continue;
+                    lines++;
+                    int space = line.indexOf(' ');
+                    try {
+                        String hash = line.substring(0, space);
+                        blobFile(hash);
+                        counts.merge(hash, Integer.parseInt(line.substring(space + 1)), Integer::sum);
+                    } catch (RuntimeException e) {
+                        torn = true;
+                    }
+                }
+                torn |= !text.isEmpty() && !text.endsWith("\n");
+            }
+            counts.values().removeIf(n -> n <= 0);
+            refs = counts;
+            logLines = lines;
+            if (torn) compactRefs();
+        }
+        return refs;
+    }
+
+    private void appendRefs(String lines, boolean force) throws IOException {
+        Files.createDirectories(dir);
+        try (FileChannel log = FileChannel.open(refsFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer bytes = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) log.write(bytes);
+            if (force) log.force(false);
+        }
+        logLines += (int) lines.chars().filter(c -> c == '\n').count();
+    }
+
+    // Rewritten in full once it holds well over one line per hash
+    private void compactIfLong() throws IOException {
+        if (logLines > Math.max(MIN_COMPACT_LINES, 2 * refs.size())) compactRefs();
+    }
+
+    private void compactRefs() throws IOException {
+        StringBuilder log = new StringBuilder();
+        new TreeMap<>(refs).forEach((hash, count) -> log.append(hash).append(' ').append(count).append('\n'));
+        Files.createDirectories(dir);
+        writeAtomically(refsFile, log.toString().getBytes(StandardCharsets.UTF_8));
+        logLines = refs.size();
+    }
+
+    private Path blobFile(String hash) {
+        if (!hash.matches("[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("invalid blob hash: " + hash);
+        }
+        return dir.resolve(hash.substring(0, 2)).resolve(hash + ".blob");
+    }
+
+    private static void writeAtomically(Path file, byte[] bytes) throws IOException {
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        Files.write(tmp, bytes);
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Applies one change to many snippets: move them to a folder, add or remove tags, or delete them.
+ * Snippets the change leaves as they are, e.g. ones already in the target folder, are not
+ * written. The rest go to the store in batches of {@value #BATCH_SIZE} through
+ * {@link SnippetStore#updateAll} or {@link SnippetStore#deleteAll}, with up to
+ * {@value #PARALLEL_BATCHES} batches written at once. Cancelling stops further batches from
+ * starting; batches already written stay written.
+ */
+public final class BulkEditor {
+    public static final int BATCH_SIZE = 100;
+    private static final int PARALLEL_BATCHES = 4;
+
+    /** {@code changed} snippets were written or deleted; {@code unchanged} needed no write. */
+    public record Result(int changed, int unchanged, boolean cancelled) {}
+
+    @FunctionalInterface
+    public interface Progress {
+        void update(int done, int total);
+    }
+
+    @FunctionalInterface
+    private interface Batch {
+        void write(List<Snippet> before, List<Snippet> after) throws IOException;
+    }
+
+    private final SnippetStore store;
+    private final RevisionLog history;
+    private final Progress progress;
+    private final BooleanSupplier cancelled;
+
+    /**
+     * @param history revisions of deleted snippets are removed from it; may be null
+     */
+    public BulkEditor(SnippetStore store, RevisionLog history, Progress progress, BooleanSupplier cancelled) {
+        this.store = store;
+        this.history = history;
+        this.progress = progress;
+        this.cancelled = cancelled;
+    }
+
+    public Result move(List<Snippet> snippets, String folder) throws IOException {
+        String target = JsonFileSnippetStore.sanitizeFolder(folder);
+        return update(snippets, s -> JsonFileSnippetStore.sanitizeFolder(s.getFolder()).equals(target) ? s
+                : s.withUpdatedContent(s.getName(), s.getDescription(), s.getCode(), s.getTags(), target));
+    }
+
+    public Result addTags(List<Snippet> snippets, Collection<String> tags) throws IOException {
+        return update(snippets, s -> {
+            Set<String> merged = new LinkedHashSet<>(s.getTags());
+            return merged.addAll(tags) ? withTags(s, List.copyOf(merged)) : s;
+        });
+    }
+
+    public Result removeTags(List<Snippet> snippets, Collection<String> tags) throws IOException {
+        return update(snippets, s -> {
+            List<String> kept = s.getTags().stream().filter(t -> !tags.contains(t)).toList();
+            return kept.size() == s.getTags().size() ? s : withTags(s, kept);
+        });
+    }
+
+    public Result delete(List<Snippet> snippets) throws IOException {
+        return run(snippets, snippets, 0, (before, after) -> {
+            store.deleteAll(before);
+            if (history == null) return;
+            try {
+                history.deleteAll(before.stream().map(Snippet::getId).toList());
+            } catch (IOException e) {
+                System.err.println("Failed to delete history of " + before.size() + " snippets: " + e.getMessage());
+            }
+        });
+    }
+
+    private static Snippet withTags(Snippet s, List<String> tags) {
+        return s.withUpdatedContent(s.getName(), s.getDescription(), s.getCode(), tags, s.getFolder());
+    }
+
+    // A change returns the same instance for snippets it leaves alone
+    private Result update(List<Snippet> snippets, UnaryOperator<Snippet> change) throws IOException {
+        List<Snippet> before = new ArrayList<>();
+        List<Snippet> after = new ArrayList<>();
+        for (Snippet s : snippets) {
+            Snippet changed = change.apply(s);
+            if (changed != s) {
+                before.add(s);
+                after.add(changed);
+            }
+        }
+        return run(before, after, snippets.size() - before.size(), store::updateAll);
+    }
+
+    private Result run(List<Snippet> before, List<Snippet> after, int unchanged, Batch batch) throws IOException {
+        int total = before.size();
+        int batches = (total + BATCH_SIZE - 1) / BATCH_SIZE;
+        AtomicInteger nextBatch = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        progress.update(0, total);
+
+        Runnable worker = () -> {
+            int b;
+            while (failure.get() == null && !cancelled.getAsBoolean() && (b = nextBatch.getAndIncrement()) < batches) {
+                int from = b * BATCH_SIZE;
+                int to = Math.min(total, from + BATCH_SIZE);
+                try {
+                    batch.write(before.subList(from, to), after.subList(from, to));
+                } catch (IOException | RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                    return;
+                }
+                progress.update(done.addAndGet(to - from), total);
+            }
+        };
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(PARALLEL_BATCHES, batches); i++) {
+            workers.add(Thread.ofVirtual().name("bulk-edit-" + i).start(worker));
+        }
+        // Batches in flight are finished even if the caller is interrupted, so the refresh after this sees them
+        boolean interrupted = false;
+        for (Thread t : workers) {
+            while (true) {
+                try {
+                    t.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        Exception e = failure.get();
+        if (e instanceof IOException io) throw io;
+        if (e instanceof RuntimeException re) throw re;
+        return new Result(done.get(), unchanged, done.get() < total);
+    }
+}
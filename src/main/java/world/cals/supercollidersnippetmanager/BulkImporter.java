@@ -0,0 +1,342 @@
+package world.cals.supercollidersnippetmanager;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Imports snippets from a JSON file, an NDJSON stream, a zip archive or a directory of those.
+ * Records are parsed one at a time with a streaming parser, validated, deduplicated by id and
+ * by code hash, and written through {@link SnippetStore#saveAll} in batches. Only the id and an
+ * 8-byte code hash of each snippet are kept for deduplication, so memory grows with the number
+ * of distinct snippets, not with their size.
+ *
+ * <p>Records copied from a library data directory are accepted too, in JSON or Smile: compressed
+ * code ({@code codeZ}) is decompressed, and code kept by reference ({@code codeRef}) is read from the
+ * {@code blobs} directory next to an imported directory.
+ *
+ * <p>A directory written by {@link LibraryExporter#backup} is restored rather than imported file
+ * by file. Its archives are replayed from the latest full backup on: each snippet is taken from
+ * the newest archive holding it, and snippets listed in a later {@code deleted.txt} are left out.
+ */
+public final class BulkImporter {
+    public static final int BATCH_SIZE = 500;
+
+    public record Result(long imported, long duplicateIds, long duplicateCode, long invalid) {}
+
+    @FunctionalInterface
+    public interface Progress {
+        /** {@code done}/{@code total} are files, zip entries or bytes depending on the source. */
+        void update(long done, long total, long records);
+    }
+
+    private final SnippetStore store;
+    private final String targetFolder;
+    private final Progress progress;
+    private final BooleanSupplier cancelled;
+    private final ObjectMapper om = Json.mapper();
+    private final ObjectMapper smile = Json.smileMapper();
+    private final MessageDigest digest;
+
+    private final Set<UUID> knownIds = new HashSet<>();
+    // First 64 bits of the code's SHA-256; collisions are negligible at library sizes
+    private final Set<Long> knownCode = new HashSet<>();
+    private final List<Snippet> batch = new ArrayList<>(BATCH_SIZE);
+    // Blobs of a data directory being imported; null if there are none
+    private BlobStore blobs;
+
+    private long records;
+    private long imported;
+    private long duplicateIds;
+    private long duplicateCode;
+    private long invalid;
+
+    /**
+     * @param targetFolder folder to import every snippet into, or null to keep each record's folder
+     */
+    public BulkImporter(SnippetStore store, String targetFolder, Progress progress, BooleanSupplier cancelled) {
+        this.store = store;
+        this.targetFolder = (targetFolder == null || targetFolder.isBlank()) ? null : targetFolder.trim();
+        this.progress = progress;
+        this.cancelled = cancelled;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Result importFrom(Path source) throws IOException {
+        // One snippet at a time, so only the keys of the existing library are held
+        store.forEach(null, s -> {
+            knownIds.add(s.getId());
+            knownCode.add(codeKey(s.getCode()));
+        });
+
+        try {
+            if (Files.isDirectory(source) && Files.exists(source.resolve("manifest.json"))) {
+                restoreBackups(source);
+            } else if (Files.isDirectory(source)) {
+                for (Path dir : List.of(source.resolveSibling("blobs"), source.resolve("blobs"))) {
+                    if (Files.isDirectory(dir)) blobs = new BlobStore(dir);
+                }
+                importDirectory(source);
+            } else if (isZip(source)) {
+                importZip(source);
+            } else {
+                long size = Files.size(source);
+                try (InputStream in = Files.newInputStream(source)) {
+                    parse(in, size);
+                }
+            }
+        } finally {
+            // Whatever was validated before a cancel or failure is still written
+            flush();
+        }
+        return new Result(imported, duplicateIds, duplicateCode, invalid);
+    }
+
+    private void importDirectory(Path dir) throws IOException {
+        long total;
+        try (var stream = Files.walk(dir)) {
+            total = stream.filter(Files::isRegularFile).filter(p -> isJson(p) || isZip(p)).count();
+        }
+
+        long done = 0;
+        Path blobDir = dir.resolve("blobs");
+        try (var stream = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) stream.filter(Files::isRegularFile)::iterator) {
+                // Its ref log is not a snippet
+                if (p.startsWith(blobDir)) continue;
+                if (isZip(p)) {
+                    importZip(p);
+                } else if (isJson(p)) {
+                    try (InputStream in = Files.newInputStream(p)) {
+                        parse(in, -1);
+                    } catch (JsonProcessingException e) {
+                        invalid++;
+                        System.err.println("Skipping malformed import file: " + p);
+                    }
+                } else {
+                    continue;
+                }
+                progress.update(++done, total, records);
+            }
+        }
+    }
+
+    private void restoreBackups(Path dir) throws IOException {
+        List<Path> archives;
+        try (var stream = Files.list(dir)) {
+            archives = stream
+                    .filter(p -> p.getFileName().toString().matches("backup-.*\\.zip"))
+                    .sorted()
+                    .toList();
+        }
+        int full = 0;
+        for (int i = 0; i < archives.size(); i++) {
+            if (archives.get(i).getFileName().toString().endsWith("-full.zip")) full = i;
+        }
+        archives = archives.subList(full, archives.size());
+
+        // Snippet path to the archive with its newest version; deleted snippets are dropped
+        Map<String, Path> newest = new HashMap<>();
+        for (Path archive : archives) {
+            try (ZipFile zip = new ZipFile(archive.toFile())) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (entry.getName().equals("deleted.txt")) {
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            new String(in.readAllBytes(), StandardCharsets.UTF_8).lines().forEach(newest::remove);
+                        }
+                    } else if (!entry.isDirectory() && !entry.getName().equals("backup.json")) {
+                        newest.put(entry.getName(), archive);
+                    }
+                }
+            }
+        }
+
+        long done = 0;
+        for (Path archive : archives) {
+            try (ZipFile zip = new ZipFile(archive.toFile())) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (!archive.equals(newest.get(entry.getName()))) continue;
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        parse(in, -1);
+                    } catch (JsonProcessingException e) {
+                        invalid++;
+                        System.err.println("Skipping malformed backup entry: " + archive.getFileName() + "!" + entry.getName());
+                    }
+                }
+            }
+            progress.update(++done, archives.size(), records);
+        }
+    }
+
+    private void importZip(Path file) throws IOException {
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            long total = zip.size();
+            long done = 0;
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                done++;
+                Path name = Path.of(entry.getName()).getFileName();
+                // backup.json is the metadata entry LibraryExporter puts in backup archives
+                if (entry.isDirectory() || !isJson(name) || name.toString().equals("backup.json")) continue;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    parse(in, -1);
+                } catch (JsonProcessingException e) {
+                    invalid++;
+                    System.err.println("Skipping malformed zip entry: " + entry.getName());
+                }
+                progress.update(done, total, records);
+            }
+        }
+    }
+
+    // Accepts a single object, an array of objects, or whitespace-separated objects (NDJSON), in JSON
+    // or, like record files a library converted to Smile, in Smile
+    private void parse(InputStream in, long totalBytes) throws IOException {
+        InputStream buffered = new BufferedInputStream(in);
+        ObjectMapper mapper = JsonFileSnippetStore.formatOf(buffered) == JsonFileSnippetStore.Format.SMILE ? smile : om;
+        try (JsonParser p = mapper.createParser(buffered)) {
+            JsonToken t;
+            while ((t = p.nextToken()) != null) {
+                if (t == JsonToken.START_ARRAY) {
+                    while ((t = p.nextToken()) != JsonToken.END_ARRAY && t != null) {
+                        if (t == JsonToken.START_OBJECT) {
+                            readRecord(p, totalBytes);
+                        } else {
+                            p.skipChildren();
+                            invalid++;
+                        }
+                    }
+                } else if (t == JsonToken.START_OBJECT) {
+                    readRecord(p, totalBytes);
+                } else {
+                    invalid++;
+                }
+            }
+        }
+    }
+
+    private void readRecord(JsonParser p, long totalBytes) throws IOException {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("Import cancelled");
+        }
+
+        JsonNode node = om.readTree(p);
+        records++;
+        Snippet snippet = toSnippet(node);
+        if (snippet == null) {
+            invalid++;
+        } else if (!knownIds.add(snippet.getId())) {
+            duplicateIds++;
+        } else if (!knownCode.add(codeKey(snippet.getCode()))) {
+            duplicateCode++;
+        } else {
+            batch.add(snippet);
+            if (batch.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        if (totalBytes > 0 && records % 100 == 0) {
+            progress.update(p.currentLocation().getByteOffset(), totalBytes, records);
+        }
+    }
+
+    // Fills in what older exports may lack (id, dates, folder); returns null if the record is unusable
+    private Snippet toSnippet(JsonNode node) {
+        if (!(node instanceof ObjectNode obj)) return null;
+        try {
+            String now = Instant.now().toString();
+            if (!obj.hasNonNull("id")) obj.put("id", UUID.randomUUID().toString());
+            // Smile records hold dates as epoch nanoseconds
+            for (String field : List.of("createdDate", "modifiedDate")) {
+                if (obj.path(field).isNumber()) obj.put(field, JsonFileSnippetStore.readDate(obj.get(field)).toString());
+            }
+            if (!obj.hasNonNull("createdDate")) obj.put("createdDate", now);
+            if (!obj.hasNonNull("modifiedDate")) obj.put("modifiedDate", obj.get("createdDate").asText());
+            if (targetFolder != null) {
+                obj.put("folder", targetFolder);
+            } else if (!obj.hasNonNull("folder") || obj.get("folder").asText().isBlank()) {
+                obj.put("folder", "imported");
+            }
+            JsonFileSnippetStore.sanitizeFolder(obj.get("folder").asText());
+            if (!obj.hasNonNull("code")) {
+                String code = storedCode(obj);
+                if (code == null) return null;
+                obj.put("code", code);
+            }
+            return om.treeToValue(obj, Snippet.class);
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            return null;
+        }
+    }
+
+    // Code of a record written by JsonFileSnippetStore with compression or deduplication on
+    private String storedCode(ObjectNode obj) throws IOException {
+        if (obj.hasNonNull("codeZ")) {
+            return CompressedCode.read(CodeDictionary.get(obj.path("codeDict").asText(null)),
+                    obj.get("codeZ").binaryValue(), obj.path("codeLength").asInt()).decompress();
+        }
+        if (obj.hasNonNull("codeRef") && blobs != null) {
+            BlobStore.Blob blob = blobs.read(obj.get("codeRef").asText());
+            return blob.text() != null ? blob.text() : blob.compressed().decompress();
+        }
+        return null;
+    }
+
+    private void flush() throws IOException {
+        if (batch.isEmpty()) return;
+        store.saveAll(batch);
+        imported += batch.size();
+        batch.clear();
+    }
+
+    private long codeKey(String code) {
+        byte[] hash = digest.digest(code.getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.wrap(hash).getLong();
+    }
+
+    private static boolean isZip(Path p) {
+        return p.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".zip");
+    }
+
+    private static boolean isJson(Path p) {
+        String name = p.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".json") || name.endsWith(".ndjson") || name.endsWith(".jsonl");
+    }
+}
@@ -0,0 +1,158 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Preset dictionary for deflating snippet code. Deflate can back-reference into the
+ * dictionary, so fragments that appear in most snippets cost a few bits each.
+ */
+public final class CodeDictionary {
+    public static final String DEFAULT_ID = "sc-v1";
+
+    // Deflate only looks back 32 KiB, anything beyond that is wasted
+    private static final int MAX_SIZE = 32 * 1024;
+
+    // Most frequent fragments go last: deflate encodes nearer matches more cheaply
+    private static final String DEFAULT_TEXT = String.join("\n",
+            "Pseq([", "Prand([", "Pwhite(", "Pexprand(", "Pfunc({", "Pn(", "inf)",
+            "Pdef(\\", "Pbind(", "\\instrument, \\", "\\dur, ", "\\degree, ", "\\note, ",
+            "\\amp, ", "\\freq, ", "\\legato, ", "\\scale, Scale.", "\\octave, ",
+            "TempoClock.default", "Routine({", "Task({", "fork {", ".wait;", "s.sync;", "loop {",
+            "Server.default", "Synth(\\", "Ndef(\\", ".fadeTime = ", "Buffer.alloc(s, ", "Bus.audio(s, ",
+            "FreeVerb.ar(", "GVerb.ar(", "CombN.ar(", "CombL.ar(", "AllpassN.ar(", "DelayN.ar(",
+            "RLPF.ar(", "RHPF.ar(", "LPF.ar(", "HPF.ar(", "BPF.ar(", "MoogFF.ar(", "Resonz.ar(",
+            "Decay2.ar(", "Impulse.ar(", "Impulse.kr(", "Dust.ar(", "Dust.kr(",
+            "WhiteNoise.ar(", "PinkNoise.ar(", "BrownNoise.ar(", "LFNoise0.kr(", "LFNoise1.kr(", "LFNoise2.kr(",
+            "LFSaw.ar(", "LFTri.ar(", "LFPulse.ar(", "LFPar.ar(", "Pulse.ar(", "Saw.ar(",
+            "SinOsc.kr(", "Line.kr(", "XLine.kr(", "Lag.kr(", "MouseX.kr(", "MouseY.kr(",
+            "Env.adsr(", "Env.asr(", "Env.linen(", "Env.perc(", "doneAction: 2)", "doneAction: Done.freeSelf)",
+            "Splay.ar(", "Pan2.ar(", "Mix.ar(", "Limiter.ar(", ".tanh", ".softclip", ".distort",
+            ".midicps", ".range(", ".linexp(", ".linlin(", "!2", "arg freq=440, amp=0.1, ",
+            "|freq=440, amp=0.1, gate=1, pan=0|", "var sig, env;", "var sig = ", "sig = sig * env;",
+            "EnvGen.kr(", "EnvGen.ar(", "Out.ar(0, ", "Out.ar(out, ", "SinOsc.ar(", ").add;", ").play;",
+            "SynthDef(\\", "{ |", "});\n)", "(\n");
+
+    private static final CodeDictionary DEFAULT =
+            new CodeDictionary(DEFAULT_ID, DEFAULT_TEXT.getBytes(StandardCharsets.UTF_8));
+
+    private static final Map<String, CodeDictionary> LOADED = new ConcurrentHashMap<>();
+
+    private static final Pattern FRAGMENT = Pattern.compile("[A-Z][A-Za-z0-9]*\\.(?:ar|kr|ir|new)\\(|\\\\[a-zA-Z_]\\w*,? ?|[a-z_]\\w*:\\s?|\\S[^\\n]{3,60}");
+
+    private final String id;
+    private final byte[] bytes;
+
+    private CodeDictionary(String id, byte[] bytes) {
+        this.id = id;
+        this.bytes = bytes;
+    }
+
+    public String getId() { return id; }
+
+    byte[] bytes() { return bytes; }
+
+    public static CodeDictionary defaultDictionary() {
+        return DEFAULT;
+    }
+
+    /**
+     * Builds a dictionary from the fragments that occur most often across {@code samples},
+     * weighted by the bytes they would save.
+     */
+    public static CodeDictionary train(Collection<String> samples) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String code : samples) {
+            Matcher m = FRAGMENT.matcher(code);
+            while (m.find()) {
+                counts.merge(m.group().trim(), 1, Integer::sum);
+            }
+        }
+
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>();
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            if (e.getValue() > 1 && e.getKey().length() > 2) {
+                ranked.add(e);
+            }
+        }
+        ranked.sort(Comparator.comparingLong((Map.Entry<String, Integer> e) -> (long) e.getValue() * e.getKey().length()).reversed());
+
+        List<String> chosen = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> e : ranked) {
+            int len = e.getKey().getBytes(StandardCharsets.UTF_8).length + 1;
+            if (size + len > MAX_SIZE) continue;
+            chosen.add(e.getKey());
+            size += len;
+        }
+        if (chosen.isEmpty()) {
+            return DEFAULT;
+        }
+
+        // Reverse so the best fragments sit at the end of the window
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            sb.append(chosen.get(i)).append('\n');
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        return new CodeDictionary("t-" + sha256Prefix(bytes), bytes);
+    }
+
+    public static CodeDictionary get(String id) throws IOException {
+        if (id == null || id.equals(DEFAULT_ID)) {
+            return DEFAULT;
+        }
+        CodeDictionary cached = LOADED.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        Path file = fileFor(id);
+        if (!Files.exists(file)) {
+            throw new IOException("Unknown code dictionary: " + id);
+        }
+        CodeDictionary dict = new CodeDictionary(id, Files.readAllBytes(file));
+        LOADED.putIfAbsent(id, dict);
+        return dict;
+    }
+
+    /** Persists a trained dictionary so that snippets compressed with it stay readable. */
+    public static void register(CodeDictionary dict) throws IOException {
+        if (dict == DEFAULT) return;
+        Path file = fileFor(dict.id);
+        if (!Files.exists(file)) {
+            Files.createDirectories(file.getParent());
+            Files.write(file, dict.bytes);
+        }
+        LOADED.putIfAbsent(dict.id, dict);
+    }
+
+    private static Path fileFor(String id) {
+        if (!id.matches("[a-z0-9-]+")) {
+            throw new IllegalArgumentException("invalid dictionary id: " + id);
+        }
+        return AppPaths.dictionariesDir().resolve(id + ".dict");
+    }
+
+    private static String sha256Prefix(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return HexFormat.of().formatHex(digest, 0, 6);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
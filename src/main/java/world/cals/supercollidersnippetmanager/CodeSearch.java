@@ -0,0 +1,181 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Regex search over snippet code, split across the common fork-join pool. Each query has a time
+ * budget: the matcher reads code through a {@link CharSequence} that checks the deadline and the
+ * cancel flag as it goes, so even a catastrophically backtracking pattern stops on time.
+ */
+public final class CodeSearch {
+    private CodeSearch() {}
+
+    // Snippets per fork-join leaf; each leaf reports its matches as one partial result
+    private static final int LEAF_SIZE = 64;
+    // charAt calls between deadline checks
+    private static final int CHECK_INTERVAL = 4096;
+
+    public record Result(List<Snippet> matches, int scanned, int total, boolean timedOut, boolean cancelled) {
+        public boolean complete() {
+            return !timedOut && !cancelled;
+        }
+    }
+
+    /**
+     * Parses {@code /pattern/flags} as typed in the search box, or returns null if {@code text}
+     * is not in that form. Flags are {@code i} (case-insensitive), {@code m}, {@code s} and {@code x}.
+     */
+    public static Pattern parseQuery(String text) throws PatternSyntaxException {
+        int end = text.lastIndexOf('/');
+        if (text.length() < 3 || text.charAt(0) != '/' || end <= 1) return null;
+
+        int flags = 0;
+        for (char c : text.substring(end + 1).toCharArray()) {
+            switch (c) {
+                case 'i' -> flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+                case 'm' -> flags |= Pattern.MULTILINE;
+                case 's' -> flags |= Pattern.DOTALL;
+                case 'x' -> flags |= Pattern.COMMENTS;
+                default -> { return null; }
+            }
+        }
+        return Pattern.compile(text.substring(1, end), flags);
+    }
+
+    /**
+     * Finds the snippets whose code contains a match for {@code pattern}. {@code partial} receives
+     * matches as they are found, from pool threads. The returned matches keep library order.
+     */
+    public static Result search(List<Snippet> library, Pattern pattern, long budgetMillis,
+                                BooleanSupplier cancelled, Consumer<List<Snippet>> partial) {
+        long deadline = System.nanoTime() + budgetMillis * 1_000_000L;
+        Scan scan = new Scan(library, pattern, deadline, cancelled, partial);
+        ForkJoinPool.commonPool().invoke(scan.new Leaves(0, library.size()));
+
+        List<Snippet> matches = new ArrayList<>();
+        for (int i = 0; i < library.size(); i++) {
+            if (scan.hits[i]) matches.add(library.get(i));
+        }
+        boolean wasCancelled = cancelled.getAsBoolean();
+        return new Result(Collections.unmodifiableList(matches), scan.scanned.get(), library.size(),
+                scan.aborted.get() && !wasCancelled, wasCancelled);
+    }
+
+    private static final class Scan {
+        final List<Snippet> library;
+        final Pattern pattern;
+        final long deadline;
+        final BooleanSupplier cancelled;
+        final Consumer<List<Snippet>> partial;
+        final boolean[] hits;
+        final AtomicInteger scanned = new AtomicInteger();
+        final AtomicBoolean aborted = new AtomicBoolean();
+
+        Scan(List<Snippet> library, Pattern pattern, long deadline, BooleanSupplier cancelled,
+             Consumer<List<Snippet>> partial) {
+            this.library = library;
+            this.pattern = pattern;
+            this.deadline = deadline;
+            this.cancelled = cancelled;
+            this.partial = partial;
+            this.hits = new boolean[library.size()];
+        }
+
+        boolean expired() {
+            if (aborted.get()) return true;
+            if (System.nanoTime() > deadline || cancelled.getAsBoolean()) {
+                aborted.set(true);
+                return true;
+            }
+            return false;
+        }
+
+        final class Leaves extends RecursiveAction {
+            private final int from;
+            private final int to;
+
+            Leaves(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from > LEAF_SIZE) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new Leaves(from, mid), new Leaves(mid, to));
+                    return;
+                }
+
+                List<Snippet> found = new ArrayList<>();
+                for (int i = from; i < to && !expired(); i++) {
+                    Snippet s = library.get(i);
+                    try {
+                        Matcher m = pattern.matcher(new Guarded(s.getCode()));
+                        if (m.find()) {
+                            hits[i] = true;
+                            found.add(s);
+                        }
+                        scanned.incrementAndGet();
+                    } catch (Expired e) {
+                        break;
+                    }
+                }
+                if (!found.isEmpty()) partial.accept(found);
+            }
+        }
+
+        /** Code as seen by the matcher; throws once the query is out of time or cancelled. */
+        final class Guarded implements CharSequence {
+            private final CharSequence text;
+            private int reads;
+
+            Guarded(CharSequence text) {
+                this.text = text;
+            }
+
+            @Override
+            public char charAt(int index) {
+                if (++reads >= CHECK_INTERVAL) {
+                    reads = 0;
+                    if (expired()) throw Expired.INSTANCE;
+                }
+                return text.charAt(index);
+            }
+
+            @Override
+            public int length() {
+                return text.length();
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                return new Guarded(text.subSequence(start, end));
+            }
+
+            @Override
+            public String toString() {
+                return text.toString();
+            }
+        }
+    }
+
+    private static final class Expired extends RuntimeException {
+        static final Expired INSTANCE = new Expired();
+
+        private Expired() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Snippet code held as raw deflate output against a {@link CodeDictionary}.
+ * Decompression happens on every {@link #decompress()} call, nothing is cached.
+ */
+public final class CompressedCode {
+    private final CodeDictionary dictionary;
+    private final byte[] data;
+    private final int rawLength;
+
+    CompressedCode(CodeDictionary dictionary, byte[] data, int rawLength) {
+        this.dictionary = dictionary;
+        this.data = data;
+        this.rawLength = rawLength;
+    }
+
+    public static CompressedCode compress(String code, CodeDictionary dictionary) {
+        byte[] raw = code.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setDictionary(dictionary.bytes());
+            deflater.setInput(raw);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 3));
+            byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+            }
+            return new CompressedCode(dictionary, out.toByteArray(), raw.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Compressed code read back from storage. The payload is decoded once here, so a damaged one
+     * fails the read instead of a later {@link #decompress()}.
+     */
+    static CompressedCode read(CodeDictionary dictionary, byte[] data, int rawLength) throws ZipException {
+        CompressedCode code = new CompressedCode(dictionary, data, rawLength);
+        code.inflate();
+        return code;
+    }
+
+    public String decompress() {
+        try {
+            return new String(inflate(), StandardCharsets.UTF_8);
+        } catch (ZipException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private byte[] inflate() throws ZipException {
+        if (rawLength < 0) {
+            throw new ZipException("Compressed code has a negative length");
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(dictionary.bytes());
+            inflater.setInput(data);
+            byte[] raw = new byte[rawLength];
+            int off = 0;
+            while (off < rawLength) {
+                int n = inflater.inflate(raw, off, rawLength - off);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                off += n;
+            }
+            if (off != rawLength) {
+                throw new ZipException("Compressed code is truncated");
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            ZipException corrupt = new ZipException("Compressed code is corrupt");
+            corrupt.initCause(e);
+            throw corrupt;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public CodeDictionary getDictionary() { return dictionary; }
+    public byte[] getData() { return data; }
+    public int getRawLength() { return rawLength; }
+}
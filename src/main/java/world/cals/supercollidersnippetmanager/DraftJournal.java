@@ -0,0 +1,257 @@
+package world.cals.supercollidersnippetmanager;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Crash-safe journal of snippet edits that have not been saved yet. {@link #update(Draft)} only
+ * queues the draft, so typing never waits on disk. One writer thread appends whatever is queued to
+ * the journal as JSON lines: a draft's first record in full, later ones as the changed fields and a
+ * line delta of the code. It fsyncs once per batch, and at most every {@value #SYNC_INTERVAL_MS} ms.
+ * A draft that is saved or abandoned is {@link #discard(UUID) discarded}, and once no draft is open
+ * the journal is emptied.
+ *
+ * <p>Opening the journal replays it. Drafts that were never discarded are {@link #recovered()},
+ * and the file is rewritten to hold just those. A last line torn by a crash is skipped.
+ */
+public final class DraftJournal implements AutoCloseable {
+    // Edits queued while the last batch was being synced share the next fsync
+    private static final long SYNC_INTERVAL_MS = 250;
+
+    /** The dialog's fields at one moment; {@code snippet} is the snippet being edited, or null for a new one. */
+    public record Draft(UUID id, UUID snippet, String name, String folder, List<String> tags, String code, Instant updated) {}
+
+    // A null draft ends it
+    private record Op(UUID id, Draft draft) {}
+
+    private static final Op STOP = new Op(null, null);
+
+    private final Path file;
+    private final ObjectMapper om = Json.mapper();
+    private final BlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+    private final List<Draft> recovered;
+    // Writer thread only, once started: the state the journal holds for each open draft
+    private final Map<UUID, Draft> written = new HashMap<>();
+    private final FileChannel channel;
+    private final Thread writer;
+
+    public DraftJournal(Path file) throws IOException {
+        this.file = file;
+        this.recovered = replay();
+        this.channel = compact();
+        this.writer = new Thread(this::write, "draft-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Drafts left open by the previous run, oldest first. They stay in the journal until discarded. */
+    public List<Draft> recovered() {
+        return recovered;
+    }
+
+    public void update(Draft draft) {
+        queue.add(new Op(draft.id(), draft));
+    }
+
+    public void discard(UUID id) {
+        queue.add(new Op(id, null));
+    }
+
+    /** Writes what is queued, then stops the writer. */
+    @Override
+    public void close() {
+        queue.add(STOP);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        List<Op> batch = new ArrayList<>();
+        boolean stopping = false;
+        try (channel) {
+            while (!stopping) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                // Only the latest state of each draft is written
+                Map<UUID, Op> latest = new LinkedHashMap<>();
+                for (Op op : batch) {
+                    if (op == STOP) stopping = true;
+                    else latest.put(op.id(), op);
+                }
+                batch.clear();
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                for (Op op : latest.values()) {
+                    ObjectNode node;
+                    if (op.draft() == null) {
+                        node = written.remove(op.id()) == null ? null : closedNode(op.id());
+                    } else {
+                        node = toNode(op.draft(), written.get(op.id()));
+                        written.put(op.id(), op.draft());
+                    }
+                    if (node != null) out.write((om.writeValueAsString(node) + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                try {
+                    if (written.isEmpty() && channel.size() > 0) {
+                        // Nothing left to recover
+                        channel.truncate(0);
+                        channel.force(false);
+                    } else if (out.size() > 0) {
+                        channel.write(ByteBuffer.wrap(out.toByteArray()));
+                        channel.force(false);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Failed to write draft journal: " + file);
+                    e.printStackTrace();
+                }
+                if (!stopping) Thread.sleep(SYNC_INTERVAL_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Draft journal stopped: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private List<Draft> replay() throws IOException {
+        Map<UUID, Draft> open = new LinkedHashMap<>();
+        if (!Files.exists(file)) return List.of();
+        // Replaces rather than rejects bytes cut off mid-character by a crash
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    JsonNode node = om.readTree(line);
+                    UUID id = UUID.fromString(node.path("draft").asText());
+                    switch (node.path("kind").asText()) {
+                        case "full" -> open.put(id, fromNode(id, node, null));
+                        case "delta" -> {
+                            Draft base = open.get(id);
+                            if (base != null) open.put(id, fromNode(id, node, base));
+                        }
+                        case "closed" -> open.remove(id);
+                        default -> {
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Skipping damaged draft journal record: " + e.getMessage());
+                }
+            }
+        }
+        return List.copyOf(open.values());
+    }
+
+    // Rewrites the journal with just the recovered drafts, in full
+    private FileChannel compact() throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Draft d : recovered) {
+                out.write(ByteBuffer.wrap((om.writeValueAsString(toNode(d, null)) + "\n").getBytes(StandardCharsets.UTF_8)));
+                written.put(d.id(), d);
+            }
+            out.force(true);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // The full draft, or only what changed since previous; null if nothing did
+    private ObjectNode toNode(Draft draft, Draft previous) {
+        ObjectNode node = om.createObjectNode();
+        node.put("draft", draft.id().toString());
+        node.put("kind", previous == null ? "full" : "delta");
+        node.put("at", draft.updated().toString());
+        boolean changed = previous == null;
+        if (previous == null) {
+            node.put("snippet", draft.snippet() == null ? null : draft.snippet().toString());
+        }
+        if (previous == null || !Objects.equals(draft.name(), previous.name())) {
+            node.put("name", draft.name());
+            changed = true;
+        }
+        if (previous == null || !Objects.equals(draft.folder(), previous.folder())) {
+            node.put("folder", draft.folder());
+            changed = true;
+        }
+        if (previous == null || !draft.tags().equals(previous.tags())) {
+            ArrayNode tags = node.putArray("tags");
+            draft.tags().forEach(tags::add);
+            changed = true;
+        }
+        if (previous == null) {
+            ArrayNode lines = node.putArray("lines");
+            LineDiff.lines(draft.code()).forEach(lines::add);
+        } else if (!draft.code().equals(previous.code())) {
+            node.set("ops", RevisionLog.encode(LineDiff.diff(LineDiff.lines(previous.code()), LineDiff.lines(draft.code()))));
+            changed = true;
+        }
+        return changed ? node : null;
+    }
+
+    private ObjectNode closedNode(UUID id) {
+        ObjectNode node = om.createObjectNode();
+        node.put("draft", id.toString());
+        node.put("kind", "closed");
+        return node;
+    }
+
+    private Draft fromNode(UUID id, JsonNode node, Draft base) {
+        UUID snippet = base != null ? base.snippet()
+                : node.hasNonNull("snippet") ? UUID.fromString(node.get("snippet").asText()) : null;
+        String name = node.has("name") ? node.get("name").asText(null) : base.name();
+        String folder = node.has("folder") ? node.get("folder").asText(null) : base.folder();
+        List<String> tags = base == null ? List.of() : base.tags();
+        if (node.has("tags")) {
+            List<String> read = new ArrayList<>();
+            node.get("tags").forEach(t -> read.add(t.asText()));
+            tags = List.copyOf(read);
+        }
+        String code;
+        if (node.has("lines")) {
+            List<String> lines = new ArrayList<>();
+            node.get("lines").forEach(l -> lines.add(l.asText()));
+            code = LineDiff.join(lines);
+        } else if (node.has("ops")) {
+            code = LineDiff.join(LineDiff.apply(LineDiff.lines(base.code()), RevisionLog.decode(node.get("ops"))));
+        } else {
+            code = base.code();
+        }
+        return new Draft(id, snippet, name, folder, tags, code, Instant.parse(node.path("at").asText()));
+    }
+}
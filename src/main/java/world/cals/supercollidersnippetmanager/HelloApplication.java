@@ -1,6 +1,7 @@
 package world.cals.supercollidersnippetmanager;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
@@ -9,6 +10,8 @@ import java.io.IOException;
 import java.util.Objects;
 
 public class HelloApplication extends Application {
+    private MainController controller;
+
     @Override
     public void start(Stage stage) throws IOException {
         var fxmlUrl = Objects.requireNonNull(
@@ -18,10 +21,26 @@ public class HelloApplication extends Application {
 
         FXMLLoader fxmlLoader = new FXMLLoader(fxmlUrl);
         Scene scene = new Scene(fxmlLoader.load(), 1200, 800);
+        controller = fxmlLoader.getController();
+        StartupTimings.mark("fxml");
         stage.setTitle("SuperCollider Snippet Manager");
         stage.setMinWidth(900);
         stage.setMinHeight(600);
         stage.setScene(scene);
+        // The first layout pass after showing is immediately followed by the first render
+        scene.addPostLayoutPulseListener(new Runnable() {
+            @Override
+            public void run() {
+                StartupTimings.mark("first-paint");
+                Platform.runLater(() -> scene.removePostLayoutPulseListener(this));
+            }
+        });
         stage.show();
+        StartupTimings.mark("window");
+    }
+
+    @Override
+    public void stop() {
+        if (controller != null) controller.shutdown();
     }
 }
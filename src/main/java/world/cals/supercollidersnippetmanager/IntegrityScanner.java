@@ -0,0 +1,344 @@
+package world.cals.supercollidersnippetmanager;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32C;
+import java.util.zip.ZipException;
+
+/**
+ * Checks the record files of a {@link JsonFileSnippetStore} and repairs what it can:
+ * <ul>
+ *   <li>Corrupt records, ones that no longer parse, lack a valid id or hold damaged compressed
+ *       code, are quarantined.</li>
+ *   <li>Temp files a save left behind for over {@value #ORPHAN_AGE_MINUTES} minutes are quarantined.</li>
+ *   <li>Where several records share an id, the ones {@code loadAll()} ignores are quarantined.</li>
+ *   <li>A record in another directory than its folder field names is moved there.</li>
+ *   <li>Records whose code blob is missing, that cannot be read (e.g. denied access, an unknown code
+ *       dictionary), or whose content changed without being rewritten, are only reported.</li>
+ * </ul>
+ * Quarantined files keep their path under a timestamped directory next to the data directory.
+ *
+ * <p>A CRC32C checksum, size and modification time of every record go to a sidecar index. A scan
+ * only reads files whose size or modification time differ from the index, unless asked to verify
+ * everything. Files are read by a few workers, which pause while {@code busy} reports
+ * interactive work and rest briefly between files.
+ */
+public final class IntegrityScanner {
+    public static final String INDEX_FILE = "integrity.json";
+    public static final String QUARANTINE_DIR = "quarantine";
+    private static final long ORPHAN_AGE_MINUTES = 10;
+    private static final int WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    // Pacing: each worker rests this long after every few files, and polls this often while busy
+    private static final int PACE_FILES = 16;
+    private static final long PACE_MS = 5;
+    private static final long BUSY_POLL_MS = 200;
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneId.systemDefault());
+
+    public enum Kind { CORRUPT, ORPHANED_TEMP, DUPLICATE_ID, FOLDER_MISMATCH, MISSING_BLOB, CHECKSUM_CHANGED, UNREADABLE }
+
+    /** {@code path} is relative to the data directory; {@code action} says what was done, if anything. */
+    public record Issue(Kind kind, String path, String detail, String action) {}
+
+    /** {@code read} files were read and checksummed; the rest matched the index. */
+    public record Report(int records, int read, List<Issue> issues, Duration took) {
+        /** True if files were moved, so the library should be reloaded. */
+        public boolean changedLibrary() {
+            return issues.stream().anyMatch(i -> i.action() != null);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Progress {
+        void update(int done, int total);
+    }
+
+    // What the index holds per record file; id, folder and modified are null for corrupt ones and
+    // ones whose code blob is missing
+    private record Entry(long size, long mtime, long crc, UUID id, String folder, Instant modified, boolean missingBlob) {}
+
+    private record Found(Path file, long size, long mtime) {}
+
+    private final JsonFileSnippetStore store;
+    private final Path dataDir;
+    private final Path indexFile;
+    private final Progress progress;
+    private final BooleanSupplier busy;
+    private final BooleanSupplier cancelled;
+    private final ObjectMapper om = Json.mapper();
+
+    public IntegrityScanner(JsonFileSnippetStore store, Progress progress, BooleanSupplier busy, BooleanSupplier cancelled) {
+        this.store = store;
+        this.dataDir = store.dataDir();
+        this.indexFile = dataDir.resolveSibling(INDEX_FILE);
+        this.progress = progress;
+        this.busy = busy;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * @param verifyAll read and checksum every record, not only those that look changed
+     */
+    public Report scan(boolean verifyAll) throws IOException {
+        long start = System.nanoTime();
+        List<Found> records = new ArrayList<>();
+        List<Found> temps = new ArrayList<>();
+        list(records, temps);
+        Map<String, Entry> previous = loadIndex();
+
+        Map<Path, Entry> entries = new ConcurrentHashMap<>();
+        List<Issue> issues = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger read = new AtomicInteger();
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        progress.update(0, records.size());
+
+        Runnable worker = () -> {
+            int i;
+            int sincePause = 0;
+            while (failure.get() == null && !cancelled.getAsBoolean() && (i = next.getAndIncrement()) < records.size()) {
+                Found f = records.get(i);
+                try {
+                    Entry known = previous.get(key(f.file()));
+                    boolean same = known != null && known.size() == f.size() && known.mtime() == f.mtime();
+                    // Records missing their blob are read again in case it came back
+                    if (same && !verifyAll && !known.missingBlob()) {
+                        entries.put(f.file(), known);
+                    } else {
+                        Entry checked = check(f, same ? known : null, issues);
+                        read.incrementAndGet();
+                        if (checked != null) entries.put(f.file(), checked);
+                        if (++sincePause >= PACE_FILES) {
+                            sincePause = 0;
+                            Thread.sleep(PACE_MS);
+                        }
+                    }
+                    while (busy.getAsBoolean() && !cancelled.getAsBoolean()) Thread.sleep(BUSY_POLL_MS);
+                } catch (IOException e) {
+                    failure.compareAndSet(null, e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                progress.update(done.incrementAndGet(), records.size());
+            }
+        };
+        List<Thread> workers = new ArrayList<>();
+        for (int w = 0; w < WORKERS; w++) {
+            workers.add(Thread.ofVirtual().name("integrity-" + w).start(worker));
+        }
+        for (Thread t : workers) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Integrity scan interrupted", e);
+            }
+        }
+        if (failure.get() != null) throw failure.get();
+        if (cancelled.getAsBoolean()) {
+            return new Report(records.size(), read.get(), List.copyOf(issues), Duration.ofNanos(System.nanoTime() - start));
+        }
+
+        Path quarantine = dataDir.resolveSibling(QUARANTINE_DIR).resolve(STAMP.format(Instant.now()));
+        repair(records, entries, quarantine, issues);
+        Instant orphaned = Instant.now().minus(Duration.ofMinutes(ORPHAN_AGE_MINUTES));
+        for (Found t : temps) {
+            if (Instant.ofEpochMilli(t.mtime()).isAfter(orphaned)) continue;
+            Path target = quarantine.resolve(key(t.file()));
+            try {
+                Files.createDirectories(target.getParent());
+                Files.move(t.file(), target);
+                issues.add(new Issue(Kind.ORPHANED_TEMP, key(t.file()), "left by an interrupted save", "quarantined"));
+            } catch (NoSuchFileException e) {
+                // Finished or cleaned up meanwhile
+            }
+        }
+
+        saveIndex(entries);
+        List<Issue> sorted = new ArrayList<>(issues);
+        sorted.sort(Comparator.comparing(Issue::kind).thenComparing(Issue::path));
+        return new Report(records.size(), read.get(), List.copyOf(sorted), Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    // Reads, checksums and parses one record; null if it went away or could not be read, so it is
+    // left alone and read again next scan
+    private Entry check(Found f, Entry known, List<Issue> issues) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(f.file());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        long checksum = crc.getValue();
+        if (known != null && known.crc() != checksum) {
+            issues.add(new Issue(Kind.CHECKSUM_CHANGED, key(f.file()), "content changed without a new modification time", null));
+        }
+        try {
+            Snippet s = store.readRecord(f.file(), bytes);
+            return new Entry(f.size(), f.mtime(), checksum, s.getId(), JsonFileSnippetStore.sanitizeFolder(s.getFolder()),
+                    s.getModifiedDate(), false);
+        } catch (NoSuchFileException e) {
+            if (Files.notExists(f.file())) return null;
+            // The record parsed, but its code blob is gone
+            issues.add(new Issue(Kind.MISSING_BLOB, key(f.file()), "code blob " + e.getFile() + " is missing", null));
+            return new Entry(f.size(), f.mtime(), checksum, null, null, null, true);
+        } catch (JsonProcessingException | ZipException | IllegalArgumentException | DateTimeException e) {
+            // Does not parse, its id is missing or invalid, or its inline compressed code is damaged
+            return new Entry(f.size(), f.mtime(), checksum, null, null, null, false);
+        } catch (IOException | RuntimeException e) {
+            issues.add(new Issue(Kind.UNREADABLE, key(f.file()), e.toString(), null));
+            return null;
+        }
+    }
+
+    // Quarantines corrupt records and ignored duplicates, and moves misplaced records
+    private void repair(List<Found> records, Map<Path, Entry> entries, Path quarantine, List<Issue> issues) throws IOException {
+        Map<UUID, List<Found>> byId = new HashMap<>();
+        for (Found f : records) {
+            Entry e = entries.get(f.file());
+            if (e == null || e.missingBlob()) continue;
+            if (e.id() == null) {
+                if (store.quarantine(f.file(), e.size(), e.mtime(), quarantine.resolve(key(f.file())))) {
+                    entries.remove(f.file());
+                    issues.add(new Issue(Kind.CORRUPT, key(f.file()), "not a readable snippet record", "quarantined"));
+                }
+                continue;
+            }
+            byId.computeIfAbsent(e.id(), k -> new ArrayList<>()).add(f);
+        }
+
+        for (List<Found> copies : byId.values()) {
+            // The copy loadAll() keeps: the most recently modified
+            copies.sort(Comparator.comparing((Found f) -> entries.get(f.file()).modified()).reversed());
+            Found kept = copies.get(0);
+            for (Found stale : copies.subList(1, copies.size())) {
+                Entry e = entries.get(stale.file());
+                if (store.quarantine(stale.file(), e.size(), e.mtime(), quarantine.resolve(key(stale.file())))) {
+                    entries.remove(stale.file());
+                    issues.add(new Issue(Kind.DUPLICATE_ID, key(stale.file()), "older copy of " + key(kept.file()), "quarantined"));
+                }
+            }
+
+            Entry e = entries.get(kept.file());
+            String folder = store.folderOf(kept.file());
+            if (!folder.equals(e.folder())) {
+                boolean moved = store.relocate(kept.file(), e.size(), e.mtime(), e.id(), e.folder());
+                if (moved) entries.remove(kept.file());
+                issues.add(new Issue(Kind.FOLDER_MISMATCH, key(kept.file()), "folder field says " + e.folder(),
+                        moved ? "moved to " + e.folder() : null));
+            }
+        }
+    }
+
+    // Record files and temp files under the data directory; retried if a folder moves mid-walk
+    private void list(List<Found> records, List<Found> temps) throws IOException {
+        if (!Files.exists(dataDir)) return;
+        for (int attempt = 1; ; attempt++) {
+            records.clear();
+            temps.clear();
+            try (var walk = Files.walk(dataDir)) {
+                for (Path p : (Iterable<Path>) walk::iterator) {
+                    String name = p.getFileName().toString();
+                    boolean record = name.endsWith(".json");
+                    if (!record && !name.endsWith(".tmp")) continue;
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                    } catch (NoSuchFileException e) {
+                        continue;
+                    }
+                    if (!attrs.isRegularFile()) continue;
+                    (record ? records : temps).add(new Found(p, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+                return;
+            } catch (UncheckedIOException | NoSuchFileException e) {
+                if (attempt >= 3) throw e instanceof UncheckedIOException u ? u.getCause() : (IOException) e;
+            }
+        }
+    }
+
+    private String key(Path file) {
+        return dataDir.relativize(file).toString().replace('\\', '/');
+    }
+
+    private Map<String, Entry> loadIndex() {
+        Map<String, Entry> index = new HashMap<>();
+        if (!Files.exists(indexFile)) return index;
+        try {
+            JsonNode files = om.readTree(indexFile.toFile()).path("files");
+            files.fields().forEachRemaining(f -> {
+                JsonNode n = f.getValue();
+                index.put(f.getKey(), new Entry(
+                        n.path("size").asLong(),
+                        n.path("mtime").asLong(),
+                        Long.parseLong(n.path("crc32c").asText("0"), 16),
+                        n.hasNonNull("id") ? UUID.fromString(n.get("id").asText()) : null,
+                        n.path("folder").asText(null),
+                        n.hasNonNull("modified") ? Instant.parse(n.get("modified").asText()) : null,
+                        n.path("missingBlob").asBoolean()));
+            });
+        } catch (IOException | RuntimeException e) {
+            // Rebuilt by this scan
+            System.err.println("Ignoring unreadable integrity index: " + e.getMessage());
+            index.clear();
+        }
+        return index;
+    }
+
+    private void saveIndex(Map<Path, Entry> entries) throws IOException {
+        ObjectNode root = om.createObjectNode();
+        ObjectNode files = root.putObject("files");
+        entries.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(e -> {
+                    Entry v = e.getValue();
+                    ObjectNode n = files.putObject(key(e.getKey()));
+                    n.put("size", v.size());
+                    n.put("mtime", v.mtime());
+                    n.put("crc32c", Long.toHexString(v.crc()));
+                    if (v.id() != null) {
+                        n.put("id", v.id().toString());
+                        n.put("folder", v.folder());
+                        n.put("modified", v.modified().toString());
+                    }
+                    if (v.missingBlob()) n.put("missingBlob", true);
+                });
+        Path tmp = indexFile.resolveSibling(INDEX_FILE + ".tmp");
+        om.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), root);
+        try {
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package world.cals.supercollidersnippetmanager;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 public final class Json {
@@ -13,4 +14,11 @@ public final class Json {
         om.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS); // ISO-8601 strings for Instant
         return om;
     }
+
+    /** Binary Smile, for compact record files; timestamps are numeric. */
+    public static ObjectMapper smileMapper() {
+        ObjectMapper om = new ObjectMapper(new SmileFactory());
+        om.registerModule(new JavaTimeModule());
+        return om;
+    }
 }
@@ -1,83 +1,1036 @@
 package world.cals.supercollidersnippetmanager;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.smile.SmileConstants;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+/**
+ * One JSON file per snippet under a folder tree. Safe for concurrent use:
+ * <ul>
+ *   <li>Saves and deletes lock their folder and its parents shared, and their snippet id
+ *       exclusively, so writes to different snippets run in parallel.</li>
+ *   <li>Folder deletes and renames lock the folder exclusively, which waits out every write
+ *       inside it.</li>
+ *   <li>Reads take no locks. Every file is replaced by an atomic move, so a reader sees either the
+ *       old or the new record. A read that overlaps a folder delete or rename is retried.</li>
+ * </ul>
+ *
+ * <p>Records sit either directly in their folder or, in the sharded layout, under
+ * {@code <folder>/.shards/ab/cd/abcd....json} by the first four hex digits of the id, so no
+ * directory grows past a few entries. Shard directories are internal and never listed as folders.
+ * Both layouts are always readable, and {@link #migrateLayout(boolean)} moves records between them
+ * while the store stays in use.
+ *
+ * <p>A record is either pretty-printed JSON or, in the {@link Format#SMILE} format, binary Smile
+ * with timestamps as epoch nanoseconds. Files keep the {@code .json} name either way and are told
+ * apart by the Smile header, so a library can mix both; {@link #convertFormat(Format)} rewrites
+ * it in one.
+ */
 public final class JsonFileSnippetStore implements SnippetStore {
+    private static final TypeReference<List<String>> STRING_LIST = new TypeReference<>() {};
+    private static final int LOCK_STRIPES = 64;
+    // Lock-free attempts before a read waits for folder operations to finish
+    private static final int LOCK_FREE_READS = 3;
+    static final String SHARD_DIR = ".shards";
+    // Records moved per folder lock during a layout migration, so writes there wait only briefly
+    private static final int MIGRATION_BATCH = 256;
+    private static final byte[] SMILE_HEADER = {SmileConstants.HEADER_BYTE_1, SmileConstants.HEADER_BYTE_2, SmileConstants.HEADER_BYTE_3};
+
+    public enum Format {
+        JSON, SMILE;
+
+        /** The format named in the config; anything unknown is JSON. */
+        public static Format of(String name) {
+            return name != null && name.toUpperCase(Locale.ROOT).equals("SMILE") ? SMILE : JSON;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Read<T> {
+        T read() throws IOException;
+    }
+
     private final Path dataDir;
     private final ObjectMapper om;
+    private final ObjectMapper smile = Json.smileMapper();
+    // When set, code is kept deflated in memory and written as "codeZ" instead of "code"
+    private final CodeDictionary codeDictionary;
+    // Code shared by reference ("codeRef") lives here; always readable, only written when dedupeCode is on
+    private final BlobStore blobs;
+    private final boolean dedupeCode;
+    // Layout new records are written in; the other one is still read
+    private volatile boolean sharded;
+    // Format new records are written in; both are always read
+    private volatile Format format;
+    private final StripedLocks locks = new StripedLocks(LOCK_STRIPES);
+    // Folder deletes and renames begun and completed; readers compare them to detect overlap
+    private final AtomicLong structureStarted = new AtomicLong();
+    private final AtomicLong structureFinished = new AtomicLong();
+    private final Object refIndexLock = new Object();
 
     public JsonFileSnippetStore(Path dataDir) {
+        this(dataDir, null, false);
+    }
+
+    public JsonFileSnippetStore(Path dataDir, CodeDictionary codeDictionary) {
+        this(dataDir, codeDictionary, false);
+    }
+
+    public JsonFileSnippetStore(Path dataDir, CodeDictionary codeDictionary, boolean dedupeCode) {
+        this(dataDir, codeDictionary, dedupeCode, false);
+    }
+
+    public JsonFileSnippetStore(Path dataDir, CodeDictionary codeDictionary, boolean dedupeCode, boolean sharded) {
+        this(dataDir, codeDictionary, dedupeCode, sharded, Format.JSON);
+    }
+
+    public JsonFileSnippetStore(Path dataDir, CodeDictionary codeDictionary, boolean dedupeCode, boolean sharded, Format format) {
         this.dataDir = dataDir;
         this.om = Json.mapper();
+        this.codeDictionary = codeDictionary;
+        this.blobs = new BlobStore(dataDir.resolveSibling("blobs"));
+        this.dedupeCode = dedupeCode;
+        this.sharded = sharded;
+        this.format = format;
+    }
+
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    public Format format() {
+        return format;
     }
 
     @Override
     public List<Snippet> loadAll() throws IOException {
+        Scan scan = readConsistently(this::scanAll);
+        // Only the accepted walk is reported; one retried after a folder change may have seen a record twice
+        scan.duplicates().forEach(d -> System.err.println("Snippet " + d + "; showing the newer one"));
+        return scan.snippets();
+    }
+
+    private record Scan(List<Snippet> snippets, List<String> duplicates) {}
+
+    private Scan scanAll() throws IOException {
         if (!Files.exists(dataDir)) {
-            return List.of();
+            return new Scan(List.of(), List.of());
         }
 
-        List<Snippet> out = new ArrayList<>();
+        // Snippets sharing a blob also share the same code instance in memory
+        Map<String, BlobStore.Blob> blobCache = new HashMap<>();
+        // By id, newest kept: while a record moves between layouts a walk can meet it in both
+        // places, and a copied record file leaves two with the same id
+        Map<UUID, Snippet> out = new HashMap<>();
+        Map<UUID, Path> files = new HashMap<>();
+        List<String> duplicates = new ArrayList<>();
         try (var stream = Files.walk(dataDir)) {
             stream
                     .filter(p -> Files.isRegularFile(p))
                     .filter(p -> p.getFileName().toString().endsWith(".json"))
                     .forEach(p -> {
                         try {
-                            Snippet snippet = om.readValue(p.toFile(), Snippet.class);
-                            out.add(snippet);
+                            Snippet snippet = inMemory(readSnippet(p, blobCache));
+                            Snippet other = out.get(snippet.getId());
+                            if (other != null) {
+                                duplicates.add(snippet.getId() + " is stored twice: " + files.get(snippet.getId()) + " and " + p);
+                                if (!snippet.getModifiedDate().isAfter(other.getModifiedDate())) return;
+                            }
+                            out.put(snippet.getId(), snippet);
+                            files.put(snippet.getId(), p);
                         } catch (Exception e) {
+                            // Deleted since the walk listed it
+                            if (Files.notExists(p)) return;
                             System.err.println("Failed to read snippet JSON: " + p);
                             e.printStackTrace();
                         }
                     });
         }
 
-        out.sort(Comparator.comparing(Snippet::getModifiedDate).reversed());
-        return List.copyOf(out);
+        List<Snippet> sorted = new ArrayList<>(out.values());
+        sorted.sort(Comparator.comparing(Snippet::getModifiedDate).reversed());
+        return new Scan(List.copyOf(sorted), duplicates);
+    }
+
+    // Plain code is compressed for holding in memory; records already stored compressed, under any
+    // dictionary, are kept as read rather than deflated again
+    private Snippet inMemory(Snippet snippet) {
+        return codeDictionary == null || snippet.compressedCode() != null ? snippet : snippet.compressed(codeDictionary);
     }
 
     @Override
     public void createFolder(String folder) throws IOException {
         String safeFolder = sanitizeFolder(folder);
-        Files.createDirectories(dataDir.resolve(safeFolder));
+        try (var held = locks.lock(folderChain(safeFolder), List.of())) {
+            Files.createDirectories(dataDir.resolve(safeFolder));
+        }
     }
 
     @Override
     public Snippet save(Snippet snippet) throws IOException {
+        if (dedupeCode) ensureRefIndex();
+        try (var held = lockRecords(List.of(snippet))) {
+            String replaced = writeRecord(snippet);
+            if (replaced != null) blobs.release(replaced);
+        }
+        return inMemory(snippet);
+    }
+
+    @Override
+    public void saveAll(List<Snippet> snippets) throws IOException {
+        if (dedupeCode) ensureRefIndex();
+        try (var held = lockRecords(snippets)) {
+            writeRecords(snippets);
+        }
+    }
+
+    @Override
+    public Snippet update(Snippet previous, Snippet updated) throws IOException {
+        updateAll(List.of(previous), List.of(updated));
+        return inMemory(updated);
+    }
+
+    @Override
+    public void updateAll(List<Snippet> previous, List<Snippet> updated) throws IOException {
+        if (previous.size() != updated.size()) {
+            throw new IllegalArgumentException("previous and updated snippets differ in number");
+        }
+        if (dedupeCode) ensureRefIndex();
+        List<Snippet> touched = new ArrayList<>(previous);
+        touched.addAll(updated);
+        try (var held = lockRecords(touched)) {
+            List<String> released = new ArrayList<>();
+            try {
+                for (int i = 0; i < updated.size(); i++) {
+                    Snippet before = previous.get(i);
+                    Snippet after = updated.get(i);
+                    if (!before.getId().equals(after.getId())) {
+                        throw new IllegalArgumentException("snippet " + after.getId() + " does not replace " + before.getId());
+                    }
+                    String replaced = writeRecord(after);
+                    if (replaced != null) released.add(replaced);
+                    String from = sanitizeFolder(before.getFolder());
+                    if (!from.equals(sanitizeFolder(after.getFolder()))) {
+                        deleteRecordFiles(dataDir.resolve(from), before.getId(), released);
+                    }
+                }
+            } finally {
+                if (!released.isEmpty()) blobs.releaseAll(released);
+            }
+        }
+    }
+
+    // Caller holds the locks; replaced references are released for every record written, even if a later one fails
+    private void writeRecords(List<Snippet> snippets) throws IOException {
+        List<String> released = new ArrayList<>();
+        try {
+            for (Snippet snippet : snippets) {
+                String replaced = writeRecord(snippet);
+                if (replaced != null) released.add(replaced);
+            }
+        } finally {
+            if (!released.isEmpty()) blobs.releaseAll(released);
+        }
+    }
+
+    /**
+     * Writes the record file, taking its blob reference before the file is published. Returns the
+     * reference the old file held and the new one no longer does, for the caller to release once
+     * the write is done; null if there is none.
+     */
+    private String writeRecord(Snippet snippet) throws IOException {
         String folder = sanitizeFolder(snippet.getFolder());
         Path folderDir = dataDir.resolve(folder);
-        Files.createDirectories(folderDir);
+        boolean shardedNow = sharded;
+        Path file = recordFile(folderDir, snippet.getId(), shardedNow);
+        Path other = recordFile(folderDir, snippet.getId(), !shardedNow);
+        Files.createDirectories(file.getParent());
 
-        Path file = folderDir.resolve(snippet.getId().toString() + ".json");
+        String oldRef = Files.exists(file) ? readCodeRef(file) : Files.exists(other) ? readCodeRef(other) : null;
+        String newRef = null;
 
-        Path tmp = Files.createTempFile(folderDir, snippet.getId().toString(), ".tmp");
-        om.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), snippet);
+        Path tmp = Files.createTempFile(file.getParent(), snippet.getId().toString(), ".tmp");
+        Format formatNow = format;
+        try {
+            if (dedupeCode) {
+                String ref = blobs.put(snippet.getCode(), codeDictionary);
+                newRef = ref;
+                writeNode(tmp, toRecordNode(snippet, n -> n.put("codeRef", ref), formatNow), formatNow);
+            } else if (codeDictionary == null && formatNow == Format.JSON) {
+                om.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), snippet);
+            } else if (codeDictionary == null) {
+                writeNode(tmp, toRecordNode(snippet, n -> n.put("code", snippet.getCode()), formatNow), formatNow);
+            } else {
+                CompressedCode code = snippet.compressed(codeDictionary).compressedCode();
+                writeNode(tmp, toRecordNode(snippet, n -> {
+                    n.put("codeDict", code.getDictionary().getId());
+                    n.put("codeLength", code.getRawLength());
+                    n.put("codeZ", code.getData());
+                }, formatNow), formatNow);
+            }
 
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            if (newRef != null) blobs.unpin(newRef);
+            throw e;
+        }
+
+        // A crash between taking the reference and publishing leaves the count too high, never too low
+        boolean counting = newRef != null && !newRef.equals(oldRef);
+        boolean counted = false;
         try {
-            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-        } catch (AtomicMoveNotSupportedException e) {
-            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            if (counting) {
+                blobs.acquire(newRef);
+                counted = true;
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            if (counted) blobs.release(newRef);
+            else if (newRef != null) blobs.unpin(newRef);
+            throw e;
         }
+        if (newRef != null && !counting) blobs.unpin(newRef);
+        // Written in the current layout; drop the copy left in the other one
+        Files.deleteIfExists(other);
 
-        return snippet;
+        return oldRef != null && !oldRef.equals(newRef) ? oldRef : null;
     }
 
     @Override
     public void delete(UUID id, String folder) throws IOException {
         String safeFolder = sanitizeFolder(folder);
-        Path file = dataDir.resolve(safeFolder).resolve(id.toString() + ".json");
-        Files.deleteIfExists(file);
+        if (dedupeCode) ensureRefIndex();
+        try (var held = locks.lock(folderChain(safeFolder), List.of(idKey(id)))) {
+            List<String> released = new ArrayList<>();
+            try {
+                deleteRecordFiles(dataDir.resolve(safeFolder), id, released);
+            } finally {
+                if (!released.isEmpty()) blobs.releaseAll(released);
+            }
+        }
+    }
+
+    @Override
+    public void deleteAll(List<Snippet> snippets) throws IOException {
+        if (dedupeCode) ensureRefIndex();
+        try (var held = lockRecords(snippets)) {
+            List<String> released = new ArrayList<>();
+            try {
+                for (Snippet s : snippets) {
+                    deleteRecordFiles(dataDir.resolve(sanitizeFolder(s.getFolder())), s.getId(), released);
+                }
+            } finally {
+                if (!released.isEmpty()) blobs.releaseAll(released);
+            }
+        }
+    }
+
+    // Caller holds the record's locks; the code references of deleted files are added to released
+    private void deleteRecordFiles(Path folderDir, UUID id, List<String> released) throws IOException {
+        for (Path file : List.of(recordFile(folderDir, id, sharded), recordFile(folderDir, id, !sharded))) {
+            String ref = Files.exists(file) ? readCodeRef(file) : null;
+            if (Files.deleteIfExists(file) && ref != null) {
+                released.add(ref);
+            }
+        }
+    }
+
+    @Override
+    public void deleteFolder(String folder) throws IOException {
+        String safeFolder = sanitizeFolder(folder);
+        if (dedupeCode) ensureRefIndex();
+        try (var held = lockStructure(List.of(safeFolder))) {
+            deleteFolderLocked(safeFolder);
+        } finally {
+            structureFinished.incrementAndGet();
+        }
+    }
+
+    private void deleteFolderLocked(String folder) throws IOException {
+        Path dir = dataDir.resolve(folder);
+        if (!Files.exists(dir)) return;
+
+        List<String> released = new ArrayList<>();
+        try (var stream = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) stream::iterator) {
+                if (Files.isRegularFile(p) && p.getFileName().toString().endsWith(".json")) {
+                    String ref = readCodeRef(p);
+                    if (ref != null) released.add(ref);
+                }
+            }
+        }
+
+        try (var stream = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) stream.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+
+        if (!released.isEmpty()) {
+            blobs.releaseAll(released);
+        }
+    }
+
+    @Override
+    public void renameFolder(String from, String to) throws IOException {
+        String oldFolder = sanitizeFolder(from);
+        String newFolder = sanitizeFolder(to);
+        if (dedupeCode) ensureRefIndex();
+        try (var held = lockStructure(List.of(oldFolder, newFolder))) {
+            renameFolderLocked(oldFolder, newFolder);
+        } finally {
+            structureFinished.incrementAndGet();
+        }
+    }
+
+    private void renameFolderLocked(String oldFolder, String newFolder) throws IOException {
+        Path oldDir = dataDir.resolve(oldFolder);
+        Path newDir = dataDir.resolve(newFolder);
+        if (Files.exists(newDir)) {
+            throw new IOException("Folder already exists: " + newFolder);
+        }
+        Files.createDirectories(newDir.getParent());
+        Files.move(oldDir, newDir);
+
+        // Records carry their folder, so rewrite every one that moved
+        List<Snippet> moved = new ArrayList<>();
+        forEach(newFolder, s -> {
+            if (!SnippetStore.isInFolder(s, oldFolder)) return;
+            moved.add(new Snippet(
+                    s.getId(), s.getName(), s.getDescription(), s.getCode(), s.getTags(),
+                    newFolder + s.getFolder().substring(oldFolder.length()),
+                    s.getCreatedDate(), s.getModifiedDate()));
+        });
+        writeRecords(moved);
+    }
+
+    @Override
+    public List<String> listFolders() throws IOException {
+        Files.createDirectories(dataDir);
+        return readConsistently(() -> {
+            List<String> folders = new ArrayList<>();
+            Files.walkFileTree(dataDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    // Shard directories hold records, not folders; don't descend into them either
+                    if (dir.getFileName().toString().equals(SHARD_DIR)) return FileVisitResult.SKIP_SUBTREE;
+                    if (!dir.equals(dataDir)) folders.add(relativePath(dir));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            folders.sort(null);
+            return List.copyOf(folders);
+        });
+    }
+
+    /**
+     * Moves every record into the sharded or the flat layout, folder by folder, and writes new
+     * records in that layout from now on. Other operations carry on meanwhile; writes to a folder
+     * wait only while a batch of its records moves. If interrupted, the store is left in a mix of
+     * both layouts, which reads fine, and calling this again finishes the job.
+     *
+     * @return the number of records moved
+     */
+    public int migrateLayout(boolean toSharded) throws IOException {
+        sharded = toSharded;
+        int moved = 0;
+        for (String folder : listFolders()) {
+            Path folderDir = dataDir.resolve(folder);
+            List<Path> misplaced;
+            try (var files = toSharded ? Files.list(folderDir) : walkShards(folderDir)) {
+                misplaced = files.filter(p -> p.getFileName().toString().endsWith(".json") && Files.isRegularFile(p)).toList();
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            for (int from = 0; from < misplaced.size(); from += MIGRATION_BATCH) {
+                List<Path> batch = misplaced.subList(from, Math.min(misplaced.size(), from + MIGRATION_BATCH));
+                try (var held = lockStructure(List.of(folder))) {
+                    moved += moveRecords(folderDir, batch, toSharded);
+                } finally {
+                    structureFinished.incrementAndGet();
+                }
+            }
+            if (!toSharded) {
+                try (var held = lockStructure(List.of(folder))) {
+                    deleteEmptyShards(folderDir);
+                } finally {
+                    structureFinished.incrementAndGet();
+                }
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Rewrites every record not yet in {@code to}, and writes new records in it from now on. Each
+     * record is locked only while it is rewritten, and keeps its modification time so the recent
+     * order is unchanged. Records whose folder is renamed meanwhile are missed; calling this again
+     * picks them up.
+     *
+     * @return the number of records rewritten
+     */
+    public int convertFormat(Format to) throws IOException {
+        format = to;
+        List<Path> files;
+        try (var stream = recordFiles(null)) {
+            files = stream.toList();
+        }
+        int converted = 0;
+        for (Path file : files) {
+            JsonNode node;
+            try {
+                if (formatOf(file) == to) continue;
+                node = readNode(file);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            UUID id;
+            String folder;
+            try {
+                id = UUID.fromString(node.path("id").asText());
+                folder = sanitizeFolder(node.path("folder").asText(null));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping unreadable record: " + file);
+                continue;
+            }
+            try (var held = locks.lock(folderChain(folder), List.of(idKey(id)))) {
+                // Re-read under the lock: it may have been saved or removed since
+                if (!Files.exists(file) || formatOf(file) == to) continue;
+                node = readNode(file);
+                FileTime modified = Files.getLastModifiedTime(file);
+                ObjectNode record = node.deepCopy();
+                for (String field : List.of("createdDate", "modifiedDate")) {
+                    if (record.hasNonNull(field)) putDate(record, field, readDate(record.get(field)), to);
+                }
+                Path tmp = Files.createTempFile(file.getParent(), id.toString(), ".tmp");
+                try {
+                    writeNode(tmp, record, to);
+                    Files.setLastModifiedTime(tmp, modified);
+                    try {
+                        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Files.deleteIfExists(tmp);
+                    throw e;
+                }
+                converted++;
+            } catch (NoSuchFileException e) {
+                // Moved by a folder rename or layout migration
+            }
+        }
+        return converted;
+    }
+
+    /** The format a record file is in, from its first bytes. */
+    static Format formatOf(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return formatOf(in);
+        }
+    }
+
+    /** The format of the record {@code in} starts with; a stream supporting mark is left where it was. */
+    static Format formatOf(InputStream in) throws IOException {
+        byte[] head = new byte[SMILE_HEADER.length];
+        if (in.markSupported()) in.mark(head.length);
+        int read = in.readNBytes(head, 0, head.length);
+        if (in.markSupported()) in.reset();
+        return read == head.length && Arrays.equals(head, SMILE_HEADER) ? Format.SMILE : Format.JSON;
+    }
+
+    private Stream<Path> walkShards(Path folderDir) throws IOException {
+        Path shards = folderDir.resolve(SHARD_DIR);
+        return Files.isDirectory(shards) ? Files.walk(shards) : Stream.empty();
+    }
+
+    // Caller holds the folder lock
+    private int moveRecords(Path folderDir, List<Path> files, boolean toSharded) throws IOException {
+        int moved = 0;
+        for (Path source : files) {
+            String name = source.getFileName().toString();
+            UUID id;
+            try {
+                id = UUID.fromString(name.substring(0, name.length() - ".json".length()));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            Path target = recordFile(folderDir, id, toSharded);
+            if (!Files.exists(source)) continue;
+            if (Files.exists(target)) {
+                // A write was cut short before it removed the old copy; the new one wins
+                String ref = readCodeRef(source);
+                if (Files.deleteIfExists(source) && ref != null) blobs.release(ref);
+                continue;
+            }
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(source, target);
+            }
+            moved++;
+        }
+        return moved;
     }
 
-    private static String sanitizeFolder(String folder) {
+    private void deleteEmptyShards(Path folderDir) throws IOException {
+        try (var stream = walkShards(folderDir)) {
+            for (Path p : (Iterable<Path>) stream.filter(Files::isDirectory).sorted(Comparator.reverseOrder())::iterator) {
+                try {
+                    Files.delete(p);
+                } catch (DirectoryNotEmptyException e) {
+                    // Still holds something we didn't put there; leave it
+                }
+            }
+        }
+    }
+
+    private static Path recordFile(Path folderDir, UUID id, boolean sharded) {
+        String name = id.toString();
+        if (!sharded) return folderDir.resolve(name + ".json");
+        return folderDir.resolve(SHARD_DIR).resolve(name.substring(0, 2)).resolve(name.substring(2, 4)).resolve(name + ".json");
+    }
+
+    /**
+     * Runs a read without locks, retrying it if a folder delete or rename was in progress or began
+     * meanwhile (walks can then miss or repeat records). After {@value #LOCK_FREE_READS} such
+     * attempts it reads once more under every lock shared, which waits for those operations.
+     */
+    private <T> T readConsistently(Read<T> read) throws IOException {
+        for (int attempt = 0; attempt < LOCK_FREE_READS; attempt++) {
+            long finished = structureFinished.get();
+            long started = structureStarted.get();
+            if (started != finished) {
+                Thread.yield();
+                continue;
+            }
+            try {
+                T result = read.read();
+                if (structureStarted.get() == started) return result;
+            } catch (UncheckedIOException | NoSuchFileException e) {
+                // A directory went away mid-walk
+            }
+        }
+        try (var held = locks.lockAll(false)) {
+            return read.read();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Callers increment structureFinished once the operation is over, even if locking failed
+    private StripedLocks.Held lockStructure(List<String> folders) {
+        structureStarted.incrementAndGet();
+        Set<String> shared = new HashSet<>();
+        List<String> exclusive = new ArrayList<>();
+        for (String folder : folders) {
+            List<String> chain = folderChain(folder);
+            shared.addAll(chain.subList(0, chain.size() - 1));
+            exclusive.add(chain.get(chain.size() - 1));
+        }
+        return locks.lock(shared, exclusive);
+    }
+
+    private StripedLocks.Held lockRecords(Collection<Snippet> snippets) {
+        Set<String> shared = new HashSet<>();
+        Set<String> exclusive = new HashSet<>();
+        for (Snippet s : snippets) {
+            shared.addAll(folderChain(sanitizeFolder(s.getFolder())));
+            exclusive.add(idKey(s.getId()));
+        }
+        return locks.lock(shared, exclusive);
+    }
+
+    // Lock keys for a folder and each of its parents, outermost first
+    private static List<String> folderChain(String folder) {
+        List<String> chain = new ArrayList<>();
+        int slash = -1;
+        while ((slash = folder.indexOf('/', slash + 1)) >= 0) {
+            chain.add("folder:" + folder.substring(0, slash));
+        }
+        chain.add("folder:" + folder);
+        return chain;
+    }
+
+    private static String idKey(UUID id) {
+        return "id:" + id;
+    }
+
+    /**
+     * Recounts blob references from the snippet records on disk and deletes unreferenced blobs.
+     * Returns the number of blobs removed.
+     */
+    public int collectGarbage() throws IOException {
+        try (var held = locks.lockAll(true)) {
+            return collectGarbageLocked();
+        }
+    }
+
+    private int collectGarbageLocked() throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        if (Files.exists(dataDir)) {
+            try (var stream = Files.walk(dataDir)) {
+                for (Path p : (Iterable<Path>) stream::iterator) {
+                    if (Files.isRegularFile(p) && p.getFileName().toString().endsWith(".json")) {
+                        String ref = readCodeRef(p);
+                        if (ref != null) counts.merge(ref, 1, Integer::sum);
+                    }
+                }
+            }
+        }
+        return blobs.collectGarbage(counts);
+    }
+
+    @Override
+    public void forEach(String folder, SnippetVisitor visitor) throws IOException {
+        Map<String, BlobStore.Blob> blobCache = new HashMap<>();
+        try (var files = recordFiles(folder)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Snippet snippet;
+                try {
+                    snippet = readSnippet(p, blobCache);
+                } catch (Exception e) {
+                    if (Files.notExists(p)) continue;
+                    System.err.println("Failed to read snippet JSON: " + p);
+                    e.printStackTrace();
+                    continue;
+                }
+                visitor.visit(snippet);
+            }
+        }
+    }
+
+    /**
+     * Orders records by file modification time, which every save sets, so the newest can be read
+     * first without parsing the rest. Takes no locks and is not retried: a folder deleted or renamed
+     * meanwhile can be missed, so follow up with {@link #loadAll()} if that matters.
+     */
+    @Override
+    public void forEachRecent(SnippetVisitor visitor) throws IOException {
+        record Dated(Path file, long modified) {}
+        List<Dated> files = new ArrayList<>();
+        if (!Files.exists(dataDir)) return;
+        // The walk reads each file's attributes anyway, so the times come for free
+        Files.walkFileTree(dataDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && file.getFileName().toString().endsWith(".json")) {
+                    files.add(new Dated(file, attrs.lastModifiedTime().toMillis()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                // Deleted since its directory was listed
+                if (e instanceof NoSuchFileException) return FileVisitResult.CONTINUE;
+                throw e;
+            }
+        });
+        files.sort(Comparator.comparingLong(Dated::modified).reversed());
+
+        Map<String, BlobStore.Blob> blobCache = new HashMap<>();
+        Set<UUID> seen = new HashSet<>();
+        for (Dated d : files) {
+            Snippet snippet;
+            try {
+                snippet = readSnippet(d.file(), blobCache);
+            } catch (Exception e) {
+                if (Files.notExists(d.file())) continue;
+                System.err.println("Failed to read snippet JSON: " + d.file());
+                e.printStackTrace();
+                continue;
+            }
+            if (!seen.add(snippet.getId())) continue;
+            visitor.visit(inMemory(snippet));
+        }
+    }
+
+    /**
+     * Record files under {@code folder} (all when null); the caller must close the stream. Files and
+     * directories removed during the walk, such as a concurrent save's temp file, are skipped.
+     */
+    Stream<Path> recordFiles(String folder) throws IOException {
+        Path root = folder == null ? dataDir : dataDir.resolve(sanitizeFolder(folder));
+        if (!Files.exists(root)) {
+            return Stream.empty();
+        }
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && file.getFileName().toString().endsWith(".json")) files.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (e instanceof NoSuchFileException) return FileVisitResult.CONTINUE;
+                throw e;
+            }
+        });
+        return files.stream();
+    }
+
+    /** Path under the data directory, without shard directories, so it is the same in either layout. */
+    String relativePath(Path file) {
+        String path = dataDir.relativize(file).toString().replace('\\', '/');
+        int shards = path.indexOf("/" + SHARD_DIR + "/");
+        return shards < 0 ? path : path.substring(0, shards) + path.substring(path.lastIndexOf('/'));
+    }
+
+    Snippet readRecord(Path file) throws IOException {
+        return readSnippet(file, new HashMap<>());
+    }
+
+    /** Parses {@code bytes} already read from {@code file}; only a code blob is read from disk. */
+    Snippet readRecord(Path file, byte[] bytes) throws IOException {
+        return readSnippet(file, readNode(bytes), new HashMap<>());
+    }
+
+    Path dataDir() {
+        return dataDir;
+    }
+
+    /** Folder a record file sits in, judged by its path; empty for a file directly in the data directory. */
+    String folderOf(Path file) {
+        String path = relativePath(file);
+        int slash = path.lastIndexOf('/');
+        return slash < 0 ? "" : path.substring(0, slash);
+    }
+
+    /** The id a record file is named after, or null if its name is not one. */
+    static UUID idOf(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(".json")) return null;
+        try {
+            return UUID.fromString(name.substring(0, name.length() - ".json".length()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Moves a record file out of the library to {@code target}, unless it changed or went away
+     * since it was seen with {@code size} and {@code modified} (epoch ms). Its code reference is
+     * kept: a copied record never added one, and {@link #collectGarbage()} recounts them anyway.
+     *
+     * @return false if the file was left alone
+     */
+    boolean quarantine(Path file, long size, long modified, Path target) throws IOException {
+        String folder = folderOf(file);
+        UUID id = idOf(file);
+        try (var held = locks.lock(folder.isEmpty() ? List.of() : folderChain(folder), id == null ? List.of() : List.of(idKey(id)))) {
+            if (!unchanged(file, size, modified)) return false;
+            Files.createDirectories(target.getParent());
+            Files.move(file, target);
+            return true;
+        }
+    }
+
+    /**
+     * Moves a record into the directory of {@code folder}, which its own folder field names, so
+     * saves and deletes find it. Left alone if it changed since it was seen, or if a record with
+     * its id is already there.
+     *
+     * @return false if the file was left alone
+     */
+    boolean relocate(Path file, long size, long modified, UUID id, String folder) throws IOException {
+        String to = sanitizeFolder(folder);
+        String from = folderOf(file);
+        Set<String> shared = new HashSet<>(folderChain(to));
+        if (!from.isEmpty()) shared.addAll(folderChain(from));
+        try (var held = locks.lock(shared, List.of(idKey(id)))) {
+            if (!unchanged(file, size, modified)) return false;
+            Path folderDir = dataDir.resolve(to);
+            Path target = recordFile(folderDir, id, sharded);
+            if (Files.exists(target) || Files.exists(recordFile(folderDir, id, !sharded))) return false;
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(file, target);
+            }
+            return true;
+        }
+    }
+
+    private static boolean unchanged(Path file, long size, long modified) throws IOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return attrs.size() == size && attrs.lastModifiedTime().toMillis() == modified;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /** True if the record is JSON holding its code inline, so the file can be shared as-is. */
+    boolean isPortableRecord(Path file) throws IOException {
+        if (formatOf(file) != Format.JSON) return false;
+        try (JsonParser p = om.createParser(file.toFile())) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return false;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                if (field.equals("codeRef") || field.equals("codeZ")) return false;
+                p.nextToken();
+                p.skipChildren();
+            }
+            return true;
+        }
+    }
+
+    // Call before taking any lock: the first count locks everything
+    private void ensureRefIndex() throws IOException {
+        synchronized (refIndexLock) {
+            if (!blobs.hasRefIndex()) {
+                collectGarbage();
+            }
+        }
+    }
+
+    String readCodeRef(Path file) {
+        try {
+            return readNode(file).path("codeRef").asText(null);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private Snippet readSnippet(Path file, Map<String, BlobStore.Blob> blobCache) throws IOException {
+        return readSnippet(file, readNode(file), blobCache);
+    }
+
+    private Snippet readSnippet(Path file, JsonNode node, Map<String, BlobStore.Blob> blobCache) throws IOException {
+        for (int attempt = 1; node.has("codeRef"); attempt++) {
+            String ref = node.get("codeRef").asText();
+            try {
+                BlobStore.Blob blob = blobCache.get(ref);
+                if (blob == null) {
+                    blob = blobs.read(ref);
+                    blobCache.put(ref, blob);
+                }
+                return fromRecordNode(node, blob.text(), blob.compressed());
+            } catch (NoSuchFileException e) {
+                // Readers take no locks: the record may have been rewritten and its old blob released meanwhile
+                JsonNode current = readNode(file);
+                if (attempt >= LOCK_FREE_READS || ref.equals(current.path("codeRef").asText(null))) throw e;
+                node = current;
+            }
+        }
+        if (node.has("codeZ")) {
+            CompressedCode code = CompressedCode.read(
+                    CodeDictionary.get(node.path("codeDict").asText(null)),
+                    node.get("codeZ").binaryValue(),
+                    node.path("codeLength").asInt()
+            );
+            return fromRecordNode(node, null, code);
+        }
+        if (node.path("createdDate").isNumber()) {
+            return fromRecordNode(node, node.path("code").asText(null), null);
+        }
+        return om.treeToValue(node, Snippet.class);
+    }
+
+    private JsonNode readNode(Path file) throws IOException {
+        return readNode(Files.readAllBytes(file));
+    }
+
+    private JsonNode readNode(byte[] bytes) throws IOException {
+        boolean binary = bytes.length >= SMILE_HEADER.length
+                && Arrays.equals(bytes, 0, SMILE_HEADER.length, SMILE_HEADER, 0, SMILE_HEADER.length);
+        return (binary ? smile : om).readTree(bytes);
+    }
+
+    private void writeNode(Path file, ObjectNode node, Format format) throws IOException {
+        if (format == Format.SMILE) {
+            smile.writeValue(file.toFile(), node);
+        } else {
+            om.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), node);
+        }
+    }
+
+    // ISO-8601 text in JSON records, epoch nanoseconds in Smile ones
+    static Instant readDate(JsonNode node) {
+        if (node == null || node.isNull()) return null;
+        if (node.isNumber()) {
+            long nanos = node.asLong();
+            return Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L), Math.floorMod(nanos, 1_000_000_000L));
+        }
+        return Instant.parse(node.asText());
+    }
+
+    private void putDate(ObjectNode node, String field, Instant date, Format format) {
+        if (date == null) {
+            node.putNull(field);
+        } else if (format == Format.SMILE) {
+            node.put(field, Math.addExact(Math.multiplyExact(date.getEpochSecond(), 1_000_000_000L), date.getNano()));
+        } else {
+            node.set(field, om.valueToTree(date));
+        }
+    }
+
+    private Snippet fromRecordNode(JsonNode node, String code, CompressedCode compressed) {
+        UUID id = UUID.fromString(node.path("id").asText());
+        String name = node.path("name").asText(null);
+        String description = node.path("description").asText(null);
+        List<String> tags = node.hasNonNull("tags") ? om.convertValue(node.get("tags"), STRING_LIST) : List.of();
+        String folder = node.path("folder").asText(null);
+        Instant created = readDate(node.get("createdDate"));
+        Instant modified = readDate(node.get("modifiedDate"));
+
+        if (compressed != null) {
+            return new Snippet(id, name, description, compressed, tags, folder, created, modified);
+        }
+        return new Snippet(id, name, description, code, tags, folder, created, modified);
+    }
+
+    // Same field order as the plain Jackson output, with the "code" field written by codeWriter
+    private ObjectNode toRecordNode(Snippet snippet, Consumer<ObjectNode> codeWriter, Format format) {
+        ObjectNode node = om.createObjectNode();
+        node.put("id", snippet.getId().toString());
+        node.put("name", snippet.getName());
+        node.put("description", snippet.getDescription());
+        codeWriter.accept(node);
+        node.set("tags", om.valueToTree(snippet.getTags()));
+        node.put("folder", snippet.getFolder());
+        putDate(node, "createdDate", snippet.getCreatedDate(), format);
+        putDate(node, "modifiedDate", snippet.getModifiedDate(), format);
+        return node;
+    }
+
+    static String sanitizeFolder(String folder) {
         if (folder == null || folder.isBlank()) {
             throw new IllegalArgumentException("folder is required");
         }
@@ -91,6 +1044,9 @@ public final class JsonFileSnippetStore implements SnippetStore {
             if (s.equals("..")) {
                 throw new IllegalArgumentException("folder must not contain '..'");
             }
+            if (s.equals(SHARD_DIR)) {
+                throw new IllegalArgumentException("folder name " + SHARD_DIR + " is reserved");
+            }
         }
         return p.toString().replace('\\', '/');
     }
@@ -2,8 +2,43 @@ package world.cals.supercollidersnippetmanager;
 
 import javafx.application.Application;
 
+import java.io.IOException;
+import java.util.List;
+
 public class Launcher {
-    public static void main(String[] args) {
+    private static final String CONVERT = "--convert-records=";
+
+    public static void main(String[] args) throws Exception {
+        // Headless HTTP trigger API instead of the window; see SnippetServer for options
+        if (List.of(args).contains("--server")) {
+            SnippetServer.main(args);
+            return;
+        }
+        for (String arg : args) {
+            if (arg.startsWith(CONVERT)) {
+                convertRecords(arg.substring(CONVERT.length()));
+                return;
+            }
+        }
         Application.launch(HelloApplication.class, args);
     }
+
+    /**
+     * {@code --convert-records=json|smile}: rewrites the library's record files in that format
+     * and makes it the one new records are saved in. Run it while the app is closed.
+     */
+    private static void convertRecords(String name) throws IOException {
+        if (!name.equals(AppConfig.FORMAT_JSON) && !name.equals(AppConfig.FORMAT_SMILE)) {
+            throw new IllegalArgumentException("record format must be " + AppConfig.FORMAT_JSON + " or " + AppConfig.FORMAT_SMILE);
+        }
+        AppConfig config = AppConfig.load();
+        if (!(SnippetStore.open(config) instanceof JsonFileSnippetStore json)) {
+            throw new IllegalArgumentException("the library is stored in " + AppPaths.databaseFile() + ", not in record files");
+        }
+        long start = System.nanoTime();
+        int converted = json.convertFormat(JsonFileSnippetStore.Format.of(name));
+        config.setRecordFormat(name);
+        config.save();
+        System.out.printf("Converted %d record files to %s in %.1f s%n", converted, name, (System.nanoTime() - start) / 1e9);
+    }
 }
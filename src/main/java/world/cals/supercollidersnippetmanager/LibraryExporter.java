@@ -0,0 +1,273 @@
+package world.cals.supercollidersnippetmanager;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports the library (or one folder and its subfolders) to a zip of per-snippet JSON files or
+ * to NDJSON, reading one record at a time. Records that already hold their code inline are
+ * copied byte for byte into the zip entry, without parsing them; compressed or blob-backed
+ * records are re-serialized with inline code so the export stays self-contained.
+ */
+public final class LibraryExporter {
+    public enum Format { ZIP, NDJSON }
+
+    public record BackupResult(Path archive, long written, long deleted) {}
+
+    @FunctionalInterface
+    public interface Progress {
+        void update(long done, long total);
+    }
+
+    private static final TypeReference<TreeMap<String, String>> STAMP_MAP = new TypeReference<>() {};
+    private static final DateTimeFormatter BACKUP_TS =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+
+    private final SnippetStore store;
+    private final Progress progress;
+    private final BooleanSupplier cancelled;
+    private final ObjectMapper om = Json.mapper();
+    private final ObjectWriter entryWriter = om.writerWithDefaultPrettyPrinter()
+            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    public LibraryExporter(SnippetStore store, Progress progress, BooleanSupplier cancelled) {
+        this.store = store;
+        this.progress = progress;
+        this.cancelled = cancelled;
+    }
+
+    /** One snippet as seen by the exporter; the code is only read when the entry is written. */
+    private interface Entry {
+        String path();
+
+        /** Changes whenever the stored snippet changes. */
+        String stamp();
+
+        /** File to copy verbatim, or null if the snippet has to be re-serialized. */
+        Path portableFile() throws IOException;
+
+        Snippet snippet() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface EntryVisitor {
+        void visit(Entry entry) throws IOException;
+    }
+
+    /** Exports {@code folder} and its subfolders (the whole library when null). Returns the count written. */
+    public long export(String folder, Format format, Path target) throws IOException {
+        long total = count(folder);
+        if (total == 0) {
+            throw new IOException("No snippets to export" + (folder == null ? "" : " in " + folder));
+        }
+        Path tmp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+        long written;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            written = format == Format.ZIP ? writeZip(folder, out, total) : writeNdjson(folder, out, total);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        moveIntoPlace(tmp, target);
+        return written;
+    }
+
+    /**
+     * Writes a zip of the snippets added or changed since the last backup in {@code backupDir},
+     * plus a {@code deleted.txt} listing removed ones. The first backup in a directory is full.
+     * {@link BulkImporter} restores the directory by replaying the archives.
+     * Change detection uses file size and modification time from {@code manifest.json}, so
+     * unchanged snippets are never opened.
+     */
+    public BackupResult backup(Path backupDir) throws IOException {
+        Files.createDirectories(backupDir);
+        Path manifestFile = backupDir.resolve("manifest.json");
+        Map<String, String> previous = new HashMap<>();
+        if (Files.exists(manifestFile)) {
+            ObjectNode manifest = (ObjectNode) om.readTree(manifestFile.toFile());
+            previous.putAll(om.convertValue(manifest.get("entries"), STAMP_MAP));
+        }
+
+        Instant now = Instant.now();
+        String name = "backup-" + BACKUP_TS.format(now) + (previous.isEmpty() ? "-full" : "-incr") + ".zip";
+        Path archive = backupDir.resolve(name);
+        Path tmp = Files.createTempFile(backupDir, name, ".tmp");
+
+        Map<String, String> current = new TreeMap<>();
+        long total = count(null);
+        long[] seen = new long[1];
+        long[] written = new long[1];
+        List<String> deleted = new ArrayList<>();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp));
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            ObjectNode info = om.createObjectNode();
+            info.put("created", now.toString());
+            info.put("full", previous.isEmpty());
+            zip.putNextEntry(new ZipEntry("backup.json"));
+            entryWriter.writeValue(zip, info);
+            zip.closeEntry();
+
+            visit(null, entry -> {
+                String stamp = entry.stamp();
+                current.put(entry.path(), stamp);
+                if (!stamp.equals(previous.get(entry.path()))) {
+                    writeZipEntry(zip, entry);
+                    written[0]++;
+                }
+                progress.update(++seen[0], total);
+            });
+
+            for (String path : previous.keySet()) {
+                if (!current.containsKey(path)) deleted.add(path);
+            }
+            if (!deleted.isEmpty()) {
+                zip.putNextEntry(new ZipEntry("deleted.txt"));
+                zip.write((String.join("\n", deleted) + "\n").getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        if (written[0] == 0 && deleted.isEmpty()) {
+            Files.deleteIfExists(tmp);
+            return new BackupResult(null, 0, 0);
+        }
+        moveIntoPlace(tmp, archive);
+
+        ObjectNode manifest = om.createObjectNode();
+        manifest.put("lastBackup", now.toString());
+        manifest.put("archive", name);
+        manifest.set("entries", om.valueToTree(current));
+        Path manifestTmp = Files.createTempFile(backupDir, "manifest", ".tmp");
+        om.writerWithDefaultPrettyPrinter().writeValue(manifestTmp.toFile(), manifest);
+        moveIntoPlace(manifestTmp, manifestFile);
+
+        return new BackupResult(archive, written[0], deleted.size());
+    }
+
+    private long writeZip(String folder, OutputStream out, long total) throws IOException {
+        long[] written = new long[1];
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            visit(folder, entry -> {
+                writeZipEntry(zip, entry);
+                progress.update(++written[0], total);
+            });
+        }
+        return written[0];
+    }
+
+    private void writeZipEntry(ZipOutputStream zip, Entry entry) throws IOException {
+        Path file = entry.portableFile();
+        zip.putNextEntry(new ZipEntry(entry.path()));
+        if (file != null) {
+            Files.copy(file, zip);
+        } else {
+            entryWriter.writeValue(zip, entry.snippet());
+        }
+        zip.closeEntry();
+    }
+
+    private long writeNdjson(String folder, OutputStream out, long total) throws IOException {
+        long[] written = new long[1];
+        try (JsonGenerator gen = om.createGenerator(out)) {
+            gen.setRootValueSeparator(new SerializedString("\n"));
+            visit(folder, entry -> {
+                Path file = entry.portableFile();
+                if (file != null) {
+                    // Token-level copy: re-indents onto one line without building a tree
+                    try (JsonParser p = om.createParser(file.toFile())) {
+                        p.nextToken();
+                        gen.copyCurrentStructure(p);
+                    }
+                } else {
+                    om.writeValue(gen, entry.snippet());
+                }
+                progress.update(++written[0], total);
+            });
+            gen.writeRaw('\n');
+        }
+        return written[0];
+    }
+
+    private long count(String folder) throws IOException {
+        if (store instanceof JsonFileSnippetStore json) {
+            try (var files = json.recordFiles(folder)) {
+                return files.count();
+            }
+        }
+        long[] n = new long[1];
+        store.forEach(folder, s -> n[0]++);
+        return n[0];
+    }
+
+    private void visit(String folder, EntryVisitor visitor) throws IOException {
+        if (store instanceof JsonFileSnippetStore json) {
+            try (var files = json.recordFiles(folder)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    checkCancelled();
+                    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    visitor.visit(new Entry() {
+                        public String path() { return json.relativePath(file); }
+                        public String stamp() { return attrs.size() + ":" + attrs.lastModifiedTime().toMillis(); }
+                        public Path portableFile() throws IOException { return json.isPortableRecord(file) ? file : null; }
+                        public Snippet snippet() throws IOException { return json.readRecord(file); }
+                    });
+                }
+            }
+            return;
+        }
+
+        store.forEach(folder, snippet -> {
+            checkCancelled();
+            visitor.visit(new Entry() {
+                public String path() { return snippet.getFolder() + "/" + snippet.getId() + ".json"; }
+                public String stamp() { return Long.toString(snippet.getModifiedDate().toEpochMilli()); }
+                public Path portableFile() { return null; }
+                public Snippet snippet() { return snippet; }
+            });
+        });
+    }
+
+    private void checkCancelled() {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("Export cancelled");
+        }
+    }
+
+    private static void moveIntoPlace(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
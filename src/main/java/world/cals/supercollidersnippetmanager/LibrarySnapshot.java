@@ -0,0 +1,210 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable view of the library at one point in time. A new snapshot is published after every
+ * change instead of editing the current one in place, so any thread can keep reading the snapshot
+ * it holds. Each snapshot has a higher {@link #version()} than the one it replaced, and unchanged
+ * snippets keep the same instance from one snapshot to the next. Consumers can therefore compare
+ * by identity to find what changed.
+ */
+public final class LibrarySnapshot {
+    public static final LibrarySnapshot EMPTY = new LibrarySnapshot(0, List.of(), List.of(), List.of(), Map.of());
+
+    private final long version;
+    private final List<Snippet> snippets;
+    private final List<String> folders;
+    private final List<String> tags;
+    private final Map<UUID, Integer> positions;
+    // Per sort: positions in sorted order, and each position's rank in it; built on first use
+    private final int[][] orders = new int[SnippetSort.values().length][];
+    private final int[][] ranks = new int[SnippetSort.values().length][];
+
+    private LibrarySnapshot(long version, List<Snippet> snippets, List<String> folders, List<String> tags,
+                            Map<UUID, Integer> positions) {
+        this.version = version;
+        this.snippets = snippets;
+        this.folders = folders;
+        this.tags = tags;
+        this.positions = positions;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /** Snippets in store order (most recently modified first). */
+    public List<Snippet> snippets() {
+        return snippets;
+    }
+
+    public List<String> folders() {
+        return folders;
+    }
+
+    /** Distinct tags over all snippets, sorted. */
+    public List<String> tags() {
+        return tags;
+    }
+
+    public Snippet get(UUID id) {
+        Integer pos = positions.get(id);
+        return pos == null ? null : snippets.get(pos);
+    }
+
+    public int size() {
+        return snippets.size();
+    }
+
+    /**
+     * The snapshot following this one. Snippets whose fields have not changed are replaced by the
+     * instances already held here. Folder and tag lists are also reused when they are equal.
+     */
+    public LibrarySnapshot next(List<Snippet> loaded, List<String> loadedFolders) {
+        return next(loaded, loadedFolders, true);
+    }
+
+    /**
+     * Like {@link #next(List, List)}, but keeps this snapshot's tags instead of collecting them
+     * again. For partial snapshots while the library streams in.
+     */
+    public LibrarySnapshot nextKeepingTags(List<Snippet> loaded, List<String> loadedFolders) {
+        return next(loaded, loadedFolders, false);
+    }
+
+    /** Like {@link #next(List, List)}, with the tags as listed by the store. */
+    public LibrarySnapshot next(List<Snippet> loaded, List<String> loadedFolders, List<String> storeTags) {
+        LibrarySnapshot next = next(loaded, loadedFolders, false);
+        return storeTags.equals(next.tags) ? next
+                : new LibrarySnapshot(next.version, next.snippets, next.folders, List.copyOf(storeTags), next.positions);
+    }
+
+    private LibrarySnapshot next(List<Snippet> loaded, List<String> loadedFolders, boolean collectTags) {
+        Snippet[] merged = new Snippet[loaded.size()];
+        Map<UUID, Integer> index = new HashMap<>(loaded.size() * 4 / 3 + 1);
+        for (int i = 0; i < merged.length; i++) {
+            Snippet s = loaded.get(i);
+            Snippet old = get(s.getId());
+            merged[i] = old != null && sameContent(old, s) ? old : s;
+            index.put(s.getId(), i);
+        }
+        List<String> nextTags = !collectTags ? tags : loaded.stream()
+                .flatMap(s -> s.getTags().stream())
+                .distinct()
+                .sorted()
+                .toList();
+        return new LibrarySnapshot(
+                version + 1,
+                List.of(merged),
+                loadedFolders.equals(folders) ? folders : List.copyOf(loadedFolders),
+                nextTags.equals(tags) ? tags : nextTags,
+                Map.copyOf(index)
+        );
+    }
+
+    /**
+     * The snippets matching {@code filter}, in {@code sort} order. Each sort order is computed once
+     * per snapshot. The cursor only keeps the ranks of the matches, so no snippet list is built.
+     */
+    public SnippetCursor query(SnippetQuery filter, SnippetSort sort) {
+        int[] order = order(sort);
+        int[] rank = ranks[sort.ordinal()];
+        if (filter.equals(SnippetQuery.ALL)) return new SortedCursor(order, rank, null);
+
+        int[] hits = new int[order.length];
+        int count = 0;
+        for (int r = 0; r < order.length; r++) {
+            if (filter.matches(snippets.get(order[r]))) hits[count++] = r;
+        }
+        return new SortedCursor(order, rank, Arrays.copyOf(hits, count));
+    }
+
+    /**
+     * The snippets with the given ids, in {@code sort} order; for matches found by the store's
+     * own index. Ids not in this snapshot are skipped.
+     */
+    public SnippetCursor query(Collection<UUID> ids, SnippetSort sort) {
+        int[] order = order(sort);
+        int[] rank = ranks[sort.ordinal()];
+        int[] hits = new int[ids.size()];
+        int count = 0;
+        for (UUID id : ids) {
+            Integer pos = positions.get(id);
+            if (pos != null) hits[count++] = rank[pos];
+        }
+        hits = Arrays.copyOf(hits, count);
+        Arrays.sort(hits);
+        return new SortedCursor(order, rank, hits);
+    }
+
+    private synchronized int[] order(SnippetSort sort) {
+        int[] order = orders[sort.ordinal()];
+        if (order == null) {
+            Comparator<Snippet> cmp = sort.comparator();
+            order = IntStream.range(0, snippets.size())
+                    .boxed()
+                    .sorted((a, b) -> cmp.compare(snippets.get(a), snippets.get(b)))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            int[] rank = new int[order.length];
+            for (int r = 0; r < order.length; r++) rank[order[r]] = r;
+            ranks[sort.ordinal()] = rank;
+            orders[sort.ordinal()] = order;
+        }
+        return order;
+    }
+
+    // Ranks in ascending order, or null for every snippet
+    private final class SortedCursor implements SnippetCursor {
+        private final int[] order;
+        private final int[] rank;
+        private final int[] hits;
+
+        SortedCursor(int[] order, int[] rank, int[] hits) {
+            this.order = order;
+            this.rank = rank;
+            this.hits = hits;
+        }
+
+        @Override
+        public int size() {
+            return hits == null ? order.length : hits.length;
+        }
+
+        @Override
+        public List<Snippet> fetch(int from, int to) {
+            Snippet[] out = new Snippet[to - from];
+            for (int i = from; i < to; i++) {
+                out[i - from] = snippets.get(order[hits == null ? i : hits[i]]);
+            }
+            return List.of(out);
+        }
+
+        @Override
+        public int indexOf(UUID id) {
+            Integer pos = positions.get(id);
+            if (pos == null) return -1;
+            if (hits == null) return rank[pos];
+            int i = Arrays.binarySearch(hits, rank[pos]);
+            return i < 0 ? -1 : i;
+        }
+    }
+
+    // Code changes always move the modified date, so the code itself is not compared
+    private static boolean sameContent(Snippet a, Snippet b) {
+        return a.getModifiedDate().equals(b.getModifiedDate())
+                && a.getName().equals(b.getName())
+                && a.getFolder().equals(b.getFolder())
+                && a.getTags().equals(b.getTags())
+                && Objects.equals(a.getDescription(), b.getDescription());
+    }
+}
@@ -0,0 +1,175 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** Line-level diff (Myers) used for revision deltas and the history view. */
+public final class LineDiff {
+    private LineDiff() {}
+
+    public enum Kind { KEEP, DELETE, INSERT }
+
+    public record Edit(Kind kind, List<String> lines) {}
+
+    // Upper bound on ints kept for the Myers trace before falling back to delete-all/insert-all
+    private static final long MAX_TRACE = 4_000_000;
+
+    public static List<String> lines(String text) {
+        return Arrays.asList(text.split("\n", -1));
+    }
+
+    public static String join(List<String> lines) {
+        return String.join("\n", lines);
+    }
+
+    public static List<Edit> diff(List<String> a, List<String> b) {
+        int prefix = 0;
+        while (prefix < a.size() && prefix < b.size() && a.get(prefix).equals(b.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < a.size() - prefix && suffix < b.size() - prefix
+                && a.get(a.size() - 1 - suffix).equals(b.get(b.size() - 1 - suffix))) {
+            suffix++;
+        }
+
+        List<Edit> edits = new ArrayList<>();
+        add(edits, Kind.KEEP, a.subList(0, prefix));
+        myers(a.subList(prefix, a.size() - suffix), b.subList(prefix, b.size() - suffix), edits);
+        add(edits, Kind.KEEP, a.subList(a.size() - suffix, a.size()));
+        return edits;
+    }
+
+    /** Replays {@code edits} against {@code base}. KEEP and DELETE only need the line count. */
+    public static List<String> apply(List<String> base, List<Edit> edits) {
+        List<String> out = new ArrayList<>(base.size());
+        int pos = 0;
+        for (Edit e : edits) {
+            switch (e.kind()) {
+                case KEEP -> {
+                    out.addAll(base.subList(pos, pos + e.lines().size()));
+                    pos += e.lines().size();
+                }
+                case DELETE -> pos += e.lines().size();
+                case INSERT -> out.addAll(e.lines());
+            }
+        }
+        if (pos != base.size()) {
+            throw new IllegalStateException("Delta does not match base revision");
+        }
+        return out;
+    }
+
+    /** Renders edits as text with +/- markers, collapsing unchanged runs beyond {@code context} lines. */
+    public static String format(List<Edit> edits, int context) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < edits.size(); i++) {
+            Edit e = edits.get(i);
+            switch (e.kind()) {
+                case DELETE -> e.lines().forEach(l -> sb.append("- ").append(l).append('\n'));
+                case INSERT -> e.lines().forEach(l -> sb.append("+ ").append(l).append('\n'));
+                case KEEP -> {
+                    List<String> lines = e.lines();
+                    int head = i == 0 ? 0 : Math.min(context, lines.size());
+                    int tail = i == edits.size() - 1 ? 0 : Math.min(context, lines.size() - head);
+                    for (String l : lines.subList(0, head)) sb.append("  ").append(l).append('\n');
+                    int skipped = lines.size() - head - tail;
+                    if (skipped > 0) sb.append("@@ ").append(skipped).append(" unchanged lines @@\n");
+                    for (String l : lines.subList(lines.size() - tail, lines.size())) sb.append("  ").append(l).append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void myers(List<String> a, List<String> b, List<Edit> edits) {
+        int n = a.size();
+        int m = b.size();
+        if (n == 0 || m == 0) {
+            add(edits, Kind.DELETE, a);
+            add(edits, Kind.INSERT, b);
+            return;
+        }
+
+        int max = n + m;
+        int offset = max;
+        int[] v = new int[2 * max + 2];
+        List<int[]> trace = new ArrayList<>();
+
+        search:
+        for (int d = 0; d <= max; d++) {
+            if ((long) (d + 1) * v.length > MAX_TRACE) {
+                add(edits, Kind.DELETE, a);
+                add(edits, Kind.INSERT, b);
+                return;
+            }
+            trace.add(v.clone());
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+                        ? v[offset + k + 1]
+                        : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a.get(x).equals(b.get(y))) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) break search;
+            }
+        }
+
+        // Walk the trace backwards, collecting one-line edits in reverse order
+        List<Edit> reversed = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for (int d = trace.size() - 1; d >= 0; d--) {
+            int[] vd = trace.get(d);
+            int k = x - y;
+            int prevK = (k == -d || (k != d && vd[offset + k - 1] < vd[offset + k + 1])) ? k + 1 : k - 1;
+            int prevX = vd[offset + prevK];
+            int prevY = prevX - prevK;
+
+            while (x > prevX && y > prevY) {
+                reversed.add(new Edit(Kind.KEEP, List.of(a.get(x - 1))));
+                x--;
+                y--;
+            }
+            if (d > 0) {
+                if (x == prevX) {
+                    reversed.add(new Edit(Kind.INSERT, List.of(b.get(prevY))));
+                } else {
+                    reversed.add(new Edit(Kind.DELETE, List.of(a.get(prevX))));
+                }
+            }
+            x = prevX;
+            y = prevY;
+        }
+
+        Collections.reverse(reversed);
+        int i = 0;
+        while (i < reversed.size()) {
+            Kind kind = reversed.get(i).kind();
+            List<String> run = new ArrayList<>();
+            while (i < reversed.size() && reversed.get(i).kind() == kind) {
+                run.addAll(reversed.get(i).lines());
+                i++;
+            }
+            add(edits, kind, run);
+        }
+    }
+
+    // Appends lines, merging into the previous edit when it has the same kind
+    private static void add(List<Edit> edits, Kind kind, List<String> lines) {
+        if (lines.isEmpty()) return;
+        if (!edits.isEmpty() && edits.get(edits.size() - 1).kind() == kind) {
+            Edit last = edits.remove(edits.size() - 1);
+            List<String> merged = new ArrayList<>(last.lines());
+            merged.addAll(lines);
+            edits.add(new Edit(kind, merged));
+        } else {
+            edits.add(new Edit(kind, new ArrayList<>(lines)));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package world.cals.supercollidersnippetmanager;
+
+import javafx.collections.ObservableList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Brings a list in line with a new list using ranged removes and inserts. List views
+ * then keep their scroll position and only re-render the cells that changed. Items are matched by
+ * key. Items that keep their relative order stay where they are (the longest increasing run of
+ * their new positions). Other surviving items are moved, i.e. removed and re-inserted at their new
+ * position. An item whose key stays but whose instance changed is replaced in place.
+ */
+public final class ListDiff {
+    private ListDiff() {}
+
+    // Past this many separate list changes one full replacement is cheaper than replaying them
+    private static final int MAX_CHANGES = 256;
+
+    /** Receives the planned edits in order; indices refer to the list as left by the previous edit. */
+    public interface Edits<T> {
+        void remove(int from, List<T> removed);
+
+        void insert(int at, List<T> added);
+
+        void replace(int at, T old, T item);
+    }
+
+    public static <T, K> void apply(ObservableList<T> target, List<? extends T> next, Function<? super T, K> key) {
+        boolean planned = plan(List.copyOf(target), next, key, new Edits<T>() {
+            @Override
+            public void remove(int from, List<T> removed) {
+                target.remove(from, from + removed.size());
+            }
+
+            @Override
+            public void insert(int at, List<T> added) {
+                target.addAll(at, added);
+            }
+
+            @Override
+            public void replace(int at, T old, T item) {
+                target.set(at, item);
+            }
+        });
+        if (!planned) target.setAll(next);
+    }
+
+    /**
+     * Emits the edits turning {@code current} into {@code next}. Returns false without emitting
+     * anything when a full replacement would be cheaper.
+     */
+    public static <T, K> boolean plan(List<T> current, List<? extends T> next, Function<? super T, K> key, Edits<T> out) {
+        Map<K, Integer> nextPos = new HashMap<>(next.size() * 4 / 3 + 1);
+        for (int i = 0; i < next.size(); i++) {
+            // Keys must be unique for positions to mean anything
+            if (nextPos.put(key.apply(next.get(i)), i) != null) return false;
+        }
+
+        int n = current.size();
+        int[] pos = new int[n];
+        Set<K> seen = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            K k = key.apply(current.get(i));
+            Integer p = nextPos.get(k);
+            pos[i] = p == null || !seen.add(k) ? -1 : p;
+        }
+        boolean[] stays = increasingRun(pos);
+
+        // Count first so a large reshuffle can fall back to one replacement
+        int changes = 0;
+        boolean[] kept = new boolean[next.size()];
+        for (int i = 0; i < n; i++) {
+            if (stays[i]) {
+                kept[pos[i]] = true;
+                if (current.get(i) != next.get(pos[i])) changes++;
+            } else if (i == 0 || stays[i - 1]) {
+                changes++;
+            }
+        }
+        for (int j = 0; j < kept.length; j++) {
+            if (!kept[j] && (j == 0 || kept[j - 1])) changes++;
+        }
+        if (changes > MAX_CHANGES) return false;
+        if (changes == 0) return true;
+
+        // Remove back to front so earlier indices stay valid
+        for (int i = n - 1; i >= 0; i--) {
+            if (stays[i]) continue;
+            int end = i + 1;
+            while (i > 0 && !stays[i - 1]) i--;
+            out.remove(i, List.copyOf(current.subList(i, end)));
+        }
+
+        // What is left is a subsequence of next in order; fill in the gaps
+        int at = 0;
+        int s = 0;
+        for (int j = 0; j < next.size(); j++) {
+            if (kept[j]) {
+                while (!stays[s]) s++;
+                T old = current.get(s++);
+                if (old != next.get(j)) out.replace(at, old, next.get(j));
+                at++;
+                continue;
+            }
+            List<T> run = new ArrayList<>();
+            while (j < next.size() && !kept[j]) run.add(next.get(j++));
+            j--;
+            out.insert(at, run);
+            at += run.size();
+        }
+        return true;
+    }
+
+    // Marks a longest strictly increasing subsequence of the non-negative entries (patience sorting)
+    private static boolean[] increasingRun(int[] pos) {
+        int n = pos.length;
+        int[] tails = new int[n];
+        int[] prev = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            if (pos[i] < 0) continue;
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pos[tails[mid]] < pos[i]) lo = mid + 1;
+                else hi = mid;
+            }
+            prev[i] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = i;
+            if (lo == length) length++;
+        }
+
+        boolean[] stays = new boolean[n];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = prev[i]) {
+            stays[i] = true;
+        }
+        return stays;
+    }
+}
@@ -1,28 +1,60 @@
 package world.cals.supercollidersnippetmanager;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
+import javafx.beans.binding.Bindings;
+import javafx.beans.property.LongProperty;
+import javafx.beans.property.SimpleLongProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.WeakChangeListener;
+import javafx.collections.ListChangeListener;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.input.Clipboard;
 import javafx.scene.input.ClipboardContent;
 import javafx.scene.layout.GridPane;
+import javafx.scene.Node;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+import javafx.scene.text.TextFlow;
 import javafx.geometry.Insets;
+import javafx.concurrent.Task;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
+import javafx.util.Duration;
 
-import com.illposed.osc.OSCMessage;
-import com.illposed.osc.transport.OSCPortOut;
+import org.fxmisc.flowless.VirtualizedScrollPane;
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.LineNumberFactory;
 
 import java.io.IOException;
-import java.net.InetAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 
 // ... existing imports ...
@@ -35,7 +67,9 @@ public class MainController {
     @FXML private ListView<String> tagList;
 
     @FXML private ListView<Snippet> snippetList;
-    @FXML private TextArea codeArea;
+    @FXML private CodeArea codeArea;
+    @FXML private TitledPane similarPane;
+    @FXML private ListView<SimilarityIndex.Match> similarList;
 
     @FXML private Label snippetTitle;
     @FXML private Label snippetMeta;
@@ -44,13 +78,64 @@ public class MainController {
     @FXML private Button deleteButton;
     @FXML private Button copyButton;
     @FXML private Button duplicateButton;
+    @FXML private Button historyButton;
     @FXML private Button exportButton;
     @FXML private Button clearFiltersButton;
     @FXML private Label filterLabel;
+    @FXML private ComboBox<SnippetSort> sortBox;
     @FXML private Button playButton;
     @FXML private Button stopButton;
+    @FXML private HBox statusBar;
+    @FXML private ProgressBar taskProgress;
+    @FXML private Label taskStatus;
+
+    private final AppConfig config = AppConfig.load();
+    private final SnippetStore store = SnippetStore.open(config);
+    private final RevisionLog history = new RevisionLog(AppPaths.historyDir());
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final SimilarityIndex similarity = new SimilarityIndex();
+    private final SnippetPlayer player = SnippetPlayer.open(config);
+    private final PlayHistory plays = new PlayHistory(AppPaths.playHistory());
+    // Prepares play messages in the background; only the latest request is worked on
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("prefetch").factory());
+    private volatile long prefetchRequest;
+    // Queries against a store's own search index; only the latest request's result is shown
+    private final ExecutorService storeQueries = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("store-query").factory());
+    private long storeQuery;
+    // Unsaved dialog edits; null if the journal cannot be opened
+    private final DraftJournal drafts = openDraftJournal();
+    // Incoming OSC from controllers; null when disabled or the port is taken
+    private OscControlServer control;
+
+    private static final long CODE_SEARCH_BUDGET_MS = 3000;
+    private static final double SIMILAR_MIN = 0.3;
+    private static final double DUPLICATE_MIN = 0.8;
+    // Snippets shown before the rest of the library at startup; each later batch is twice as big
+    private static final int FIRST_BATCH = 200;
+    // A dialog edit is journaled once typing pauses this long, and at least this often while it doesn't
+    private static final long DRAFT_QUIET_MS = 400;
+    private static final long DRAFT_MAX_DELAY_MS = 3000;
+    // Snippets prepared around the selection: usual followers, list neighbours each side, most played
+    private static final int PREFETCH_FOLLOWERS = 4;
+    private static final int PREFETCH_NEIGHBOURS = 2;
+    private static final int PREFETCH_POPULAR = 4;
+    private static final int MOST_PLAYED_LIMIT = 100;
+
+    private enum PlayView {
+        RECENT("Recently played"),
+        MOST_PLAYED("Most played");
+
+        private final String label;
+
+        PlayView(String label) {
+            this.label = label;
+        }
 
-    private final SnippetStore store = new JsonFileSnippetStore(AppPaths.dataDir());
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
 
     private static final DateTimeFormatter META_DT =
             DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
@@ -59,6 +144,35 @@ public class MainController {
     private String selectedTag = null;
     private String selectedFolder = null;
     private String searchText = "";
+    // Hits behind the current list when it came from a text search, for highlighting
+    private Map<UUID, SearchIndex.Hit> searchHits = Map.of();
+    // Running /regex/ search, replaced whenever the query or filters change
+    private Task<CodeSearch.Result> codeSearch;
+    // Play history view replacing the sort order, or null
+    private PlayView playView;
+    // Set while the list is swapped programmatically, so selection changes it causes don't auto-play
+    private boolean updatingList;
+
+    private final TaskService<LibrarySnapshot> tasks = new TaskService<>(this::loadLibrary, this::libraryLoaded, this::showError);
+    // Published on the FX thread, read by the loader to build the next snapshot
+    private volatile LibrarySnapshot library = LibrarySnapshot.EMPTY;
+    // Snapshot versions the search and similarity indexes were last synced with; the search index
+    // is only used on the store query thread
+    private long searchIndexed = -1;
+    private long similarityIndexed = -1;
+    // Snippet to select once the next refresh lands, e.g. one just saved
+    private UUID pendingSelection;
+    private boolean rebuildingTree;
+    private boolean draftsOffered;
+    private boolean integrityChecked;
+    // Any task in the status bar; the background integrity scan waits while it is set
+    private volatile boolean interactiveBusy;
+    private final AtomicBoolean integrityScanning = new AtomicBoolean();
+    // The list's items; rows are copied out of the current result cursor as they scroll into view
+    private final PagedSnippetList results = new PagedSnippetList();
+    // Bumped when search hits or play counts may have changed; each row redraws only if what it shows differs
+    private final LongProperty rowDecorations = new SimpleLongProperty();
+    private volatile SnippetSort sort = SnippetSort.MODIFIED;
 
     @FXML
     private void initialize() {
@@ -67,24 +181,69 @@ public class MainController {
             searchText = newVal == null ? "" : newVal.trim();
             refreshSnippets();
         });
+        // New text stays unstyled until the highlighter has lexed it
+        codeArea.setUseInitialStyleForInsertion(true);
+        ScHighlighter.attach(codeArea);
+
+        snippetList.setItems(results);
+        sortBox.getItems().setAll(SnippetSort.values());
+        sortBox.setValue(sort);
+        sortBox.valueProperty().addListener((obs, oldSort, newSort) -> {
+            if (newSort == null) return;
+            sort = newSort;
+            refreshSnippets();
+        });
         snippetList.setCellFactory(lv -> new ListCell<>() {
+            private Object decoration;
+            private final ChangeListener<Number> redraw = (obs, o, n) -> {
+                Snippet item = getItem();
+                if (!isEmpty() && item != null && !Objects.equals(decoration, rowDecoration(item))) render(item);
+            };
+
+            {
+                rowDecorations.addListener(new WeakChangeListener<>(redraw));
+            }
+
             @Override
             protected void updateItem(Snippet item, boolean empty) {
                 super.updateItem(item, empty);
-                setText(empty || item == null ? null : item.getName());
+                if (empty || item == null) {
+                    decoration = null;
+                    setText(null);
+                    setGraphic(null);
+                } else {
+                    render(item);
+                }
+            }
+
+            private void render(Snippet item) {
+                decoration = rowDecoration(item);
+                if (decoration instanceof String label) {
+                    setText(label);
+                    setGraphic(null);
+                } else {
+                    setText(null);
+                    setGraphic(highlightedName(item.getName(), searchHits.get(item.getId()).highlights()));
+                }
             }
         });
 
+        // Bulk actions apply to every selected snippet; the details show the one last selected
+        snippetList.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        snippetList.setContextMenu(createSnippetContextMenu());
+
         snippetList.getSelectionModel().selectedItemProperty().addListener((obs, oldV, snip) -> {
             boolean hasSelection = snip != null;
             editButton.setDisable(!hasSelection);
             deleteButton.setDisable(!hasSelection);
             copyButton.setDisable(!hasSelection);
             duplicateButton.setDisable(!hasSelection);
+            historyButton.setDisable(!hasSelection);
             exportButton.setDisable(!hasSelection);
             playButton.setDisable(!hasSelection);
             stopButton.setDisable(!hasSelection);
 
+            showSimilar(snip);
             if (!hasSelection) {
                 snippetTitle.setText("No snippet selected");
                 snippetMeta.setText("");
@@ -93,7 +252,19 @@ public class MainController {
             }
 
             snippetTitle.setText(snip.getName());
-            codeArea.setText(snip.getCode());
+            codeArea.replaceText(snip.getCode());
+            codeArea.moveTo(0);
+            codeArea.requestFollowCaret();
+            SearchIndex.Hit hit = searchHits.get(snip.getId());
+            if (hit != null) {
+                hit.highlights().stream()
+                        .filter(h -> h.field() == SearchIndex.Field.CODE)
+                        .findFirst()
+                        .ifPresent(h -> {
+                            codeArea.selectRange(h.start(), h.end());
+                            codeArea.requestFollowCaret();
+                        });
+            }
 
             String tags = snip.getTags().isEmpty() ? "(none)" : String.join(", ", snip.getTags());
             snippetMeta.setText(
@@ -102,9 +273,15 @@ public class MainController {
                             + " | Created: " + META_DT.format(snip.getCreatedDate())
                             + " | Modified: " + META_DT.format(snip.getModifiedDate())
             );
+
+            prefetchAround(snip);
+            if (config.isAutoPlay() && !updatingList && snippetList.getSelectionModel().getSelectedIndices().size() == 1) {
+                onPlaySnippet();
+            }
         });
 
         folderTree.getSelectionModel().selectedItemProperty().addListener((obs, oldV, newV) -> {
+            if (rebuildingTree) return;
             if (newV != null) {
                 selectedFolder = buildFolderPath(newV);
             } else {
@@ -113,6 +290,21 @@ public class MainController {
             refreshSnippets();
         });
 
+        similarList.setCellFactory(lv -> new ListCell<>() {
+            @Override
+            protected void updateItem(SimilarityIndex.Match item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty || item == null ? null
+                        : Math.round(item.similarity() * 100) + "%  " + item.snippet().getName() + "  (" + item.snippet().getFolder() + ")");
+            }
+        });
+        similarList.setOnMouseClicked(event -> {
+            SimilarityIndex.Match match = similarList.getSelectionModel().getSelectedItem();
+            if (event.getClickCount() == 2 && match != null) selectSnippet(match.snippet().getId());
+        });
+        similarPane.expandedProperty().addListener((obs, was, expanded) ->
+                showSimilar(snippetList.getSelectionModel().getSelectedItem()));
+
         // Add context menu for folders
         folderTree.setContextMenu(createFolderContextMenu());
         folderTree.setOnContextMenuRequested(event -> {
@@ -140,9 +332,191 @@ public class MainController {
             }
         });
 
-        refreshFolderTree();
-        refreshSnippets();
+        tasks.getRunning().addListener((ListChangeListener<Task<?>>) c -> updateStatusBar());
+        player.setHistory(plays);
+        startControlServer();
+        tasks.requestRefresh();
+    }
+
+    /**
+     * Called once when the application exits: writes queued drafts, closes the control port and
+     * the player's sockets, and closes the store if it holds a database.
+     */
+    public void shutdown() {
+        prefetcher.shutdownNow();
+        storeQueries.shutdownNow();
+        if (control != null) control.close();
+        if (drafts != null) drafts.close();
+        player.close();
+        if (store instanceof SqliteSnippetStore sqlite) {
+            try {
+                sqlite.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close snippet database: " + e.getMessage());
+            }
+        }
+    }
+
+    private void startControlServer() {
+        if (config.getControlPort() <= 0) return;
+        try {
+            control = new OscControlServer(player, OscControlServer.bindAddress(config.getControlBind(), config.getControlPort()));
+            control.start();
+        } catch (IOException e) {
+            System.err.println("OSC control disabled, cannot listen on port " + config.getControlPort() + ": " + e.getMessage());
+        }
+    }
+
+    private LibrarySnapshot loadLibrary() throws IOException {
+        if (library.version() == 0) return loadProgressively();
+        LibrarySnapshot snapshot = nextSnapshot(library, store.loadAll(), store.listFolders());
+        // Sort here rather than on the FX thread when the list is first shown
+        snapshot.query(SnippetQuery.ALL, sort);
+        if (control != null) control.publishLibrary(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * The first load: folders are shown first, then snippets in growing batches, newest first,
+     * while the rest are still being read. Tags are collected last, from the whole library.
+     */
+    private LibrarySnapshot loadProgressively() throws IOException {
+        List<String> folders = store.listFolders();
+        LibrarySnapshot[] shown = {LibrarySnapshot.EMPTY.nextKeepingTags(List.of(), folders)};
+        showPartial(shown[0], "folders");
+
+        List<Snippet> loaded = new ArrayList<>();
+        int[] nextBatch = {FIRST_BATCH};
+        store.forEachRecent(snippet -> {
+            loaded.add(snippet);
+            if (loaded.size() < nextBatch[0]) return;
+            shown[0] = shown[0].nextKeepingTags(List.copyOf(loaded), folders);
+            showPartial(shown[0], "first-snippets");
+            nextBatch[0] *= 2;
+        });
+        loaded.sort(Comparator.comparing(Snippet::getModifiedDate).reversed());
+        shown[0] = shown[0].nextKeepingTags(List.copyOf(loaded), folders);
+        // A library smaller than the first batch shows its first snippets only now
+        showPartial(shown[0], "first-snippets", "snippets");
+
+        LibrarySnapshot snapshot = nextSnapshot(shown[0], shown[0].snippets(), folders);
+        snapshot.query(SnippetQuery.ALL, sort);
+        if (control != null) control.publishLibrary(snapshot);
+        return snapshot;
+    }
+
+    // Tags come from the store when it keeps its own index of them
+    private LibrarySnapshot nextSnapshot(LibrarySnapshot current, List<Snippet> loaded, List<String> folders) throws IOException {
+        return store.indexesSearch() ? current.next(loaded, folders, store.listTags()) : current.next(loaded, folders);
+    }
+
+    // Runs ahead of the load's own result, which is delivered on the FX thread after it
+    private void showPartial(LibrarySnapshot snapshot, String... phases) {
+        javafx.application.Platform.runLater(() -> {
+            applyLibrary(snapshot);
+            for (String phase : phases) StartupTimings.mark(phase);
+        });
+    }
+
+    private void libraryLoaded(LibrarySnapshot snapshot) {
+        applyLibrary(snapshot);
+        // Only the first load reports
+        StartupTimings.mark("tags");
+        StartupTimings.finish(snapshot.size());
+        if (!draftsOffered) {
+            draftsOffered = true;
+            javafx.application.Platform.runLater(this::recoverDrafts);
+        }
+        if (!integrityChecked) {
+            integrityChecked = true;
+            startIntegrityScan();
+        }
+    }
+
+    // Checks the records changed since the last scan, outside the task service so it never shows as busy
+    private void startIntegrityScan() {
+        if (!(store instanceof JsonFileSnippetStore json) || !integrityScanning.compareAndSet(false, true)) return;
+        Thread.ofVirtual().name("integrity-scan").start(() -> {
+            try {
+                IntegrityScanner.Report report = new IntegrityScanner(json, (done, total) -> {}, () -> interactiveBusy, () -> false)
+                        .scan(false);
+                if (report.issues().isEmpty()) return;
+                javafx.application.Platform.runLater(() -> {
+                    if (report.changedLibrary()) tasks.requestRefresh();
+                    showIntegrityReport(report);
+                });
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Background integrity scan failed");
+                e.printStackTrace();
+            } finally {
+                integrityScanning.set(false);
+            }
+        });
+    }
+
+    private static DraftJournal openDraftJournal() {
+        try {
+            return new DraftJournal(AppPaths.draftJournal());
+        } catch (IOException e) {
+            System.err.println("Draft recovery disabled, cannot open " + AppPaths.draftJournal());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Offers each draft the last run left unsaved, once the library is loaded to match edits against
+    private void recoverDrafts() {
+        if (drafts == null) return;
+        for (DraftJournal.Draft d : drafts.recovered()) {
+            Snippet original = d.snippet() == null ? null : library.get(d.snippet());
+            ButtonType reopen = new ButtonType("Open", ButtonBar.ButtonData.OK_DONE);
+            ButtonType discard = new ButtonType("Discard", ButtonBar.ButtonData.NO);
+            ButtonType later = new ButtonType("Later", ButtonBar.ButtonData.CANCEL_CLOSE);
+            Alert ask = new Alert(Alert.AlertType.CONFIRMATION, "", reopen, discard, later);
+            ask.setTitle("Recover Draft");
+            ask.setHeaderText("Unsaved " + (original != null ? "changes to \"" + original.getName() + "\"" : "snippet \"" + d.name() + "\"")
+                    + " from " + META_DT.format(d.updated()));
+            ask.setContentText("The application closed before this was saved. Open it to review and save it, or discard it.");
+            ButtonType choice = ask.showAndWait().orElse(later);
+            if (choice == discard) drafts.discard(d.id());
+            if (choice != reopen) continue;
+
+            showSnippetDialog(original != null ? "Edit Snippet (recovered)" : "New Snippet (recovered)",
+                    d.id(), d.snippet(), d.name(), d.folder(), d.code(), d.tags())
+                    .ifPresent(draft -> {
+                        if (original != null) saveEdit(original, draft);
+                        else saveNew(draft);
+                    });
+        }
+    }
+
+    private void discardDraft(UUID draftId) {
+        if (drafts != null) drafts.discard(draftId);
+    }
+
+    private void applyLibrary(LibrarySnapshot snapshot) {
+        LibrarySnapshot previous = library;
+        library = snapshot;
+        if (snapshot.folders() != previous.folders()) refreshFolderTree();
         refreshTags();
+        refreshSnippets();
+    }
+
+    // Shows the newest running task; several at once are summarised
+    private void updateStatusBar() {
+        List<Task<?>> running = tasks.getRunning();
+        taskProgress.progressProperty().unbind();
+        taskStatus.textProperty().unbind();
+        boolean busy = !running.isEmpty();
+        interactiveBusy = busy;
+        statusBar.setVisible(busy);
+        statusBar.setManaged(busy);
+        if (!busy) return;
+
+        Task<?> latest = running.get(running.size() - 1);
+        taskProgress.progressProperty().bind(latest.progressProperty());
+        String more = running.size() > 1 ? " (+" + (running.size() - 1) + " more)" : "";
+        taskStatus.textProperty().bind(Bindings.concat(latest.titleProperty(), more));
     }
 
     @FXML
@@ -158,18 +532,16 @@ public class MainController {
 
         if (folder.isEmpty()) return;
 
-        try {
+        tasks.mutate("Creating folder", () -> {
             store.createFolder(folder.get());
-            refreshFolderTree();
-
+            return null;
+        }, v -> {
             Alert ok = new Alert(Alert.AlertType.INFORMATION);
             ok.setTitle("Folder Created");
             ok.setHeaderText("Created folder");
             ok.setContentText(AppPaths.dataDir().resolve(folder.get()).toString());
             ok.showAndWait();
-        } catch (IOException | RuntimeException e) {
-            showError("Failed to create folder", e);
-        }
+        });
     }
 
     private ContextMenu createFolderContextMenu() {
@@ -184,14 +556,50 @@ public class MainController {
         MenuItem deleteFolder = new MenuItem("Delete Folder...");
         deleteFolder.setOnAction(e -> onDeleteFolder());
 
+        MenuItem exportFolder = new MenuItem("Export Folder...");
+        exportFolder.setOnAction(e -> {
+            TreeItem<String> selected = folderTree.getSelectionModel().getSelectedItem();
+            if (selected != null) exportLibrary(buildFolderPath(selected));
+        });
+
+        MenuItem buildSynthDefs = new MenuItem("Build SynthDef Bundle...");
+        buildSynthDefs.setOnAction(e -> {
+            TreeItem<String> selected = folderTree.getSelectionModel().getSelectedItem();
+            if (selected == null) return;
+            // The folder and its subfolders, like Export Folder
+            String folder = buildFolderPath(selected);
+            buildSynthDefs(snapshot -> snapshot.snippets().stream().filter(s -> SnippetStore.isInFolder(s, folder)).toList(), folder);
+        });
+
         MenuItem refreshItem = new MenuItem("Refresh");
-        refreshItem.setOnAction(e -> refreshFolderTree());
+        refreshItem.setOnAction(e -> tasks.requestRefresh());
 
-        contextMenu.getItems().addAll(createSubfolder, renameFolder, new SeparatorMenuItem(), deleteFolder, new SeparatorMenuItem(), refreshItem);
+        contextMenu.getItems().addAll(createSubfolder, renameFolder, exportFolder, buildSynthDefs, new SeparatorMenuItem(), deleteFolder, new SeparatorMenuItem(), refreshItem);
 
         return contextMenu;
     }
 
+    private ContextMenu createSnippetContextMenu() {
+        MenuItem move = new MenuItem();
+        move.setOnAction(e -> onMoveSelected());
+        MenuItem addTags = new MenuItem("Add Tags...");
+        addTags.setOnAction(e -> onAddTagsToSelected());
+        MenuItem removeTags = new MenuItem("Remove Tags...");
+        removeTags.setOnAction(e -> onRemoveTagsFromSelected());
+        MenuItem delete = new MenuItem();
+        delete.setOnAction(e -> onDeleteSnippet());
+
+        ContextMenu contextMenu = new ContextMenu(move, addTags, removeTags, new SeparatorMenuItem(), delete);
+        contextMenu.setOnShowing(e -> {
+            int count = selectedSnippets().size();
+            String what = count == 1 ? "Snippet" : count + " Snippets";
+            move.setText("Move " + what + " to Folder...");
+            delete.setText("Delete " + what + "...");
+            contextMenu.getItems().forEach(item -> item.setDisable(count == 0));
+        });
+        return contextMenu;
+    }
+
     private void onCreateSubfolder() {
         TreeItem<String> selected = folderTree.getSelectionModel().getSelectedItem();
         if (selected == null) return;
@@ -209,16 +617,12 @@ public class MainController {
 
         if (result.isEmpty()) return;
 
-        try {
-            String newPath = parentPath + "/" + result.get();
-            store.createFolder(newPath);
-            refreshFolderTree();
-
-            // Expand parent to show new folder
-            selected.setExpanded(true);
-        } catch (IOException | RuntimeException e) {
-            showError("Failed to create subfolder", e);
-        }
+        // Expand parent to show new folder; expansion survives the tree rebuild
+        selected.setExpanded(true);
+        tasks.mutate("Creating subfolder", () -> {
+            store.createFolder(parentPath + "/" + result.get());
+            return null;
+        }, v -> {});
     }
 
     private void onRenameFolder() {
@@ -238,23 +642,12 @@ public class MainController {
 
         if (result.isEmpty()) return;
 
-        try {
-            // Build new path
-            Path oldFullPath = AppPaths.dataDir().resolve(oldPath);
-            Path parent = oldFullPath.getParent();
-            Path newFullPath = parent.resolve(result.get());
-
-            // Move folder
-            Files.move(oldFullPath, newFullPath);
-
-            // Update all snippets in this folder
-            updateSnippetFolderPaths(oldPath, oldPath.replace(selected.getValue(), result.get()));
-
-            refreshFolderTree();
-            refreshSnippets();
-        } catch (IOException e) {
-            showError("Failed to rename folder", e);
-        }
+        int slash = oldPath.lastIndexOf('/');
+        String newPath = (slash < 0 ? "" : oldPath.substring(0, slash + 1)) + result.get();
+        tasks.mutate("Renaming folder", () -> {
+            store.renameFolder(oldPath, newPath);
+            return null;
+        }, v -> {});
     }
 
     private void onDeleteFolder() {
@@ -270,81 +663,59 @@ public class MainController {
 
         if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) return;
 
-        try {
-            Path fullPath = AppPaths.dataDir().resolve(folderPath);
-            deleteDirectory(fullPath);
-            refreshFolderTree();
-            refreshSnippets();
-            refreshTags();
-        } catch (IOException e) {
-            showError("Failed to delete folder", e);
-        }
+        // Snippets in the folder and its subfolders, whose history goes with them
+        List<UUID> ids = library.snippets().stream()
+                .filter(s -> s.getFolder().equals(folderPath) || s.getFolder().startsWith(folderPath + "/"))
+                .map(Snippet::getId)
+                .toList();
+        tasks.mutate("Deleting folder", () -> {
+            store.deleteFolder(folderPath);
+            history.deleteAll(ids);
+            ids.forEach(similarity::remove);
+            return null;
+        }, v -> {});
     }
 
-    private void deleteDirectory(Path path) throws IOException {
-        if (Files.isDirectory(path)) {
-            try (var stream = Files.list(path)) {
-                stream.forEach(child -> {
-                    try {
-                        deleteDirectory(child);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                });
-            }
-        }
-        Files.delete(path);
-    }
-
-    private void updateSnippetFolderPaths(String oldFolder, String newFolder) throws IOException {
-        List<Snippet> allSnippets = store.loadAll();
-        for (Snippet snippet : allSnippets) {
-            if (snippet.getFolder().startsWith(oldFolder)) {
-                String newPath = snippet.getFolder().replace(oldFolder, newFolder);
-                Snippet updated = new Snippet(
-                        snippet.getId(),
-                        snippet.getName(),
-                        snippet.getDescription(),
-                        snippet.getCode(),
-                        snippet.getTags(),
-                        newPath,
-                        snippet.getCreatedDate(),
-                        snippet.getModifiedDate()
-                );
-                store.save(updated);
-            }
+    // Rebuilt from the loaded library, keeping expanded folders and the selected one
+    private void refreshFolderTree() {
+        Set<String> expanded = new HashSet<>();
+        if (folderTree.getRoot() != null) collectExpanded(folderTree.getRoot(), expanded);
+        String keepSelected = selectedFolder;
+
+        TreeItem<String> root = new TreeItem<>("data");
+        root.setExpanded(true);
+        TreeItem<String> reselect = null;
+        for (String folder : library.folders()) {
+            TreeItem<String> item = addFolderPath(root, folder);
+            item.setExpanded(expanded.contains(folder));
+            if (folder.equals(keepSelected)) reselect = item;
         }
-    }
 
-    private void refreshFolderTree() {
+        rebuildingTree = true;
         try {
-            Path dataDir = AppPaths.dataDir();
-            Files.createDirectories(dataDir);
-
-            TreeItem<String> root = new TreeItem<>("data");
-            root.setExpanded(true);
-
-            try (var stream = Files.walk(dataDir)) {
-                stream
-                        .filter(Files::isDirectory)
-                        .filter(p -> !p.equals(dataDir))
-                        .sorted(Comparator.comparing(Path::toString))
-                        .forEach(dir -> addFolderPath(root, dataDir, dir));
-            }
-
             folderTree.setRoot(root);
             folderTree.setShowRoot(false);
-        } catch (IOException e) {
-            showError("Failed to load folders", e);
+            if (reselect != null) {
+                folderTree.getSelectionModel().select(reselect);
+            } else {
+                selectedFolder = null;
+            }
+        } finally {
+            rebuildingTree = false;
+        }
+    }
+
+    private void collectExpanded(TreeItem<String> item, Set<String> out) {
+        for (TreeItem<String> child : item.getChildren()) {
+            if (child.isExpanded()) out.add(buildFolderPath(child));
+            collectExpanded(child, out);
         }
     }
 
-    private void addFolderPath(TreeItem<String> root, Path base, Path dir) {
-        Path rel = base.relativize(dir);
+    private TreeItem<String> addFolderPath(TreeItem<String> root, String folder) {
         TreeItem<String> current = root;
 
-        for (Path part : rel) {
-            String name = part.toString();
+        for (String name : folder.split("/")) {
 
             TreeItem<String> next = null;
             for (TreeItem<String> child : current.getChildren()) {
@@ -362,44 +733,278 @@ public class MainController {
 
             current = next;
         }
+        return current;
     }
 
     private void refreshSnippets() {
+        // A store query still running belongs to older filters
+        storeQuery++;
+        if (codeSearch != null) {
+            codeSearch.cancel();
+            codeSearch = null;
+        }
+        // Tag filter is global; the folder only applies when no tag is selected
+        SnippetQuery filters = new SnippetQuery("", selectedTag, selectedFolder);
+        Pattern regex;
         try {
-            List<Snippet> snippets = store.loadAll();
-
-            // Apply search filter first (global)
-            if (!searchText.isEmpty()) {
-                String search = searchText.toLowerCase();
-                snippets = snippets.stream()
-                        .filter(s ->
-                            s.getName().toLowerCase().contains(search) ||
-                            s.getCode().toLowerCase().contains(search) ||
-                            s.getTags().stream().anyMatch(tag -> tag.toLowerCase().contains(search)) ||
-                            (s.getDescription() != null && s.getDescription().toLowerCase().contains(search))
-                        )
-                        .toList();
+            regex = CodeSearch.parseQuery(searchText);
+        } catch (PatternSyntaxException e) {
+            searchHits = Map.of();
+            results.setCursor(SnippetCursor.EMPTY);
+            updateFilterLabel();
+            filterLabel.setText("Invalid pattern: " + e.getDescription());
+            return;
+        }
+        // Text search is ranked by relevance, play views by the history; the chosen order applies otherwise
+        sortBox.setDisable(regex == null && (!searchText.isEmpty() || playView != null));
+        if (regex != null) {
+            runCodeSearch(regex, filters);
+            return;
+        }
+
+        // Filtering works on the loaded library, so typing never touches the disk, unless the store
+        // indexes search itself; then the store is asked off the FX thread
+        SnippetCursor snippets;
+        if (searchText.isEmpty() && playView != null) {
+            searchHits = Map.of();
+            snippets = SnippetCursor.of(playedSnippets(filters));
+        } else if (searchText.isEmpty() && store.indexesSearch() && !filters.equals(SnippetQuery.ALL)) {
+            searchHits = Map.of();
+            LibrarySnapshot snapshot = library;
+            SnippetSort order = sort;
+            queryStore(() -> filtered(snapshot, filters, order), found -> {
+                setSnippets(found);
+                updateFilterLabel();
+            });
+            return;
+        } else if (searchText.isEmpty()) {
+            searchHits = Map.of();
+            snippets = library.query(filters, sort);
+        } else {
+            // Ranked, best match first, by the store's full-text index or else the in-memory one;
+            // only the top hits are listed
+            LibrarySnapshot snapshot = library;
+            String text = searchText;
+            queryStore(() -> store.indexesSearch() ? ranked(snapshot, text, filters) : indexed(snapshot, text, filters), hits -> {
+                searchHits = hits.stream().collect(Collectors.toMap(h -> h.snippet().getId(), h -> h));
+                setSnippets(SnippetCursor.of(hits.stream().map(SearchIndex.Hit::snippet).toList()));
+                updateFilterLabel();
+            });
+            return;
+        }
+
+        setSnippets(snippets);
+        updateFilterLabel();
+    }
+
+    // Matches of filters in snapshot, in the given order; the store is asked when it indexes search
+    private SnippetCursor filtered(LibrarySnapshot snapshot, SnippetQuery filters, SnippetSort order) throws IOException {
+        if (!store.indexesSearch() || filters.equals(SnippetQuery.ALL)) return snapshot.query(filters, order);
+        return snapshot.query(store.searchIds(filters), order);
+    }
+
+    // The in-memory index's best matches for text. Runs on the store query thread, the only one
+    // touching the index: the first sync after a library change reads (and decompresses) all code
+    private List<SearchIndex.Hit> indexed(LibrarySnapshot snapshot, String text, SnippetQuery filters) {
+        if (searchIndexed != snapshot.version()) {
+            searchIndex.sync(snapshot.snippets());
+            searchIndexed = snapshot.version();
+        }
+        return searchIndex.search(text, SearchIndex.DEFAULT_LIMIT, filters::matches);
+    }
+
+    // The store's best matches for text, as instances of snapshot
+    private List<SearchIndex.Hit> ranked(LibrarySnapshot snapshot, String text, SnippetQuery filters) throws IOException {
+        List<Snippet> found = store.rankedIds(text, filters, SearchIndex.DEFAULT_LIMIT).stream()
+                .map(snapshot::get)
+                .filter(Objects::nonNull)
+                .toList();
+        return SearchIndex.substringHits(found, SnippetQuery.words(text));
+    }
+
+    // Runs query off the FX thread and shows its result, unless the filters changed meanwhile
+    private <T> void queryStore(Callable<T> query, Consumer<T> show) {
+        long request = ++storeQuery;
+        storeQueries.execute(() -> {
+            try {
+                T result = query.call();
+                javafx.application.Platform.runLater(() -> {
+                    if (storeQuery == request) show.accept(result);
+                });
+            } catch (Exception e) {
+                javafx.application.Platform.runLater(() -> {
+                    if (storeQuery == request) showError("Search failed", e);
+                });
             }
+        });
+    }
 
-            // Tag filter is global - search across all snippets
-            if (selectedTag != null) {
-                snippets = snippets.stream()
-                        .filter(s -> s.getTags().contains(selectedTag))
-                        .toList();
-            } else if (selectedFolder != null) {
-                // Only filter by folder if no tag is selected
-                snippets = snippets.stream()
-                        .filter(s -> s.getFolder().equals(selectedFolder))
-                        .toList();
+    // Snippets of the current play view still in the library and matching the filters
+    private List<Snippet> playedSnippets(SnippetQuery filters) {
+        List<PlayHistory.Entry> entries = playView == PlayView.RECENT
+                ? plays.recent(Integer.MAX_VALUE) : plays.mostPlayed(Integer.MAX_VALUE);
+        int limit = playView == PlayView.RECENT ? Math.max(1, config.getMaxRecent()) : MOST_PLAYED_LIMIT;
+        return entries.stream()
+                .map(e -> library.get(e.id()))
+                .filter(Objects::nonNull)
+                .filter(filters::matches)
+                .limit(limit)
+                .toList();
+    }
+
+    @FXML
+    private void onShowRecentlyPlayed() {
+        playView = PlayView.RECENT;
+        refreshSnippets();
+    }
+
+    @FXML
+    private void onShowMostPlayed() {
+        playView = PlayView.MOST_PLAYED;
+        refreshSnippets();
+    }
+
+    /**
+     * Prepares, in the background, the play messages of the snippets likely to be played next: the
+     * selected one, those usually played after it, its neighbours in the list and the most played.
+     */
+    private void prefetchAround(Snippet current) {
+        LibrarySnapshot snapshot = library;
+        List<Snippet> likely = new ArrayList<>();
+        likely.add(current);
+        plays.followers(current.getId(), PREFETCH_FOLLOWERS).stream().map(snapshot::get).filter(Objects::nonNull).forEach(likely::add);
+        int index = results.indexOf(current.getId());
+        if (index >= 0) {
+            for (int i = Math.max(0, index - PREFETCH_NEIGHBOURS); i <= Math.min(results.size() - 1, index + PREFETCH_NEIGHBOURS); i++) {
+                if (i != index) likely.add(results.get(i));
             }
+        }
+        plays.mostPlayed(PREFETCH_POPULAR).stream().map(e -> snapshot.get(e.id())).filter(Objects::nonNull).forEach(likely::add);
 
-            snippetList.getItems().setAll(snippets);
-            updateFilterLabel();
-        } catch (IOException e) {
-            showError("Failed to load snippets", e);
+        long request = ++prefetchRequest;
+        prefetcher.execute(() -> {
+            for (Snippet s : likely) {
+                if (prefetchRequest != request) return;
+                player.prepare(s);
+            }
+        });
+    }
+
+    // Diffs the list into place, keeping the selection (or the pending one) when that snippet is still listed
+    private void setSnippets(SnippetCursor snippets) {
+        updatingList = true;
+        try {
+            swapSnippets(snippets);
+        } finally {
+            updatingList = false;
         }
     }
 
+    private void swapSnippets(SnippetCursor snippets) {
+        Snippet current = snippetList.getSelectionModel().getSelectedItem();
+        UUID keep = pendingSelection != null ? pendingSelection : current == null ? null : current.getId();
+        results.setCursor(snippets);
+        // Controllers address the top of the shown list by slot
+        if (control != null) control.publishSlots(snippets.fetch(0, Math.min(snippets.size(), OscControlServer.MAX_SLOTS)));
+        // Cells that kept their item are not redrawn by the diff, but their highlights may differ
+        rowDecorations.set(rowDecorations.get() + 1);
+
+        Snippet now = snippetList.getSelectionModel().getSelectedItem();
+        if (keep == null || results.indexOf(keep) < 0) {
+            // A whole-list swap can leave the selected index on an unrelated snippet
+            if (now != null && (keep == null || !now.getId().equals(keep))) snippetList.getSelectionModel().clearSelection();
+        } else if (now == null || !now.getId().equals(keep)) {
+            selectSnippet(keep);
+        }
+        pendingSelection = null;
+    }
+
+    // Scans code off the FX thread, adding matches to the list as they are found
+    private void runCodeSearch(Pattern regex, SnippetQuery filters) {
+        searchHits = Map.of();
+        results.setCursor(SnippetCursor.EMPTY);
+        updateFilterLabel();
+
+        LibrarySnapshot snapshot = library;
+        SnippetSort order = sort;
+        // Matches shown so far, only appended to; partial results queue up and are added once per FX pulse
+        List<Snippet> shown = new ArrayList<>();
+        ConcurrentLinkedQueue<Snippet> pending = new ConcurrentLinkedQueue<>();
+        AtomicBoolean publishing = new AtomicBoolean();
+        Task<CodeSearch.Result> task = new Task<>() {
+            {
+                updateTitle("Searching code");
+            }
+
+            @Override
+            protected CodeSearch.Result call() throws IOException {
+                SnippetCursor matches = filtered(snapshot, filters, order);
+                List<Snippet> candidates = matches.fetch(0, matches.size());
+                return CodeSearch.search(candidates, regex, CODE_SEARCH_BUDGET_MS, this::isCancelled, found -> {
+                    pending.addAll(found);
+                    if (!publishing.compareAndSet(false, true)) return;
+                    javafx.application.Platform.runLater(() -> {
+                        publishing.set(false);
+                        if (codeSearch != this) return;
+                        for (Snippet s; (s = pending.poll()) != null; ) shown.add(s);
+                        results.append(SnippetCursor.prefix(shown, shown.size()));
+                    });
+                });
+            }
+        };
+        codeSearch = task;
+
+        task.setOnSucceeded(e -> {
+            if (codeSearch != task) return;
+            codeSearch = null;
+            CodeSearch.Result result = task.getValue();
+            // Partial results arrive in scan order; settle on the list order once done
+            setSnippets(SnippetCursor.of(result.matches()));
+            String status = "Pattern: " + result.matches().size() + " matches";
+            if (result.timedOut()) {
+                status += " (stopped after " + CODE_SEARCH_BUDGET_MS / 1000 + "s, scanned "
+                        + result.scanned() + " of " + result.total() + ")";
+            }
+            filterLabel.setText(filterLabel.getText().isEmpty() ? status : filterLabel.getText() + " | " + status);
+        });
+        task.setOnFailed(e -> {
+            if (codeSearch == task) codeSearch = null;
+            Throwable ex = task.getException();
+            showError("Code search failed", ex instanceof Exception se ? se : new RuntimeException(ex));
+        });
+
+        tasks.execute(task);
+    }
+
+    // What a row shows besides its item: the highlights of its search hit, or its label
+    private Object rowDecoration(Snippet item) {
+        SearchIndex.Hit hit = searchHits.get(item.getId());
+        if (hit != null) return hit.highlights();
+        return playView == PlayView.MOST_PLAYED ? item.getName() + "  (" + plays.plays(item.getId()) + " plays)" : item.getName();
+    }
+
+    private static TextFlow highlightedName(String name, List<SearchIndex.Highlight> highlights) {
+        TextFlow flow = new TextFlow();
+        int pos = 0;
+        for (SearchIndex.Highlight h : highlights) {
+            if (h.field() != SearchIndex.Field.NAME) continue;
+            if (h.start() > pos) flow.getChildren().add(cellText(name.substring(pos, h.start())));
+            Text match = cellText(name.substring(h.start(), h.end()));
+            match.getStyleClass().add("search-match");
+            flow.getChildren().add(match);
+            pos = h.end();
+        }
+        if (pos < name.length()) flow.getChildren().add(cellText(name.substring(pos)));
+        return flow;
+    }
+
+    // "text" picks up the list cell's selected text colour like a plain cell label
+    private static Text cellText(String s) {
+        Text t = new Text(s);
+        t.getStyleClass().add("text");
+        return t;
+    }
+
     private void updateFilterLabel() {
         List<String> filters = new ArrayList<>();
         if (selectedFolder != null) {
@@ -408,6 +1013,9 @@ public class MainController {
         if (selectedTag != null) {
             filters.add("Tag: " + selectedTag);
         }
+        if (playView != null) {
+            filters.add(playView.toString());
+        }
 
         if (filters.isEmpty()) {
             filterLabel.setText("");
@@ -424,23 +1032,19 @@ public class MainController {
     private void onClearFilters() {
         selectedFolder = null;
         selectedTag = null;
+        playView = null;
         folderTree.getSelectionModel().clearSelection();
         tagList.getSelectionModel().clearSelection();
         refreshSnippets();
     }
 
     private void refreshTags() {
-        try {
-            List<Snippet> snippets = store.loadAll();
-            List<String> allTags = snippets.stream()
-                    .flatMap(s -> s.getTags().stream())
-                    .distinct()
-                    .sorted()
-                    .collect(Collectors.toList());
-
-            tagList.getItems().setAll(allTags);
-        } catch (IOException e) {
-            showError("Failed to load tags", e);
+        ListDiff.apply(tagList.getItems(), library.tags(), t -> t);
+        if (selectedTag == null) return;
+        if (library.tags().contains(selectedTag)) {
+            tagList.getSelectionModel().select(selectedTag);
+        } else {
+            selectedTag = null;
         }
     }
 
@@ -460,30 +1064,30 @@ public class MainController {
 
     @FXML
     private void onNewSnippet() {
-        Optional<Snippet> created = showSnippetDialog(
+        showSnippetDialog(
                 "New Snippet",
+                UUID.randomUUID(),
+                null,
                 "",
                 "synthesis",
                 "",
                 List.of()
-        ).map(draft -> Snippet.createNew(
+        ).ifPresent(this::saveNew);
+    }
+
+    private void saveNew(SnippetDraft draft) {
+        Snippet created = Snippet.createNew(
                 draft.name(),
                 null,
                 draft.code(),
                 draft.tags(),
                 draft.folder()
-        ));
-
-        if (created.isEmpty()) return;
-
-        try {
-            store.save(created.get());
-            refreshSnippets();
-            refreshTags();
-            snippetList.getSelectionModel().select(created.get());
-        } catch (IOException e) {
-            showError("Failed to save snippet", e);
-        }
+        );
+        // The journaled draft is dropped only once the snippet is safely stored
+        tasks.mutate("Saving snippet", () -> saveSnippet(null, created), saved -> {
+            discardDraft(draft.draftId());
+            selectAfterRefresh(saved);
+        });
     }
 
     @FXML
@@ -491,36 +1095,45 @@ public class MainController {
         Snippet selected = snippetList.getSelectionModel().getSelectedItem();
         if (selected == null) return;
 
-        Optional<SnippetDraft> edited = showSnippetDialog(
+        showSnippetDialog(
                 "Edit Snippet",
+                UUID.randomUUID(),
+                selected.getId(),
                 selected.getName(),
                 selected.getFolder(),
                 selected.getCode(),
                 selected.getTags()
-        );
-
-        if (edited.isEmpty()) return;
+        ).ifPresent(draft -> saveEdit(selected, draft));
+    }
 
+    private void saveEdit(Snippet selected, SnippetDraft draft) {
         Snippet updated = selected.withUpdatedContent(
-                edited.get().name(),
+                draft.name(),
                 selected.getDescription(),
-                edited.get().code(),
-                edited.get().tags(),
-                edited.get().folder()
+                draft.code(),
+                draft.tags(),
+                draft.folder()
         );
 
-        try {
-            store.save(updated);
-            refreshSnippets();
-            refreshTags();
-            snippetList.getSelectionModel().select(updated);
-        } catch (IOException e) {
-            showError("Failed to update snippet", e);
-        }
+        tasks.mutate("Updating snippet", () -> saveSnippet(selected, updated), saved -> {
+            discardDraft(draft.draftId());
+            selectAfterRefresh(saved);
+        });
     }
 
     @FXML
     private void onDeleteSnippet() {
+        List<Snippet> many = selectedSnippets();
+        if (many.size() > 1) {
+            Alert confirm = new Alert(Alert.AlertType.CONFIRMATION);
+            confirm.setTitle("Delete Snippets");
+            confirm.setHeaderText("Delete " + many.size() + " snippets?");
+            confirm.setContentText("This will remove their files and revision history from disk.");
+            if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) return;
+            runBulk("Deleting " + many.size() + " snippets", editor -> editor.delete(many));
+            return;
+        }
+
         Snippet selected = snippetList.getSelectionModel().getSelectedItem();
         if (selected == null) return;
 
@@ -531,12 +1144,406 @@ public class MainController {
 
         if (confirm.showAndWait().orElse(ButtonType.CANCEL) != ButtonType.OK) return;
 
-        try {
+        tasks.mutate("Deleting snippet", () -> {
             store.delete(selected.getId(), selected.getFolder());
-            refreshSnippets();
+            history.delete(selected.getId());
+            similarity.remove(selected.getId());
+            return null;
+        }, v -> {});
+    }
+
+    private List<Snippet> selectedSnippets() {
+        return snippetList.getSelectionModel().getSelectedItems().stream().filter(Objects::nonNull).toList();
+    }
+
+    private void onMoveSelected() {
+        List<Snippet> selected = selectedSnippets();
+        if (selected.isEmpty()) return;
+
+        TextInputDialog dialog = new TextInputDialog(selectedFolder != null && !selectedFolder.isBlank()
+                ? selectedFolder : selected.get(0).getFolder());
+        dialog.setTitle("Move Snippets");
+        dialog.setHeaderText("Move " + selected.size() + " snippets to another folder");
+        dialog.setContentText("Folder path (e.g. synthesis/effects):");
+        Optional<String> folder = dialog.showAndWait().map(String::trim).filter(f -> !f.isBlank());
+        if (folder.isEmpty()) return;
+
+        try {
+            JsonFileSnippetStore.sanitizeFolder(folder.get());
+        } catch (IllegalArgumentException e) {
+            showError("Invalid folder", e);
+            return;
+        }
+        runBulk("Moving " + selected.size() + " snippets", editor -> editor.move(selected, folder.get()));
+    }
+
+    private void onAddTagsToSelected() {
+        List<Snippet> selected = selectedSnippets();
+        if (selected.isEmpty()) return;
+
+        TextInputDialog dialog = new TextInputDialog(selectedTag != null ? selectedTag : "");
+        dialog.setTitle("Add Tags");
+        dialog.setHeaderText("Add tags to " + selected.size() + " snippets");
+        dialog.setContentText("Tags (comma separated):");
+        List<String> tags = dialog.showAndWait().map(MainController::parseTags).orElse(List.of());
+        if (tags.isEmpty()) return;
+        runBulk("Tagging " + selected.size() + " snippets", editor -> editor.addTags(selected, tags));
+    }
+
+    private void onRemoveTagsFromSelected() {
+        List<Snippet> selected = selectedSnippets();
+        if (selected.isEmpty()) return;
+
+        // Offers every tag the selection carries
+        String present = selected.stream().flatMap(s -> s.getTags().stream()).distinct().sorted()
+                .collect(Collectors.joining(", "));
+        TextInputDialog dialog = new TextInputDialog(present);
+        dialog.setTitle("Remove Tags");
+        dialog.setHeaderText("Remove tags from " + selected.size() + " snippets");
+        dialog.setContentText("Tags (comma separated):");
+        List<String> tags = dialog.showAndWait().map(MainController::parseTags).orElse(List.of());
+        if (tags.isEmpty()) return;
+        runBulk("Untagging " + selected.size() + " snippets", editor -> editor.removeTags(selected, tags));
+    }
+
+    @FunctionalInterface
+    private interface BulkAction {
+        BulkEditor.Result apply(BulkEditor editor) throws IOException;
+    }
+
+    // One background job with progress and cancel, and one library refresh once it is over
+    private void runBulk(String title, BulkAction action) {
+        Task<BulkEditor.Result> task = new Task<>() {
+            {
+                updateTitle(title);
+            }
+
+            @Override
+            protected BulkEditor.Result call() throws Exception {
+                BulkEditor editor = new BulkEditor(
+                        store,
+                        history,
+                        (done, total) -> {
+                            updateProgress(done, total);
+                            updateMessage(done + " of " + total + " written");
+                        },
+                        this::isCancelled
+                );
+                try {
+                    return action.apply(editor);
+                } finally {
+                    // Requested from here rather than on cancel, so batches still finishing are included
+                    tasks.requestRefresh();
+                }
+            }
+        };
+        task.setOnFailed(e -> {
+            Throwable ex = task.getException();
+            showError(title + " failed", ex instanceof Exception be ? be : new RuntimeException(ex));
+        });
+
+        showProgress(title, task);
+        tasks.execute(task);
+    }
+
+    private void selectAfterRefresh(Snippet saved) {
+        pendingSelection = saved.getId();
+    }
+
+    /**
+     * Saves a snippet and appends its code to the revision history. {@code previous} is recorded
+     * first when the snippet has no history yet, so the version being replaced is kept.
+     */
+    private Snippet saveSnippet(Snippet previous, Snippet snippet) throws IOException {
+        // An update also removes the old record if the folder changed
+        Snippet saved = previous == null ? store.save(snippet) : store.update(previous, snippet);
+        similarity.update(saved);
+        try {
+            if (previous != null && history.count(previous.getId()) == 0) {
+                history.record(previous);
+            }
+            history.record(saved);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to record revision for " + snippet.getId());
+            e.printStackTrace();
+        }
+        return saved;
+    }
+
+    // Only computed while the pane is open; the first use indexes the whole library in the background
+    private void showSimilar(Snippet snippet) {
+        if (snippet == null || !similarPane.isExpanded()) {
+            similarList.getItems().clear();
+            return;
+        }
+        LibrarySnapshot snapshot = library;
+        if (similarityIndexed != snapshot.version()) {
+            similarList.getItems().clear();
+            tasks.submit("Indexing similar snippets", () -> {
+                similarity.sync(snapshot.snippets());
+                return null;
+            }, v -> {
+                similarityIndexed = snapshot.version();
+                if (library == snapshot) showSimilar(snippetList.getSelectionModel().getSelectedItem());
+            });
+            return;
+        }
+        similarList.getItems().setAll(similarity.similarTo(snippet.getId(), 20, SIMILAR_MIN));
+        similarPane.setText("Similar snippets (" + similarList.getItems().size() + ")");
+    }
+
+    private void selectSnippet(UUID id) {
+        int index = results.indexOf(id);
+        if (index < 0) return;
+        snippetList.getSelectionModel().select(index);
+        snippetList.scrollTo(index);
+    }
+
+    @FXML
+    private void onDuplicateReport() {
+        LibrarySnapshot snapshot = library;
+        Task<List<List<Snippet>>> task = new Task<>() {
+            {
+                updateTitle("Finding near-duplicates");
+            }
+
+            @Override
+            protected List<List<Snippet>> call() {
+                updateMessage("Indexing library");
+                similarity.sync(snapshot.snippets());
+                updateMessage("Grouping near-duplicates");
+                return similarity.duplicateGroups(DUPLICATE_MIN);
+            }
+        };
+
+        task.setOnSucceeded(e -> {
+            similarityIndexed = snapshot.version();
+            List<List<Snippet>> groups = task.getValue();
+            if (groups.isEmpty()) {
+                Alert info = new Alert(Alert.AlertType.INFORMATION);
+                info.setTitle("Near-Duplicates");
+                info.setHeaderText("No near-duplicate snippets found");
+                info.setContentText("No snippets share " + Math.round(DUPLICATE_MIN * 100) + "% or more of their code.");
+                info.showAndWait();
+                return;
+            }
+
+            TreeItem<Snippet> root = new TreeItem<>();
+            for (List<Snippet> group : groups) {
+                TreeItem<Snippet> head = new TreeItem<>(group.get(0));
+                for (Snippet s : group.subList(1, group.size())) head.getChildren().add(new TreeItem<>(s));
+                root.getChildren().add(head);
+            }
+            TreeView<Snippet> tree = new TreeView<>(root);
+            tree.setShowRoot(false);
+            tree.setPrefSize(520, 420);
+            tree.setCellFactory(tv -> new TreeCell<>() {
+                @Override
+                protected void updateItem(Snippet item, boolean empty) {
+                    super.updateItem(item, empty);
+                    if (empty || item == null) {
+                        setText(null);
+                    } else if (getTreeItem().getParent() == tree.getRoot()) {
+                        setText(item.getName() + "  (" + item.getFolder() + ")  +" + getTreeItem().getChildren().size() + " similar");
+                    } else {
+                        setText(item.getName() + "  (" + item.getFolder() + ")");
+                    }
+                }
+            });
+            tree.setOnMouseClicked(ev -> {
+                TreeItem<Snippet> item = tree.getSelectionModel().getSelectedItem();
+                if (ev.getClickCount() == 2 && item != null) selectSnippet(item.getValue().getId());
+            });
+
+            Dialog<Void> dialog = new Dialog<>();
+            dialog.setTitle("Near-Duplicates");
+            dialog.setHeaderText(groups.size() + " groups of snippets sharing " + Math.round(DUPLICATE_MIN * 100)
+                    + "% or more of their code (oldest first, double-click to select)");
+            dialog.getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+            dialog.getDialogPane().setContent(tree);
+            dialog.setResizable(true);
+            dialog.show();
+        });
+        task.setOnFailed(e -> {
+            Throwable ex = task.getException();
+            showError("Failed to build duplicate report", ex instanceof Exception de ? de : new RuntimeException(ex));
+        });
+
+        showProgress("Finding near-duplicates", task);
+        tasks.execute(task);
+    }
+
+    @FXML
+    private void onCheckIntegrity() {
+        if (!(store instanceof JsonFileSnippetStore json)) {
+            Alert info = new Alert(Alert.AlertType.INFORMATION);
+            info.setTitle("Check Integrity");
+            info.setHeaderText("Not available for the database backend");
+            info.setContentText("The integrity check covers the JSON file library; SQLite checks its own database file.");
+            info.showAndWait();
+            return;
+        }
+        if (!integrityScanning.compareAndSet(false, true)) {
+            Alert info = new Alert(Alert.AlertType.INFORMATION);
+            info.setTitle("Check Integrity");
+            info.setHeaderText("An integrity check is already running");
+            info.showAndWait();
+            return;
+        }
+        Task<IntegrityScanner.Report> task = new Task<>() {
+            {
+                updateTitle("Checking library integrity");
+            }
+
+            @Override
+            protected IntegrityScanner.Report call() throws IOException {
+                try {
+                    // Started by the user, so it does not wait for other tasks
+                    return new IntegrityScanner(json, (done, total) -> {
+                        updateProgress(done, total);
+                        updateMessage(done + " / " + total + " records");
+                    }, () -> false, this::isCancelled).scan(true);
+                } finally {
+                    integrityScanning.set(false);
+                }
+            }
+        };
+
+        task.setOnSucceeded(e -> {
+            IntegrityScanner.Report report = task.getValue();
+            if (report.changedLibrary()) tasks.requestRefresh();
+            showIntegrityReport(report);
+        });
+        task.setOnFailed(e -> {
+            Throwable ex = task.getException();
+            showError("Integrity check failed", ex instanceof Exception ie ? ie : new RuntimeException(ex));
+        });
+
+        showProgress("Checking library integrity", task);
+        tasks.execute(task);
+    }
+
+    private void showIntegrityReport(IntegrityScanner.Report report) {
+        Alert alert = new Alert(report.issues().isEmpty() ? Alert.AlertType.INFORMATION : Alert.AlertType.WARNING);
+        alert.setTitle("Library Integrity");
+        alert.setHeaderText(report.issues().isEmpty()
+                ? "No problems found in " + report.records() + " records"
+                : report.issues().size() + " problems found in " + report.records() + " records");
+        alert.setContentText(report.read() + " records read in " + report.took().toMillis() + " ms.");
+        if (!report.issues().isEmpty()) {
+            TextArea details = new TextArea(report.issues().stream()
+                    .map(i -> i.kind() + "  " + i.path() + "\n    " + i.detail()
+                            + (i.action() == null ? "" : "; " + i.action()))
+                    .collect(Collectors.joining("\n")));
+            details.setEditable(false);
+            details.setPrefSize(620, 300);
+            alert.getDialogPane().setExpandableContent(details);
+            alert.getDialogPane().setExpanded(true);
+            alert.setContentText(alert.getContentText() + " Quarantined files are under "
+                    + AppPaths.dataDir().resolveSibling(IntegrityScanner.QUARANTINE_DIR) + ".");
+        }
+        alert.getDialogPane().setPrefWidth(640);
+        alert.show();
+    }
+
+    @FXML
+    private void onShowHistory() {
+        Snippet selected = snippetList.getSelectionModel().getSelectedItem();
+        if (selected == null) return;
+
+        List<RevisionLog.Revision> revisions;
+        try {
+            revisions = new ArrayList<>(history.list(selected.getId()));
         } catch (IOException e) {
-            showError("Failed to delete snippet", e);
+            showError("Failed to load history", e);
+            return;
         }
+        if (revisions.isEmpty()) {
+            Alert info = new Alert(Alert.AlertType.INFORMATION);
+            info.setTitle("History");
+            info.setHeaderText("No history for \"" + selected.getName() + "\"");
+            info.setContentText("Revisions are recorded each time the snippet's code is saved.");
+            info.showAndWait();
+            return;
+        }
+        revisions.sort(Comparator.comparingInt(RevisionLog.Revision::number).reversed());
+
+        Dialog<RevisionLog.Revision> dialog = new Dialog<>();
+        dialog.setTitle("History");
+        dialog.setHeaderText("Revisions of \"" + selected.getName() + "\"");
+        ButtonType restoreType = new ButtonType("Restore", ButtonBar.ButtonData.OK_DONE);
+        dialog.getDialogPane().getButtonTypes().addAll(restoreType, ButtonType.CLOSE);
+
+        ListView<RevisionLog.Revision> revisionList = new ListView<>();
+        revisionList.getItems().setAll(revisions);
+        revisionList.setPrefWidth(220);
+        revisionList.setCellFactory(lv -> new ListCell<>() {
+            @Override
+            protected void updateItem(RevisionLog.Revision item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty || item == null ? null
+                        : "#" + (item.number() + 1) + "  " + META_DT.format(item.timestamp()));
+            }
+        });
+
+        CheckBox compareCurrent = new CheckBox("Compare with current code");
+        TextArea diffArea = new TextArea();
+        diffArea.setEditable(false);
+        diffArea.setPrefColumnCount(70);
+        diffArea.setPrefRowCount(24);
+        diffArea.getStyleClass().add("code-area");
+
+        // Only the selected revision and the one it is compared against are rebuilt
+        Runnable showDiff = () -> {
+            RevisionLog.Revision rev = revisionList.getSelectionModel().getSelectedItem();
+            if (rev == null) {
+                diffArea.clear();
+                return;
+            }
+            try {
+                String code = history.rebuild(selected.getId(), rev.number());
+                String base;
+                if (compareCurrent.isSelected()) {
+                    base = selected.getCode();
+                } else {
+                    base = rev.number() == 0 ? "" : history.rebuild(selected.getId(), rev.number() - 1);
+                }
+                diffArea.setText(LineDiff.format(LineDiff.diff(LineDiff.lines(base), LineDiff.lines(code)), 3));
+            } catch (IOException | RuntimeException e) {
+                diffArea.setText("Failed to rebuild revision: " + e);
+            }
+        };
+        revisionList.getSelectionModel().selectedItemProperty().addListener((obs, o, n) -> showDiff.run());
+        compareCurrent.selectedProperty().addListener((obs, o, n) -> showDiff.run());
+
+        VBox right = new VBox(8, compareCurrent, diffArea);
+        VBox.setVgrow(diffArea, Priority.ALWAYS);
+        HBox content = new HBox(10, revisionList, right);
+        HBox.setHgrow(right, Priority.ALWAYS);
+        content.setPadding(new Insets(10));
+        dialog.getDialogPane().setContent(content);
+        dialog.setResizable(true);
+
+        Node restoreButton = dialog.getDialogPane().lookupButton(restoreType);
+        restoreButton.disableProperty().bind(revisionList.getSelectionModel().selectedItemProperty().isNull());
+        revisionList.getSelectionModel().selectFirst();
+
+        dialog.setResultConverter(bt -> bt == restoreType ? revisionList.getSelectionModel().getSelectedItem() : null);
+
+        Optional<RevisionLog.Revision> restore = dialog.showAndWait();
+        if (restore.isEmpty()) return;
+
+        tasks.mutate("Restoring revision", () -> {
+            String code = history.rebuild(selected.getId(), restore.get().number());
+            Snippet restored = selected.withUpdatedContent(
+                    selected.getName(),
+                    selected.getDescription(),
+                    code,
+                    selected.getTags(),
+                    selected.getFolder()
+            );
+            return saveSnippet(selected, restored);
+        }, this::selectAfterRefresh);
     }
 
     @FXML
@@ -562,14 +1569,7 @@ public class MainController {
                 selected.getFolder()
         );
 
-        try {
-            store.save(duplicate);
-            refreshSnippets();
-            refreshTags();
-            snippetList.getSelectionModel().select(duplicate);
-        } catch (IOException e) {
-            showError("Failed to duplicate snippet", e);
-        }
+        tasks.mutate("Duplicating snippet", () -> saveSnippet(null, duplicate), this::selectAfterRefresh);
     }
 
     @FXML
@@ -588,10 +1588,8 @@ public class MainController {
         if (file == null) return;
 
         try {
-            Path snippetPath = AppPaths.dataDir()
-                    .resolve(selected.getFolder())
-                    .resolve(selected.getId() + ".json");
-            Files.copy(snippetPath, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            // Write plain JSON rather than copying the stored file, which may hold compressed code
+            Json.mapper().writerWithDefaultPrettyPrinter().writeValue(file, selected);
 
             Alert success = new Alert(Alert.AlertType.INFORMATION);
             success.setTitle("Export Successful");
@@ -603,53 +1601,328 @@ public class MainController {
         }
     }
 
+    // The snippets the folder or tag filter lists, or the whole library
+    @FXML
+    private void onBuildSynthDefs() {
+        String scope = selectedTag != null ? "tag " + selectedTag : selectedFolder != null ? selectedFolder : null;
+        SnippetQuery filter = new SnippetQuery("", selectedTag, selectedFolder);
+        SnippetSort order = sort;
+        buildSynthDefs(snapshot -> {
+            SnippetCursor matches = filtered(snapshot, filter, order);
+            return matches.fetch(0, matches.size());
+        }, scope);
+    }
+
+    @FunctionalInterface
+    private interface SnippetSelection {
+        List<Snippet> select(LibrarySnapshot snapshot) throws IOException;
+    }
+
+    private void buildSynthDefs(SnippetSelection selection, String scope) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Build SynthDef Bundle" + (scope == null ? "" : " (" + scope + ")"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("SuperCollider Files", "*.scd"));
+        // Same file as last time keeps the build incremental
+        if (config.getSynthDefBundle() != null) {
+            Path last = Path.of(config.getSynthDefBundle());
+            if (last.getParent() != null && Files.isDirectory(last.getParent())) fileChooser.setInitialDirectory(last.getParent().toFile());
+            fileChooser.setInitialFileName(last.getFileName().toString());
+        } else {
+            fileChooser.setInitialFileName((scope == null ? "library" : scope.replace('/', '-').replace(' ', '-')) + "-synthdefs.scd");
+        }
+        java.io.File file = fileChooser.showSaveDialog(snippetList.getScene().getWindow());
+        if (file == null) return;
+
+        LibrarySnapshot snapshot = library;
+        tasks.submit("Building SynthDef bundle", () -> SynthDefCompiler.build(selection.select(snapshot), file.toPath()), build -> {
+            config.setSynthDefBundle(file.getAbsolutePath());
+            try {
+                config.save();
+            } catch (IOException e) {
+                System.err.println("Failed to remember SynthDef bundle: " + e.getMessage());
+            }
+
+            StringBuilder details = new StringBuilder()
+                    .append(build.defs().size()).append(" SynthDefs from ").append(build.snippets()).append(" snippets")
+                    .append(" (").append(build.scanned()).append(" scanned since the last build)\n")
+                    .append(build.changed().size()).append(" new or changed, ").append(build.removed().size()).append(" removed");
+            if (!build.conflicts().isEmpty()) details.append("\n\nConflicting definitions:\n").append(String.join("\n", build.conflicts()));
+
+            ButtonType load = new ButtonType("Load on Servers");
+            Alert done = new Alert(Alert.AlertType.INFORMATION, details.toString(), load, ButtonType.OK);
+            done.setTitle("SynthDef Bundle");
+            done.setHeaderText("Wrote " + build.output());
+            done.getDialogPane().setPrefWidth(560);
+            if (done.showAndWait().orElse(ButtonType.OK) != load) return;
+            try {
+                for (String script : SynthDefCompiler.messageScripts(build.defs())) player.evaluate(script);
+            } catch (IOException e) {
+                showError("Failed to send SynthDefs", e);
+            }
+        });
+    }
+
+    @FXML
+    private void onExportLibrary() {
+        exportLibrary(null);
+    }
+
+    private void exportLibrary(String folder) {
+        ChoiceDialog<String> formatDialog = new ChoiceDialog<>("Zip archive", "Zip archive", "NDJSON");
+        formatDialog.setTitle(folder == null ? "Export Library" : "Export Folder");
+        formatDialog.setHeaderText(folder == null ? "Export all snippets" : "Export " + folder + " and its subfolders");
+        formatDialog.setContentText("Format:");
+        Optional<String> choice = formatDialog.showAndWait();
+        if (choice.isEmpty()) return;
+
+        LibraryExporter.Format format = choice.get().equals("NDJSON")
+                ? LibraryExporter.Format.NDJSON
+                : LibraryExporter.Format.ZIP;
+        String baseName = folder == null ? "snippets" : folder.replace('/', '-');
+
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle(formatDialog.getTitle());
+        if (format == LibraryExporter.Format.ZIP) {
+            fileChooser.setInitialFileName(baseName + ".zip");
+            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Zip Archives", "*.zip"));
+        } else {
+            fileChooser.setInitialFileName(baseName + ".ndjson");
+            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("NDJSON Files", "*.ndjson", "*.jsonl"));
+        }
+
+        java.io.File file = fileChooser.showSaveDialog(snippetList.getScene().getWindow());
+        if (file == null) return;
+
+        Task<Long> task = new Task<>() {
+            {
+                updateTitle("Exporting snippets");
+            }
+
+            @Override
+            protected Long call() throws Exception {
+                LibraryExporter exporter = new LibraryExporter(
+                        store,
+                        (done, total) -> {
+                            updateProgress(done, total);
+                            updateMessage("Exported " + done + " of " + total);
+                        },
+                        this::isCancelled
+                );
+                return exporter.export(folder, format, file.toPath());
+            }
+        };
+        task.setOnSucceeded(e -> {
+            Alert success = new Alert(Alert.AlertType.INFORMATION);
+            success.setTitle("Export Successful");
+            success.setHeaderText("Exported " + task.getValue() + " snippets");
+            success.setContentText("Saved to: " + file.getAbsolutePath());
+            success.showAndWait();
+        });
+        task.setOnFailed(e -> {
+            Throwable ex = task.getException();
+            showError("Failed to export snippets", ex instanceof Exception ee ? ee : new RuntimeException(ex));
+        });
+
+        showProgress("Exporting to " + file.getName(), task);
+        tasks.execute(task);
+    }
+
+    @FXML
+    private void onBackup() {
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Choose Backup Folder");
+        if (config.getBackupDir() != null && Files.isDirectory(Path.of(config.getBackupDir()))) {
+            chooser.setInitialDirectory(Path.of(config.getBackupDir()).toFile());
+        }
+        java.io.File dir = chooser.showDialog(snippetList.getScene().getWindow());
+        if (dir == null) return;
+
+        config.setBackupDir(dir.getAbsolutePath());
+        try {
+            config.save();
+        } catch (IOException e) {
+            System.err.println("Failed to remember backup folder: " + e.getMessage());
+        }
+
+        Task<LibraryExporter.BackupResult> task = new Task<>() {
+            {
+                updateTitle("Backing up library");
+            }
+
+            @Override
+            protected LibraryExporter.BackupResult call() throws Exception {
+                LibraryExporter exporter = new LibraryExporter(
+                        store,
+                        (done, total) -> {
+                            updateProgress(done, total);
+                            updateMessage("Checked " + done + " of " + total);
+                        },
+                        this::isCancelled
+                );
+                return exporter.backup(dir.toPath());
+            }
+        };
+        task.setOnSucceeded(e -> {
+            LibraryExporter.BackupResult result = task.getValue();
+            Alert done = new Alert(Alert.AlertType.INFORMATION);
+            done.setTitle("Backup Finished");
+            if (result.archive() == null) {
+                done.setHeaderText("Nothing changed since the last backup");
+            } else {
+                done.setHeaderText("Backed up " + result.written() + " snippets"
+                        + (result.deleted() > 0 ? ", " + result.deleted() + " deletions" : ""));
+                done.setContentText("Saved to: " + result.archive());
+            }
+            done.showAndWait();
+        });
+        task.setOnFailed(e -> {
+            Throwable ex = task.getException();
+            showError("Backup failed", ex instanceof Exception be ? be : new RuntimeException(ex));
+        });
+
+        showProgress("Backing up library", task);
+        tasks.execute(task);
+    }
+
     @FXML
     private void onImportSnippet() {
         FileChooser fileChooser = new FileChooser();
-        fileChooser.setTitle("Import Snippet");
-        fileChooser.getExtensionFilters().add(
-                new FileChooser.ExtensionFilter("JSON Files", "*.json")
+        fileChooser.setTitle("Import Snippets");
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Snippet Files", "*.json", "*.ndjson", "*.jsonl", "*.zip"),
+                new FileChooser.ExtensionFilter("JSON Files", "*.json"),
+                new FileChooser.ExtensionFilter("NDJSON Files", "*.ndjson", "*.jsonl"),
+                new FileChooser.ExtensionFilter("Zip Archives", "*.zip")
         );
 
         java.io.File file = fileChooser.showOpenDialog(snippetList.getScene().getWindow());
         if (file == null) return;
 
-        try {
-            // Ask for folder to import into
-            TextInputDialog folderDialog = new TextInputDialog("synthesis");
-            folderDialog.setTitle("Import Snippet");
-            folderDialog.setHeaderText("Choose destination folder");
-            folderDialog.setContentText("Folder:");
+        runImport(file.toPath());
+    }
 
-            Optional<String> folder = folderDialog.showAndWait();
-            if (folder.isEmpty()) return;
+    @FXML
+    private void onImportFolder() {
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Import Snippets From Folder");
 
-            // Create folder if it doesn't exist
-            Path destFolder = AppPaths.dataDir().resolve(folder.get());
-            Files.createDirectories(destFolder);
+        java.io.File dir = chooser.showDialog(snippetList.getScene().getWindow());
+        if (dir == null) return;
 
-            // Read the snippet to get its ID
-            String content = Files.readString(file.toPath());
-            // Extract ID from JSON (simple approach)
-            String id = content.substring(content.indexOf("\"id\":") + 7);
-            id = id.substring(0, id.indexOf("\""));
+        runImport(dir.toPath());
+    }
 
-            // Copy file to destination
-            Path destPath = destFolder.resolve(id + ".json");
-            Files.copy(file.toPath(), destPath, StandardCopyOption.REPLACE_EXISTING);
+    private void runImport(Path source) {
+        TextInputDialog folderDialog = new TextInputDialog("");
+        folderDialog.setTitle("Import Snippets");
+        folderDialog.setHeaderText("Choose destination folder");
+        folderDialog.setContentText("Folder (blank keeps each snippet's folder):");
 
-            refreshSnippets();
-            refreshTags();
-            refreshFolderTree();
+        Optional<String> folder = folderDialog.showAndWait().map(String::trim);
+        if (folder.isEmpty()) return;
+
+        Task<BulkImporter.Result> task = new Task<>() {
+            {
+                updateTitle("Importing snippets");
+            }
 
+            @Override
+            protected BulkImporter.Result call() throws Exception {
+                BulkImporter importer = new BulkImporter(
+                        store,
+                        folder.get(),
+                        (done, total, records) -> {
+                            updateProgress(done, total);
+                            updateMessage("Read " + records + " snippets");
+                        },
+                        this::isCancelled
+                );
+                return importer.importFrom(source);
+            }
+        };
+
+        task.setOnSucceeded(e -> {
+            tasks.requestRefresh();
+
+            BulkImporter.Result result = task.getValue();
             Alert success = new Alert(Alert.AlertType.INFORMATION);
-            success.setTitle("Import Successful");
-            success.setHeaderText("Snippet imported");
-            success.setContentText("Imported to folder: " + folder.get());
+            success.setTitle("Import Finished");
+            success.setHeaderText("Imported " + result.imported() + " snippets");
+            success.setContentText(
+                    "Skipped (id already in library): " + result.duplicateIds() + "\n" +
+                    "Skipped (identical code): " + result.duplicateCode() + "\n" +
+                    "Invalid records: " + result.invalid()
+            );
             success.showAndWait();
-        } catch (IOException e) {
-            showError("Failed to import snippet", e);
-        }
+        });
+        task.setOnCancelled(e -> tasks.requestRefresh());
+        task.setOnFailed(e -> {
+            tasks.requestRefresh();
+            Throwable ex = task.getException();
+            showError("Failed to import snippets", ex instanceof Exception ie ? ie : new RuntimeException(ex));
+        });
+
+        showProgress("Importing " + source.getFileName(), task);
+        tasks.execute(task);
+    }
+
+    // Copies the JSON data directory into the SQLite database, unless it already holds snippets
+    private void migrateToDatabase() {
+        Task<Long> task = new Task<>() {
+            {
+                updateTitle("Migrating library");
+            }
+
+            @Override
+            protected Long call() throws Exception {
+                try (SqliteSnippetStore db = new SqliteSnippetStore(AppPaths.databaseFile())) {
+                    if (!db.isEmpty()) return -1L;
+                    updateMessage("Copying snippets from " + AppPaths.dataDir());
+                    return db.importFrom(new JsonFileSnippetStore(AppPaths.dataDir()));
+                }
+            }
+        };
+
+        task.setOnSucceeded(e -> {
+            long copied = task.getValue();
+            Alert done = new Alert(Alert.AlertType.INFORMATION);
+            done.setTitle("Settings Saved");
+            done.setHeaderText(copied < 0 ? "Database already contains snippets" : "Copied " + copied + " snippets into the database");
+            done.setContentText("Restart the application to use the SQLite backend.");
+            done.showAndWait();
+        });
+        task.setOnFailed(e -> {
+            Throwable ex = task.getException();
+            showError("Failed to copy library into database", ex instanceof Exception me ? me : new RuntimeException(ex));
+        });
+
+        showProgress("Migrating library", task);
+        tasks.execute(task);
+    }
+
+    // Non-blocking progress dialog that closes itself when the task finishes
+    private void showProgress(String title, Task<?> task) {
+        Dialog<Void> dialog = new Dialog<>();
+        dialog.setTitle(title);
+        dialog.setHeaderText(title);
+        dialog.getDialogPane().getButtonTypes().add(ButtonType.CANCEL);
+
+        ProgressBar bar = new ProgressBar();
+        bar.setPrefWidth(360);
+        bar.progressProperty().bind(task.progressProperty());
+        Label message = new Label();
+        message.textProperty().bind(task.messageProperty());
+        VBox content = new VBox(8, bar, message);
+        content.setPadding(new Insets(10));
+        dialog.getDialogPane().setContent(content);
+
+        dialog.setOnHidden(e -> {
+            if (task.isRunning()) task.cancel();
+        });
+        task.runningProperty().addListener((obs, was, running) -> {
+            if (!running && task.isDone()) dialog.close();
+        });
+        dialog.show();
     }
 
     @FXML
@@ -657,44 +1930,9 @@ public class MainController {
         Snippet selected = snippetList.getSelectionModel().getSelectedItem();
         if (selected == null) return;
 
-        OSCPortOut oscSender = null;
         try {
-            String code = selected.getCode();
-
-            // Smart wrapper: detect if code defines SynthDef or Pdef and wrap appropriately
-            String wrappedCode;
-            if (code.contains("SynthDef(") || code.contains("SynthDef.new(")) {
-                // If it's a SynthDef, wrap in fork, add/sync, then play
-                String synthName = extractSynthDefName(code);
-
-                // Check if code already has .add
-                String defCode = code;
-                if (code.contains(".add")) {
-                    // Remove existing .add since we'll do it in the fork
-                    defCode = code.replaceAll("\\.add;?", "");
-                }
-
-                wrappedCode = "fork {\n" +
-                             "    " + defCode.trim() + ".add;\n" +
-                             "    s.sync;\n" +
-                             "    Synth(\\" + synthName + ");\n" +
-                             "};";
-            } else if (code.contains("Pdef(") || code.contains("Pbind(")) {
-                // If it's a pattern, just add .play
-                wrappedCode = "(\n" + code + "\n).play;";
-            } else if (code.contains(".play")) {
-                // Already has .play, use as-is
-                wrappedCode = code;
-            } else {
-                // Default: wrap in parentheses and add .play
-                wrappedCode = "(\n" + code + "\n).play;";
-            }
-
-            // Send OSC message to SuperCollider on port 57120 (NetAddr receiver)
-            oscSender = new OSCPortOut(InetAddress.getByName("127.0.0.1"), 57120);
-            OSCMessage message = new OSCMessage("/snippet/play", List.of(wrappedCode));
-
-            oscSender.send(message);
+            // Play views pick this up when re-opened; refreshing here would re-sort the list under the selection
+            player.play(selected);
 
             // Show feedback
             playButton.setText("▶ Playing...");
@@ -732,33 +1970,9 @@ public class MainController {
             );
             alert.getDialogPane().setPrefWidth(500);
             alert.showAndWait();
-        } finally {
-            if (oscSender != null) {
-                try {
-                    oscSender.close();
-                } catch (Exception e) {
-                    // Ignore close errors
-                }
-            }
         }
     }
 
-    private String extractSynthDefName(String code) {
-        // Extract SynthDef name from code like: SynthDef(\name, { ... })
-        int start = code.indexOf("SynthDef(");
-        if (start == -1) start = code.indexOf("SynthDef.new(");
-        if (start == -1) return "default";
-
-        start = code.indexOf("\\", start);
-        if (start == -1) return "default";
-
-        int end = code.indexOf(",", start);
-        if (end == -1) end = code.indexOf(")", start);
-        if (end == -1) return "default";
-
-        return code.substring(start + 1, end).trim();
-    }
-
     @FXML
     private void onSetupSuperCollider() {
         String setupCode =
@@ -780,6 +1994,11 @@ public class MainController {
             "    \"All sounds stopped\".postln;\n" +
             "}, '/snippet/stop').permanent_(true);\n" +
             "\n" +
+            "// Answer health checks from the snippet manager\n" +
+            "OSCdef(\\snippetPing, { |msg, time, addr|\n" +
+            "    addr.sendMsg('/snippet/pong', msg[1]);\n" +
+            "}, '/snippet/ping').permanent_(true);\n" +
+            "\n" +
             "\"Snippet player ready! OSCdefs are permanent.\".postln;\n" +
             ")";
 
@@ -810,11 +2029,7 @@ public class MainController {
     private void onStopAll() {
         try {
             // Send stop command to SuperCollider via OSC
-            OSCPortOut oscSender = new OSCPortOut(InetAddress.getByName("127.0.0.1"), 57120);
-            OSCMessage message = new OSCMessage("/snippet/stop", List.of());
-
-            oscSender.send(message);
-            oscSender.close();
+            player.stop();
 
             // Visual feedback
             stopButton.setText("⏹ Stopped");
@@ -846,12 +2061,20 @@ public class MainController {
         grid.setVgap(10);
         grid.setPadding(new Insets(20, 150, 10, 10));
 
-        // OSC Port setting
-        Label oscPortLabel = new Label("OSC Port:");
-        TextField oscPortField = new TextField("57120");
-        oscPortField.setPromptText("Default: 57120");
-        grid.add(oscPortLabel, 0, 0);
-        grid.add(oscPortField, 1, 0);
+        // SuperCollider servers: play and stop go to all of them
+        Label serversLabel = new Label("SuperCollider servers:");
+        TextField serversField = new TextField(String.join(", ", player.servers().getTargets()));
+        serversField.setPromptText("host:port, host:port (default " + ServerRegistry.DEFAULT_TARGET + ")");
+        Label healthLabel = new Label();
+        healthLabel.getStyleClass().add("status-label");
+        Timeline healthUpdates = new Timeline(
+                new KeyFrame(Duration.ZERO, e -> healthLabel.setText(describeHealth())),
+                new KeyFrame(Duration.seconds(1)));
+        healthUpdates.setCycleCount(Animation.INDEFINITE);
+        healthUpdates.play();
+        dialog.setOnHidden(e -> healthUpdates.stop());
+        grid.add(serversLabel, 0, 0);
+        grid.add(new VBox(4, serversField, healthLabel), 1, 0);
 
         // SuperCollider path
         Label scPathLabel = new Label("SuperCollider Path:");
@@ -891,17 +2114,71 @@ public class MainController {
         // Auto-play option
         Label autoPlayLabel = new Label("Auto-play on select:");
         CheckBox autoPlayCheck = new CheckBox();
-        autoPlayCheck.setSelected(false);
+        autoPlayCheck.setSelected(config.isAutoPlay());
         grid.add(autoPlayLabel, 0, 3);
         grid.add(autoPlayCheck, 1, 3);
 
         // Max recent snippets
         Label maxRecentLabel = new Label("Max recent snippets:");
-        Spinner<Integer> maxRecentSpinner = new Spinner<>(5, 50, 10, 5);
+        Spinner<Integer> maxRecentSpinner = new Spinner<>(5, 50, config.getMaxRecent(), 5);
         maxRecentSpinner.setEditable(true);
         grid.add(maxRecentLabel, 0, 4);
         grid.add(maxRecentSpinner, 1, 4);
 
+        // Code compression
+        Label compressLabel = new Label("Compress code:");
+        CheckBox compressCheck = new CheckBox("Store code deflated (restart required)");
+        compressCheck.setSelected(config.isCompressCode());
+        Label dictionaryLabel = new Label("Dictionary: " + config.getCodeDictionary());
+        Button trainButton = new Button("Train from library");
+        // Only kept if the dialog is confirmed
+        AtomicReference<CodeDictionary> trainedDictionary = new AtomicReference<>();
+        trainButton.setOnAction(e -> {
+            trainButton.setDisable(true);
+            tasks.submit("Training dictionary", store::trainDictionary, trained -> {
+                trainedDictionary.set(trained);
+                dictionaryLabel.setText("Dictionary: " + trained.getId());
+            }).runningProperty().addListener((obs, was, running) -> trainButton.setDisable(running));
+        });
+        HBox compressBox = new HBox(10, compressCheck, dictionaryLabel, trainButton);
+        grid.add(compressLabel, 0, 5);
+        grid.add(compressBox, 1, 5);
+
+        // Shared code blobs
+        Label dedupeLabel = new Label("Deduplicate code:");
+        CheckBox dedupeCheck = new CheckBox("Store identical code once (restart required)");
+        dedupeCheck.setSelected(config.isDedupeCode());
+        grid.add(dedupeLabel, 0, 6);
+        grid.add(dedupeCheck, 1, 6);
+
+        // Sharded record layout
+        Label shardLabel = new Label("Shard record files:");
+        CheckBox shardCheck = new CheckBox("Spread each folder's files over id prefix subdirectories (for very large folders)");
+        shardCheck.setSelected(config.isShardRecords());
+        shardCheck.setDisable(!(store instanceof JsonFileSnippetStore));
+        grid.add(shardLabel, 0, 7);
+        grid.add(shardCheck, 1, 7);
+
+        // Record file encoding
+        Label formatLabel = new Label("Record format:");
+        ComboBox<String> formatBox = new ComboBox<>();
+        formatBox.getItems().addAll(AppConfig.FORMAT_JSON, AppConfig.FORMAT_SMILE);
+        formatBox.setValue(JsonFileSnippetStore.Format.of(config.getRecordFormat()) == JsonFileSnippetStore.Format.SMILE
+                ? AppConfig.FORMAT_SMILE : AppConfig.FORMAT_JSON);
+        formatBox.setDisable(!(store instanceof JsonFileSnippetStore));
+        Label formatNote = new Label("json = readable text, smile = compact binary; existing files are converted");
+        grid.add(formatLabel, 0, 8);
+        grid.add(new HBox(10, formatBox, formatNote), 1, 8);
+
+        // Storage backend
+        Label backendLabel = new Label("Storage:");
+        ComboBox<String> backendBox = new ComboBox<>();
+        backendBox.getItems().addAll(AppConfig.BACKEND_JSON, AppConfig.BACKEND_SQLITE);
+        backendBox.setValue(config.getBackend());
+        Label backendNote = new Label("json = one file per snippet, sqlite = " + AppPaths.databaseFile().getFileName() + " (restart required)");
+        grid.add(backendLabel, 0, 9);
+        grid.add(new HBox(10, backendBox, backendNote), 1, 9);
+
         // Add info section
         Label infoLabel = new Label("About:");
         TextArea infoArea = new TextArea();
@@ -911,16 +2188,69 @@ public class MainController {
         infoArea.setText("SuperCollider Snippet Manager v1.0\n" +
                         "Data location: " + AppPaths.dataDir() + "\n" +
                         "Created with JavaFX and SuperCollider");
-        grid.add(infoLabel, 0, 5);
-        grid.add(infoArea, 1, 5);
+        grid.add(infoLabel, 0, 10);
+        grid.add(infoArea, 1, 10);
 
         dialog.getDialogPane().setContent(grid);
         dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
 
         dialog.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
-                // Here you would save settings to preferences
-                // For now, just show confirmation
+                List<String> servers = Pattern.compile("[,\\s]+").splitAsStream(serversField.getText())
+                        .filter(t -> !t.isBlank())
+                        .toList();
+                try {
+                    player.servers().setTargets(servers);
+                } catch (IOException | IllegalArgumentException e) {
+                    showError("Invalid SuperCollider servers", e);
+                    return;
+                }
+                config.setServers(new ArrayList<>(servers));
+                config.setAutoPlay(autoPlayCheck.isSelected());
+                config.setMaxRecent(maxRecentSpinner.getValue());
+                if (playView == PlayView.RECENT) refreshSnippets();
+                config.setCompressCode(compressCheck.isSelected());
+                if (trainedDictionary.get() != null) {
+                    try {
+                        CodeDictionary.register(trainedDictionary.get());
+                    } catch (IOException e) {
+                        showError("Failed to save the trained dictionary", e);
+                        return;
+                    }
+                    config.setCodeDictionary(trainedDictionary.get().getId());
+                }
+                config.setDedupeCode(dedupeCheck.isSelected());
+                boolean reshard = shardCheck.isSelected() != config.isShardRecords();
+                config.setShardRecords(shardCheck.isSelected());
+                boolean reformat = !formatBox.getValue().equals(config.getRecordFormat());
+                config.setRecordFormat(formatBox.getValue());
+                boolean toSqlite = AppConfig.BACKEND_SQLITE.equals(backendBox.getValue())
+                        && !AppConfig.BACKEND_SQLITE.equals(config.getBackend());
+                config.setBackend(backendBox.getValue());
+                try {
+                    config.save();
+                } catch (IOException e) {
+                    showError("Failed to save settings", e);
+                    return;
+                }
+
+                if (reshard && store instanceof JsonFileSnippetStore json) {
+                    boolean toSharded = shardCheck.isSelected();
+                    tasks.mutate(toSharded ? "Sharding record files" : "Unsharding record files",
+                            () -> json.migrateLayout(toSharded),
+                            moved -> {});
+                }
+                if (reformat && store instanceof JsonFileSnippetStore json) {
+                    JsonFileSnippetStore.Format to = JsonFileSnippetStore.Format.of(formatBox.getValue());
+                    tasks.mutate("Converting record files to " + formatBox.getValue(),
+                            () -> json.convertFormat(to),
+                            converted -> {});
+                }
+                if (toSqlite) {
+                    migrateToDatabase();
+                    return;
+                }
+
                 Alert confirm = new Alert(Alert.AlertType.INFORMATION);
                 confirm.setTitle("Settings Saved");
                 confirm.setHeaderText("Settings have been saved");
@@ -930,10 +2260,26 @@ public class MainController {
         });
     }
 
-    private record SnippetDraft(String name, String folder, String code, List<String> tags) {
+    // One line per server, e.g. "127.0.0.1:57120  up, 0.4 ms"
+    private String describeHealth() {
+        return player.servers().health().stream()
+                .map(h -> h.target() + "  " + switch (h.state()) {
+                    case UP -> "up, " + String.format("%.1f ms", h.roundTrip() == null ? 0.0 : h.roundTrip().toNanos() / 1e6);
+                    case DOWN -> "down" + (h.lastError() == null ? "" : " (" + h.lastError() + ")");
+                    case UNKNOWN -> "no reply (run Setup SC again for health checks)";
+                })
+                .collect(Collectors.joining("\n"));
+    }
+
+    private record SnippetDraft(UUID draftId, String name, String folder, String code, List<String> tags) {
     }
 
-    private Optional<SnippetDraft> showSnippetDialog(String title, String name, String folder, String code, List<String> tags) {
+    /**
+     * Edits are journaled under {@code draftId} as they are made. The draft is discarded here if
+     * the dialog is cancelled; otherwise the caller discards it once the snippet is saved.
+     */
+    private Optional<SnippetDraft> showSnippetDialog(String title, UUID draftId, UUID snippetId, String name, String folder,
+                                                     String code, List<String> tags) {
         Dialog<SnippetDraft> dialog = new Dialog<>();
         dialog.setTitle(title);
         dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
@@ -950,8 +2296,12 @@ public class MainController {
         TextField tagsField = new TextField(String.join(", ", tags));
         tagsField.setPromptText("tag1, tag2, tag3");
 
-        TextArea codeField = new TextArea(code);
-        codeField.setPrefRowCount(12);
+        CodeArea codeField = new CodeArea(code);
+        codeField.setParagraphGraphicFactory(LineNumberFactory.get(codeField));
+        codeField.setUseInitialStyleForInsertion(true);
+        ScHighlighter.attach(codeField);
+        VirtualizedScrollPane<CodeArea> codeScroll = new VirtualizedScrollPane<>(codeField);
+        codeScroll.setPrefSize(640, 260);
 
         GridPane grid = new GridPane();
         grid.setHgap(10);
@@ -962,9 +2312,43 @@ public class MainController {
         grid.addRow(1, new Label("Folder:"), folderCombo);
         grid.addRow(2, new Label("Tags:"), tagsField);
         grid.add(new Label("Code:"), 0, 3);
-        grid.add(codeField, 0, 4, 2, 1);
+        grid.add(codeScroll, 0, 4, 2, 1);
 
         dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getStylesheets().add(
+                MainController.class.getResource("code-highlight.css").toExternalForm());
+        dialog.setResizable(true);
+
+        if (drafts != null) {
+            // Captured on the FX thread; the journal writes on its own thread
+            PauseTransition quiet = new PauseTransition(Duration.millis(DRAFT_QUIET_MS));
+            long[] pendingSince = {0};
+            Runnable journal = () -> {
+                pendingSince[0] = 0;
+                drafts.update(new DraftJournal.Draft(draftId, snippetId,
+                        Objects.requireNonNullElse(nameField.getText(), ""),
+                        Objects.requireNonNullElse(folderCombo.getEditor().getText(), ""),
+                        parseTags(tagsField.getText()),
+                        codeField.getText(),
+                        Instant.now()));
+            };
+            quiet.setOnFinished(e -> journal.run());
+            Runnable edited = () -> {
+                long now = System.nanoTime();
+                if (pendingSince[0] == 0) pendingSince[0] = now;
+                if (now - pendingSince[0] >= DRAFT_MAX_DELAY_MS * 1_000_000) {
+                    quiet.stop();
+                    journal.run();
+                } else {
+                    quiet.playFromStart();
+                }
+            };
+            nameField.textProperty().addListener((obs, was, now) -> edited.run());
+            folderCombo.getEditor().textProperty().addListener((obs, was, now) -> edited.run());
+            tagsField.textProperty().addListener((obs, was, now) -> edited.run());
+            codeField.plainTextChanges().subscribe(change -> edited.run());
+            dialog.setOnHidden(e -> quiet.stop());
+        }
 
         dialog.setResultConverter(bt -> {
             if (bt != ButtonType.OK) return null;
@@ -975,36 +2359,25 @@ public class MainController {
 
             if (n.isBlank() || f.isBlank() || c.isBlank()) return null;
 
-            List<String> tagList = t.isBlank() ? List.of() :
-                    List.of(t.split(",")).stream()
-                            .map(String::trim)
-                            .filter(s -> !s.isBlank())
-                            .collect(Collectors.toList());
-
-            return new SnippetDraft(n, f, c, tagList);
+            return new SnippetDraft(draftId, n, f, c, parseTags(t));
         });
 
-        return dialog.showAndWait();
+        Optional<SnippetDraft> result = dialog.showAndWait();
+        if (result.isEmpty()) discardDraft(draftId);
+        return result;
     }
 
-    private List<String> getAllFolders() {
-        try {
-            Path dataDir = AppPaths.dataDir();
-            if (!Files.exists(dataDir)) {
-                return new ArrayList<>();
-            }
-
-            try (var stream = Files.walk(dataDir)) {
-                return stream
-                        .filter(Files::isDirectory)
-                        .filter(p -> !p.equals(dataDir))
-                        .map(p -> dataDir.relativize(p).toString())
-                        .sorted()
+    private static List<String> parseTags(String text) {
+        String t = text == null ? "" : text.trim();
+        return t.isBlank() ? List.of() :
+                List.of(t.split(",")).stream()
+                        .map(String::trim)
+                        .filter(s -> !s.isBlank())
                         .collect(Collectors.toList());
-            }
-        } catch (IOException e) {
-            return new ArrayList<>();
-        }
+    }
+
+    private List<String> getAllFolders() {
+        return library.folders();
     }
 
     private void showError(String title, Exception e) {
@@ -0,0 +1,121 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Minimal OSC 1.0 encoding and decoding: messages with int32, float32 and string arguments, and
+ * bundles, whose elements are handed out one message at a time. Messages are encoded straight to
+ * bytes, so a payload can be built once and sent many times.
+ */
+public final class OscCodec {
+    private static final String BUNDLE = "#bundle";
+
+    public record Message(String address, List<Object> args) {}
+
+    private OscCodec() {}
+
+    /** Encodes a message; arguments may be {@link Integer}, {@link Float} or {@link String}. */
+    public static byte[] encode(String address, Object... args) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeString(out, address);
+        StringBuilder tags = new StringBuilder(",");
+        for (Object arg : args) {
+            tags.append(switch (arg) {
+                case Integer i -> 'i';
+                case Float f -> 'f';
+                case String s -> 's';
+                default -> throw new IllegalArgumentException("Unsupported OSC argument: " + arg);
+            });
+        }
+        writeString(out, tags.toString());
+        for (Object arg : args) {
+            switch (arg) {
+                case Integer i -> writeInt(out, i);
+                case Float f -> writeInt(out, Float.floatToIntBits(f));
+                case String s -> writeString(out, s);
+                default -> throw new IllegalStateException();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes the packet between the buffer's position and limit, passing each message to
+     * {@code handler}, in order, including those nested in bundles.
+     *
+     * @throws IllegalArgumentException if the packet is malformed
+     */
+    public static void decode(ByteBuffer packet, Consumer<Message> handler) {
+        try {
+            decodePacket(packet, handler);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated OSC packet", e);
+        }
+    }
+
+    private static void decodePacket(ByteBuffer packet, Consumer<Message> handler) {
+        String address = readString(packet);
+        if (address.equals(BUNDLE)) {
+            packet.getLong(); // time tag: everything is dispatched on arrival
+            while (packet.hasRemaining()) {
+                int size = packet.getInt();
+                if (size < 0 || size > packet.remaining()) throw new IllegalArgumentException("Bad bundle element size " + size);
+                ByteBuffer element = packet.slice(packet.position(), size);
+                packet.position(packet.position() + size);
+                decodePacket(element, handler);
+            }
+            return;
+        }
+        if (!address.startsWith("/")) throw new IllegalArgumentException("Not an OSC address: " + address);
+
+        // Type tags are optional in old senders; no tags means no arguments
+        String tags = packet.hasRemaining() ? readString(packet) : ",";
+        if (!tags.startsWith(",")) throw new IllegalArgumentException("Bad OSC type tags: " + tags);
+        List<Object> args = new ArrayList<>(tags.length() - 1);
+        for (int i = 1; i < tags.length(); i++) {
+            char tag = tags.charAt(i);
+            switch (tag) {
+                case 'i' -> args.add(packet.getInt());
+                case 'f' -> args.add(packet.getFloat());
+                case 's', 'S' -> args.add(readString(packet));
+                case 'h' -> args.add(packet.getLong());
+                case 'd' -> args.add(packet.getDouble());
+                case 'T' -> args.add(Boolean.TRUE);
+                case 'F' -> args.add(Boolean.FALSE);
+                case 'N', 'I' -> args.add(null);
+                default -> throw new IllegalArgumentException("Unsupported OSC type tag '" + tag + "'");
+            }
+        }
+        handler.accept(new Message(address, args));
+    }
+
+    // Null-terminated, padded to a multiple of four bytes
+    private static String readString(ByteBuffer in) {
+        int start = in.position();
+        int end = start;
+        while (in.get(end) != 0) end++;
+        byte[] bytes = new byte[end - start];
+        in.get(bytes);
+        in.position(Math.min(in.limit(), (end + 4) & ~3));
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeBytes(bytes);
+        for (int pad = 4 - bytes.length % 4; pad > 0; pad--) out.write(0);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int v) {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+}
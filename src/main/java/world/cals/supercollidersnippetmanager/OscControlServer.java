@@ -0,0 +1,188 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Receives OSC from controllers (TouchOSC, sclang, other apps) and turns it into playback:
+ *
+ * <pre>
+ * /sm/play &lt;uuid&gt;   play a snippet by id
+ * /sm/play &lt;slot&gt;   play the snippet in a slot (0-based, int, float or numeric string)
+ * /sm/next           play the slot after the one played last, wrapping around
+ * /sm/stop           stop everything
+ * </pre>
+ *
+ * Slots are the first {@value #MAX_SLOTS} snippets of whatever list the owner publishes, such as
+ * the list shown in the window. Every snippet's {@code /snippet/play} packet is encoded when a
+ * library snapshot is published, off the receive path. A packet therefore goes from the socket to
+ * {@link SnippetPlayer#send(byte[])} through a volatile read and a map lookup, without locks or
+ * encoding.
+ */
+public final class OscControlServer implements AutoCloseable {
+    public static final int DEFAULT_PORT = 57130;
+    public static final int MAX_SLOTS = 128;
+    private static final int MAX_PACKET = 65536;
+
+    // Unchanged snippets keep their instance across snapshots, so their payloads are reused
+    private record Entry(Snippet snippet, byte[] payload) {}
+
+    private record Table(long version, Map<UUID, Entry> entries, UUID[] slots) {
+        static final Table EMPTY = new Table(0, Map.of(), new UUID[0]);
+    }
+
+    private final SnippetPlayer player;
+    private final DatagramChannel channel;
+    private final Thread receiver;
+    private volatile Table table = Table.EMPTY;
+    private final AtomicInteger lastSlot = new AtomicInteger(-1);
+
+    public OscControlServer(SnippetPlayer player, InetSocketAddress address) throws IOException {
+        this.player = player;
+        this.channel = DatagramChannel.open().bind(address);
+        this.receiver = new Thread(this::receive, "osc-control");
+        receiver.setDaemon(true);
+        receiver.setPriority(Thread.MAX_PRIORITY);
+    }
+
+    /**
+     * Where the control port listens: the loopback interface, unless {@code bind} names another
+     * address. Anyone who can reach the port can play code, so the LAN must be asked for.
+     */
+    public static InetSocketAddress bindAddress(String bind, int port) {
+        return bind == null || bind.isBlank()
+                ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                : new InetSocketAddress(bind.trim(), port);
+    }
+
+    public void start() {
+        receiver.start();
+    }
+
+    public InetSocketAddress address() throws IOException {
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    /**
+     * Encodes payloads for a new library snapshot. Call it off the FX thread: it encodes every new
+     * or changed snippet. Slots keep their ids, so a slot whose snippet was deleted plays nothing.
+     */
+    public synchronized void publishLibrary(LibrarySnapshot library) {
+        Table current = table;
+        if (library.version() == current.version()) return;
+        Map<UUID, Entry> entries = new HashMap<>(library.size() * 4 / 3 + 1);
+        for (Snippet s : library.snippets()) {
+            Entry old = current.entries().get(s.getId());
+            entries.put(s.getId(), old != null && old.snippet() == s ? old : new Entry(s, SnippetPlayer.payload(s)));
+        }
+        table = new Table(library.version(), entries, current.slots());
+    }
+
+    /** Assigns slots to the first {@value #MAX_SLOTS} of {@code snippets}, in order. */
+    public synchronized void publishSlots(List<Snippet> snippets) {
+        UUID[] slots = snippets.stream()
+                .limit(MAX_SLOTS)
+                .map(Snippet::getId)
+                .toArray(UUID[]::new);
+        Table current = table;
+        table = new Table(current.version(), current.entries(), slots);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+            receiver.join(1000);
+        } catch (IOException e) {
+            // Ignore close errors
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void receive() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET);
+        while (channel.isOpen()) {
+            buffer.clear();
+            try {
+                channel.receive(buffer);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("OSC control receive failed: " + e.getMessage());
+                continue;
+            }
+            buffer.flip();
+            try {
+                OscCodec.decode(buffer, this::dispatch);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring OSC packet: " + e.getMessage());
+            }
+        }
+    }
+
+    private void dispatch(OscCodec.Message message) {
+        try {
+            switch (message.address()) {
+                case "/sm/play" -> {
+                    if (message.args().isEmpty()) throw new IllegalArgumentException("/sm/play needs a snippet id or slot");
+                    play(message.args().get(0));
+                }
+                case "/sm/next" -> {
+                    Table t = table;
+                    playSlot(t, t.slots().length == 0 ? 0 : (lastSlot.get() + 1) % t.slots().length);
+                }
+                case "/sm/stop" -> player.stop();
+                default -> {
+                    // Not ours; controllers often send more than we listen to
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Ignoring " + message.address() + ": " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Failed to send " + message.address() + " to SuperCollider: " + e.getMessage());
+        }
+    }
+
+    private void play(Object target) throws IOException {
+        Table t = table;
+        switch (target) {
+            case Integer slot -> playSlot(t, slot);
+            case Float slot -> playSlot(t, Math.round(slot));
+            case String s when !s.isEmpty() && s.chars().allMatch(Character::isDigit) -> playSlot(t, Integer.parseInt(s));
+            case String s -> {
+                UUID id = UUID.fromString(s.trim());
+                Entry entry = t.entries().get(id);
+                if (entry == null) throw new IllegalArgumentException("No snippet " + id);
+                player.sendPlay(id, entry.payload());
+                lastSlot.set(indexOf(t.slots(), id));
+            }
+            default -> throw new IllegalArgumentException("Expected a snippet id or slot, got " + target);
+        }
+    }
+
+    private void playSlot(Table t, int slot) throws IOException {
+        UUID[] slots = t.slots();
+        if (slot < 0 || slot >= slots.length) throw new IllegalArgumentException("No slot " + slot);
+        Entry entry = t.entries().get(slots[slot]);
+        if (entry == null) throw new IllegalArgumentException("Slot " + slot + " is empty");
+        player.sendPlay(slots[slot], entry.payload());
+        lastSlot.set(slot);
+    }
+
+    private static int indexOf(UUID[] slots, UUID id) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i].equals(id)) return i;
+        }
+        return -1;
+    }
+}
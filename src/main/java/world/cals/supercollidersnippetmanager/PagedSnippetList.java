@@ -0,0 +1,203 @@
+package world.cals.supercollidersnippetmanager;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableListBase;
+
+import java.util.AbstractList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Read-only list over a {@link SnippetCursor}, used as the snippet ListView's items. Snippets are
+ * copied out of the cursor a page at a time, only when a cell asks for them. Only the visible range
+ * plus a prefetch margin is ever held, however large the result. Small results are diffed when the
+ * cursor changes, so scroll position and unchanged cells survive. Large results are swapped in one
+ * change.
+ */
+public final class PagedSnippetList extends ObservableListBase<Snippet> {
+    private static final int PAGE_SIZE = 128;
+    // Rows from either edge of a page at which the neighbouring page is fetched too
+    private static final int PREFETCH = 32;
+    private static final int MAX_PAGES = 16;
+    private static final int DIFF_LIMIT = 2000;
+
+    private SnippetCursor cursor = SnippetCursor.EMPTY;
+    private final Map<Integer, List<Snippet>> pages = new LinkedHashMap<>(MAX_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Snippet>> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+
+    public SnippetCursor getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(SnippetCursor next) {
+        SnippetCursor old = cursor;
+        if (old == next) return;
+
+        if (old.size() <= DIFF_LIMIT && next.size() <= DIFF_LIMIT) {
+            List<Snippet> before = old.fetch(0, old.size());
+            List<Snippet> after = next.fetch(0, next.size());
+            swap(next);
+            beginChange();
+            boolean planned = ListDiff.plan(before, after, Snippet::getId, new ListDiff.Edits<>() {
+                @Override
+                public void remove(int from, List<Snippet> removed) {
+                    nextRemove(from, removed);
+                }
+
+                @Override
+                public void insert(int at, List<Snippet> added) {
+                    nextAdd(at, at + added.size());
+                }
+
+                @Override
+                public void replace(int at, Snippet previous, Snippet item) {
+                    nextSet(at, previous);
+                }
+            });
+            if (!planned) {
+                nextRemove(0, before);
+                nextAdd(0, after.size());
+            }
+            endChange();
+            return;
+        }
+
+        swap(next);
+        if (old.size() > 0 || next.size() > 0) fireChange(new Replacement(old, next.size()));
+    }
+
+    /**
+     * Switches to {@code longer}, which must start with the current cursor's snippets, announcing
+     * only the added rows. Costs nothing per row already shown.
+     */
+    public void append(SnippetCursor longer) {
+        int from = cursor.size();
+        if (longer.size() <= from) return;
+        cursor = longer;
+        // Only the last page can have been cut short
+        pages.remove(from / PAGE_SIZE);
+        beginChange();
+        nextAdd(from, longer.size());
+        endChange();
+    }
+
+    private void swap(SnippetCursor next) {
+        cursor = next;
+        pages.clear();
+    }
+
+    @Override
+    public Snippet get(int index) {
+        Objects.checkIndex(index, size());
+        int page = index / PAGE_SIZE;
+        int offset = index % PAGE_SIZE;
+        Snippet snippet = page(page).get(offset);
+        if (offset >= PAGE_SIZE - PREFETCH) {
+            page(page + 1);
+        } else if (offset < PREFETCH && page > 0) {
+            page(page - 1);
+        }
+        return snippet;
+    }
+
+    @Override
+    public int size() {
+        return cursor.size();
+    }
+
+    /** Position of the snippet with this id, without walking the list. */
+    public int indexOf(UUID id) {
+        return cursor.indexOf(id);
+    }
+
+    // Snippets compare by identity, so the id lookup is exact
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof Snippet s)) return -1;
+        int i = cursor.indexOf(s.getId());
+        return i >= 0 && get(i) == s ? i : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        return indexOf(o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    private List<Snippet> page(int page) {
+        List<Snippet> items = pages.get(page);
+        if (items == null) {
+            int from = page * PAGE_SIZE;
+            if (from >= cursor.size()) return List.of();
+            items = cursor.fetch(from, Math.min(from + PAGE_SIZE, cursor.size()));
+            pages.put(page, items);
+        }
+        return items;
+    }
+
+    // Whole-list replacement whose removed side reads from the old cursor only if a listener asks
+    private final class Replacement extends ListChangeListener.Change<Snippet> {
+        private final List<Snippet> removed;
+        private final int added;
+        private boolean started;
+
+        Replacement(SnippetCursor old, int added) {
+            super(PagedSnippetList.this);
+            this.added = added;
+            this.removed = new AbstractList<>() {
+                @Override
+                public Snippet get(int index) {
+                    return old.fetch(index, index + 1).get(0);
+                }
+
+                @Override
+                public int size() {
+                    return old.size();
+                }
+            };
+        }
+
+        @Override
+        public boolean next() {
+            if (started) return false;
+            started = true;
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            started = false;
+        }
+
+        @Override
+        public int getFrom() {
+            return 0;
+        }
+
+        @Override
+        public int getTo() {
+            return added;
+        }
+
+        @Override
+        public List<Snippet> getRemoved() {
+            return removed;
+        }
+
+        @Override
+        protected int[] getPermutation() {
+            return new int[0];
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package world.cals.supercollidersnippetmanager;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * How often and how recently each snippet was played, and which snippets were played right after
+ * it. {@link #record(UUID)} only bumps atomic counters in concurrent maps, so every caller of the
+ * shared {@link SnippetPlayer} can record at once without locking. The history is saved to its
+ * file by a background thread within {@value #SAVE_DELAY_MS} ms of a change, and when the JVM
+ * exits.
+ */
+public final class PlayHistory {
+    private static final long SAVE_DELAY_MS = 5000;
+    // Followers saved per snippet; the rarest are dropped
+    private static final int MAX_FOLLOWERS = 16;
+
+    public record Entry(UUID id, long plays, Instant lastPlayed) {}
+
+    private static final class Stats {
+        final LongAdder plays = new LongAdder();
+        // Epoch milliseconds
+        final AtomicLong lastPlayed = new AtomicLong();
+        // Snippets played straight after this one, with how often
+        final Map<UUID, LongAdder> followers = new ConcurrentHashMap<>();
+    }
+
+    private final Path file;
+    private final ObjectMapper om = Json.mapper();
+    private final Map<UUID, Stats> stats = new ConcurrentHashMap<>();
+    private final AtomicReference<UUID> previous = new AtomicReference<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    public PlayHistory(Path file) {
+        this.file = file;
+        load();
+        Thread saver = new Thread(this::saveLoop, "play-history");
+        saver.setDaemon(true);
+        saver.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::saveIfChanged, "play-history-exit"));
+    }
+
+    public void record(UUID id) {
+        Stats s = stats(id);
+        s.plays.increment();
+        s.lastPlayed.accumulateAndGet(System.currentTimeMillis(), Math::max);
+        UUID before = previous.getAndSet(id);
+        if (before != null && !before.equals(id)) {
+            stats(before).followers.computeIfAbsent(id, k -> new LongAdder()).increment();
+        }
+        dirty.set(true);
+    }
+
+    public long plays(UUID id) {
+        Stats s = stats.get(id);
+        return s == null ? 0 : s.plays.sum();
+    }
+
+    /** Most recently played first. */
+    public List<Entry> recent(int limit) {
+        return entries(Comparator.comparing(Entry::lastPlayed).reversed(), limit);
+    }
+
+    /** Most often played first; ties go to the more recent. */
+    public List<Entry> mostPlayed(int limit) {
+        return entries(Comparator.comparingLong(Entry::plays).reversed()
+                .thenComparing(Comparator.comparing(Entry::lastPlayed).reversed()), limit);
+    }
+
+    /** Snippets that have been played right after {@code id}, most often first. */
+    public List<UUID> followers(UUID id, int limit) {
+        Stats s = stats.get(id);
+        if (s == null) return List.of();
+        return s.followers.entrySet().stream()
+                .sorted(Map.Entry.<UUID, LongAdder>comparingByValue(Comparator.comparingLong(LongAdder::sum)).reversed())
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    private Stats stats(UUID id) {
+        Stats s = stats.get(id);
+        return s != null ? s : stats.computeIfAbsent(id, k -> new Stats());
+    }
+
+    private List<Entry> entries(Comparator<Entry> order, int limit) {
+        return stats.entrySet().stream()
+                .filter(e -> e.getValue().plays.sum() > 0)
+                .map(e -> new Entry(e.getKey(), e.getValue().plays.sum(), Instant.ofEpochMilli(e.getValue().lastPlayed.get())))
+                .sorted(order)
+                .limit(limit)
+                .toList();
+    }
+
+    private void saveLoop() {
+        try {
+            while (true) {
+                Thread.sleep(SAVE_DELAY_MS);
+                saveIfChanged();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Package-private so tests need not wait for the saver thread
+    synchronized void saveIfChanged() {
+        if (!dirty.getAndSet(false)) return;
+        try {
+            save();
+        } catch (IOException e) {
+            dirty.set(true);
+            System.err.println("Failed to save play history: " + file);
+            e.printStackTrace();
+        }
+    }
+
+    private void save() throws IOException {
+        ObjectNode root = om.createObjectNode();
+        ArrayNode snippets = root.putArray("snippets");
+        for (Map.Entry<UUID, Stats> e : stats.entrySet()) {
+            Stats s = e.getValue();
+            ObjectNode node = snippets.addObject();
+            node.put("id", e.getKey().toString());
+            node.put("plays", s.plays.sum());
+            node.put("lastPlayed", Instant.ofEpochMilli(s.lastPlayed.get()).toString());
+            ObjectNode followers = node.putObject("followers");
+            s.followers.entrySet().stream()
+                    .sorted(Map.Entry.<UUID, LongAdder>comparingByValue(Comparator.comparingLong(LongAdder::sum)).reversed())
+                    .limit(MAX_FOLLOWERS)
+                    .forEach(f -> followers.put(f.getKey().toString(), f.getValue().sum()));
+        }
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        om.writeValue(tmp.toFile(), root);
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) return;
+        try {
+            for (JsonNode node : om.readTree(file.toFile()).path("snippets")) {
+                Stats s = stats(UUID.fromString(node.path("id").asText()));
+                s.plays.add(node.path("plays").asLong());
+                s.lastPlayed.set(Instant.parse(node.path("lastPlayed").asText()).toEpochMilli());
+                node.path("followers").fields().forEachRemaining(f -> {
+                    LongAdder count = new LongAdder();
+                    count.add(f.getValue().asLong());
+                    s.followers.put(UUID.fromString(f.getKey()), count);
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            stats.clear();
+            System.err.println("Failed to read play history, starting empty: " + file);
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package world.cals.supercollidersnippetmanager;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Per-snippet code history. Revisions are appended to {@code <id>.log} as one JSON line each,
+ * either a full checkpoint or a line delta against the previous revision. {@code <id>.idx}
+ * holds a fixed-size entry per revision (offset, length, timestamp) so any revision is found
+ * with one seek and rebuilt from at most {@link #CHECKPOINT_INTERVAL} records.
+ */
+public final class RevisionLog {
+    public static final int CHECKPOINT_INTERVAL = 16;
+
+    private static final int INDEX_ENTRY = Long.BYTES + Integer.BYTES + Long.BYTES;
+
+    public record Revision(int number, Instant timestamp, boolean checkpoint) {}
+
+    private final Path dir;
+    private final ObjectMapper om = Json.mapper();
+
+    public RevisionLog(Path dir) {
+        this.dir = dir;
+    }
+
+    public synchronized int count(UUID id) throws IOException {
+        Path idx = indexFile(id);
+        return Files.exists(idx) ? (int) (Files.size(idx) / INDEX_ENTRY) : 0;
+    }
+
+    /** Appends the snippet's current code as a new revision. Returns false if the code is unchanged. */
+    public synchronized boolean record(Snippet snippet) throws IOException {
+        UUID id = snippet.getId();
+        int rev = count(id);
+        List<String> lines = LineDiff.lines(snippet.getCode());
+        List<String> previous = rev == 0 ? null : rebuildLines(id, rev - 1);
+        if (lines.equals(previous)) {
+            return false;
+        }
+
+        ObjectNode node = om.createObjectNode();
+        node.put("rev", rev);
+        node.put("name", snippet.getName());
+        if (rev % CHECKPOINT_INTERVAL == 0) {
+            node.put("kind", "full");
+            ArrayNode arr = node.putArray("lines");
+            lines.forEach(arr::add);
+        } else {
+            node.put("kind", "delta");
+            node.set("ops", encode(LineDiff.diff(previous, lines)));
+        }
+
+        byte[] bytes = (om.writeValueAsString(node) + "\n").getBytes(StandardCharsets.UTF_8);
+        Files.createDirectories(dir);
+        long offset;
+        try (FileChannel log = FileChannel.open(logFile(id),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            offset = log.size();
+            log.write(ByteBuffer.wrap(bytes));
+        }
+
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+        entry.putLong(offset).putInt(bytes.length).putLong(snippet.getModifiedDate().toEpochMilli()).flip();
+        try (FileChannel idx = FileChannel.open(indexFile(id),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            idx.write(entry);
+        }
+        return true;
+    }
+
+    /** Lists revision metadata from the index only; no revision content is read. */
+    public synchronized List<Revision> list(UUID id) throws IOException {
+        Path idx = indexFile(id);
+        if (!Files.exists(idx)) return List.of();
+
+        List<Revision> out = new ArrayList<>();
+        ByteBuffer all = ByteBuffer.wrap(Files.readAllBytes(idx));
+        for (int rev = 0; all.remaining() >= INDEX_ENTRY; rev++) {
+            all.getLong();
+            all.getInt();
+            out.add(new Revision(rev, Instant.ofEpochMilli(all.getLong()), rev % CHECKPOINT_INTERVAL == 0));
+        }
+        return out;
+    }
+
+    public synchronized String rebuild(UUID id, int rev) throws IOException {
+        return LineDiff.join(rebuildLines(id, rev));
+    }
+
+    public synchronized void delete(UUID id) throws IOException {
+        Files.deleteIfExists(logFile(id));
+        Files.deleteIfExists(indexFile(id));
+    }
+
+    /** Deletes the history of every snippet in {@code ids}, taking the log's lock once. */
+    public synchronized void deleteAll(Collection<UUID> ids) throws IOException {
+        for (UUID id : ids) delete(id);
+    }
+
+    private List<String> rebuildLines(UUID id, int rev) throws IOException {
+        if (rev < 0 || rev >= count(id)) {
+            throw new IllegalArgumentException("No revision " + rev + " for " + id);
+        }
+
+        int checkpoint = rev - rev % CHECKPOINT_INTERVAL;
+        try (RandomAccessFile idx = new RandomAccessFile(indexFile(id).toFile(), "r");
+             RandomAccessFile log = new RandomAccessFile(logFile(id).toFile(), "r")) {
+            List<String> lines = null;
+            for (int r = checkpoint; r <= rev; r++) {
+                idx.seek((long) r * INDEX_ENTRY);
+                long offset = idx.readLong();
+                int length = idx.readInt();
+
+                byte[] bytes = new byte[length];
+                log.seek(offset);
+                log.readFully(bytes);
+                JsonNode node = om.readTree(bytes);
+
+                if ("full".equals(node.path("kind").asText())) {
+                    lines = new ArrayList<>();
+                    for (JsonNode line : node.get("lines")) lines.add(line.asText());
+                } else {
+                    lines = LineDiff.apply(lines, decode(node.get("ops")));
+                }
+            }
+            return lines;
+        }
+    }
+
+    // Ops are ["=", n], ["-", n] or ["+", line, line, ...]; kept and deleted lines are only counted
+    static ArrayNode encode(List<LineDiff.Edit> edits) {
+        ArrayNode ops = JsonNodeFactory.instance.arrayNode();
+        for (LineDiff.Edit e : edits) {
+            ArrayNode op = ops.addArray();
+            switch (e.kind()) {
+                case KEEP -> op.add("=").add(e.lines().size());
+                case DELETE -> op.add("-").add(e.lines().size());
+                case INSERT -> {
+                    op.add("+");
+                    e.lines().forEach(op::add);
+                }
+            }
+        }
+        return ops;
+    }
+
+    static List<LineDiff.Edit> decode(JsonNode ops) {
+        List<LineDiff.Edit> edits = new ArrayList<>();
+        for (JsonNode op : ops) {
+            String kind = op.get(0).asText();
+            if (kind.equals("+")) {
+                List<String> lines = new ArrayList<>();
+                for (int i = 1; i < op.size(); i++) lines.add(op.get(i).asText());
+                edits.add(new LineDiff.Edit(LineDiff.Kind.INSERT, lines));
+            } else {
+                // Only the count matters when replaying a KEEP or DELETE
+                List<String> placeholder = Collections.nCopies(op.get(1).asInt(), "");
+                edits.add(new LineDiff.Edit(kind.equals("=") ? LineDiff.Kind.KEEP : LineDiff.Kind.DELETE, placeholder));
+            }
+        }
+        return edits;
+    }
+
+    private Path logFile(UUID id) {
+        return dir.resolve(id + ".log");
+    }
+
+    private Path indexFile(UUID id) {
+        return dir.resolve(id + ".idx");
+    }
+}
@@ -0,0 +1,279 @@
+package world.cals.supercollidersnippetmanager;
+
+import javafx.application.Platform;
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.model.PlainTextChange;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+import org.fxmisc.richtext.model.TwoDimensional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * SuperCollider syntax highlighting for a {@link CodeArea}. Lexing runs on a background thread,
+ * one line at a time, with the comment or string state carried from line to line. A line whose
+ * text and starting state are unchanged reuses its previous result. Only paragraphs whose styling
+ * differs from what the area already shows are restyled on the FX thread. Typing in a 5,000-line
+ * piece therefore costs a re-lex of cached lines and restyles only the lines actually touched.
+ */
+public final class ScHighlighter {
+    // One lexer thread for all areas; each highlighter's cache is only used from it
+    private static final ExecutorService LEXER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "sc-highlighter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final Set<String> KEYWORDS = Set.of(
+            "var", "arg", "classvar", "const", "nil", "true", "false", "inf", "pi",
+            "this", "super", "thisProcess", "thisThread", "thisFunction", "thisFunctionDef", "thisMethod",
+            "currentEnvironment", "topEnvironment"
+    );
+
+    // Lexer state at a line break: 0 = code, > 0 = block comment nesting depth, STRING = inside "..."
+    private static final int STRING = -1;
+
+    record Line(StyleSpans<Collection<String>> spans, int exitState) {}
+
+    private record Key(String text, int entryState) {}
+
+    private final CodeArea area;
+    // FX thread only: the styling each paragraph shows, null where it is stale
+    private final List<Line> applied = new ArrayList<>();
+    private long version;
+    private boolean lexing;
+    // Lexer thread only
+    private Map<Key, Line> cache = new HashMap<>();
+
+    // Package-private so tests can lex without an area
+    ScHighlighter(CodeArea area) {
+        this.area = area;
+    }
+
+    /** Starts highlighting {@code area}, now and after every change to its text. */
+    public static ScHighlighter attach(CodeArea area) {
+        ScHighlighter h = new ScHighlighter(area);
+        for (int i = 0; i < area.getParagraphs().size(); i++) h.applied.add(null);
+        area.plainTextChanges().subscribe(h::onChange);
+        h.schedule();
+        return h;
+    }
+
+    private void onChange(PlainTextChange change) {
+        version++;
+        // Keep one entry per paragraph: the lines the change spanned become stale entries
+        int first = area.offsetToPosition(change.getPosition(), TwoDimensional.Bias.Forward).getMajor();
+        int removed = count(change.getRemoved(), '\n') + 1;
+        int inserted = count(change.getInserted(), '\n') + 1;
+        if (first + removed <= applied.size()) {
+            applied.subList(first, first + removed).clear();
+            applied.addAll(first, Collections.nCopies(inserted, null));
+        }
+        if (applied.size() != area.getParagraphs().size()) {
+            applied.clear();
+            applied.addAll(Collections.nCopies(area.getParagraphs().size(), null));
+        }
+        schedule();
+    }
+
+    // At most one pass in flight; changes made meanwhile are picked up by one follow-up pass
+    private void schedule() {
+        if (lexing) return;
+        lexing = true;
+        String text = area.getText();
+        long v = version;
+        LEXER.execute(() -> {
+            List<Line> lines = null;
+            try {
+                lines = lex(text);
+            } catch (RuntimeException e) {
+                System.err.println("Highlighting failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+            List<Line> result = lines;
+            Platform.runLater(() -> apply(v, result));
+        });
+    }
+
+    private void apply(long v, List<Line> lines) {
+        lexing = false;
+        if (v != version) {
+            schedule();
+            return;
+        }
+        if (lines == null || lines.size() != applied.size()) return;
+        for (int i = 0; i < lines.size(); i++) {
+            Line line = lines.get(i);
+            if (applied.get(i) != line) {
+                area.setStyleSpans(i, 0, line.spans());
+                applied.set(i, line);
+            }
+        }
+    }
+
+    List<Line> lex(String text) {
+        Map<Key, Line> next = new HashMap<>();
+        List<Line> lines = new ArrayList<>();
+        int state = 0;
+        int start = 0;
+        while (true) {
+            int end = text.indexOf('\n', start);
+            String s = text.substring(start, end < 0 ? text.length() : end);
+            Key key = new Key(s, state);
+            Line line = cache.get(key);
+            if (line == null) line = lexLine(s, state);
+            next.put(key, line);
+            lines.add(line);
+            state = line.exitState();
+            if (end < 0) break;
+            start = end + 1;
+        }
+        // Only the current document's lines are kept
+        cache = next;
+        return lines;
+    }
+
+    private static Line lexLine(String s, int state) {
+        Spans out = new Spans();
+        int n = s.length();
+        int i = 0;
+        while (i < n) {
+            if (state > 0) {
+                int from = i;
+                while (i < n && state > 0) {
+                    if (s.startsWith("/*", i)) {
+                        state++;
+                        i += 2;
+                    } else if (s.startsWith("*/", i)) {
+                        state--;
+                        i += 2;
+                    } else {
+                        i++;
+                    }
+                }
+                out.add(from, i, "comment");
+                continue;
+            }
+            if (state == STRING) {
+                int from = i;
+                while (i < n && s.charAt(i) != '"') i += s.charAt(i) == '\\' ? 2 : 1;
+                if (i < n) {
+                    i++;
+                    state = 0;
+                }
+                i = Math.min(i, n);
+                out.add(from, i, "string");
+                continue;
+            }
+
+            char c = s.charAt(i);
+            int from = i;
+            if (s.startsWith("//", i)) {
+                out.add(i, n, "comment");
+                i = n;
+            } else if (s.startsWith("/*", i)) {
+                state = 1;
+                i += 2;
+                out.add(from, i, "comment");
+            } else if (c == '"') {
+                state = STRING;
+                out.add(from, ++i, "string");
+            } else if (c == '\'') {
+                i++;
+                while (i < n && s.charAt(i) != '\'') i += s.charAt(i) == '\\' ? 2 : 1;
+                i = Math.min(i + 1, n);
+                out.add(from, i, "symbol");
+            } else if (c == '\\' && i + 1 < n && isIdentifierStart(s.charAt(i + 1))) {
+                i = identifierEnd(s, i + 1);
+                out.add(from, i, "symbol");
+            } else if (c == '$' && i + 1 < n) {
+                i = Math.min(i + (s.charAt(i + 1) == '\\' ? 3 : 2), n);
+                out.add(from, i, "string");
+            } else if (c == '~' && i + 1 < n && isIdentifierStart(s.charAt(i + 1))) {
+                i = identifierEnd(s, i + 1);
+                out.add(from, i, "env-var");
+            } else if (Character.isDigit(c)) {
+                i = numberEnd(s, i);
+                out.add(from, i, "number");
+            } else if (isIdentifierStart(c)) {
+                i = identifierEnd(s, i);
+                String word = s.substring(from, i);
+                if (Character.isUpperCase(c)) {
+                    out.add(from, i, "class");
+                } else if (KEYWORDS.contains(word)) {
+                    out.add(from, i, "keyword");
+                }
+            } else {
+                i++;
+            }
+        }
+        return new Line(out.build(n), state);
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return Character.isLetter(c) || c == '_';
+    }
+
+    private static int identifierEnd(String s, int i) {
+        while (i < s.length() && (Character.isLetterOrDigit(s.charAt(i)) || s.charAt(i) == '_')) i++;
+        return i;
+    }
+
+    // Integers, decimals, exponents, radix numbers (16rFF) and pi multiples (2pi)
+    private static int numberEnd(String s, int i) {
+        int n = s.length();
+        while (i < n && Character.isDigit(s.charAt(i))) i++;
+        if (i < n && s.charAt(i) == 'r') {
+            i++;
+            while (i < n && (Character.isLetterOrDigit(s.charAt(i)) || s.charAt(i) == '.')) i++;
+            return i;
+        }
+        if (i + 1 < n && s.charAt(i) == '.' && Character.isDigit(s.charAt(i + 1))) {
+            i++;
+            while (i < n && Character.isDigit(s.charAt(i))) i++;
+        }
+        if (i + 1 < n && s.charAt(i) == 'e') {
+            int j = i + 1;
+            if (s.charAt(j) == '-' || s.charAt(j) == '+') j++;
+            if (j < n && Character.isDigit(s.charAt(j))) {
+                i = j;
+                while (i < n && Character.isDigit(s.charAt(i))) i++;
+            }
+        }
+        if (s.startsWith("pi", i)) i += 2;
+        return i;
+    }
+
+    private static int count(String s, char c) {
+        int k = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == c) k++;
+        }
+        return k;
+    }
+
+    private static final class Spans {
+        private final StyleSpansBuilder<Collection<String>> builder = new StyleSpansBuilder<>();
+        private int pos;
+
+        void add(int from, int to, String style) {
+            if (from > pos) builder.add(Collections.emptyList(), from - pos);
+            if (to > from) builder.add(Collections.singleton(style), to - from);
+            pos = Math.max(pos, to);
+        }
+
+        StyleSpans<Collection<String>> build(int length) {
+            // Always at least one span, even for an empty line
+            if (length > pos || pos == 0) builder.add(Collections.emptyList(), length - pos);
+            return builder.create();
+        }
+    }
+}
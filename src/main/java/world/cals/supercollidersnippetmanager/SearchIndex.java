@@ -0,0 +1,400 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Ranked, typo-tolerant snippet search. Terms from each field go into an inverted index with a
+ * per-field weight (name over tags over description over code). Each query term matches index
+ * terms exactly, by prefix, or within a small edit distance (via a BK-tree over the term
+ * dictionary). Every query term must match; only the best {@code limit} hits are kept.
+ * <p>
+ * The index is updated incrementally by {@link #sync}. Not thread-safe while it is synced; searches
+ * only read, so an index that is no longer synced may be searched from any number of threads.
+ */
+public final class SearchIndex {
+    public static final int DEFAULT_LIMIT = 200;
+
+    public enum Field {
+        NAME(8f), TAGS(4f), DESCRIPTION(2f), CODE(1f);
+
+        final float weight;
+
+        Field(float weight) {
+            this.weight = weight;
+        }
+    }
+
+    /** Match span in a field's text; for {@link Field#TAGS} the text is the tags joined with ", ". */
+    public record Highlight(Field field, int start, int end) {}
+
+    public record Hit(Snippet snippet, double score, List<Highlight> highlights) {}
+
+    private static final float PREFIX_QUALITY = 0.75f;
+    private static final float[] FUZZY_QUALITY = {1f, 0.5f, 0.3f};
+
+    private static final class Doc {
+        final int slot;
+        Snippet snippet;
+        Set<String> terms;
+
+        Doc(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    private record Token(String term, int start, int end) {}
+
+    private final Map<UUID, Doc> docsById = new HashMap<>();
+    private final List<Doc> slots = new ArrayList<>();
+    private final List<Integer> freeSlots = new ArrayList<>();
+    // term -> (doc slot -> field-weighted term frequency)
+    private final Map<String, Map<Integer, Float>> postings = new HashMap<>();
+    // Same keys, sorted for prefix ranges
+    private final NavigableSet<String> sortedTerms = new TreeSet<>();
+    private BkTree terms = new BkTree();
+    private int deadTerms;
+
+    /** Brings the index in line with {@code library}, re-indexing only added or changed snippets. */
+    public void sync(List<Snippet> library) {
+        Set<UUID> seen = new HashSet<>();
+        for (Snippet s : library) {
+            seen.add(s.getId());
+            Doc doc = docsById.get(s.getId());
+            if (doc == null) {
+                add(s);
+            } else if (changed(doc.snippet, s)) {
+                remove(doc);
+                add(s);
+            } else {
+                // Folder moves keep the text; just point at the current instance
+                doc.snippet = s;
+            }
+        }
+        for (Doc doc : List.copyOf(docsById.values())) {
+            if (!seen.contains(doc.snippet.getId())) remove(doc);
+        }
+        if (deadTerms > postings.size()) {
+            rebuildTermTree();
+        }
+    }
+
+    public int size() {
+        return docsById.size();
+    }
+
+    /** Best {@code limit} hits for {@code query} among snippets accepted by {@code filter}, best first. */
+    public List<Hit> search(String query, int limit, Predicate<Snippet> filter) {
+        List<Token> queryTerms = tokenize(query);
+        if (queryTerms.isEmpty() || limit <= 0) return List.of();
+
+        Map<Integer, Double> scores = null;
+        Set<String> matchedTerms = new HashSet<>();
+        for (Token q : queryTerms) {
+            Map<Integer, Double> termScores = new HashMap<>();
+            for (Map.Entry<String, Float> candidate : expand(q.term()).entrySet()) {
+                double quality = candidate.getValue();
+                for (Map.Entry<Integer, Float> p : postings.get(candidate.getKey()).entrySet()) {
+                    termScores.merge(p.getKey(), quality * p.getValue(), Math::max);
+                }
+                matchedTerms.add(candidate.getKey());
+            }
+            // idf over everything the query term matched, so a rare expansion does not outrank an exact hit
+            double idf = Math.log(1 + (double) docsById.size() / Math.max(1, termScores.size()));
+            termScores.replaceAll((slot, score) -> score * idf);
+            if (scores == null) {
+                scores = termScores;
+            } else {
+                Map<Integer, Double> next = termScores;
+                scores.keySet().retainAll(next.keySet());
+                scores.replaceAll((slot, score) -> score + next.get(slot));
+            }
+            if (scores.isEmpty()) return List.of();
+        }
+
+        Comparator<Hit> order = Comparator.comparingDouble(Hit::score)
+                .thenComparing(h -> h.snippet().getModifiedDate());
+        PriorityQueue<Hit> top = new PriorityQueue<>(limit + 1, order);
+        for (Map.Entry<Integer, Double> e : scores.entrySet()) {
+            Snippet s = slots.get(e.getKey()).snippet;
+            if (!filter.test(s)) continue;
+            Hit hit = new Hit(s, e.getValue(), List.of());
+            if (top.size() < limit) {
+                top.add(hit);
+            } else if (order.compare(hit, top.peek()) > 0) {
+                top.poll();
+                top.add(hit);
+            }
+        }
+
+        List<Hit> out = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            Hit h = top.poll();
+            out.add(new Hit(h.snippet(), h.score(), highlights(h.snippet(), matchedTerms)));
+        }
+        return out.reversed();
+    }
+
+    // Candidate index terms for one query term, with their match quality
+    private Map<String, Float> expand(String q) {
+        Map<String, Float> out = new HashMap<>();
+        for (String t : sortedTerms.subSet(q, true, q + Character.MAX_VALUE, false)) {
+            out.put(t, t.length() == q.length() ? 1f : PREFIX_QUALITY);
+        }
+        int maxDistance = q.length() < 4 ? 0 : q.length() < 8 ? 1 : 2;
+        if (maxDistance > 0) {
+            terms.search(q, maxDistance, (t, d) -> {
+                if (postings.containsKey(t)) out.merge(t, FUZZY_QUALITY[d], Math::max);
+            });
+        }
+        return out;
+    }
+
+    private void add(Snippet s) {
+        int slot = freeSlots.isEmpty() ? slots.size() : freeSlots.remove(freeSlots.size() - 1);
+        Doc doc = new Doc(slot);
+        if (slot == slots.size()) slots.add(doc); else slots.set(slot, doc);
+        doc.snippet = s;
+        docsById.put(s.getId(), doc);
+
+        Field[] fields = Field.values();
+        Map<String, int[]> tf = new HashMap<>();
+        for (Field f : fields) {
+            for (Token t : tokenize(text(s, f))) {
+                tf.computeIfAbsent(t.term(), k -> new int[fields.length])[f.ordinal()]++;
+            }
+        }
+        Map<String, Float> weights = new HashMap<>(tf.size() * 2);
+        tf.forEach((term, counts) -> {
+            float w = 0;
+            for (Field f : fields) {
+                // Dampened so a term repeated through the code does not outweigh one in the name
+                int n = counts[f.ordinal()];
+                if (n > 0) w += f.weight * (float) (1 + Math.log(n));
+            }
+            weights.put(term, w);
+        });
+        weights.forEach((term, w) -> {
+            Map<Integer, Float> posting = postings.get(term);
+            if (posting == null) {
+                posting = new HashMap<>();
+                postings.put(term, posting);
+                sortedTerms.add(term);
+                if (!terms.add(term)) deadTerms--;
+            }
+            posting.put(slot, w);
+        });
+        doc.terms = weights.keySet();
+    }
+
+    private void remove(Doc doc) {
+        for (String term : doc.terms) {
+            Map<Integer, Float> posting = postings.get(term);
+            posting.remove(doc.slot);
+            if (posting.isEmpty()) {
+                // Left in the BK-tree until the next rebuild
+                postings.remove(term);
+                sortedTerms.remove(term);
+                deadTerms++;
+            }
+        }
+        docsById.remove(doc.snippet.getId());
+        slots.set(doc.slot, null);
+        freeSlots.add(doc.slot);
+    }
+
+    private void rebuildTermTree() {
+        terms = new BkTree();
+        postings.keySet().forEach(terms::add);
+        deadTerms = 0;
+    }
+
+    // Spans of matched terms per field, in order; a word and its camel-case parts merge into one span
+    private List<Highlight> highlights(Snippet s, Set<String> matchedTerms) {
+        List<Highlight> out = new ArrayList<>();
+        for (Field f : Field.values()) {
+            int start = -1;
+            int end = -1;
+            for (Token t : tokenize(text(s, f))) {
+                if (!matchedTerms.contains(t.term())) continue;
+                if (t.start() < end) {
+                    end = Math.max(end, t.end());
+                } else {
+                    if (start >= 0) out.add(new Highlight(f, start, end));
+                    start = t.start();
+                    end = t.end();
+                }
+            }
+            if (start >= 0) out.add(new Highlight(f, start, end));
+        }
+        return out;
+    }
+
+    /**
+     * Hits for snippets ranked elsewhere, given best first, with every case-insensitive occurrence
+     * of {@code words} highlighted. The scores only keep the order.
+     */
+    public static List<Hit> substringHits(List<Snippet> ranked, List<String> words) {
+        List<Hit> out = new ArrayList<>(ranked.size());
+        for (int i = 0; i < ranked.size(); i++) {
+            Snippet s = ranked.get(i);
+            out.add(new Hit(s, ranked.size() - i, substringHighlights(s, words)));
+        }
+        return out;
+    }
+
+    private static List<Highlight> substringHighlights(Snippet s, List<String> words) {
+        List<Highlight> out = new ArrayList<>();
+        for (Field f : Field.values()) {
+            String text = text(s, f);
+            List<int[]> spans = new ArrayList<>();
+            for (String w : words) {
+                for (int i = 0; i + w.length() <= text.length(); i++) {
+                    if (text.regionMatches(true, i, w, 0, w.length())) spans.add(new int[]{i, i + w.length()});
+                }
+            }
+            spans.sort(Comparator.comparingInt(span -> span[0]));
+            int start = -1;
+            int end = -1;
+            for (int[] span : spans) {
+                if (span[0] <= end) {
+                    end = Math.max(end, span[1]);
+                } else {
+                    if (start >= 0) out.add(new Highlight(f, start, end));
+                    start = span[0];
+                    end = span[1];
+                }
+            }
+            if (start >= 0) out.add(new Highlight(f, start, end));
+        }
+        return out;
+    }
+
+    public static String text(Snippet s, Field field) {
+        return switch (field) {
+            case NAME -> s.getName();
+            case TAGS -> String.join(", ", s.getTags());
+            case DESCRIPTION -> s.getDescription() == null ? "" : s.getDescription();
+            case CODE -> s.getCode();
+        };
+    }
+
+    private static boolean changed(Snippet a, Snippet b) {
+        return !a.getModifiedDate().equals(b.getModifiedDate())
+                || !a.getName().equals(b.getName())
+                || !a.getTags().equals(b.getTags())
+                || !Objects.equals(a.getDescription(), b.getDescription());
+    }
+
+    /**
+     * Lower-cased alphanumeric words. Mixed-case words also yield their camel-case parts, so
+     * "SinOsc" is found by "sinosc", "sin" and "osc".
+     */
+    private static List<Token> tokenize(String text) {
+        List<Token> out = new ArrayList<>();
+        int i = 0;
+        int n = text.length();
+        while (i < n) {
+            while (i < n && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int start = i;
+            while (i < n && Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i == start) continue;
+
+            out.add(new Token(text.substring(start, i).toLowerCase(Locale.ROOT), start, i));
+            int partStart = start;
+            for (int j = start + 1; j <= i; j++) {
+                boolean boundary = j == i
+                        || (Character.isUpperCase(text.charAt(j)) && !Character.isUpperCase(text.charAt(j - 1)))
+                        || (Character.isDigit(text.charAt(j)) != Character.isDigit(text.charAt(j - 1)));
+                if (boundary) {
+                    if (partStart > start || j < i) {
+                        out.add(new Token(text.substring(partStart, j).toLowerCase(Locale.ROOT), partStart, j));
+                    }
+                    partStart = j;
+                }
+            }
+        }
+        return out;
+    }
+
+    /** Burkhard-Keller tree over terms, keyed by Levenshtein distance. */
+    private static final class BkTree {
+        private static final class Node {
+            final String term;
+            final Map<Integer, Node> children = new HashMap<>();
+
+            Node(String term) {
+                this.term = term;
+            }
+        }
+
+        @FunctionalInterface
+        interface Visitor {
+            void match(String term, int distance);
+        }
+
+        private Node root;
+
+        /** Returns false if the term was already present. */
+        boolean add(String term) {
+            if (root == null) {
+                root = new Node(term);
+                return true;
+            }
+            Node node = root;
+            while (true) {
+                int d = distance(term, node.term);
+                if (d == 0) return false;
+                Node child = node.children.get(d);
+                if (child == null) {
+                    node.children.put(d, new Node(term));
+                    return true;
+                }
+                node = child;
+            }
+        }
+
+        void search(String query, int max, Visitor visitor) {
+            if (root == null) return;
+            List<Node> stack = new ArrayList<>();
+            stack.add(root);
+            while (!stack.isEmpty()) {
+                Node node = stack.remove(stack.size() - 1);
+                int d = distance(query, node.term);
+                if (d <= max) visitor.match(node.term, d);
+                for (Map.Entry<Integer, Node> child : node.children.entrySet()) {
+                    if (Math.abs(child.getKey() - d) <= max) stack.add(child.getValue());
+                }
+            }
+        }
+
+        private static int distance(String a, String b) {
+            int[] prev = new int[b.length() + 1];
+            int[] cur = new int[b.length() + 1];
+            for (int j = 0; j <= b.length(); j++) prev[j] = j;
+            for (int i = 1; i <= a.length(); i++) {
+                cur[0] = i;
+                for (int j = 1; j <= b.length(); j++) {
+                    int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                    cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+                }
+                int[] t = prev;
+                prev = cur;
+                cur = t;
+            }
+            return prev[b.length()];
+        }
+    }
+}
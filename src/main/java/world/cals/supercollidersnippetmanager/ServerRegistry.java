@@ -0,0 +1,293 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The sclang instances that play and stop go to. {@link #send(byte[])} writes the same packet to
+ * each target in turn from one persistent, unconnected, non-blocking channel. Each write either
+ * hands the packet to the OS or fails at once, so a slow, full or dead target cannot delay the
+ * others. Because the channel is unconnected, "port unreachable" errors from a dead target never
+ * surface on the play path.
+ *
+ * <p>Health uses a separate connected channel per target. One background thread sends
+ * {@code /snippet/ping <n>} to each target every {@link #PING_INTERVAL}, and notices when nothing
+ * is listening. The OSCdef from "Setup SC" answers with {@code /snippet/pong <n>}, which gives
+ * each target's round-trip time and last-seen time. Targets running older setup code never answer
+ * and stay {@link State#UNKNOWN}, but they still play.
+ */
+public final class ServerRegistry implements AutoCloseable {
+    public static final String DEFAULT_TARGET = SnippetPlayer.DEFAULT_HOST + ":" + SnippetPlayer.DEFAULT_PORT;
+    public static final Duration PING_INTERVAL = Duration.ofSeconds(2);
+    // Unanswered pings after which a target that has answered before counts as down
+    private static final int MISSED_PINGS = 3;
+
+    public enum State { UNKNOWN, UP, DOWN }
+
+    /** Point-in-time view of one target, for display. */
+    public record Health(String target, State state, Duration roundTrip, Instant lastSeen,
+                         long sent, long failed, String lastError) {}
+
+    private static final class Target {
+        final String name;
+        final InetSocketAddress address;
+        // Pings and pongs only
+        final DatagramChannel channel;
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        volatile String lastError;
+        volatile long unreachableNanos;
+        volatile long roundTripNanos = -1;
+        volatile long lastSeenNanos;
+        volatile Instant lastSeen;
+        // Health thread only
+        int pingSeq;
+        long pingSentNanos;
+
+        Target(String name, InetSocketAddress address) throws IOException {
+            this.name = name;
+            this.address = address;
+            this.channel = DatagramChannel.open();
+            try {
+                channel.configureBlocking(false);
+                channel.connect(address);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        // The connected channel reports "nothing listening" on the read or write after a ping
+        void unreachable() {
+            unreachableNanos = System.nanoTime();
+            lastError = "Port unreachable";
+        }
+    }
+
+    private volatile List<Target> targets = List.of();
+    private final DatagramChannel out;
+    // Opened and owned by the health thread
+    private volatile Selector selector;
+    private volatile boolean closed;
+
+    /** An empty registry; see {@link #setTargets(List)}. */
+    public ServerRegistry() throws IOException {
+        out = DatagramChannel.open();
+        out.configureBlocking(false);
+        Thread monitor = new Thread(this::monitor, "sc-health");
+        monitor.setDaemon(true);
+        monitor.start();
+    }
+
+    /**
+     * Parses {@code host:port}, or a bare port meaning {@link SnippetPlayer#DEFAULT_HOST}.
+     *
+     * @throws IllegalArgumentException if it is neither
+     */
+    public static InetSocketAddress parse(String target) {
+        String t = target.trim();
+        int colon = t.lastIndexOf(':');
+        String host = colon < 0 ? SnippetPlayer.DEFAULT_HOST : t.substring(0, colon).trim();
+        int port;
+        try {
+            port = Integer.parseInt(t.substring(colon + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected host:port, got \"" + target + "\"");
+        }
+        if (host.isEmpty() || port < 1 || port > 65535) throw new IllegalArgumentException("Expected host:port, got \"" + target + "\"");
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) throw new IllegalArgumentException("Unknown host: " + host);
+        return address;
+    }
+
+    /**
+     * Replaces the target list. Targets that stay keep their channel and statistics.
+     *
+     * @throws IllegalArgumentException if a target cannot be parsed or resolved
+     */
+    public synchronized void setTargets(List<String> names) throws IOException {
+        if (closed) throw new IOException("Server registry is closed");
+        Map<InetSocketAddress, Target> existing = new HashMap<>();
+        for (Target t : targets) existing.put(t.address, t);
+
+        List<Target> next = new ArrayList<>();
+        for (String name : names) {
+            if (name.isBlank()) continue;
+            InetSocketAddress address = parse(name);
+            if (next.stream().anyMatch(t -> t.address.equals(address))) continue;
+            Target t = existing.remove(address);
+            next.add(t != null ? t : new Target(name.trim(), address));
+        }
+        targets = List.copyOf(next);
+        for (Target gone : existing.values()) {
+            try {
+                gone.channel.close();
+            } catch (IOException e) {
+                // Ignore close errors
+            }
+        }
+        wakeMonitor();
+    }
+
+    public List<String> getTargets() {
+        return targets.stream().map(t -> t.name).toList();
+    }
+
+    /**
+     * Writes {@code packet} to every target. Failures are recorded per target.
+     *
+     * @throws IOException if there are no targets, or the packet reached none of them
+     */
+    public void send(byte[] packet) throws IOException {
+        List<Target> current = targets;
+        if (current.isEmpty()) throw new IOException("No SuperCollider servers configured");
+        ByteBuffer buffer = ByteBuffer.wrap(packet);
+        int delivered = 0;
+        IOException firstError = null;
+        for (Target t : current) {
+            buffer.rewind();
+            try {
+                // Non-blocking: nothing sent means the socket buffer is full
+                if (out.send(buffer, t.address) == 0) throw new IOException("Send buffer full, packet dropped");
+                t.sent.incrementAndGet();
+                delivered++;
+            } catch (IOException e) {
+                t.failed.incrementAndGet();
+                t.lastError = e.getMessage();
+                if (firstError == null) firstError = new IOException(t.name + ": " + e.getMessage(), e);
+            }
+        }
+        if (delivered == 0) throw firstError;
+    }
+
+    public List<Health> health() {
+        long now = System.nanoTime();
+        List<Health> out = new ArrayList<>();
+        for (Target t : targets) {
+            out.add(new Health(t.name, state(t, now),
+                    t.roundTripNanos < 0 ? null : Duration.ofNanos(t.roundTripNanos),
+                    t.lastSeen, t.sent.get(), t.failed.get(), t.lastError));
+        }
+        return out;
+    }
+
+    private static State state(Target t, long now) {
+        long window = PING_INTERVAL.toNanos() * MISSED_PINGS;
+        boolean refused = t.unreachableNanos != 0 && now - t.unreachableNanos < window;
+        if (t.lastSeen == null) return refused ? State.DOWN : State.UNKNOWN;
+        if (refused && t.unreachableNanos - t.lastSeenNanos > 0) return State.DOWN;
+        return now - t.lastSeenNanos > window ? State.DOWN : State.UP;
+    }
+
+    // The health thread registers new channels, or exits, once it wakes
+    private void wakeMonitor() {
+        Selector s = selector;
+        if (s != null) s.wakeup();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        wakeMonitor();
+        try {
+            out.close();
+        } catch (IOException e) {
+            // Ignore close errors
+        }
+        for (Target t : targets) {
+            try {
+                t.channel.close();
+            } catch (IOException e) {
+                // Ignore close errors
+            }
+        }
+        targets = List.of();
+    }
+
+    private void monitor() {
+        ByteBuffer in = ByteBuffer.allocate(1024);
+        long nextPing = System.nanoTime();
+        List<Target> registered = null;
+        try (Selector selector = Selector.open()) {
+            this.selector = selector;
+            while (!closed) {
+                List<Target> current = targets;
+                if (current != registered) {
+                    for (Target t : current) {
+                        try {
+                            if (t.channel.keyFor(selector) == null) t.channel.register(selector, SelectionKey.OP_READ, t);
+                        } catch (ClosedChannelException e) {
+                            // Removed again by a later setTargets
+                        }
+                    }
+                    registered = current;
+                }
+
+                long now = System.nanoTime();
+                if (now >= nextPing) {
+                    for (Target t : current) ping(t, now);
+                    nextPing = now + PING_INTERVAL.toNanos();
+                }
+
+                selector.select(Math.max(1, (nextPing - now) / 1_000_000));
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Target t = (Target) key.attachment();
+                    in.clear();
+                    try {
+                        while (t.channel.read(in) > 0) {
+                            in.flip();
+                            pong(t, in, System.nanoTime());
+                            in.clear();
+                        }
+                    } catch (PortUnreachableException e) {
+                        t.unreachable();
+                    } catch (IOException | IllegalArgumentException e) {
+                        // Closed by setTargets, or a stray packet; the next ping tells
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            System.err.println("Server health monitor stopped: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void ping(Target t, long now) {
+        t.pingSeq++;
+        t.pingSentNanos = now;
+        try {
+            t.channel.write(ByteBuffer.wrap(OscCodec.encode("/snippet/ping", t.pingSeq)));
+        } catch (PortUnreachableException e) {
+            t.unreachable();
+        } catch (IOException e) {
+            t.lastError = e.getMessage();
+        }
+    }
+
+    private static void pong(Target t, ByteBuffer packet, long now) {
+        OscCodec.decode(packet, message -> {
+            if (!message.address().equals("/snippet/pong")) return;
+            t.lastSeenNanos = now;
+            t.lastSeen = Instant.now();
+            if (!message.args().isEmpty() && message.args().get(0) instanceof Integer seq && seq == t.pingSeq) {
+                long sample = now - t.pingSentNanos;
+                long previous = t.roundTripNanos;
+                t.roundTripNanos = previous < 0 ? sample : (previous * 7 + sample) / 8;
+            }
+        });
+    }
+}
@@ -0,0 +1,245 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Near-duplicate detection over snippet code. Each snippet gets a MinHash signature over
+ * shingles of {@value #SHINGLE} consecutive code tokens, and the signature is split into bands
+ * hashed into LSH buckets. Only snippets sharing a bucket are ever compared, so lookups and the
+ * duplicate report scale with bucket sizes rather than with the square of the library.
+ */
+public final class SimilarityIndex {
+    public static final int NUM_HASHES = 64;
+    private static final int BANDS = 16;
+    private static final int ROWS = NUM_HASHES / BANDS;
+    private static final int SHINGLE = 4;
+
+    // Identifiers, numbers, then any other single non-space character
+    private static final Pattern TOKEN = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*|\\d+(?:\\.\\d+)?|\\S");
+    private static final long[] SEEDS = new long[NUM_HASHES];
+
+    static {
+        long s = 0x5CDEF00DL;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            s += 0x9E3779B97F4A7C15L;
+            SEEDS[i] = mix(s) | 1;
+        }
+    }
+
+    public record Match(Snippet snippet, double similarity) {}
+
+    private static final class Entry {
+        Snippet snippet;
+        final int[] signature;
+        final long[] bandKeys;
+
+        Entry(Snippet snippet, int[] signature, long[] bandKeys) {
+            this.snippet = snippet;
+            this.signature = signature;
+            this.bandKeys = bandKeys;
+        }
+    }
+
+    private final Map<UUID, Entry> entries = new HashMap<>();
+    private final List<Map<Long, Set<UUID>>> buckets = new ArrayList<>(BANDS);
+
+    public SimilarityIndex() {
+        for (int b = 0; b < BANDS; b++) buckets.add(new HashMap<>());
+    }
+
+    /** Adds or re-indexes one snippet; call after it is saved. */
+    public synchronized void update(Snippet snippet) {
+        if (!refresh(snippet)) {
+            put(snippet, signature(snippet.getCode()));
+        }
+    }
+
+    public synchronized void remove(UUID id) {
+        Entry e = entries.remove(id);
+        if (e == null || e.bandKeys == null) return;
+        for (int b = 0; b < BANDS; b++) {
+            Set<UUID> bucket = buckets.get(b).get(e.bandKeys[b]);
+            bucket.remove(id);
+            if (bucket.isEmpty()) buckets.get(b).remove(e.bandKeys[b]);
+        }
+    }
+
+    /** Brings the index in line with {@code library}; new and changed snippets are hashed in parallel. */
+    public synchronized void sync(List<Snippet> library) {
+        Set<UUID> seen = new HashSet<>();
+        List<Snippet> changed = new ArrayList<>();
+        for (Snippet s : library) {
+            seen.add(s.getId());
+            if (!refresh(s)) changed.add(s);
+        }
+        List<int[]> signatures = changed.parallelStream().map(s -> signature(s.getCode())).toList();
+        for (int i = 0; i < changed.size(); i++) {
+            put(changed.get(i), signatures.get(i));
+        }
+        for (UUID id : List.copyOf(entries.keySet())) {
+            if (!seen.contains(id)) remove(id);
+        }
+    }
+
+    // True if the indexed version is current; only the instance is swapped (e.g. after a folder move)
+    private boolean refresh(Snippet snippet) {
+        Entry old = entries.get(snippet.getId());
+        if (old == null || !old.snippet.getModifiedDate().equals(snippet.getModifiedDate())) return false;
+        old.snippet = snippet;
+        return true;
+    }
+
+    private void put(Snippet snippet, int[] sig) {
+        remove(snippet.getId());
+        long[] keys = sig == null ? null : bandKeys(sig);
+        entries.put(snippet.getId(), new Entry(snippet, sig, keys));
+        if (keys != null) {
+            for (int b = 0; b < BANDS; b++) {
+                buckets.get(b).computeIfAbsent(keys[b], k -> new HashSet<>()).add(snippet.getId());
+            }
+        }
+    }
+
+    /** Snippets sharing an LSH bucket with {@code id} whose estimated similarity is at least {@code min}. */
+    public synchronized List<Match> similarTo(UUID id, int limit, double min) {
+        Entry e = entries.get(id);
+        if (e == null || e.bandKeys == null) return List.of();
+
+        Set<UUID> candidates = new HashSet<>();
+        for (int b = 0; b < BANDS; b++) {
+            candidates.addAll(buckets.get(b).get(e.bandKeys[b]));
+        }
+        candidates.remove(id);
+
+        List<Match> out = new ArrayList<>();
+        for (UUID c : candidates) {
+            Entry other = entries.get(c);
+            double sim = estimate(e.signature, other.signature);
+            if (sim >= min) out.add(new Match(other.snippet, sim));
+        }
+        out.sort(Comparator.comparingDouble(Match::similarity).reversed());
+        return out.size() > limit ? List.copyOf(out.subList(0, limit)) : out;
+    }
+
+    /**
+     * Groups of snippets whose code is estimated at least {@code threshold} similar, largest group
+     * first. Every pair sharing a bucket is a candidate and is compared once, however many bands
+     * it shares; pairs already in one group are not compared again.
+     */
+    public synchronized List<List<Snippet>> duplicateGroups(double threshold) {
+        Map<UUID, UUID> parent = new HashMap<>();
+        for (Map.Entry<UUID, Entry> e : entries.entrySet()) {
+            UUID id = e.getKey();
+            Entry entry = e.getValue();
+            if (entry.bandKeys == null) continue;
+
+            Set<UUID> candidates = new HashSet<>();
+            for (int b = 0; b < BANDS; b++) {
+                for (UUID c : buckets.get(b).get(entry.bandKeys[b])) {
+                    // Each unordered pair once
+                    if (c.compareTo(id) > 0) candidates.add(c);
+                }
+            }
+            for (UUID c : candidates) {
+                if (parent.containsKey(id) && parent.containsKey(c) && find(parent, id).equals(find(parent, c))) continue;
+                if (estimate(entry.signature, entries.get(c).signature) >= threshold) {
+                    union(parent, id, c);
+                }
+            }
+        }
+
+        Map<UUID, List<Snippet>> groups = new HashMap<>();
+        for (UUID id : parent.keySet()) {
+            groups.computeIfAbsent(find(parent, id), k -> new ArrayList<>()).add(entries.get(id).snippet);
+        }
+        List<List<Snippet>> out = new ArrayList<>();
+        for (List<Snippet> g : groups.values()) {
+            g.sort(Comparator.comparing(Snippet::getModifiedDate));
+            out.add(g);
+        }
+        out.sort(Comparator.comparingInt((List<Snippet> g) -> g.size()).reversed());
+        return out;
+    }
+
+    public static double estimate(int[] a, int[] b) {
+        int same = 0;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            if (a[i] == b[i]) same++;
+        }
+        return (double) same / NUM_HASHES;
+    }
+
+    // Null when the code has no tokens at all
+    static int[] signature(String code) {
+        List<String> tokens = new ArrayList<>();
+        Matcher m = TOKEN.matcher(code);
+        while (m.find()) tokens.add(m.group());
+        if (tokens.isEmpty()) return null;
+
+        int[] sig = new int[NUM_HASHES];
+        Arrays.fill(sig, Integer.MAX_VALUE);
+        int shingles = Math.max(1, tokens.size() - SHINGLE + 1);
+        for (int i = 0; i < shingles; i++) {
+            long h = 0;
+            for (int j = i; j < Math.min(i + SHINGLE, tokens.size()); j++) {
+                h = h * 0x100000001B3L + tokens.get(j).hashCode();
+            }
+            // Mixed once, then one multiply per hash function (seeds are odd); the top 31 bits
+            // are kept so plain int comparison orders them
+            long x = mix(h);
+            for (int k = 0; k < NUM_HASHES; k++) {
+                int v = (int) ((x * SEEDS[k]) >>> 33);
+                if (v < sig[k]) sig[k] = v;
+            }
+        }
+        return sig;
+    }
+
+    private static long[] bandKeys(int[] sig) {
+        long[] keys = new long[BANDS];
+        for (int b = 0; b < BANDS; b++) {
+            long k = b;
+            for (int r = 0; r < ROWS; r++) {
+                k = k * 0x9E3779B97F4A7C15L + sig[b * ROWS + r];
+            }
+            keys[b] = mix(k);
+        }
+        return keys;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static UUID find(Map<UUID, UUID> parent, UUID id) {
+        UUID root = id;
+        while (!parent.get(root).equals(root)) root = parent.get(root);
+        while (!id.equals(root)) {
+            UUID next = parent.get(id);
+            parent.put(id, root);
+            id = next;
+        }
+        return root;
+    }
+
+    private static void union(Map<UUID, UUID> parent, UUID a, UUID b) {
+        parent.putIfAbsent(a, a);
+        parent.putIfAbsent(b, b);
+        UUID ra = find(parent, a);
+        UUID rb = find(parent, b);
+        if (!ra.equals(rb)) parent.put(rb, ra);
+    }
+}
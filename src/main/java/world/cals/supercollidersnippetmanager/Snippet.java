@@ -1,6 +1,7 @@
 package world.cals.supercollidersnippetmanager;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.time.Instant;
@@ -8,11 +9,13 @@ import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
 
+@JsonIgnoreProperties(ignoreUnknown = true)
 public final class Snippet {
     private final UUID id;
     private final String name;
     private final String description;
     private final String code;
+    private final CompressedCode compressedCode;
     private final List<String> tags;
     private final String folder;
     private final Instant createdDate;
@@ -32,6 +35,20 @@ public final class Snippet {
         this.id = Objects.requireNonNull(id, "id");
         this.name = requireNonBlank(name, "name");
         this.code = requireNonBlank(code, "code");
+        this.compressedCode = null;
+        this.folder = requireNonBlank(folder, "folder");
+        this.description = description;
+        this.tags = (tags == null) ? List.of() : List.copyOf(tags);
+        this.createdDate = Objects.requireNonNull(createdDate, "createdDate");
+        this.modifiedDate = Objects.requireNonNull(modifiedDate, "modifiedDate");
+    }
+
+    Snippet(UUID id, String name, String description, CompressedCode compressedCode,
+            List<String> tags, String folder, Instant createdDate, Instant modifiedDate) {
+        this.id = Objects.requireNonNull(id, "id");
+        this.name = requireNonBlank(name, "name");
+        this.code = null;
+        this.compressedCode = Objects.requireNonNull(compressedCode, "compressedCode");
         this.folder = requireNonBlank(folder, "folder");
         this.description = description;
         this.tags = (tags == null) ? List.of() : List.copyOf(tags);
@@ -42,12 +59,23 @@ public final class Snippet {
     public UUID getId() { return id; }
     public String getName() { return name; }
     public String getDescription() { return description; }
-    public String getCode() { return code; }
+    public String getCode() { return code != null ? code : compressedCode.decompress(); }
     public List<String> getTags() { return tags; }
     public String getFolder() { return folder; }
     public Instant getCreatedDate() { return createdDate; }
     public Instant getModifiedDate() { return modifiedDate; }
 
+    CompressedCode compressedCode() { return compressedCode; }
+
+    /** Same snippet with its code held compressed; decompressed again on each {@link #getCode()}. */
+    Snippet compressed(CodeDictionary dictionary) {
+        if (compressedCode != null && compressedCode.getDictionary() == dictionary) {
+            return this;
+        }
+        return new Snippet(id, name, description, CompressedCode.compress(getCode(), dictionary),
+                tags, folder, createdDate, modifiedDate);
+    }
+
     public Snippet withUpdatedContent(String name, String description, String code, List<String> tags, String folder) {
         Instant now = Instant.now();
         return new Snippet(
@@ -0,0 +1,70 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A positioned, read-only result set that hands out snippets by range, so a view can copy only
+ * the part it shows. Implementations must not change once handed out.
+ */
+public interface SnippetCursor {
+    SnippetCursor EMPTY = of(List.of());
+
+    int size();
+
+    /** Snippets at positions {@code from} (inclusive) to {@code to} (exclusive). */
+    List<Snippet> fetch(int from, int to);
+
+    /** Position of the snippet with this id, or -1. */
+    int indexOf(UUID id);
+
+    /**
+     * A cursor over the first {@code size} snippets of a list that is only ever appended to, so a
+     * growing result can be handed out without copying it.
+     */
+    static SnippetCursor prefix(List<Snippet> appendOnly, int size) {
+        return new SnippetCursor() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public List<Snippet> fetch(int from, int to) {
+                return List.copyOf(appendOnly.subList(from, to));
+            }
+
+            @Override
+            public int indexOf(UUID id) {
+                for (int i = 0; i < size; i++) {
+                    if (appendOnly.get(i).getId().equals(id)) return i;
+                }
+                return -1;
+            }
+        };
+    }
+
+    /** A cursor over a fixed list, in list order. */
+    static SnippetCursor of(List<Snippet> snippets) {
+        List<Snippet> fixed = List.copyOf(snippets);
+        return new SnippetCursor() {
+            @Override
+            public int size() {
+                return fixed.size();
+            }
+
+            @Override
+            public List<Snippet> fetch(int from, int to) {
+                return fixed.subList(from, to);
+            }
+
+            @Override
+            public int indexOf(UUID id) {
+                for (int i = 0; i < fixed.size(); i++) {
+                    if (fixed.get(i).getId().equals(id)) return i;
+                }
+                return -1;
+            }
+        };
+    }
+}
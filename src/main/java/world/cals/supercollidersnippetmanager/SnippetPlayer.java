@@ -0,0 +1,171 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends snippets to sclang over OSC as {@code /snippet/play <code>} and {@code /snippet/stop}, the
+ * messages handled by the OSCdefs from "Setup SC". Every caller (UI, HTTP server, OSC control)
+ * shares one player, and each message goes to all servers in its {@link ServerRegistry}. Sending
+ * takes no lock, and {@link #payload(Snippet)} lets callers encode a snippet once and send the
+ * bytes many times. {@link #prepare(Snippet)} does that ahead of a likely play, so the play itself
+ * only sends.
+ */
+public final class SnippetPlayer implements AutoCloseable {
+    public static final String DEFAULT_HOST = "127.0.0.1";
+    public static final int DEFAULT_PORT = 57120;
+
+    private static final byte[] STOP = OscCodec.encode("/snippet/stop");
+    // Prepared payloads kept; past this, arbitrary ones are dropped
+    private static final int MAX_PREPARED = 64;
+
+    // Encoded play message per snippet, valid while the snippet's modified date matches
+    private record Prepared(Instant modified, byte[] packet) {}
+
+    private final ServerRegistry servers;
+    private final Map<UUID, Prepared> prepared = new ConcurrentHashMap<>();
+    private volatile PlayHistory history;
+
+    public SnippetPlayer(ServerRegistry servers) {
+        this.servers = servers;
+    }
+
+    public SnippetPlayer(String host, int port) throws IOException {
+        this(new ServerRegistry());
+        servers.setTargets(List.of(host + ":" + port));
+    }
+
+    /** A player for the servers in {@code config}, falling back to the default server if they cannot be set up. */
+    public static SnippetPlayer open(AppConfig config) {
+        ServerRegistry servers;
+        try {
+            servers = new ServerRegistry();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open an OSC socket", e);
+        }
+        try {
+            servers.setTargets(config.getServers());
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Falling back to " + ServerRegistry.DEFAULT_TARGET + ": " + e.getMessage());
+            try {
+                servers.setTargets(List.of(ServerRegistry.DEFAULT_TARGET));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        return new SnippetPlayer(servers);
+    }
+
+    public ServerRegistry servers() {
+        return servers;
+    }
+
+    /** Where plays are recorded from now on; null stops recording. */
+    public void setHistory(PlayHistory history) {
+        this.history = history;
+    }
+
+    public void play(Snippet snippet) throws IOException {
+        Prepared p = prepared.get(snippet.getId());
+        sendPlay(snippet.getId(), p != null && p.modified().equals(snippet.getModifiedDate()) ? p.packet() : payload(snippet));
+    }
+
+    /** Sends an already encoded play message for snippet {@code id} and records the play. */
+    public void sendPlay(UUID id, byte[] packet) throws IOException {
+        send(packet);
+        PlayHistory h = history;
+        if (h != null) h.record(id);
+    }
+
+    /** Encodes the snippet's play message now, unless a current one is ready, so playing it later only sends. */
+    public void prepare(Snippet snippet) {
+        Prepared p = prepared.get(snippet.getId());
+        if (p != null && p.modified().equals(snippet.getModifiedDate())) return;
+        if (prepared.size() >= MAX_PREPARED) {
+            Iterator<UUID> it = prepared.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        prepared.put(snippet.getId(), new Prepared(snippet.getModifiedDate(), payload(snippet)));
+    }
+
+    /** Sends {@code code} to be interpreted as-is, without {@link #wrap(String)}. */
+    public void evaluate(String code) throws IOException {
+        send(OscCodec.encode("/snippet/play", code));
+    }
+
+    public void stop() throws IOException {
+        send(STOP);
+    }
+
+    /** The encoded {@code /snippet/play} message for a snippet, ready for {@link #send(byte[])}. */
+    public static byte[] payload(Snippet snippet) {
+        return OscCodec.encode("/snippet/play", wrap(snippet.getCode()));
+    }
+
+    /**
+     * Sends an encoded OSC packet to every server. Safe to call from any number of threads at once.
+     *
+     * @throws IOException if it reached none of them
+     */
+    public void send(byte[] packet) throws IOException {
+        servers.send(packet);
+    }
+
+    @Override
+    public void close() {
+        servers.close();
+    }
+
+    /**
+     * Makes snippet code playable when interpreted: SynthDefs are added, synced and started,
+     * patterns and plain functions get {@code .play}, code that already plays is sent as-is.
+     */
+    public static String wrap(String code) {
+        if (code.contains("SynthDef(") || code.contains("SynthDef.new(")) {
+            // If it's a SynthDef, wrap in fork, add/sync, then play
+            String synthName = extractSynthDefName(code);
+
+            // Remove existing .add since we'll do it in the fork
+            String defCode = code.contains(".add") ? code.replaceAll("\\.add;?", "") : code;
+
+            return "fork {\n" +
+                    "    " + defCode.trim() + ".add;\n" +
+                    "    s.sync;\n" +
+                    "    Synth(\\" + synthName + ");\n" +
+                    "};";
+        } else if (code.contains("Pdef(") || code.contains("Pbind(")) {
+            // If it's a pattern, just add .play
+            return "(\n" + code + "\n).play;";
+        } else if (code.contains(".play")) {
+            // Already has .play, use as-is
+            return code;
+        }
+        // Default: wrap in parentheses and add .play
+        return "(\n" + code + "\n).play;";
+    }
+
+    static String extractSynthDefName(String code) {
+        // Extract SynthDef name from code like: SynthDef(\name, { ... })
+        int start = code.indexOf("SynthDef(");
+        if (start == -1) start = code.indexOf("SynthDef.new(");
+        if (start == -1) return "default";
+
+        start = code.indexOf("\\", start);
+        if (start == -1) return "default";
+
+        int end = code.indexOf(",", start);
+        if (end == -1) end = code.indexOf(")", start);
+        if (end == -1) return "default";
+
+        return code.substring(start + 1, end).trim();
+    }
+}
@@ -0,0 +1,38 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Snippet list filters. {@code text} matches name, description, code or tags as a
+ * case-insensitive substring. A tag applies across all folders and takes precedence over
+ * {@code folder}, which matches that folder only (not its subfolders).
+ */
+public record SnippetQuery(String text, String tag, String folder) {
+    public static final SnippetQuery ALL = new SnippetQuery("", null, null);
+
+    public SnippetQuery {
+        text = text == null ? "" : text.trim();
+    }
+
+    public boolean matches(Snippet s) {
+        if (!text.isEmpty()) {
+            String search = text.toLowerCase(Locale.ROOT);
+            boolean hit = s.getName().toLowerCase(Locale.ROOT).contains(search)
+                    || s.getCode().toLowerCase(Locale.ROOT).contains(search)
+                    || s.getTags().stream().anyMatch(t -> t.toLowerCase(Locale.ROOT).contains(search))
+                    || (s.getDescription() != null && s.getDescription().toLowerCase(Locale.ROOT).contains(search));
+            if (!hit) return false;
+        }
+        if (tag != null) {
+            return s.getTags().contains(tag);
+        }
+        return folder == null || s.getFolder().equals(folder);
+    }
+
+    /** The whitespace-separated words of {@code text}; ranked search matches each one as a substring. */
+    public static List<String> words(String text) {
+        return Arrays.stream(text.trim().split("\\s+")).filter(w -> !w.isEmpty()).toList();
+    }
+}
@@ -0,0 +1,269 @@
+package world.cals.supercollidersnippetmanager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Headless HTTP API for triggering snippets from other tools, started with {@code --server}.
+ * Requests run on virtual threads. They read from an in-memory {@link LibrarySnapshot}, so only
+ * {@code /reload} touches the store. Play and stop go through the shared {@link SnippetPlayer}.
+ *
+ * <pre>
+ * GET  /health
+ * GET  /snippets?folder=&amp;tag=&amp;sort=modified|created|name&amp;offset=0&amp;limit=100
+ * GET  /snippets/{id}
+ * GET  /search?q=&amp;limit=20
+ * POST /play/{id}
+ * POST /stop
+ * POST /reload
+ * </pre>
+ */
+public final class SnippetServer implements AutoCloseable {
+    public static final int DEFAULT_PORT = 7770;
+    private static final int MAX_LIMIT = 1000;
+    private static final ObjectMapper JSON = Json.mapper();
+
+    public record Summary(UUID id, String name, String folder, List<String> tags, Instant modified) {
+        static Summary of(Snippet s) {
+            return new Summary(s.getId(), s.getName(), s.getFolder(), s.getTags(), s.getModifiedDate());
+        }
+    }
+
+    public record Page(int total, int offset, List<Summary> items) {}
+
+    public record Found(Summary snippet, double score) {}
+
+    private record Response(int status, Object body) {
+        static final Response NO_CONTENT = new Response(204, null);
+
+        static Response ok(Object body) {
+            return new Response(200, body);
+        }
+
+        static Response error(int status, String message) {
+            return new Response(status, Map.of("error", message));
+        }
+    }
+
+    @FunctionalInterface
+    private interface Route {
+        Response handle(String path, Map<String, String> params) throws IOException;
+    }
+
+    private final SnippetStore store;
+    private final SnippetPlayer player;
+    private final HttpServer http;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile LibrarySnapshot library = LibrarySnapshot.EMPTY;
+    // Built for each snapshot before it is published and never changed after, so searches take no lock
+    private volatile SearchIndex searchIndex = new SearchIndex();
+    private final List<Consumer<LibrarySnapshot>> reloadListeners = new CopyOnWriteArrayList<>();
+
+    public SnippetServer(SnippetStore store, SnippetPlayer player, InetSocketAddress address) throws IOException {
+        this.store = store;
+        this.player = player;
+        this.http = HttpServer.create(address, 0);
+        http.setExecutor(executor);
+        route("/health", "GET", (path, params) -> Response.ok(Map.of(
+                "snippets", library.size(),
+                "version", library.version(),
+                "servers", player.servers().health())));
+        route("/snippets", "GET", this::snippets);
+        route("/search", "GET", this::search);
+        route("/play", "POST", this::play);
+        route("/stop", "POST", (path, params) -> {
+            player.stop();
+            return Response.NO_CONTENT;
+        });
+        route("/reload", "POST", (path, params) -> {
+            reload();
+            return Response.ok(Map.of("snippets", library.size(), "version", library.version()));
+        });
+    }
+
+    public void start() throws IOException {
+        reload();
+        http.start();
+    }
+
+    public InetSocketAddress address() {
+        return http.getAddress();
+    }
+
+    /** Re-reads the store; requests keep being served from the previous snapshot meanwhile. */
+    public synchronized void reload() throws IOException {
+        LibrarySnapshot next = library.next(store.loadAll(), store.listFolders());
+        SearchIndex index = new SearchIndex();
+        index.sync(next.snippets());
+        searchIndex = index;
+        library = next;
+        for (Consumer<LibrarySnapshot> listener : reloadListeners) listener.accept(library);
+    }
+
+    /** Called with every snapshot loaded from now on, on the reloading thread. */
+    public void addReloadListener(Consumer<LibrarySnapshot> listener) {
+        reloadListeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        http.stop(0);
+        executor.close();
+    }
+
+    private Response snippets(String path, Map<String, String> params) {
+        String rest = path.substring("/snippets".length());
+        LibrarySnapshot snapshot = library;
+        if (rest.length() > 1) {
+            Snippet s = snapshot.get(UUID.fromString(rest.substring(1)));
+            return s == null ? Response.error(404, "No snippet " + rest.substring(1)) : Response.ok(s);
+        }
+
+        SnippetSort sort = SnippetSort.valueOf(params.getOrDefault("sort", "modified").toUpperCase(Locale.ROOT));
+        SnippetCursor cursor = snapshot.query(new SnippetQuery("", params.get("tag"), params.get("folder")), sort);
+        int offset = Math.min(intParam(params, "offset", 0), cursor.size());
+        int limit = Math.min(intParam(params, "limit", 100), MAX_LIMIT);
+        List<Summary> items = cursor.fetch(offset, Math.min(offset + limit, cursor.size())).stream()
+                .map(Summary::of)
+                .toList();
+        return Response.ok(new Page(cursor.size(), offset, items));
+    }
+
+    private Response search(String path, Map<String, String> params) {
+        String q = params.getOrDefault("q", "").trim();
+        if (q.isEmpty()) throw new IllegalArgumentException("Missing q");
+        int limit = Math.min(intParam(params, "limit", 20), MAX_LIMIT);
+
+        List<SearchIndex.Hit> hits = searchIndex.search(q, limit, s -> true);
+        return Response.ok(hits.stream().map(h -> new Found(Summary.of(h.snippet()), h.score())).toList());
+    }
+
+    private Response play(String path, Map<String, String> params) throws IOException {
+        String rest = path.substring("/play".length());
+        if (rest.length() <= 1) throw new IllegalArgumentException("Expected /play/{id}");
+        UUID id = UUID.fromString(rest.substring(1));
+        Snippet s = library.get(id);
+        if (s == null) return Response.error(404, "No snippet " + id);
+        player.play(s);
+        return Response.NO_CONTENT;
+    }
+
+    private void route(String prefix, String method, Route route) {
+        http.createContext(prefix, exchange -> {
+            Response response;
+            try {
+                String path = exchange.getRequestURI().getPath();
+                if (!method.equals(exchange.getRequestMethod())) {
+                    response = Response.error(405, method + " only");
+                } else if (!path.equals(prefix) && !path.startsWith(prefix + "/")) {
+                    response = Response.error(404, "Not found");
+                } else {
+                    response = route.handle(path, params(exchange.getRequestURI().getRawQuery()));
+                }
+            } catch (IllegalArgumentException e) {
+                response = Response.error(400, e.getMessage());
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Request failed: " + exchange.getRequestURI());
+                e.printStackTrace();
+                response = Response.error(500, e.toString());
+            }
+            send(exchange, response);
+        });
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        try (exchange) {
+            if (response.body() == null) {
+                exchange.sendResponseHeaders(response.status(), -1);
+                return;
+            }
+            byte[] body = JSON.writeValueAsBytes(response.body());
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(response.status(), body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static Map<String, String> params(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return params;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.put(key, value);
+        }
+        return params;
+    }
+
+    private static int intParam(Map<String, String> params, String name, int fallback) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) return fallback;
+        int n = Integer.parseInt(value);
+        if (n < 0) throw new IllegalArgumentException(name + " must not be negative");
+        return n;
+    }
+
+    /**
+     * Entry point for {@code --server}. Options: {@code --port=N} (default {@value #DEFAULT_PORT}),
+     * {@code --bind=ADDRESS} (default 127.0.0.1), {@code --osc-port=N} for OSC control (default
+     * {@value OscControlServer#DEFAULT_PORT}, 0 to turn it off), {@code --osc-bind=ADDRESS} (default
+     * {@code controlBind} in the settings, else loopback), {@code --sc=HOST:PORT,...} for the
+     * SuperCollider servers to play on (default: those in the settings). OSC slots follow the most
+     * recently modified snippets.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        String bind = "127.0.0.1";
+        int oscPort = OscControlServer.DEFAULT_PORT;
+        AppConfig config = AppConfig.load();
+        String oscBind = config.getControlBind();
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) port = Integer.parseInt(arg.substring("--port=".length()));
+            else if (arg.startsWith("--bind=")) bind = arg.substring("--bind=".length());
+            else if (arg.startsWith("--osc-port=")) oscPort = Integer.parseInt(arg.substring("--osc-port=".length()));
+            else if (arg.startsWith("--osc-bind=")) oscBind = arg.substring("--osc-bind=".length());
+            else if (arg.startsWith("--sc=")) config.setServers(List.of(arg.substring("--sc=".length()).split(",")));
+        }
+
+        SnippetPlayer player = SnippetPlayer.open(config);
+        SnippetServer server = new SnippetServer(SnippetStore.open(config), player, new InetSocketAddress(bind, port));
+        OscControlServer control = oscPort > 0 ? new OscControlServer(player, OscControlServer.bindAddress(oscBind, oscPort)) : null;
+        if (control != null) {
+            server.addReloadListener(library -> {
+                control.publishLibrary(library);
+                SnippetCursor recent = library.query(SnippetQuery.ALL, SnippetSort.MODIFIED);
+                control.publishSlots(recent.fetch(0, Math.min(recent.size(), OscControlServer.MAX_SLOTS)));
+            });
+        }
+        server.start();
+        if (control != null) control.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            if (control != null) control.close();
+            player.close();
+        }, "snippet-server-shutdown"));
+        System.out.println("Serving " + server.library.size() + " snippets on http://" + bind + ":" + server.address().getPort());
+        if (control != null) System.out.println("OSC control on udp " + control.address());
+        System.out.println("Playing on " + String.join(", ", player.servers().getTargets()));
+    }
+}
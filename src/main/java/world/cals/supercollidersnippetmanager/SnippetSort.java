@@ -0,0 +1,27 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.util.Comparator;
+
+/** Orders offered for the snippet list. Ties fall back to the most recently modified first. */
+public enum SnippetSort {
+    MODIFIED("Recently modified", Comparator.comparing(Snippet::getModifiedDate).reversed()),
+    CREATED("Recently created", Comparator.comparing(Snippet::getCreatedDate).reversed()),
+    NAME("Name", Comparator.comparing(Snippet::getName, String.CASE_INSENSITIVE_ORDER));
+
+    private final String label;
+    private final Comparator<Snippet> comparator;
+
+    SnippetSort(String label, Comparator<Snippet> comparator) {
+        this.label = label;
+        this.comparator = comparator;
+    }
+
+    public Comparator<Snippet> comparator() {
+        return comparator.thenComparing(Comparator.comparing(Snippet::getModifiedDate).reversed());
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -1,15 +1,161 @@
 package world.cals.supercollidersnippetmanager;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 public interface SnippetStore {
+    /** The store selected by {@code config}, falling back to the JSON files if the database cannot be opened. */
+    static SnippetStore open(AppConfig config) {
+        CodeDictionary dictionary = null;
+        if (config.isCompressCode()) {
+            try {
+                dictionary = CodeDictionary.get(config.getCodeDictionary());
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Falling back to default code dictionary: " + e.getMessage());
+                dictionary = CodeDictionary.defaultDictionary();
+            }
+        }
+        if (AppConfig.BACKEND_SQLITE.equals(config.getBackend())) {
+            try {
+                return new SqliteSnippetStore(AppPaths.databaseFile());
+            } catch (IOException e) {
+                System.err.println("Falling back to JSON storage: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        return new JsonFileSnippetStore(AppPaths.dataDir(), dictionary, config.isDedupeCode(), config.isShardRecords(),
+                JsonFileSnippetStore.Format.of(config.getRecordFormat()));
+    }
+
     List<Snippet> loadAll() throws IOException;
 
     Snippet save(Snippet snippet) throws IOException;
 
+    /** Saves a batch of snippets; stores may override this to share per-write overhead. */
+    default void saveAll(List<Snippet> snippets) throws IOException {
+        for (Snippet snippet : snippets) {
+            save(snippet);
+        }
+    }
+
+    /**
+     * Saves new versions of {@code previous}, given in the same order, and removes any record a
+     * changed folder leaves behind.
+     */
+    void updateAll(List<Snippet> previous, List<Snippet> updated) throws IOException;
+
+    /**
+     * Saves a new version of {@code previous} like {@link #updateAll}, and returns it in the form
+     * the store holds it in memory, as {@link #save} does.
+     */
+    default Snippet update(Snippet previous, Snippet updated) throws IOException {
+        updateAll(List.of(previous), List.of(updated));
+        return updated;
+    }
+
     void delete(UUID id, String folder) throws IOException;
 
+    /** Deletes a batch of snippets; stores may override this to share per-write overhead. */
+    default void deleteAll(List<Snippet> snippets) throws IOException {
+        for (Snippet snippet : snippets) {
+            delete(snippet.getId(), snippet.getFolder());
+        }
+    }
+
     void createFolder(String folder) throws IOException;
+
+    void deleteFolder(String folder) throws IOException;
+
+    /** Moves {@code from} and its subfolders to {@code to}, updating the folder of every snippet inside. */
+    void renameFolder(String from, String to) throws IOException;
+
+    /** Every folder path, including empty folders and intermediate parents, sorted. */
+    List<String> listFolders() throws IOException;
+
+    /** Snippets matching {@code query}, most recently modified first. */
+    default List<Snippet> search(SnippetQuery query) throws IOException {
+        return loadAll().stream().filter(query::matches).toList();
+    }
+
+    /**
+     * True if the store answers {@link #searchIds} and {@link #listTags} from indexes of its own,
+     * so callers should ask it rather than filter a loaded copy of the library.
+     */
+    default boolean indexesSearch() {
+        return false;
+    }
+
+    /** Ids of the snippets matching {@code query}, most recently modified first. */
+    default List<UUID> searchIds(SnippetQuery query) throws IOException {
+        return search(query).stream().map(Snippet::getId).toList();
+    }
+
+    /**
+     * Ids of the best {@code limit} snippets within {@code filters} containing every word of
+     * {@code text}, best first. Only stores that {@link #indexesSearch() index search} rank the
+     * matches; the default lists the most recently modified.
+     */
+    default List<UUID> rankedIds(String text, SnippetQuery filters, int limit) throws IOException {
+        List<SnippetQuery> words = SnippetQuery.words(text).stream()
+                .map(w -> new SnippetQuery(w, filters.tag(), filters.folder()))
+                .toList();
+        return search(filters).stream()
+                .filter(s -> words.stream().allMatch(w -> w.matches(s)))
+                .limit(limit)
+                .map(Snippet::getId)
+                .toList();
+    }
+
+    /** Distinct tags across the library, sorted. */
+    default List<String> listTags() throws IOException {
+        return loadAll().stream()
+                .flatMap(s -> s.getTags().stream())
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    @FunctionalInterface
+    interface SnippetVisitor {
+        void visit(Snippet snippet) throws IOException;
+    }
+
+    /**
+     * Visits the snippets in {@code folder} and its subfolders, or every snippet when folder is null.
+     * Stores that can read records one at a time should override this to avoid loading the library.
+     */
+    default void forEach(String folder, SnippetVisitor visitor) throws IOException {
+        for (Snippet snippet : loadAll()) {
+            if (isInFolder(snippet, folder)) {
+                visitor.visit(snippet);
+            }
+        }
+    }
+
+    /** Trains a code dictionary on the code of every snippet; it is not registered for reads yet. */
+    default CodeDictionary trainDictionary() throws IOException {
+        List<String> samples = new ArrayList<>();
+        forEach(null, s -> samples.add(s.getCode()));
+        return CodeDictionary.train(samples);
+    }
+
+    /**
+     * Visits every snippet, most recently modified first, so a caller can show the newest ones
+     * before the rest have loaded. Stores may approximate the order. The default loads the library
+     * in one go.
+     */
+    default void forEachRecent(SnippetVisitor visitor) throws IOException {
+        for (Snippet snippet : loadAll()) {
+            visitor.visit(snippet);
+        }
+    }
+
+    static boolean isInFolder(Snippet snippet, String folder) {
+        return folder == null
+                || snippet.getFolder().equals(folder)
+                || snippet.getFolder().startsWith(folder + "/");
+    }
 }
@@ -0,0 +1,536 @@
+package world.cals.supercollidersnippetmanager;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Snippet store backed by a single SQLite database. Snippets, tags and folders live in indexed
+ * tables; name, description, code and tags are also indexed in an FTS5 trigram table so text
+ * search is an index lookup. The database runs in WAL mode: writes go through one connection,
+ * reads use pooled connections and never wait on a writer.
+ */
+public final class SqliteSnippetStore implements SnippetStore, AutoCloseable {
+    private static final TypeReference<List<String>> STRING_LIST = new TypeReference<>() {};
+    private static final int MAX_IDLE_READERS = 4;
+    private static final int IMPORT_BATCH = 500;
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS folders (path TEXT PRIMARY KEY) WITHOUT ROWID",
+            "CREATE TABLE IF NOT EXISTS snippets ("
+                    + "rowid INTEGER PRIMARY KEY, id TEXT NOT NULL UNIQUE, name TEXT NOT NULL, description TEXT, "
+                    + "code TEXT NOT NULL, folder TEXT NOT NULL, created INTEGER NOT NULL, modified INTEGER NOT NULL)",
+            "CREATE INDEX IF NOT EXISTS snippets_folder ON snippets(folder)",
+            "CREATE INDEX IF NOT EXISTS snippets_modified ON snippets(modified DESC)",
+            "CREATE TABLE IF NOT EXISTS snippet_tags ("
+                    + "snippet INTEGER NOT NULL REFERENCES snippets(rowid) ON DELETE CASCADE, "
+                    + "tag TEXT NOT NULL, position INTEGER NOT NULL, PRIMARY KEY (snippet, tag))",
+            "CREATE INDEX IF NOT EXISTS snippet_tags_tag ON snippet_tags(tag)",
+            // Contentless: only the trigram index is stored, rows are matched back by rowid
+            "CREATE VIRTUAL TABLE IF NOT EXISTS snippets_fts USING fts5("
+                    + "name, description, code, tags, content='', contentless_delete=1, tokenize='trigram')",
+    };
+
+    private static final String SELECT_SNIPPET =
+            "SELECT s.id, s.name, s.description, s.code, s.folder, s.created, s.modified, "
+                    + "(SELECT json_group_array(tag) FROM "
+                    + "(SELECT tag FROM snippet_tags WHERE snippet = s.rowid ORDER BY position)) AS tags "
+                    + "FROM snippets s";
+
+    private final String url;
+    private final Connection writer;
+    private final ConcurrentLinkedQueue<Connection> idleReaders = new ConcurrentLinkedQueue<>();
+    private final ObjectMapper om = Json.mapper();
+
+    public SqliteSnippetStore(Path dbFile) throws IOException {
+        Files.createDirectories(dbFile.toAbsolutePath().getParent());
+        this.url = "jdbc:sqlite:" + dbFile.toAbsolutePath();
+        try {
+            this.writer = open();
+            try (Statement st = writer.createStatement()) {
+                st.execute("PRAGMA journal_mode=WAL");
+                st.execute("PRAGMA synchronous=NORMAL");
+                for (String ddl : SCHEMA) {
+                    st.execute(ddl);
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to open snippet database: " + dbFile, e);
+        }
+    }
+
+    @Override
+    public List<Snippet> loadAll() throws IOException {
+        return search(SnippetQuery.ALL);
+    }
+
+    @Override
+    public List<Snippet> search(SnippetQuery query) throws IOException {
+        List<String> args = new ArrayList<>();
+        String sql = SELECT_SNIPPET + " WHERE 1=1" + conditions(query, args) + " ORDER BY s.modified DESC";
+        List<Snippet> out = new ArrayList<>();
+        read(conn -> {
+            try (PreparedStatement ps = prepare(conn, sql, args); ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(toSnippet(rs));
+            }
+        });
+        return List.copyOf(out);
+    }
+
+    @Override
+    public boolean indexesSearch() {
+        return true;
+    }
+
+    @Override
+    public List<UUID> searchIds(SnippetQuery query) throws IOException {
+        List<String> args = new ArrayList<>();
+        String sql = "SELECT s.id FROM snippets s WHERE 1=1" + conditions(query, args) + " ORDER BY s.modified DESC";
+        List<UUID> out = new ArrayList<>();
+        read(conn -> {
+            try (PreparedStatement ps = prepare(conn, sql, args); ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(UUID.fromString(rs.getString(1)));
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Ranks by bm25 over the trigram index, weighting name, tags, description and code like
+     * {@link SearchIndex.Field}. Words shorter than three characters only filter, via LIKE.
+     */
+    @Override
+    public List<UUID> rankedIds(String text, SnippetQuery filters, int limit) throws IOException {
+        List<String> phrases = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        StringBuilder where = new StringBuilder();
+        for (String word : SnippetQuery.words(text)) {
+            if (word.codePointCount(0, word.length()) >= 3) {
+                phrases.add(phrase(word));
+            } else {
+                where.append(likeAnyField(word, args));
+            }
+        }
+        where.append(conditions(filters, args));
+
+        String sql;
+        if (phrases.isEmpty()) {
+            sql = "SELECT s.id FROM snippets s WHERE 1=1" + where + " ORDER BY s.modified DESC LIMIT " + limit;
+        } else {
+            // Column weights follow the FTS column order: name, description, code, tags
+            sql = "SELECT s.id FROM snippets_fts JOIN snippets s ON s.rowid = snippets_fts.rowid"
+                    + " WHERE snippets_fts MATCH ?" + where
+                    + " ORDER BY bm25(snippets_fts, 8.0, 2.0, 1.0, 4.0), s.modified DESC LIMIT " + limit;
+            args.add(0, String.join(" AND ", phrases));
+        }
+        List<UUID> out = new ArrayList<>();
+        read(conn -> {
+            try (PreparedStatement ps = prepare(conn, sql, args); ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(UUID.fromString(rs.getString(1)));
+            }
+        });
+        return out;
+    }
+
+    // SQL conditions, each starting with AND, for the filters of query; their arguments go to args
+    private static String conditions(SnippetQuery query, List<String> args) {
+        StringBuilder sql = new StringBuilder();
+        String text = query.text();
+        if (!text.isEmpty()) {
+            if (text.codePointCount(0, text.length()) >= 3) {
+                // A quoted phrase against the trigram index is a case-insensitive substring match
+                sql.append(" AND s.rowid IN (SELECT rowid FROM snippets_fts WHERE snippets_fts MATCH ?)");
+                args.add(phrase(text));
+            } else {
+                sql.append(likeAnyField(text, args));
+            }
+        }
+        if (query.tag() != null) {
+            sql.append(" AND EXISTS (SELECT 1 FROM snippet_tags t WHERE t.snippet = s.rowid AND t.tag = ?)");
+            args.add(query.tag());
+        } else if (query.folder() != null) {
+            sql.append(" AND s.folder = ?");
+            args.add(query.folder());
+        }
+        return sql.toString();
+    }
+
+    private static String phrase(String text) {
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+
+    // Trigrams need at least three characters; shorter text falls back to LIKE
+    private static String likeAnyField(String text, List<String> args) {
+        String pattern = "%" + text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        for (int i = 0; i < 4; i++) args.add(pattern);
+        return " AND (s.name LIKE ? ESCAPE '\\' OR s.description LIKE ? ESCAPE '\\'"
+                + " OR s.code LIKE ? ESCAPE '\\' OR EXISTS (SELECT 1 FROM snippet_tags t"
+                + " WHERE t.snippet = s.rowid AND t.tag LIKE ? ESCAPE '\\'))";
+    }
+
+    private static PreparedStatement prepare(Connection conn, String sql, List<String> args) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement(sql);
+        for (int i = 0; i < args.size(); i++) {
+            ps.setString(i + 1, args.get(i));
+        }
+        return ps;
+    }
+
+    @Override
+    public void forEach(String folder, SnippetVisitor visitor) throws IOException {
+        String sql = SELECT_SNIPPET + (folder == null ? "" : " WHERE s.folder = ?1 OR (s.folder >= ?2 AND s.folder < ?3)");
+        read(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                if (folder != null) bindSubtree(ps, folder);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) visitor.visit(toSnippet(rs));
+                }
+            }
+        });
+    }
+
+    @Override
+    public void forEachRecent(SnippetVisitor visitor) throws IOException {
+        read(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(SELECT_SNIPPET + " ORDER BY s.modified DESC");
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) visitor.visit(toSnippet(rs));
+            }
+        });
+    }
+
+    @Override
+    public List<String> listTags() throws IOException {
+        return strings("SELECT DISTINCT tag FROM snippet_tags ORDER BY tag");
+    }
+
+    @Override
+    public List<String> listFolders() throws IOException {
+        return strings("SELECT path FROM folders ORDER BY path");
+    }
+
+    @Override
+    public Snippet save(Snippet snippet) throws IOException {
+        saveAll(List.of(snippet));
+        return snippet;
+    }
+
+    @Override
+    public void saveAll(List<Snippet> snippets) throws IOException {
+        write(conn -> {
+            try (PreparedStatement findRow = conn.prepareStatement("SELECT rowid FROM snippets WHERE id = ?");
+                 PreparedStatement insert = conn.prepareStatement(
+                         "INSERT INTO snippets (id, name, description, code, folder, created, modified) "
+                                 + "VALUES (?, ?, ?, ?, ?, ?, ?)");
+                 PreparedStatement update = conn.prepareStatement(
+                         "UPDATE snippets SET name = ?, description = ?, code = ?, folder = ?, created = ?, modified = ? "
+                                 + "WHERE rowid = ?");
+                 PreparedStatement clearTags = conn.prepareStatement("DELETE FROM snippet_tags WHERE snippet = ?");
+                 PreparedStatement addTag = conn.prepareStatement(
+                         "INSERT OR IGNORE INTO snippet_tags (snippet, tag, position) VALUES (?, ?, ?)");
+                 PreparedStatement clearFts = conn.prepareStatement("DELETE FROM snippets_fts WHERE rowid = ?");
+                 PreparedStatement addFts = conn.prepareStatement(
+                         "INSERT INTO snippets_fts (rowid, name, description, code, tags) VALUES (?, ?, ?, ?, ?)");
+                 PreparedStatement addFolder = conn.prepareStatement("INSERT OR IGNORE INTO folders (path) VALUES (?)")) {
+                for (Snippet s : snippets) {
+                    String folder = JsonFileSnippetStore.sanitizeFolder(s.getFolder());
+                    long rowid;
+                    findRow.setString(1, s.getId().toString());
+                    try (ResultSet rs = findRow.executeQuery()) {
+                        rowid = rs.next() ? rs.getLong(1) : -1;
+                    }
+
+                    if (rowid < 0) {
+                        insert.setString(1, s.getId().toString());
+                        bindFields(insert, 2, s, folder);
+                        insert.executeUpdate();
+                        try (Statement st = conn.createStatement();
+                             ResultSet rs = st.executeQuery("SELECT last_insert_rowid()")) {
+                            rs.next();
+                            rowid = rs.getLong(1);
+                        }
+                    } else {
+                        bindFields(update, 1, s, folder);
+                        update.setLong(7, rowid);
+                        update.executeUpdate();
+                        clearTags.setLong(1, rowid);
+                        clearTags.executeUpdate();
+                        clearFts.setLong(1, rowid);
+                        clearFts.executeUpdate();
+                    }
+
+                    List<String> tags = s.getTags();
+                    for (int i = 0; i < tags.size(); i++) {
+                        addTag.setLong(1, rowid);
+                        addTag.setString(2, tags.get(i));
+                        addTag.setInt(3, i);
+                        addTag.addBatch();
+                    }
+                    addTag.executeBatch();
+
+                    addFts.setLong(1, rowid);
+                    addFts.setString(2, s.getName());
+                    addFts.setString(3, s.getDescription());
+                    addFts.setString(4, s.getCode());
+                    addFts.setString(5, String.join("\n", tags));
+                    addFts.executeUpdate();
+
+                    addFolders(addFolder, folder);
+                }
+            }
+        });
+    }
+
+    // Rows are keyed by id, so a folder change is just another column update
+    @Override
+    public void updateAll(List<Snippet> previous, List<Snippet> updated) throws IOException {
+        saveAll(updated);
+    }
+
+    @Override
+    public void delete(UUID id, String folder) throws IOException {
+        deleteIds(List.of(id));
+    }
+
+    @Override
+    public void deleteAll(List<Snippet> snippets) throws IOException {
+        deleteIds(snippets.stream().map(Snippet::getId).toList());
+    }
+
+    private void deleteIds(List<UUID> ids) throws IOException {
+        write(conn -> {
+            try (PreparedStatement fts = conn.prepareStatement(
+                    "DELETE FROM snippets_fts WHERE rowid = (SELECT rowid FROM snippets WHERE id = ?)");
+                 PreparedStatement ps = conn.prepareStatement("DELETE FROM snippets WHERE id = ?")) {
+                for (UUID id : ids) {
+                    fts.setString(1, id.toString());
+                    fts.addBatch();
+                    ps.setString(1, id.toString());
+                    ps.addBatch();
+                }
+                fts.executeBatch();
+                ps.executeBatch();
+            }
+        });
+    }
+
+    @Override
+    public void createFolder(String folder) throws IOException {
+        String safeFolder = JsonFileSnippetStore.sanitizeFolder(folder);
+        write(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement("INSERT OR IGNORE INTO folders (path) VALUES (?)")) {
+                addFolders(ps, safeFolder);
+            }
+        });
+    }
+
+    @Override
+    public void deleteFolder(String folder) throws IOException {
+        String safeFolder = JsonFileSnippetStore.sanitizeFolder(folder);
+        String subtree = " WHERE folder = ?1 OR (folder >= ?2 AND folder < ?3)";
+        write(conn -> {
+            try (PreparedStatement fts = conn.prepareStatement(
+                         "DELETE FROM snippets_fts WHERE rowid IN (SELECT rowid FROM snippets" + subtree + ")");
+                 PreparedStatement snippets = conn.prepareStatement("DELETE FROM snippets" + subtree);
+                 PreparedStatement folders = conn.prepareStatement(
+                         "DELETE FROM folders WHERE path = ?1 OR (path >= ?2 AND path < ?3)")) {
+                for (PreparedStatement ps : List.of(fts, snippets, folders)) {
+                    bindSubtree(ps, safeFolder);
+                    ps.executeUpdate();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void renameFolder(String from, String to) throws IOException {
+        String oldFolder = JsonFileSnippetStore.sanitizeFolder(from);
+        String newFolder = JsonFileSnippetStore.sanitizeFolder(to);
+        write(conn -> {
+            try (PreparedStatement exists = conn.prepareStatement("SELECT 1 FROM folders WHERE path = ?")) {
+                exists.setString(1, newFolder);
+                try (ResultSet rs = exists.executeQuery()) {
+                    if (rs.next()) throw new IOException("Folder already exists: " + newFolder);
+                }
+            }
+            try (PreparedStatement snippets = conn.prepareStatement(
+                         "UPDATE snippets SET folder = ?4 || substr(folder, length(?1) + 1)"
+                                 + " WHERE folder = ?1 OR (folder >= ?2 AND folder < ?3)");
+                 PreparedStatement folders = conn.prepareStatement(
+                         "UPDATE folders SET path = ?4 || substr(path, length(?1) + 1)"
+                                 + " WHERE path = ?1 OR (path >= ?2 AND path < ?3)");
+                 PreparedStatement addFolder = conn.prepareStatement("INSERT OR IGNORE INTO folders (path) VALUES (?)")) {
+                for (PreparedStatement ps : List.of(snippets, folders)) {
+                    bindSubtree(ps, oldFolder);
+                    ps.setString(4, newFolder);
+                    ps.executeUpdate();
+                }
+                addFolders(addFolder, newFolder);
+            }
+        });
+    }
+
+    /**
+     * Copies every folder and snippet from {@code source} (typically the JSON data directory) into
+     * this database in batched transactions. Existing snippets with the same id are overwritten.
+     * Returns the number of snippets copied.
+     */
+    public long importFrom(SnippetStore source) throws IOException {
+        for (String folder : source.listFolders()) {
+            createFolder(folder);
+        }
+        List<Snippet> batch = new ArrayList<>(IMPORT_BATCH);
+        long[] count = new long[1];
+        source.forEach(null, s -> {
+            batch.add(s);
+            if (batch.size() >= IMPORT_BATCH) {
+                saveAll(batch);
+                count[0] += batch.size();
+                batch.clear();
+            }
+        });
+        saveAll(batch);
+        return count[0] + batch.size();
+    }
+
+    public boolean isEmpty() throws IOException {
+        return strings("SELECT id FROM snippets LIMIT 1").isEmpty();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            Connection c;
+            while ((c = idleReaders.poll()) != null) c.close();
+            writer.close();
+        } catch (SQLException e) {
+            throw new IOException("Failed to close snippet database", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SqlWork {
+        void run(Connection conn) throws SQLException, IOException;
+    }
+
+    // All writes share one connection, each call in its own transaction
+    private synchronized void write(SqlWork work) throws IOException {
+        try {
+            writer.setAutoCommit(false);
+            try {
+                work.run(writer);
+                writer.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                writer.rollback();
+                throw e;
+            } finally {
+                writer.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Snippet database write failed", e);
+        }
+    }
+
+    private void read(SqlWork work) throws IOException {
+        Connection conn = idleReaders.poll();
+        try {
+            if (conn == null) conn = open();
+            work.run(conn);
+        } catch (SQLException e) {
+            throw new IOException("Snippet database read failed", e);
+        } finally {
+            if (conn != null) release(conn);
+        }
+    }
+
+    private void release(Connection conn) {
+        if (idleReaders.size() < MAX_IDLE_READERS) {
+            idleReaders.offer(conn);
+            return;
+        }
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Connection open() throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement st = conn.createStatement()) {
+            st.execute("PRAGMA foreign_keys=ON");
+            st.execute("PRAGMA busy_timeout=5000");
+        }
+        return conn;
+    }
+
+    private List<String> strings(String sql) throws IOException {
+        List<String> out = new ArrayList<>();
+        read(conn -> {
+            try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+                while (rs.next()) out.add(rs.getString(1));
+            }
+        });
+        return out;
+    }
+
+    private Snippet toSnippet(ResultSet rs) throws SQLException, IOException {
+        return new Snippet(
+                UUID.fromString(rs.getString("id")),
+                rs.getString("name"),
+                rs.getString("description"),
+                rs.getString("code"),
+                om.readValue(rs.getString("tags"), STRING_LIST),
+                rs.getString("folder"),
+                fromNanos(rs.getLong("created")),
+                fromNanos(rs.getLong("modified"))
+        );
+    }
+
+    private static void bindFields(PreparedStatement ps, int first, Snippet s, String folder) throws SQLException {
+        ps.setString(first, s.getName());
+        ps.setString(first + 1, s.getDescription());
+        ps.setString(first + 2, s.getCode());
+        ps.setString(first + 3, folder);
+        ps.setLong(first + 4, toNanos(s.getCreatedDate()));
+        ps.setLong(first + 5, toNanos(s.getModifiedDate()));
+    }
+
+    // ?1 = folder itself, ?2..?3 = range covering "folder/..." ('0' sorts right after '/')
+    private static void bindSubtree(PreparedStatement ps, String folder) throws SQLException {
+        ps.setString(1, folder);
+        ps.setString(2, folder + "/");
+        ps.setString(3, folder + "0");
+    }
+
+    private static void addFolders(PreparedStatement insert, String folder) throws SQLException {
+        for (int i = folder.indexOf('/'); i >= 0; i = folder.indexOf('/', i + 1)) {
+            insert.setString(1, folder.substring(0, i));
+            insert.executeUpdate();
+        }
+        insert.setString(1, folder);
+        insert.executeUpdate();
+    }
+
+    private static long toNanos(Instant t) {
+        return Math.addExact(Math.multiplyExact(t.getEpochSecond(), 1_000_000_000L), t.getNano());
+    }
+
+    private static Instant fromNanos(long nanos) {
+        return Instant.ofEpochSecond(0, nanos);
+    }
+}
@@ -0,0 +1,59 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Milliseconds from process start to each startup phase, such as the first frame or the whole
+ * library being shown. {@link #finish(int)} appends one line to {@link AppPaths#startupLog()}, so
+ * time to first paint can be compared across runs and library sizes. The log keeps the last
+ * {@value #MAX_LINES} runs.
+ */
+public final class StartupTimings {
+    static final int MAX_LINES = 200;
+
+    private static final Instant START = ProcessHandle.current().info().startInstant().orElse(Instant.now());
+    // Phase -> ms since start, in the order first marked
+    private static final Map<String, Long> phases = new LinkedHashMap<>();
+    private static boolean finished;
+
+    private StartupTimings() {}
+
+    /** Records the first time {@code phase} is reached; later marks, and any after finishing, are ignored. */
+    public static synchronized void mark(String phase) {
+        if (finished) return;
+        phases.putIfAbsent(phase, Duration.between(START, Instant.now()).toMillis());
+    }
+
+    /** Reports the phases marked so far, once; {@code snippets} is the library size they were measured with. */
+    public static synchronized void finish(int snippets) {
+        if (finished) return;
+        finished = true;
+        String line = phases.entrySet().stream()
+                .map(e -> e.getKey() + "=" + e.getValue())
+                .collect(Collectors.joining(" ")) + " snippets=" + snippets;
+        try {
+            append(AppPaths.startupLog(), Instant.now() + " " + line);
+        } catch (IOException e) {
+            System.err.println("Failed to write startup log: " + e.getMessage());
+        }
+    }
+
+    // Adds line to log, dropping the oldest lines past MAX_LINES
+    static void append(Path log, String line) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (Files.exists(log)) lines.addAll(Files.readAllLines(log, StandardCharsets.UTF_8));
+        lines.add(line);
+        Files.createDirectories(log.toAbsolutePath().getParent());
+        Files.write(log, lines.subList(Math.max(0, lines.size() - MAX_LINES), lines.size()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,84 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A fixed set of read-write locks that keys are hashed onto. One call locks every key an operation
+ * touches, shared or exclusive. The stripes are always taken in index order, so two operations can
+ * never deadlock, whichever keys they name. A stripe named both ways is taken exclusively.
+ *
+ * <p>Locks are reentrant, and a thread holding a stripe exclusively may lock it again shared. The
+ * reverse (shared, then exclusive) deadlocks, as with any {@link ReentrantReadWriteLock}.
+ */
+public final class StripedLocks {
+    private final ReentrantReadWriteLock[] stripes;
+
+    /** Locks taken by one call; closing releases them in reverse order. */
+    public final class Held implements AutoCloseable {
+        private final int[] indexes;
+        private final boolean[] exclusive;
+
+        private Held(int[] indexes, boolean[] exclusive) {
+            this.indexes = indexes;
+            this.exclusive = exclusive;
+        }
+
+        @Override
+        public void close() {
+            for (int i = indexes.length - 1; i >= 0; i--) {
+                ReentrantReadWriteLock lock = stripes[indexes[i]];
+                if (exclusive[i]) lock.writeLock().unlock();
+                else lock.readLock().unlock();
+            }
+        }
+    }
+
+    public StripedLocks(int count) {
+        stripes = new ReentrantReadWriteLock[count];
+        for (int i = 0; i < count; i++) stripes[i] = new ReentrantReadWriteLock();
+    }
+
+    public Held lock(Collection<String> shared, Collection<String> exclusive) {
+        // Per stripe: 0 = not needed, 1 = shared, 2 = exclusive
+        byte[] modes = new byte[stripes.length];
+        for (String key : shared) modes[stripe(key)] = (byte) Math.max(modes[stripe(key)], 1);
+        for (String key : exclusive) modes[stripe(key)] = 2;
+        return acquire(modes);
+    }
+
+    /** Every stripe, shared or exclusively: a consistent view of, or sole access to, everything. */
+    public Held lockAll(boolean exclusive) {
+        byte[] modes = new byte[stripes.length];
+        Arrays.fill(modes, (byte) (exclusive ? 2 : 1));
+        return acquire(modes);
+    }
+
+    private Held acquire(byte[] modes) {
+        int n = 0;
+        for (byte m : modes) if (m != 0) n++;
+        int[] indexes = new int[n];
+        boolean[] exclusive = new boolean[n];
+        int held = 0;
+        try {
+            for (int i = 0; i < modes.length; i++) {
+                if (modes[i] == 0) continue;
+                if (modes[i] == 2) stripes[i].writeLock().lock();
+                else stripes[i].readLock().lock();
+                indexes[held] = i;
+                exclusive[held] = modes[i] == 2;
+                held++;
+            }
+        } catch (RuntimeException | Error e) {
+            new Held(Arrays.copyOf(indexes, held), Arrays.copyOf(exclusive, held)).close();
+            throw e;
+        }
+        return new Held(indexes, exclusive);
+    }
+
+    private int stripe(String key) {
+        int h = key.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), stripes.length);
+    }
+}
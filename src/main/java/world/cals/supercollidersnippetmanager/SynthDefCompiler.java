@@ -0,0 +1,355 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Collects the SynthDefs in a set of snippets into one {@code .scd} file that adds them all to the
+ * server in a single pass, so nothing needs playing before a gig.
+ *
+ * <p>Every {@code SynthDef(\name, ...)}, {@code SynthDef.new(...)} and {@code SynthDef(\name) {...}}
+ * expression with a literal name is extracted. Defs are deduplicated by name and by a hash of their
+ * code with comments and whitespace removed. When snippets disagree about a name, the most recently
+ * modified one wins, as it would on the server, and the clash is reported. A def that uses variables
+ * from the rest of its snippet will fail when loaded; the bundle reports that and goes on with the
+ * other defs.
+ *
+ * <p>Builds are incremental. Next to the output a manifest records what each snippet contained and
+ * what was built, so only snippets modified since the last build are scanned again, and the result
+ * names the defs that changed.
+ */
+public final class SynthDefCompiler {
+    // Headroom below the largest UDP payload for the OSC address and padding
+    public static final int MAX_MESSAGE_BYTES = 60_000;
+
+    /** One SynthDef in the bundle, and the snippet it came from. */
+    public record Def(String name, String hash, String code, String snippet, String folder) {}
+
+    /**
+     * @param changed   names added or changed since the previous build
+     * @param removed   names in the previous build but no longer found
+     * @param conflicts names defined differently by several snippets, with the one used
+     * @param scanned   snippets extracted again because they were new or modified
+     */
+    public record Build(Path output, List<Def> defs, int snippets, int scanned,
+                        List<String> changed, List<String> removed, List<String> conflicts) {}
+
+    // What one snippet held when it was last scanned
+    record Found(String name, String hash, String code) {}
+
+    record Cached(Instant modified, List<Found> defs) {}
+
+    record Manifest(Map<UUID, Cached> snippets, Map<String, String> built) {
+        static final Manifest EMPTY = new Manifest(Map.of(), Map.of());
+    }
+
+    private SynthDefCompiler() {}
+
+    public static Path manifestFile(Path output) {
+        return output.resolveSibling(output.getFileName() + ".manifest.json");
+    }
+
+    /** Extracts the SynthDefs of {@code snippets} and writes them to {@code output} if anything changed. */
+    public static Build build(List<Snippet> snippets, Path output) throws IOException {
+        Manifest previous = readManifest(manifestFile(output));
+        Map<UUID, Cached> cache = new HashMap<>();
+        Map<String, List<Def>> byName = new TreeMap<>();
+        Map<Def, Instant> modified = new HashMap<>();
+        int scanned = 0;
+        for (Snippet s : snippets) {
+            Cached cached = previous.snippets().get(s.getId());
+            if (cached == null || !cached.modified().equals(s.getModifiedDate())) {
+                cached = new Cached(s.getModifiedDate(), extract(s.getCode()));
+                scanned++;
+            }
+            cache.put(s.getId(), cached);
+            for (Found f : cached.defs()) {
+                Def def = new Def(f.name(), f.hash(), f.code(), s.getName(), s.getFolder());
+                byName.computeIfAbsent(f.name(), n -> new ArrayList<>()).add(def);
+                modified.put(def, s.getModifiedDate());
+            }
+        }
+
+        List<Def> defs = new ArrayList<>();
+        List<String> conflicts = new ArrayList<>();
+        Map<String, String> built = new LinkedHashMap<>();
+        for (List<Def> candidates : byName.values()) {
+            Def chosen = candidates.stream().max(Comparator.comparing(modified::get)).orElseThrow();
+            long versions = candidates.stream().map(Def::hash).distinct().count();
+            if (versions > 1) {
+                conflicts.add("\\" + chosen.name() + ": " + versions + " different definitions, using the one in \""
+                        + chosen.snippet() + "\" (" + chosen.folder() + ")");
+            }
+            defs.add(chosen);
+            built.put(chosen.name(), chosen.hash());
+        }
+
+        List<String> changed = built.entrySet().stream()
+                .filter(e -> !e.getValue().equals(previous.built().get(e.getKey())))
+                .map(Map.Entry::getKey)
+                .toList();
+        List<String> removed = previous.built().keySet().stream()
+                .filter(name -> !built.containsKey(name))
+                .sorted()
+                .toList();
+
+        if (!changed.isEmpty() || !removed.isEmpty() || !Files.exists(output)) {
+            writeAtomically(output, header(defs, snippets.size()) + script(defs));
+        }
+        writeAtomically(manifestFile(output), Json.mapper().writeValueAsString(new Manifest(cache, built)));
+        return new Build(output, List.copyOf(defs), snippets.size(), scanned, changed, removed, List.copyOf(conflicts));
+    }
+
+    /**
+     * sclang code that adds {@code defs} to the default server, booting it if needed, and posts
+     * any def that fails without stopping the rest.
+     */
+    public static String script(List<Def> defs) {
+        StringBuilder out = new StringBuilder("(\nServer.default.waitForBoot {\n    var failed = 0;\n    [\n");
+        for (Def d : defs) {
+            out.append("        // From \"").append(d.snippet().replace('\n', ' ')).append("\" (").append(d.folder()).append(")\n")
+                    .append("        '").append(d.name().replace("'", "\\'")).append("' -> {\n")
+                    .append(d.code().strip()).append('\n')
+                    .append("        },\n");
+        }
+        out.append("    ].do { |def|\n")
+                .append("        try { def.value.value.add } { |e|\n")
+                .append("            failed = failed + 1;\n")
+                .append("            (\"SynthDef \\\\\" ++ def.key ++ \" failed: \" ++ e.errorString).postln;\n")
+                .append("        };\n")
+                .append("    };\n")
+                .append("    Server.default.sync;\n")
+                .append("    (\"Loaded \" ++ (").append(defs.size()).append(" - failed) ++ \" SynthDefs\").postln;\n")
+                .append("};\n)\n");
+        return out.toString();
+    }
+
+    /**
+     * The bundle split into scripts that each fit in one {@code /snippet/play} message, for sending
+     * straight to sclang instead of loading the file. A def too big for a message gets one of its own.
+     */
+    public static List<String> messageScripts(List<Def> defs) {
+        int base = utf8Length(script(List.of()));
+        List<String> scripts = new ArrayList<>();
+        List<Def> chunk = new ArrayList<>();
+        int size = base;
+        for (Def d : defs) {
+            int defSize = utf8Length(script(List.of(d))) - base;
+            if (!chunk.isEmpty() && size + defSize > MAX_MESSAGE_BYTES) {
+                scripts.add(script(chunk));
+                chunk = new ArrayList<>();
+                size = base;
+            }
+            chunk.add(d);
+            size += defSize;
+        }
+        if (!chunk.isEmpty()) scripts.add(script(chunk));
+        return scripts;
+    }
+
+    private static int utf8Length(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static String header(List<Def> defs, int snippets) {
+        StringBuilder out = new StringBuilder()
+                .append("// SynthDef bundle built by SuperCollider Snippet Manager at ").append(Instant.now()).append('\n')
+                .append("// ").append(defs.size()).append(" SynthDefs from ").append(snippets).append(" snippets\n");
+        for (Def d : defs) {
+            out.append("//   \\").append(d.name()).append("  ").append(d.hash(), 0, 8).append('\n');
+        }
+        return out.append('\n').toString();
+    }
+
+    /** Every SynthDef expression in {@code code} whose name is a literal, in order of appearance. */
+    static List<Found> extract(String code) {
+        List<Found> out = new ArrayList<>();
+        int i = 0;
+        while (i < code.length()) {
+            int skipped = skipLiteral(code, i);
+            if (skipped >= 0) {
+                i = skipped;
+                continue;
+            }
+            if (!isIdentifierStart(code.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            i = identifierEnd(code, i);
+            if (!code.startsWith("SynthDef", start) || i != start + "SynthDef".length()) continue;
+            if (start > 0 && (code.charAt(start - 1) == '.' || Character.isLetterOrDigit(code.charAt(start - 1)))) continue;
+
+            int open = skipSpace(code, i);
+            if (code.startsWith(".new", open)) open = skipSpace(code, open + ".new".length());
+            if (open >= code.length() || code.charAt(open) != '(') continue;
+            int end = matching(code, open, '(', ')');
+            if (end < 0) break;
+            String name = literalName(code, skipSpace(code, open + 1));
+            // SynthDef(\name) { ... } passes the trailing function as the second argument
+            int after = skipSpace(code, end + 1);
+            if (after < code.length() && code.charAt(after) == '{') {
+                int close = matching(code, after, '{', '}');
+                if (close < 0) break;
+                end = close;
+            }
+            i = end + 1;
+            if (name == null) continue;
+            String def = code.substring(start, end + 1);
+            out.add(new Found(name, BlobStore.hash(normalize(def)), def));
+        }
+        return out;
+    }
+
+    // \name, 'name' or "name" at i, or null for anything computed
+    private static String literalName(String code, int i) {
+        if (i >= code.length()) return null;
+        char c = code.charAt(i);
+        if (c == '\\') {
+            int end = identifierEnd(code, i + 1);
+            return end > i + 1 ? code.substring(i + 1, end) : null;
+        }
+        if (c == '\'' || c == '"') {
+            int end = code.indexOf(c, i + 1);
+            String name = end < 0 ? null : code.substring(i + 1, end);
+            return name == null || name.isEmpty() || name.indexOf('\\') >= 0 ? null : name;
+        }
+        return null;
+    }
+
+    // Index of the bracket closing the one at open, skipping comments and literals; -1 if unbalanced
+    private static int matching(String code, int open, char opening, char closing) {
+        int depth = 0;
+        int i = open;
+        while (i < code.length()) {
+            int skipped = skipLiteral(code, i);
+            if (skipped >= 0) {
+                i = skipped;
+                continue;
+            }
+            char c = code.charAt(i);
+            if (c == opening) depth++;
+            else if (c == closing && --depth == 0) return i;
+            i++;
+        }
+        return -1;
+    }
+
+    /** If a comment, string, symbol or character literal starts at i, the index after it; otherwise -1. */
+    private static int skipLiteral(String code, int i) {
+        char c = code.charAt(i);
+        char next = i + 1 < code.length() ? code.charAt(i + 1) : 0;
+        if (c == '/' && next == '/') {
+            int end = code.indexOf('\n', i);
+            return end < 0 ? code.length() : end;
+        }
+        if (c == '/' && next == '*') {
+            // Block comments nest in sclang
+            int depth = 0;
+            int j = i;
+            while (j < code.length()) {
+                if (code.startsWith("/*", j)) {
+                    depth++;
+                    j += 2;
+                } else if (code.startsWith("*/", j)) {
+                    j += 2;
+                    if (--depth == 0) return j;
+                } else {
+                    j++;
+                }
+            }
+            return code.length();
+        }
+        if (c == '"' || c == '\'') {
+            int j = i + 1;
+            while (j < code.length() && code.charAt(j) != c) {
+                j += code.charAt(j) == '\\' ? 2 : 1;
+            }
+            return Math.min(j + 1, code.length());
+        }
+        if (c == '$') {
+            // $x, or $\x for escapes
+            return Math.min(i + (next == '\\' ? 3 : 2), code.length());
+        }
+        return -1;
+    }
+
+    // Comments dropped and whitespace collapsed, so reformatting a def does not change its hash
+    static String normalize(String code) {
+        StringBuilder out = new StringBuilder(code.length());
+        int i = 0;
+        while (i < code.length()) {
+            char c = code.charAt(i);
+            int skipped = skipLiteral(code, i);
+            if (skipped >= 0) {
+                boolean comment = c == '/';
+                if (!comment) out.append(code, i, skipped);
+                else if (!out.isEmpty() && out.charAt(out.length() - 1) != ' ') out.append(' ');
+                i = skipped;
+            } else if (Character.isWhitespace(c)) {
+                if (!out.isEmpty() && out.charAt(out.length() - 1) != ' ') out.append(' ');
+                i++;
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return out.toString().strip();
+    }
+
+    private static int skipSpace(String code, int i) {
+        while (i < code.length() && Character.isWhitespace(code.charAt(i))) i++;
+        return i;
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return Character.isLetter(c) || c == '_';
+    }
+
+    private static int identifierEnd(String code, int i) {
+        while (i < code.length() && (Character.isLetterOrDigit(code.charAt(i)) || code.charAt(i) == '_')) i++;
+        return i;
+    }
+
+    private static Manifest readManifest(Path file) {
+        if (!Files.exists(file)) return Manifest.EMPTY;
+        try {
+            Manifest m = Json.mapper().readValue(file.toFile(), Manifest.class);
+            return new Manifest(Objects.requireNonNullElse(m.snippets(), Map.of()), Objects.requireNonNullElse(m.built(), Map.of()));
+        } catch (IOException e) {
+            // Only costs a full rescan
+            System.err.println("Ignoring unreadable SynthDef manifest " + file + ": " + e.getMessage());
+            return Manifest.EMPTY;
+        }
+    }
+
+    private static void writeAtomically(Path file, String content) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            Files.writeString(tmp, content, StandardCharsets.UTF_8);
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package world.cals.supercollidersnippetmanager;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Runs store work on virtual threads so the FX thread never blocks on disk I/O, and coalesces
+ * UI refreshes: every {@link #requestRefresh()} made before the next FX event cycle, or while a
+ * load is already running, is served by one call to the loader, whose result is handed to the
+ * refresh listener on the FX thread.
+ *
+ * @param <S> what the loader produces, e.g. a snapshot of the library
+ */
+public final class TaskService<S> {
+    @FunctionalInterface
+    public interface Work<T> {
+        T run() throws Exception;
+    }
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ObservableList<Task<?>> running = FXCollections.observableArrayList();
+    private final Work<S> loader;
+    private final Consumer<S> onLoaded;
+    private final BiConsumer<String, Exception> onError;
+
+    // FX thread only
+    private boolean refreshScheduled;
+    private boolean refreshRunning;
+    private boolean refreshAgain;
+
+    public TaskService(Work<S> loader, Consumer<S> onLoaded, BiConsumer<String, Exception> onError) {
+        this.loader = loader;
+        this.onLoaded = onLoaded;
+        this.onError = onError;
+    }
+
+    /** Tasks currently running, oldest first. Only changed on the FX thread. */
+    public ObservableList<Task<?>> getRunning() {
+        return FXCollections.unmodifiableObservableList(running);
+    }
+
+    /** Runs {@code work} in the background, then {@code onDone} on the FX thread. Failures go to the error handler. */
+    public <T> Task<T> submit(String title, Work<T> work, Consumer<T> onDone) {
+        Task<T> task = new Task<>() {
+            {
+                updateTitle(title);
+            }
+
+            @Override
+            protected T call() throws Exception {
+                return work.run();
+            }
+        };
+        task.setOnSucceeded(e -> onDone.accept(task.getValue()));
+        task.setOnFailed(e -> onError.accept(title + " failed", asException(task.getException())));
+        return execute(task);
+    }
+
+    /** Like {@link #submit}, then refreshes whether or not the work succeeded, since it may have partly applied. */
+    public <T> Task<T> mutate(String title, Work<T> work, Consumer<T> onDone) {
+        Task<T> task = submit(title, work, result -> {
+            requestRefresh();
+            onDone.accept(result);
+        });
+        // State events are delivered on the FX thread, so this is in place before the task can finish
+        task.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, e -> requestRefresh());
+        return task;
+    }
+
+    /** Runs a prepared task; its own handlers stay in place. */
+    public <T> Task<T> execute(Task<T> task) {
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(() -> execute(task));
+            return task;
+        }
+        running.add(task);
+        task.runningProperty().addListener((obs, was, isRunning) -> {
+            if (!isRunning && task.isDone()) running.remove(task);
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    /** Asks for a reload; callable from any thread. Requests made close together share one load. */
+    public void requestRefresh() {
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(this::requestRefresh);
+            return;
+        }
+        if (refreshRunning) {
+            refreshAgain = true;
+            return;
+        }
+        if (refreshScheduled) return;
+        refreshScheduled = true;
+        // Deferred so the rest of this event's requests fold into the same load
+        Platform.runLater(this::startRefresh);
+    }
+
+    private void startRefresh() {
+        refreshScheduled = false;
+        refreshRunning = true;
+        Task<S> load = new Task<>() {
+            {
+                updateTitle("Loading library");
+            }
+
+            @Override
+            protected S call() throws Exception {
+                return loader.run();
+            }
+        };
+        load.setOnSucceeded(e -> {
+            finishRefresh();
+            onLoaded.accept(load.getValue());
+        });
+        load.setOnFailed(e -> {
+            finishRefresh();
+            onError.accept("Failed to load library", asException(load.getException()));
+        });
+        execute(load);
+    }
+
+    private void finishRefresh() {
+        refreshRunning = false;
+        if (refreshAgain) {
+            refreshAgain = false;
+            requestRefresh();
+        }
+    }
+
+    private static Exception asException(Throwable t) {
+        return t instanceof Exception e ? e : new RuntimeException(t);
+    }
+}
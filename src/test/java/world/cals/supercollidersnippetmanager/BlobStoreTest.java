@@ -0,0 +1,120 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlobStoreTest {
+    private static final String CODE = "{ SinOsc.ar(440) * 0.1 }.play;";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void sharedBlobSurvivesDeleteWithoutRefIndex() throws Exception {
+        JsonFileSnippetStore store = new JsonFileSnippetStore(dir.resolve("snippets"), null, true);
+        Snippet a = snippet("a", "one");
+        Snippet b = snippet("b", "two");
+        store.saveAll(List.of(a, b));
+        Files.delete(dir.resolve("blobs").resolve(BlobStore.REFS_FILE));
+
+        store.delete(a.getId(), a.getFolder());
+        List<Snippet> left = store.loadAll();
+        assertEquals(1, left.size());
+        assertEquals(CODE, left.get(0).getCode());
+    }
+
+    @Test
+    void sharedBlobSurvivesFolderDeleteWithoutRefIndex() throws Exception {
+        JsonFileSnippetStore store = new JsonFileSnippetStore(dir.resolve("snippets"), null, true);
+        store.saveAll(List.of(snippet("a", "one"), snippet("b", "two")));
+        Files.delete(dir.resolve("blobs").resolve(BlobStore.REFS_FILE));
+
+        store.deleteFolder("one");
+        assertEquals(CODE, store.loadAll().get(0).getCode());
+    }
+
+    @Test
+    void uncountedReleaseKeepsBlobUntilGarbageCollection() throws Exception {
+        BlobStore blobs = new BlobStore(dir.resolve("blobs"));
+        String hash = blobs.put(CODE, null);
+        blobs.unpin(hash);
+        assertFalse(blobs.contains(hash), "unreferenced after unpin");
+
+        hash = blobs.put(CODE, null);
+        blobs.acquire(hash);
+        blobs.release(hash);
+        assertFalse(blobs.contains(hash), "counted down to zero");
+
+        hash = blobs.put(CODE, null);
+        blobs.acquire(hash);
+        Files.delete(dir.resolve("blobs").resolve(BlobStore.REFS_FILE));
+        BlobStore reopened = new BlobStore(dir.resolve("blobs"));
+        reopened.release(hash);
+        assertTrue(reopened.contains(hash), "no count, so kept");
+    }
+
+    @Test
+    void duplicatingAppendsToTheRefLogAndCountsSurviveReopening() throws Exception {
+        JsonFileSnippetStore store = new JsonFileSnippetStore(dir.resolve("snippets"), null, true);
+        Snippet a = snippet("a", "one");
+        store.save(a);
+        Path log = dir.resolve("blobs").resolve(BlobStore.REFS_FILE);
+        String before = Files.readString(log);
+
+        Snippet b = snippet("b", "two");
+        store.save(b);
+        String after = Files.readString(log);
+        assertTrue(after.startsWith(before), "appended, not rewritten");
+        assertEquals(2, new BlobStore(dir.resolve("blobs")).refCounts().get(BlobStore.hash(CODE)));
+
+        JsonFileSnippetStore reopened = new JsonFileSnippetStore(dir.resolve("snippets"), null, true);
+        reopened.delete(a.getId(), a.getFolder());
+        assertEquals(List.of(CODE), reopened.loadAll().stream().map(Snippet::getCode).toList());
+    }
+
+    @Test
+    void tornLogLineIsDropped() throws Exception {
+        BlobStore blobs = new BlobStore(dir.resolve("blobs"));
+        String hash = blobs.put(CODE, null);
+        blobs.acquire(hash);
+        // A crash while appending the next reference, before its record was published
+        Files.writeString(dir.resolve("blobs").resolve(BlobStore.REFS_FILE), hash.substring(0, 20), StandardOpenOption.APPEND);
+
+        BlobStore reopened = new BlobStore(dir.resolve("blobs"));
+        assertEquals(Map.of(hash, 1), reopened.refCounts());
+        reopened.release(hash);
+        assertFalse(reopened.contains(hash));
+    }
+
+    @Test
+    void legacyRefIndexIsRecountedFromTheRecords() throws Exception {
+        JsonFileSnippetStore store = new JsonFileSnippetStore(dir.resolve("snippets"), null, true);
+        Snippet a = snippet("a", "one");
+        store.saveAll(List.of(a, snippet("b", "two")));
+        // An older store whose count fell short of the records sharing the blob
+        Files.delete(dir.resolve("blobs").resolve(BlobStore.REFS_FILE));
+        Files.writeString(dir.resolve("blobs").resolve("refs.json"), "{\"" + BlobStore.hash(CODE) + "\":1}");
+
+        JsonFileSnippetStore reopened = new JsonFileSnippetStore(dir.resolve("snippets"), null, true);
+        reopened.delete(a.getId(), a.getFolder());
+        assertEquals(List.of(CODE), reopened.loadAll().stream().map(Snippet::getCode).toList());
+        assertFalse(Files.exists(dir.resolve("blobs").resolve("refs.json")));
+    }
+
+    private static Snippet snippet(String name, String folder) {
+        Instant now = Instant.now();
+        return new Snippet(UUID.randomUUID(), name, null, CODE, List.of(), folder, now, now);
+    }
+}
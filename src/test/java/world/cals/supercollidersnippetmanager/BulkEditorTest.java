@@ -0,0 +1,30 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BulkEditorTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void deleteRemovesSnippetsAndTheirHistory() throws Exception {
+        JsonFileSnippetStore store = new JsonFileSnippetStore(dir.resolve("snippets"), null);
+        RevisionLog history = new RevisionLog(dir.resolve("history"));
+        List<Snippet> library = TestLibraries.generate(30);
+        store.saveAll(library);
+        for (Snippet s : library) history.record(s);
+
+        BulkEditor editor = new BulkEditor(store, history, (done, total) -> {}, () -> false);
+        assertEquals(20, editor.delete(library.subList(0, 20)).changed());
+
+        assertEquals(10, store.loadAll().size());
+        for (Snippet s : library.subList(0, 20)) assertEquals(0, history.count(s.getId()));
+        for (Snippet s : library.subList(20, 30)) assertEquals(1, history.count(s.getId()));
+    }
+}
@@ -0,0 +1,76 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BulkImporterTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void importsCompressedAndDeduplicatedDataDirectories() throws Exception {
+        List<Snippet> library = TestLibraries.generate(120);
+        Path compressed = dir.resolve("compressed").resolve("data");
+        Path deduped = dir.resolve("deduped").resolve("data");
+        new JsonFileSnippetStore(compressed, CodeDictionary.defaultDictionary()).saveAll(library.subList(0, 60));
+        new JsonFileSnippetStore(deduped, CodeDictionary.defaultDictionary(), true).saveAll(library.subList(60, 120));
+
+        JsonFileSnippetStore target = new JsonFileSnippetStore(dir.resolve("target"), null);
+        BulkImporter.Result first = importer(target).importFrom(compressed);
+        BulkImporter.Result second = importer(target).importFrom(deduped);
+        assertEquals(60, first.imported());
+        assertEquals(60, second.imported());
+        assertEquals(0, first.invalid() + second.invalid());
+
+        Map<UUID, Snippet> loaded = target.loadAll().stream().collect(Collectors.toMap(Snippet::getId, Function.identity()));
+        for (Snippet s : library) assertEquals(s.getCode(), loaded.get(s.getId()).getCode());
+    }
+
+    @Test
+    void importsSmileDataDirectories() throws Exception {
+        List<Snippet> library = TestLibraries.generate(40);
+        Path smile = dir.resolve("smile").resolve("data");
+        new JsonFileSnippetStore(smile, CodeDictionary.defaultDictionary(), false, false, JsonFileSnippetStore.Format.SMILE)
+                .saveAll(library);
+
+        JsonFileSnippetStore target = new JsonFileSnippetStore(dir.resolve("target"), null);
+        BulkImporter.Result result = importer(target).importFrom(smile);
+        assertEquals(40, result.imported());
+        assertEquals(0, result.invalid());
+
+        Map<UUID, Snippet> loaded = target.loadAll().stream().collect(Collectors.toMap(Snippet::getId, Function.identity()));
+        for (Snippet s : library) {
+            Snippet read = loaded.get(s.getId());
+            assertEquals(s.getCode(), read.getCode());
+            assertEquals(s.getModifiedDate(), read.getModifiedDate());
+        }
+    }
+
+    @Test
+    void ignoresUnknownFields() throws Exception {
+        Path ndjson = dir.resolve("export.ndjson");
+        Files.writeString(ndjson, """
+                {"id":"00000000-0000-0000-0000-000000000001","name":"a","code":"{ }.play;","folder":"x","color":"red"}
+                {"name":"b","code":"{ Saw.ar }.play;","rating":5,"extra":{"nested":true}}
+                {"name":"no code"}
+                """);
+        JsonFileSnippetStore target = new JsonFileSnippetStore(dir.resolve("target"), null);
+        BulkImporter.Result result = importer(target).importFrom(ndjson);
+        assertEquals(2, result.imported());
+        assertEquals(1, result.invalid());
+    }
+
+    private static BulkImporter importer(SnippetStore store) {
+        return new BulkImporter(store, null, (done, total, records) -> {}, () -> false);
+    }
+}
@@ -0,0 +1,135 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CodeCompressionTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void compressedRecordsRoundTrip() throws Exception {
+        List<Snippet> library = TestLibraries.generate(300);
+        JsonFileSnippetStore store = new JsonFileSnippetStore(dir.resolve("snippets"), CodeDictionary.defaultDictionary());
+        store.saveAll(library);
+
+        Map<UUID, Snippet> loaded = byId(store.loadAll());
+        assertEquals(library.size(), loaded.size());
+        for (Snippet s : library) {
+            Snippet read = loaded.get(s.getId());
+            assertNotNull(read.compressedCode(), "held compressed");
+            assertEquals(s.getCode(), read.getCode());
+        }
+    }
+
+    @Test
+    void storedCompressionIsKeptOnLoad() throws Exception {
+        List<Snippet> library = TestLibraries.generate(50);
+        Path dataDir = dir.resolve("snippets");
+        new JsonFileSnippetStore(dataDir, CodeDictionary.defaultDictionary()).saveAll(library);
+
+        // Another dictionary configured now: records compressed with the old one are not deflated again
+        CodeDictionary trained = CodeDictionary.train(library.stream().map(Snippet::getCode).toList());
+        for (Snippet s : new JsonFileSnippetStore(dataDir, trained).loadAll()) {
+            assertSame(CodeDictionary.defaultDictionary(), s.compressedCode().getDictionary());
+        }
+    }
+
+    @Test
+    void savedAndUpdatedSnippetsAreHeldCompressed() throws Exception {
+        JsonFileSnippetStore store = new JsonFileSnippetStore(dir.resolve("snippets"), CodeDictionary.defaultDictionary());
+        Snippet s = TestLibraries.generate(1).get(0);
+        Snippet saved = store.save(s);
+        assertNotNull(saved.compressedCode());
+
+        Snippet edited = saved.withUpdatedContent(s.getName(), null, s.getCode() + "\n// edited", s.getTags(), "moved");
+        Snippet updated = store.update(saved, edited);
+        assertNotNull(updated.compressedCode());
+        assertEquals(edited.getCode(), updated.getCode());
+        assertEquals(List.of(updated.getCode()), store.loadAll().stream().map(Snippet::getCode).toList());
+    }
+
+    /**
+     * Record bytes on disk, code bytes in memory, load time and {@code getCode()} latency with and
+     * without compression. Run with {@code -Dbenchmarks=true}; only sizes and correctness are asserted.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+    void compressionBenchmark() throws Exception {
+        List<Snippet> library = TestLibraries.generate(2000);
+        JsonFileSnippetStore plain = new JsonFileSnippetStore(dir.resolve("plain"), null);
+        JsonFileSnippetStore compressed = new JsonFileSnippetStore(dir.resolve("compressed"), CodeDictionary.defaultDictionary());
+        plain.saveAll(library);
+        compressed.saveAll(library);
+
+        long plainDisk = diskBytes(dir.resolve("plain"));
+        long compressedDisk = diskBytes(dir.resolve("compressed"));
+        List<Snippet> plainLoaded = plain.loadAll();
+        List<Snippet> compressedLoaded = compressed.loadAll();
+        long plainMemory = 0;
+        long compressedMemory = 0;
+        for (Snippet s : plainLoaded) plainMemory += s.getCode().getBytes(StandardCharsets.UTF_8).length;
+        for (Snippet s : compressedLoaded) compressedMemory += s.compressedCode().getData().length;
+
+        System.out.printf("%d snippets, bytes on disk: plain %d, compressed %d (%.0f%%)%n",
+                library.size(), plainDisk, compressedDisk, 100.0 * compressedDisk / plainDisk);
+        System.out.printf("code bytes in memory: plain %d, compressed %d (%.0f%%)%n",
+                plainMemory, compressedMemory, 100.0 * compressedMemory / plainMemory);
+        System.out.printf("loadAll: plain %.1f ms, compressed %.1f ms%n", bestLoad(plain) / 1e6, bestLoad(compressed) / 1e6);
+        System.out.printf("getCode per call: plain %.2f us, compressed %.2f us%n",
+                bestGetCode(plainLoaded) / 1e3, bestGetCode(compressedLoaded) / 1e3);
+
+        assertTrue(compressedDisk < plainDisk);
+        assertTrue(compressedMemory < plainMemory);
+        Map<UUID, Snippet> loaded = byId(compressedLoaded);
+        for (Snippet s : library) assertEquals(s.getCode(), loaded.get(s.getId()).getCode());
+    }
+
+    private static long diskBytes(Path dataDir) throws Exception {
+        try (var files = Files.walk(dataDir)) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static long bestLoad(JsonFileSnippetStore store) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            store.loadAll();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    // Mean nanoseconds per call over the library, best of a few rounds after a warm-up
+    private static double bestGetCode(List<Snippet> snippets) {
+        double best = Double.MAX_VALUE;
+        long sink = 0;
+        for (int round = 0; round < 6; round++) {
+            long start = System.nanoTime();
+            for (Snippet s : snippets) sink += s.getCode().length();
+            if (round >= 2) best = Math.min(best, (double) (System.nanoTime() - start) / snippets.size());
+        }
+        assertTrue(sink > 0);
+        return best;
+    }
+
+    private static Map<UUID, Snippet> byId(List<Snippet> snippets) {
+        return snippets.stream().collect(Collectors.toMap(Snippet::getId, Function.identity()));
+    }
+}
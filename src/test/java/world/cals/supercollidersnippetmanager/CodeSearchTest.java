@@ -0,0 +1,88 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CodeSearchTest {
+    // Backtracks exponentially on a run of a's; Java's loop memoization does not help here
+    private static final Pattern RUNAWAY = Pattern.compile("(.*a){20}x");
+
+    @Test
+    void parsesSlashDelimitedQueries() {
+        assertNull(CodeSearch.parseQuery("SinOsc"));
+        assertNull(CodeSearch.parseQuery("//"));
+        assertNull(CodeSearch.parseQuery("/SinOsc/q"));
+        assertEquals("Sin.sc", CodeSearch.parseQuery("/Sin.sc/").pattern());
+        assertEquals(Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL,
+                CodeSearch.parseQuery("/a/b/is").flags());
+        assertEquals("a/b", CodeSearch.parseQuery("/a/b/is").pattern());
+        assertThrows(PatternSyntaxException.class, () -> CodeSearch.parseQuery("/(/"));
+    }
+
+    @Test
+    void findsMatchesInLibraryOrder() {
+        List<Snippet> library = TestLibraries.generate(1000);
+        Pattern pattern = CodeSearch.parseQuery("/formant\\.ar\\(1\\d\\d,/i");
+        ConcurrentLinkedQueue<Snippet> partial = new ConcurrentLinkedQueue<>();
+
+        CodeSearch.Result result = CodeSearch.search(library, pattern, 10_000, () -> false, partial::addAll);
+
+        List<Snippet> expected = library.stream().filter(s -> pattern.matcher(s.getCode()).find()).toList();
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, result.matches());
+        assertEquals(expected.size(), partial.size());
+        assertTrue(partial.containsAll(expected));
+        assertEquals(1000, result.scanned());
+        assertEquals(1000, result.total());
+        assertTrue(result.complete());
+    }
+
+    @Test
+    void stopsRunawayPatternsAtTheDeadline() {
+        List<Snippet> library = new ArrayList<>(TestLibraries.generate(200));
+        library.add(100, Snippet.createNew("runaway", null, "a".repeat(40), List.of(), "test"));
+
+        long start = System.nanoTime();
+        CodeSearch.Result result = CodeSearch.search(library, RUNAWAY, 100, () -> false, found -> {});
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(result.timedOut());
+        assertFalse(result.cancelled());
+        assertFalse(result.complete());
+        assertTrue(result.scanned() < result.total());
+        assertTrue(millis < 5000, "took " + millis + " ms");
+    }
+
+    @Test
+    void stopsWhenCancelled() throws Exception {
+        List<Snippet> library = List.of(Snippet.createNew("runaway", null, "a".repeat(40), List.of(), "test"));
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            timer.schedule(() -> cancelled.set(true), 100, TimeUnit.MILLISECONDS);
+            CodeSearch.Result result = CodeSearch.search(library, RUNAWAY, 60_000, cancelled::get, found -> {});
+
+            assertTrue(result.cancelled());
+            assertFalse(result.timedOut());
+            assertEquals(0, result.scanned());
+            assertEquals(List.of(), result.matches());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+}
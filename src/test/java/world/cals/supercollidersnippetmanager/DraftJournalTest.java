@@ -0,0 +1,117 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DraftJournalTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysFullRecordsAndDeltas() throws Exception {
+        Path file = dir.resolve("drafts.jsonl");
+        UUID snippet = UUID.randomUUID();
+        DraftJournal.Draft first = draft(snippet, "pad", List.of("warm"), "(\n{ Saw.ar(100) }.play;\n)", 0);
+        DraftJournal.Draft second = draft(first.id(), snippet, "pad 2", List.of("warm", "wide"),
+                "(\n{ Saw.ar([100, 101]) }.play;\n)", 1);
+        DraftJournal.Draft other = draft(null, "new", List.of(), "Pbind()", 2);
+
+        try (DraftJournal journal = new DraftJournal(file)) {
+            assertEquals(List.of(), journal.recovered());
+            journal.update(first);
+            awaitLines(file, 1);
+            journal.update(second);
+            journal.update(other);
+        }
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(1).contains("\"kind\":\"delta\""), lines.get(1));
+        assertTrue(lines.get(1).contains("\"ops\""), lines.get(1));
+
+        try (DraftJournal journal = new DraftJournal(file)) {
+            assertEquals(List.of(second, other), journal.recovered());
+        }
+        // Compacted to one full record per open draft
+        lines = Files.readAllLines(file);
+        assertEquals(2, lines.size());
+        assertTrue(lines.stream().allMatch(l -> l.contains("\"kind\":\"full\"")), lines.toString());
+    }
+
+    @Test
+    void forgetsDiscardedDrafts() throws Exception {
+        Path file = dir.resolve("drafts.jsonl");
+        DraftJournal.Draft kept = draft(null, "kept", List.of(), "SinOsc.ar", 0);
+        DraftJournal.Draft saved = draft(null, "saved", List.of(), "Saw.ar", 1);
+
+        try (DraftJournal journal = new DraftJournal(file)) {
+            journal.update(kept);
+            journal.update(saved);
+            awaitLines(file, 2);
+            journal.discard(saved.id());
+        }
+        try (DraftJournal journal = new DraftJournal(file)) {
+            assertEquals(List.of(kept), journal.recovered());
+            journal.discard(kept.id());
+        }
+        // No draft left open: the journal is emptied
+        assertEquals(0, Files.size(file));
+        try (DraftJournal journal = new DraftJournal(file)) {
+            assertEquals(List.of(), journal.recovered());
+        }
+    }
+
+    @Test
+    void recoversFromATornLastRecord() throws Exception {
+        Path file = dir.resolve("drafts.jsonl");
+        DraftJournal.Draft first = draft(null, "bass", List.of(), "{ Pulse.ar(55) }.play;", 0);
+        DraftJournal.Draft second = draft(first.id(), null, "bass", List.of(), "{ Pulse.ar(55, 0.3) }.play;", 1);
+
+        try (DraftJournal journal = new DraftJournal(file)) {
+            journal.update(first);
+            awaitLines(file, 1);
+            journal.update(second);
+        }
+        // A crash mid-append leaves part of a record, here cut inside a multi-byte character
+        String torn = Files.readAllLines(file).get(1).replace("}.play;", "}.play; ü");
+        byte[] bytes = torn.getBytes(StandardCharsets.UTF_8);
+        int cut = torn.substring(0, torn.indexOf('ü')).getBytes(StandardCharsets.UTF_8).length + 1;
+        Files.write(file, Arrays.copyOf(bytes, cut), StandardOpenOption.APPEND);
+
+        try (DraftJournal journal = new DraftJournal(file)) {
+            assertEquals(List.of(second), journal.recovered());
+        }
+        try (DraftJournal journal = new DraftJournal(file)) {
+            assertEquals(List.of(second), journal.recovered());
+        }
+    }
+
+    private static DraftJournal.Draft draft(UUID snippet, String name, List<String> tags, String code, int second) {
+        return draft(UUID.randomUUID(), snippet, name, tags, code, second);
+    }
+
+    private static DraftJournal.Draft draft(UUID id, UUID snippet, String name, List<String> tags, String code, int second) {
+        return new DraftJournal.Draft(id, snippet, name, "folder", tags, code, Instant.parse("2024-05-01T12:00:00Z").plusSeconds(second));
+    }
+
+    // The writer batches; waits for a batch to land so the next update is journalled as a delta
+    private static void awaitLines(Path file, int count) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (Files.readAllLines(file).size() < count) {
+            if (System.nanoTime() > deadline) throw new AssertionError("Journal never reached " + count + " lines");
+            Thread.sleep(10);
+        }
+    }
+}
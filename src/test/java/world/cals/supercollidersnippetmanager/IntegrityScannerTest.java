@@ -0,0 +1,50 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntegrityScannerTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void quarantinesOnlyRecordsThatDoNotDecode() throws Exception {
+        JsonFileSnippetStore store = new JsonFileSnippetStore(dir.resolve("snippets"), null);
+        store.saveAll(TestLibraries.generate(5));
+        Path folder = Files.createDirectories(store.dataDir().resolve("fx"));
+        Path garbled = Files.writeString(folder.resolve(UUID.randomUUID() + ".json"), "{\"id\": \"");
+        Path noId = Files.writeString(folder.resolve(UUID.randomUUID() + ".json"),
+                "{\"name\": \"x\", \"codeZ\": \"AA==\", \"createdDate\": 0}");
+        Path damaged = Files.writeString(folder.resolve(UUID.randomUUID() + ".json"),
+                "{\"id\": \"" + UUID.randomUUID() + "\", \"name\": \"x\", \"codeZ\": \"AAAA\", \"codeLength\": 100, \"folder\": \"fx\"}");
+        Path unknownDict = Files.writeString(folder.resolve(UUID.randomUUID() + ".json"),
+                "{\"id\": \"" + UUID.randomUUID() + "\", \"name\": \"x\", \"codeZ\": \"AA==\", \"codeDict\": \"gone\", \"folder\": \"fx\"}");
+
+        IntegrityScanner.Report report = new IntegrityScanner(store, (done, total) -> {}, () -> false, () -> false).scan(true);
+
+        List<IntegrityScanner.Issue> corrupt = report.issues().stream()
+                .filter(i -> i.kind() == IntegrityScanner.Kind.CORRUPT).toList();
+        assertEquals(3, corrupt.size());
+        assertFalse(Files.exists(garbled));
+        assertFalse(Files.exists(noId));
+        assertFalse(Files.exists(damaged));
+
+        List<IntegrityScanner.Issue> unreadable = report.issues().stream()
+                .filter(i -> i.kind() == IntegrityScanner.Kind.UNREADABLE).toList();
+        assertEquals(1, unreadable.size());
+        assertTrue(unreadable.get(0).detail().contains("Unknown code dictionary"));
+        assertNull(unreadable.get(0).action());
+        assertTrue(Files.exists(unknownDict));
+        assertEquals(5, store.loadAll().size());
+    }
+}
@@ -0,0 +1,277 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Concurrent use of {@link JsonFileSnippetStore}. Many virtual threads save and delete snippets at
+ * the same time:
+ * <ul>
+ *   <li>Each writer owns a few ids, so their final state is known.</li>
+ *   <li>All writers contend on a set of shared ids whose code comes from a small pool, so
+ *       deduplicated blobs are shared and released constantly.</li>
+ *   <li>Churn threads create, fill, rename and delete folders.</li>
+ *   <li>Optionally one thread keeps moving the records between the flat and the sharded layout,
+ *       or rewriting them between JSON and Smile.</li>
+ *   <li>Readers load the library throughout and check every snapshot.</li>
+ * </ul>
+ * Afterwards the files on disk are checked: every record reads, owned ids match their last write,
+ * no temp files are left, and blob reference counts match the records.
+ */
+class JsonFileSnippetStoreStressTest {
+    private static final int WRITERS = 32;
+    private static final int OPS = 60;
+    private static final int READERS = 2;
+    private static final int CHURNERS = 4;
+    private static final int OWNED_PER_WRITER = 4;
+    private static final int SHARED_IDS = 32;
+    private static final List<String> CODE_POOL = List.of(
+            "SinOsc.ar(440) * 0.1", "Saw.ar(110) * 0.1", "Pbind(\\degree, Pseq([0, 2, 4], inf))",
+            "WhiteNoise.ar(0.05)", "LFTri.ar(220) * 0.1", "Pulse.ar(55, 0.3) * 0.1",
+            "Ringz.ar(Impulse.ar(2), 800, 0.2)", "BPF.ar(PinkNoise.ar, 1200, 0.1)"
+    );
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void dedupedRecords() throws Exception {
+        run("deduped", true, false, false, false, JsonFileSnippetStore.Format.JSON);
+    }
+
+    @Test
+    void plainRecords() throws Exception {
+        run("plain", false, false, false, false, JsonFileSnippetStore.Format.JSON);
+    }
+
+    @Test
+    void migratingLayout() throws Exception {
+        run("migrating", true, true, true, false, JsonFileSnippetStore.Format.JSON);
+    }
+
+    @Test
+    void convertingFormat() throws Exception {
+        run("converting", true, false, false, true, JsonFileSnippetStore.Format.SMILE);
+    }
+
+    private void run(String name, boolean dedupe, boolean sharded, boolean migrate, boolean convert,
+                     JsonFileSnippetStore.Format format) throws Exception {
+        Path dataDir = dir.resolve("snippets");
+        JsonFileSnippetStore store = new JsonFileSnippetStore(dataDir, null, dedupe, sharded, format);
+        Queue<String> failures = new ConcurrentLinkedQueue<>();
+        List<UUID> shared = Stream.generate(UUID::randomUUID).limit(SHARED_IDS).toList();
+        // Owned id -> expected final code, or null when its last operation was a delete
+        Map<UUID, String> expected = new ConcurrentHashMap<>();
+        Map<UUID, Boolean> deleted = new ConcurrentHashMap<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicLong snapshots = new AtomicLong();
+        AtomicLong operations = new AtomicLong();
+        AtomicLong migrations = new AtomicLong();
+        AtomicLong conversions = new AtomicLong();
+
+        long start = System.nanoTime();
+        try (ExecutorService background = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int r = 0; r < READERS; r++) {
+                background.submit(() -> {
+                    while (writing.get()) {
+                        try {
+                            checkSnapshot(store.loadAll(), failures);
+                            store.listFolders();
+                            snapshots.incrementAndGet();
+                        } catch (IOException | RuntimeException e) {
+                            failures.add("read: " + e);
+                        }
+                    }
+                });
+            }
+
+            if (migrate) {
+                background.submit(() -> {
+                    while (writing.get()) {
+                        try {
+                            store.migrateLayout(!store.isSharded());
+                            migrations.incrementAndGet();
+                        } catch (IOException | RuntimeException e) {
+                            failures.add("migrate: " + e);
+                        }
+                    }
+                });
+            }
+
+            if (convert) {
+                background.submit(() -> {
+                    while (writing.get()) {
+                        try {
+                            store.convertFormat(store.format() == JsonFileSnippetStore.Format.JSON
+                                    ? JsonFileSnippetStore.Format.SMILE : JsonFileSnippetStore.Format.JSON);
+                            conversions.incrementAndGet();
+                        } catch (IOException | RuntimeException e) {
+                            failures.add("convert: " + e);
+                        }
+                    }
+                });
+            }
+
+            try (ExecutorService writersPool = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int c = 0; c < CHURNERS; c++) {
+                    int churn = c;
+                    int rounds = Math.max(1, OPS / 10);
+                    writersPool.submit(() -> {
+                        for (int i = 0; i < rounds; i++) {
+                            String from = "churn/c" + churn;
+                            String to = "churn/d" + churn;
+                            try {
+                                store.createFolder(from);
+                                for (int k = 0; k < 3; k++) {
+                                    store.save(snippet(UUID.randomUUID(), from, pick(), i));
+                                }
+                                store.renameFolder(from, to);
+                                store.deleteFolder(to);
+                                operations.addAndGet(6);
+                            } catch (IOException | RuntimeException e) {
+                                failures.add("churn " + churn + ": " + e);
+                            }
+                        }
+                    });
+                }
+                for (int w = 0; w < WRITERS; w++) {
+                    int writer = w;
+                    int count = OPS;
+                    writersPool.submit(() -> {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        String ownFolder = "own/w" + writer;
+                        List<UUID> owned = Stream.generate(UUID::randomUUID).limit(OWNED_PER_WRITER).toList();
+                        for (int i = 0; i < count; i++) {
+                            try {
+                                if (random.nextBoolean()) {
+                                    UUID id = owned.get(random.nextInt(owned.size()));
+                                    if (random.nextInt(4) == 0) {
+                                        store.delete(id, ownFolder);
+                                        deleted.put(id, true);
+                                        expected.remove(id);
+                                    } else {
+                                        String code = pick() + " // w" + writer + " #" + i;
+                                        store.save(snippet(id, ownFolder, code, i));
+                                        expected.put(id, code);
+                                        deleted.remove(id);
+                                    }
+                                } else {
+                                    int s = random.nextInt(SHARED_IDS);
+                                    String folder = "shared/s" + (s % 4);
+                                    if (random.nextInt(4) == 0) store.delete(shared.get(s), folder);
+                                    else store.save(snippet(shared.get(s), folder, pick(), i));
+                                }
+                                operations.incrementAndGet();
+                            } catch (IOException | RuntimeException e) {
+                                failures.add("writer " + writer + ": " + e);
+                            }
+                        }
+                    });
+                }
+            }
+            writing.set(false);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        verify(store, dataDir, expected, deleted.keySet(), dedupe, failures);
+        System.out.printf("%s: %d operations in %.1f s (%.0f ops/s), %d snapshots read, %d layout migrations, %d format conversions%n",
+                name, operations.get(), seconds, operations.get() / seconds, snapshots.get(), migrations.get(), conversions.get());
+        assertTrue(failures.isEmpty(), failures.size() + " problems, first: " + failures.stream().limit(20).toList());
+    }
+
+    private static Snippet snippet(UUID id, String folder, String code, int version) {
+        Instant now = Instant.now();
+        return new Snippet(id, "Stress " + version, null, code, List.of("stress"), folder, now, now);
+    }
+
+    private static String pick() {
+        return CODE_POOL.get(ThreadLocalRandom.current().nextInt(CODE_POOL.size()));
+    }
+
+    // A snapshot holds each id once, and all code reads back intact
+    private static void checkSnapshot(List<Snippet> snippets, Queue<String> failures) {
+        Set<UUID> seen = new HashSet<>();
+        for (Snippet s : snippets) {
+            if (!seen.add(s.getId())) failures.add("snapshot lists " + s.getId() + " twice");
+            String code = s.getCode();
+            if (code == null || CODE_POOL.stream().noneMatch(code::startsWith)) {
+                failures.add("snapshot has bad code for " + s.getId() + ": " + code);
+            }
+        }
+    }
+
+    private static void verify(JsonFileSnippetStore store, Path dataDir, Map<UUID, String> expected,
+                               Set<UUID> deleted, boolean dedupe, Queue<String> failures) throws IOException {
+        Map<UUID, Snippet> onDisk = new HashMap<>();
+        Map<String, Integer> refCounts = new HashMap<>();
+        try (var files = store.recordFiles(null)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                try {
+                    Snippet s = store.readRecord(p);
+                    if (onDisk.put(s.getId(), s) != null) failures.add("two records for " + s.getId());
+                } catch (IOException | RuntimeException e) {
+                    failures.add("unreadable record " + p + ": " + e);
+                }
+                String ref = store.readCodeRef(p);
+                if (ref != null) refCounts.merge(ref, 1, Integer::sum);
+            }
+        }
+
+        for (Map.Entry<UUID, String> e : expected.entrySet()) {
+            Snippet s = onDisk.get(e.getKey());
+            if (s == null) failures.add("owned " + e.getKey() + " missing");
+            else if (!s.getCode().equals(e.getValue())) failures.add("owned " + e.getKey() + " has stale code");
+        }
+        for (UUID id : deleted) {
+            if (onDisk.containsKey(id)) failures.add("owned " + id + " deleted but still on disk");
+        }
+
+        for (String folder : store.listFolders()) {
+            if (folder.contains(JsonFileSnippetStore.SHARD_DIR)) failures.add("shard directory listed as folder: " + folder);
+        }
+        store.migrateLayout(store.isSharded());
+        try (var files = store.recordFiles(null)) {
+            files.filter(p -> p.toString().contains(JsonFileSnippetStore.SHARD_DIR) != store.isSharded())
+                    .forEach(p -> failures.add("record left in the other layout: " + p));
+        }
+
+        Path blobs = dataDir.resolveSibling("blobs");
+        try (var walk = Files.walk(dataDir.getParent())) {
+            walk.filter(p -> p.getFileName().toString().endsWith(".tmp"))
+                    .forEach(p -> failures.add("temp file left: " + p));
+        }
+        if (dedupe) {
+            Map<String, Integer> refs = new BlobStore(blobs).refCounts();
+            if (!refs.equals(refCounts)) failures.add("ref log " + refs.size() + " entries disagrees with records " + refCounts.size());
+            Set<String> stored = new HashSet<>();
+            try (var walk = Files.walk(blobs)) {
+                walk.map(p -> p.getFileName().toString())
+                        .filter(n -> n.endsWith(".blob"))
+                        .forEach(n -> stored.add(n.substring(0, n.length() - ".blob".length())));
+            }
+            if (!stored.equals(refCounts.keySet())) failures.add("blob files " + stored.size() + " != referenced " + refCounts.size());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonFileSnippetStoreTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void duplicateIdsAreLoggedAndLoadedOnce() throws Exception {
+        Path dataDir = dir.resolve("snippets");
+        JsonFileSnippetStore store = new JsonFileSnippetStore(dataDir, null);
+        Snippet s = TestLibraries.generate(1).get(0);
+        store.save(s);
+        Path record;
+        try (var files = store.recordFiles(null)) {
+            record = files.findFirst().orElseThrow();
+        }
+        Files.createDirectories(dataDir.resolve("copy"));
+        Files.copy(record, dataDir.resolve("copy").resolve(record.getFileName()));
+
+        PrintStream err = System.err;
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(log, true));
+        List<Snippet> loaded;
+        try {
+            loaded = store.loadAll();
+        } finally {
+            System.setErr(err);
+        }
+        assertEquals(List.of(s.getId()), loaded.stream().map(Snippet::getId).toList());
+        assertTrue(log.toString().contains(s.getId() + " is stored twice"), log.toString());
+    }
+}
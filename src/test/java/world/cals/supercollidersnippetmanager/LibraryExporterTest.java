@@ -0,0 +1,54 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class LibraryExporterTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void restoringBackupsKeepsNewestVersionsAndDeletions() throws Exception {
+        JsonFileSnippetStore store = new JsonFileSnippetStore(dir.resolve("snippets"), null);
+        List<Snippet> library = new ArrayList<>(TestLibraries.generate(40));
+        store.saveAll(library);
+        Path backups = dir.resolve("backups");
+        LibraryExporter exporter = new LibraryExporter(store, (done, total) -> {}, () -> false);
+        assertEquals(40, exporter.backup(backups).written());
+
+        Snippet removed = library.remove(0);
+        store.delete(removed.getId(), removed.getFolder());
+        Snippet edited = library.get(0);
+        Snippet newer = edited.withUpdatedContent(edited.getName(), null, edited.getCode() + "\n// edited", edited.getTags(), edited.getFolder());
+        store.save(newer);
+        library.set(0, newer);
+        Instant now = Instant.now();
+        Snippet added = new Snippet(UUID.randomUUID(), "added", null, "{ WhiteNoise.ar }.play;", List.of(), "bench/0", now, now);
+        store.save(added);
+        library.add(added);
+        LibraryExporter.BackupResult incremental = exporter.backup(backups);
+        assertEquals(2, incremental.written());
+        assertEquals(1, incremental.deleted());
+
+        JsonFileSnippetStore restored = new JsonFileSnippetStore(dir.resolve("restored"), null);
+        new BulkImporter(restored, null, (done, total, records) -> {}, () -> false).importFrom(backups);
+        Map<UUID, Snippet> loaded = restored.loadAll().stream().collect(Collectors.toMap(Snippet::getId, Function.identity()));
+        assertEquals(library.size(), loaded.size());
+        for (Snippet s : library) {
+            assertNotNull(loaded.get(s.getId()), s.getName());
+            assertEquals(s.getCode(), loaded.get(s.getId()).getCode());
+        }
+    }
+}
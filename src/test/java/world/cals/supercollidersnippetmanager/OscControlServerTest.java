@@ -0,0 +1,82 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OscControlServerTest {
+    @Test
+    void bindsLoopbackUnlessAskedOtherwise() {
+        assertTrue(OscControlServer.bindAddress(null, 0).getAddress().isLoopbackAddress());
+        assertTrue(OscControlServer.bindAddress(" ", 0).getAddress().isLoopbackAddress());
+        assertTrue(OscControlServer.bindAddress("0.0.0.0", 0).getAddress().isAnyLocalAddress());
+    }
+
+    /** Controller packet to {@code /snippet/play} arrival over loopback; latencies are printed, not asserted. */
+    @Test
+    void playsSlotsAndIds() throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramChannel sclang = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+             DatagramChannel controller = DatagramChannel.open();
+             SnippetPlayer player = new SnippetPlayer(loopback.getHostAddress(), ((InetSocketAddress) sclang.getLocalAddress()).getPort());
+             OscControlServer control = new OscControlServer(player, OscControlServer.bindAddress(null, 0))) {
+            sclang.socket().setSoTimeout(1000);
+            controller.connect(control.address());
+
+            List<Snippet> snippets = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                snippets.add(Snippet.createNew("Probe " + i, null,
+                        "Pbind(\\degree, Pseq([0, 2, 4, " + i + "], inf), \\dur, 0.25)", List.of("probe"), "probe"));
+            }
+            control.publishLibrary(LibrarySnapshot.EMPTY.next(snippets, List.of("probe")));
+            control.publishSlots(snippets);
+            control.start();
+
+            DatagramPacket in = new DatagramPacket(new byte[65536], 65536);
+            assertEquals(played(snippets.get(3)), roundTrip(OscCodec.encode("/sm/play", 3), controller, sclang, in));
+            assertEquals(played(snippets.get(120)),
+                    roundTrip(OscCodec.encode("/sm/play", snippets.get(120).getId().toString()), controller, sclang, in));
+            assertEquals(played(snippets.get(121)), roundTrip(OscCodec.encode("/sm/next"), controller, sclang, in));
+
+            byte[] request = OscCodec.encode("/sm/play", 7);
+            long[] micros = new long[2000];
+            for (int i = 0; i < micros.length; i++) {
+                long sent = System.nanoTime();
+                roundTrip(request, controller, sclang, in);
+                micros[i] = (System.nanoTime() - sent) / 1000;
+            }
+            Arrays.sort(micros);
+            System.out.printf("/sm/play <slot> n=%d  p50 %d us  p99 %d us%n",
+                    micros.length, micros[micros.length / 2], micros[micros.length * 99 / 100]);
+        }
+    }
+
+    private static List<OscCodec.Message> played(Snippet s) {
+        return List.of(new OscCodec.Message("/snippet/play", List.of(SnippetPlayer.wrap(s.getCode()))));
+    }
+
+    private static List<OscCodec.Message> roundTrip(byte[] request, DatagramChannel controller, DatagramChannel sclang,
+                                                    DatagramPacket in) throws IOException {
+        controller.write(ByteBuffer.wrap(request));
+        try {
+            sclang.socket().receive(in);
+        } catch (SocketTimeoutException e) {
+            throw new IOException("Nothing arrived within a second", e);
+        }
+        List<OscCodec.Message> out = new ArrayList<>();
+        OscCodec.decode(ByteBuffer.wrap(in.getData(), 0, in.getLength()), out::add);
+        return out;
+    }
+}
@@ -0,0 +1,98 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlayHistoryTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void countsPlaysAndFollowers() throws Exception {
+        PlayHistory history = new PlayHistory(dir.resolve("plays.json"));
+        UUID kick = UUID.randomUUID();
+        UUID snare = UUID.randomUUID();
+        UUID pad = UUID.randomUUID();
+
+        play(history, kick, snare, kick, snare, kick, pad, pad);
+
+        assertEquals(3, history.plays(kick));
+        assertEquals(2, history.plays(snare));
+        assertEquals(0, history.plays(UUID.randomUUID()));
+        // snare and pad tie on plays; pad was played last
+        assertEquals(List.of(kick, pad, snare), ids(history.mostPlayed(10)));
+        assertEquals(List.of(pad, kick), ids(history.recent(2)));
+        // Repeats of the same snippet are not followers
+        assertEquals(List.of(snare, pad), history.followers(kick, 10));
+        assertEquals(List.of(kick), history.followers(snare, 10));
+        assertEquals(List.of(), history.followers(pad, 10));
+    }
+
+    @Test
+    void countsConcurrentPlays() throws Exception {
+        PlayHistory history = new PlayHistory(dir.resolve("plays.json"));
+        UUID id = UUID.randomUUID();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                for (int i = 0; i < 1000; i++) history.record(id);
+            }));
+        }
+        for (Thread t : threads) t.join();
+        assertEquals(8000, history.plays(id));
+    }
+
+    @Test
+    void persistsAcrossRuns() throws Exception {
+        Path file = dir.resolve("plays.json");
+        PlayHistory history = new PlayHistory(file);
+        UUID kick = UUID.randomUUID();
+        UUID snare = UUID.randomUUID();
+        play(history, snare, kick, snare, kick, snare);
+        history.saveIfChanged();
+
+        PlayHistory reloaded = new PlayHistory(file);
+        assertEquals(history.mostPlayed(10), reloaded.mostPlayed(10));
+        assertEquals(history.recent(10), reloaded.recent(10));
+        assertEquals(List.of(kick), reloaded.followers(snare, 10));
+        assertEquals(List.of(snare), reloaded.followers(kick, 10));
+
+        // Counting carries on from the saved totals
+        reloaded.record(kick);
+        assertEquals(3, reloaded.plays(kick));
+    }
+
+    @Test
+    void startsEmptyFromADamagedFile() throws Exception {
+        Path file = dir.resolve("plays.json");
+        Files.writeString(file, "{\"snippets\": [{\"id\": \"not-a-uuid\", \"plays\": 4");
+        PlayHistory history = new PlayHistory(file);
+        assertTrue(history.recent(10).isEmpty());
+
+        UUID id = UUID.randomUUID();
+        history.record(id);
+        history.saveIfChanged();
+        assertEquals(1, new PlayHistory(file).plays(id));
+    }
+
+    // Apart by a few ms so last-played times are distinct
+    private static void play(PlayHistory history, UUID... ids) throws InterruptedException {
+        for (UUID id : ids) {
+            history.record(id);
+            Thread.sleep(3);
+        }
+    }
+
+    private static List<UUID> ids(List<PlayHistory.Entry> entries) {
+        return entries.stream().map(PlayHistory.Entry::id).toList();
+    }
+}
@@ -0,0 +1,134 @@
+package world.cals.supercollidersnippetmanager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecordFormatTest {
+    private static final List<String> UGENS = List.of(
+            "SinOsc.ar(%d)", "Saw.ar(%d)", "LFTri.ar(%d)", "Pulse.ar(%d, 0.3)", "BPF.ar(PinkNoise.ar, %d, 0.1)",
+            "Ringz.ar(Impulse.ar(2), %d, 0.2)", "RLPF.ar(Saw.ar(%d), 1200, 0.3)", "Formant.ar(%d, 800, 200)"
+    );
+    private static final List<String> TAGS = List.of("drums", "bass", "pad", "lead", "fx", "ambient", "live", "test");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void plainRecordsRoundTrip() throws Exception {
+        roundTrip(null, false);
+    }
+
+    @Test
+    void compressedRecordsRoundTrip() throws Exception {
+        roundTrip(CodeDictionary.defaultDictionary(), false);
+    }
+
+    @Test
+    void deduplicatedRecordsRoundTrip() throws Exception {
+        roundTrip(null, true);
+    }
+
+    // Saved as Smile, then the JSON library converted to Smile and back; every snippet is unchanged each time
+    private void roundTrip(CodeDictionary dictionary, boolean dedupe) throws Exception {
+        List<Snippet> library = generate(300, new Random(42));
+        JsonFileSnippetStore smile = new JsonFileSnippetStore(dir.resolve("smile").resolve("snippets"), dictionary, dedupe,
+                false, JsonFileSnippetStore.Format.SMILE);
+        smile.saveAll(library);
+        assertSame(library, smile.loadAll());
+
+        JsonFileSnippetStore json = new JsonFileSnippetStore(dir.resolve("json").resolve("snippets"), dictionary, dedupe,
+                false, JsonFileSnippetStore.Format.JSON);
+        json.saveAll(library);
+        assertEquals(library.size(), json.convertFormat(JsonFileSnippetStore.Format.SMILE));
+        assertSame(library, json.loadAll());
+        assertEquals(library.size(), json.convertFormat(JsonFileSnippetStore.Format.JSON));
+        assertSame(library, json.loadAll());
+    }
+
+    /** Bytes on disk, parse throughput and loadAll time per format; only the size order is asserted. */
+    @Test
+    void formatBenchmark() throws Exception {
+        List<Snippet> library = generate(2000, new Random(42));
+        long[] sizes = new long[JsonFileSnippetStore.Format.values().length];
+        for (JsonFileSnippetStore.Format format : JsonFileSnippetStore.Format.values()) {
+            JsonFileSnippetStore store = new JsonFileSnippetStore(dir.resolve(format.name()).resolve("snippets"), null,
+                    false, false, format);
+            store.saveAll(library);
+            List<byte[]> records = new ArrayList<>();
+            try (var files = store.recordFiles(null)) {
+                for (Path p : (Iterable<Path>) files::iterator) records.add(Files.readAllBytes(p));
+            }
+            long bytes = records.stream().mapToLong(b -> b.length).sum();
+            sizes[format.ordinal()] = bytes;
+            ObjectMapper mapper = format == JsonFileSnippetStore.Format.SMILE ? Json.smileMapper() : Json.mapper();
+
+            long bestParse = Long.MAX_VALUE;
+            long bestLoad = Long.MAX_VALUE;
+            for (int r = 0; r < 5; r++) {
+                long start = System.nanoTime();
+                for (byte[] record : records) mapper.readTree(record);
+                bestParse = Math.min(bestParse, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                store.loadAll();
+                bestLoad = Math.min(bestLoad, System.nanoTime() - start);
+            }
+            System.out.printf("%-5s %d records, %d bytes (%d B/record), parse %.0f rec/s, loadAll %.1f ms%n",
+                    format.name().toLowerCase(), records.size(), bytes, bytes / Math.max(1, records.size()),
+                    records.size() / (bestParse / 1e9), bestLoad / 1e6);
+        }
+        assertTrue(sizes[JsonFileSnippetStore.Format.SMILE.ordinal()] < sizes[JsonFileSnippetStore.Format.JSON.ordinal()]);
+    }
+
+    private static void assertSame(List<Snippet> expected, List<Snippet> loaded) {
+        Map<UUID, Snippet> byId = loaded.stream().collect(Collectors.toMap(Snippet::getId, Function.identity()));
+        assertEquals(expected.size(), byId.size());
+        for (Snippet s : expected) {
+            Snippet read = byId.get(s.getId());
+            assertNotNull(read, s.getName());
+            assertEquals(s.getName(), read.getName());
+            assertEquals(s.getDescription(), read.getDescription());
+            assertEquals(s.getCode(), read.getCode());
+            assertEquals(s.getTags(), read.getTags());
+            assertEquals(s.getFolder(), read.getFolder());
+            assertEquals(s.getCreatedDate(), read.getCreatedDate());
+            assertEquals(s.getModifiedDate(), read.getModifiedDate());
+        }
+    }
+
+    private static List<Snippet> generate(int count, Random random) {
+        List<Snippet> out = new ArrayList<>();
+        Instant now = Instant.now();
+        for (int i = 0; i < count; i++) {
+            StringBuilder code = new StringBuilder("(\n");
+            int lines = 2 + random.nextInt(25);
+            for (int l = 0; l < lines; l++) {
+                code.append("    ~s").append(l).append(" = { ")
+                        .append(String.format(UGENS.get(random.nextInt(UGENS.size())), 40 + random.nextInt(2000)))
+                        .append(" * ").append(String.format("%.2f", random.nextDouble() * 0.2)).append(" }.play;\n");
+            }
+            code.append(")");
+            List<String> tags = random.ints(random.nextInt(4), 0, TAGS.size()).distinct().mapToObj(TAGS::get).toList();
+            Instant created = now.minusSeconds(random.nextInt(10_000_000)).plusNanos(random.nextInt(1_000_000_000));
+            out.add(new Snippet(UUID.randomUUID(), "Snippet " + i, i % 3 == 0 ? "Generated for the benchmark" : null,
+                    code.toString(), tags, "bench/" + (i % 20), created, created.plusSeconds(random.nextInt(100_000))));
+        }
+        return out;
+    }
+}
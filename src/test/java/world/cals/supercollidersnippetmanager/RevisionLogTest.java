@@ -0,0 +1,54 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class RevisionLogTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void rebuildsEveryRevision() throws Exception {
+        RevisionLog log = new RevisionLog(dir);
+        Snippet s = snippet(UUID.randomUUID(), "a\nb\n");
+        String code = s.getCode();
+        List<String> versions = new java.util.ArrayList<>();
+        for (int i = 0; i < RevisionLog.CHECKPOINT_INTERVAL + 5; i++) {
+            code = code + "line " + i + "\n";
+            if (i % 3 == 0) code = code.replaceFirst("a", "x" + i);
+            log.record(s.withUpdatedContent(s.getName(), null, code, List.of(), s.getFolder()));
+            versions.add(code);
+        }
+        assertEquals(versions.size(), log.count(s.getId()));
+        for (int r = 0; r < versions.size(); r++) assertEquals(versions.get(r), log.rebuild(s.getId(), r));
+    }
+
+    @Test
+    void deleteAllRemovesEachHistory() throws Exception {
+        RevisionLog log = new RevisionLog(dir);
+        List<UUID> ids = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        for (UUID id : ids) log.record(snippet(id, "{ }.play;"));
+
+        log.deleteAll(ids.subList(0, 2));
+        assertEquals(0, log.count(ids.get(0)));
+        assertEquals(0, log.count(ids.get(1)));
+        assertEquals(1, log.count(ids.get(2)));
+        try (var files = Files.list(dir)) {
+            assertFalse(files.anyMatch(p -> p.getFileName().toString().startsWith(ids.get(0).toString())));
+        }
+    }
+
+    private static Snippet snippet(UUID id, String code) {
+        Instant now = Instant.now();
+        return new Snippet(id, "s", null, code, List.of(), "f", now, now);
+    }
+}
@@ -0,0 +1,77 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.fxmisc.richtext.model.StyleSpan;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ScHighlighterTest {
+    @Test
+    void stylesTokens() {
+        assertEquals(List.of(
+                List.of("keyword var", "env-var ~freq", "number 2pi", "number 1.5e-3", "number 16rFF"),
+                List.of("class SinOsc", "symbol \\freq", "symbol 'it\\'s'", "string $a", "string \"x\\\"y\"",
+                        "comment // SinOsc")
+        ), styled(
+                "var ~freq = 2pi * 1.5e-3 + 16rFF;",
+                "SinOsc.ar(\\freq, 'it\\'s', $a, \"x\\\"y\"); // SinOsc"));
+    }
+
+    @Test
+    void carriesCommentsAndStringsAcrossLines() {
+        assertEquals(List.of(
+                List.of("class Saw", "comment /* a /* nested"),
+                List.of("comment still */ in */"),
+                List.of("class Pan2", "string \"two"),
+                List.of("string lines\"", "keyword nil"),
+                List.of()
+        ), styled(
+                "Saw.ar /* a /* nested",
+                "still */ in */ out",
+                "Pan2 \"two",
+                "lines\" nil",
+                ""));
+    }
+
+    @Test
+    void reusesUnchangedLines() {
+        ScHighlighter h = new ScHighlighter(null);
+        List<ScHighlighter.Line> before = h.lex("/* open\nSinOsc\n*/\nSaw");
+        List<ScHighlighter.Line> after = h.lex("/* open\nSinOsc\n*/\nPulse");
+        for (int i = 0; i < 3; i++) assertSame(before.get(i), after.get(i));
+        assertNotSame(before.get(3), after.get(3));
+
+        // Same text, different entry state: the comment no longer covers line 2
+        List<ScHighlighter.Line> reopened = h.lex("// open\nSinOsc\n*/\nPulse");
+        assertNotSame(after.get(1), reopened.get(1));
+        assertEquals(List.of("class SinOsc"), styles("SinOsc", reopened.get(1)));
+    }
+
+    private static List<List<String>> styled(String... lines) {
+        List<ScHighlighter.Line> lexed = new ScHighlighter(null).lex(String.join("\n", lines));
+        assertEquals(lines.length, lexed.size());
+        List<List<String>> out = new ArrayList<>();
+        for (int i = 0; i < lines.length; i++) out.add(styles(lines[i], lexed.get(i)));
+        return out;
+    }
+
+    // "style text" for each styled span of the line
+    private static List<String> styles(String text, ScHighlighter.Line line) {
+        assertEquals(text.length(), line.spans().length());
+        List<String> out = new ArrayList<>();
+        int pos = 0;
+        for (StyleSpan<Collection<String>> span : line.spans()) {
+            for (String style : span.getStyle()) {
+                out.add(style + " " + text.substring(pos, pos + span.getLength()));
+            }
+            pos += span.getLength();
+        }
+        return out;
+    }
+}
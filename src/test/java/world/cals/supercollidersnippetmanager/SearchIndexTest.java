@@ -0,0 +1,66 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SearchIndexTest {
+    private static final Instant NOW = Instant.now();
+
+    @Test
+    void ranksNameMatchesFirstAndToleratesTypos() {
+        Snippet inCode = snippet("pad", "{ Wobble.ar(SinOsc.ar) }.play;", "fx", NOW);
+        Snippet inName = snippet("wobble bass", "{ Saw.ar }.play;", "fx", NOW.minusSeconds(60));
+        Snippet other = snippet("drone", "{ PinkNoise.ar }.play;", "noise", NOW);
+        SearchIndex index = new SearchIndex();
+        index.sync(List.of(inCode, inName, other));
+
+        assertEquals(List.of(inName, inCode), snippets(index.search("wobble", 10, s -> true)));
+        assertEquals(List.of(inName, inCode), snippets(index.search("wibble", 10, s -> true)));
+        assertEquals(List.of(inCode), snippets(index.search("wobble sinosc", 10, s -> true)));
+        assertEquals(List.of(inName), snippets(index.search("wob", 1, s -> true)));
+        assertEquals(List.of(), snippets(index.search("wobble", 10, s -> s.getFolder().equals("noise"))));
+
+        SearchIndex.Hit hit = index.search("bass", 10, s -> true).get(0);
+        assertEquals(List.of(new SearchIndex.Highlight(SearchIndex.Field.NAME, 7, 11)), hit.highlights());
+    }
+
+    @Test
+    void syncAddsUpdatesAndRemoves() {
+        Snippet a = snippet("kick", "{ SinOsc.ar(60) }.play;", "drums", NOW);
+        Snippet b = snippet("snare", "{ WhiteNoise.ar }.play;", "drums", NOW);
+        SearchIndex index = new SearchIndex();
+        index.sync(List.of(a));
+        assertEquals(1, index.size());
+
+        index.sync(List.of(a, b));
+        assertEquals(List.of(b), snippets(index.search("snare", 10, s -> true)));
+
+        Snippet renamed = new Snippet(b.getId(), "clap", null, b.getCode(), List.of(), "drums", NOW, NOW.plusSeconds(1));
+        index.sync(List.of(a, renamed));
+        assertEquals(List.of(), index.search("snare", 10, s -> true));
+        assertEquals(List.of(renamed), snippets(index.search("clap", 10, s -> true)));
+
+        // A folder move keeps the text; hits are the current instance
+        Snippet moved = new Snippet(a.getId(), "kick", null, a.getCode(), List.of(), "moved", NOW, NOW);
+        index.sync(List.of(moved, renamed));
+        assertEquals("moved", index.search("kick", 10, s -> true).get(0).snippet().getFolder());
+
+        index.sync(List.of(moved));
+        assertEquals(1, index.size());
+        assertEquals(List.of(), index.search("clap", 10, s -> true));
+        assertEquals(List.of(moved), snippets(index.search("sinosc", 10, s -> true)));
+    }
+
+    private static List<Snippet> snippets(List<SearchIndex.Hit> hits) {
+        return hits.stream().map(SearchIndex.Hit::snippet).toList();
+    }
+
+    private static Snippet snippet(String name, String code, String folder, Instant modified) {
+        return new Snippet(UUID.randomUUID(), name, null, code, List.of(), folder, modified, modified);
+    }
+}
@@ -0,0 +1,133 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServerRegistryTest {
+    private static final int PLAYS = 5000;
+    private static final long PACE_NANOS = 20_000;
+
+    // Answers /snippet/ping like the "Setup SC" OSCdef and counts /snippet/play
+    private static final class StandIn implements AutoCloseable {
+        final DatagramSocket socket;
+        final AtomicInteger plays = new AtomicInteger();
+
+        StandIn(InetAddress address) throws IOException {
+            socket = new DatagramSocket(new InetSocketAddress(address, 0));
+            socket.setReceiveBufferSize(1 << 22);
+            Thread t = new Thread(this::serve, "stand-in-" + socket.getLocalPort());
+            t.setDaemon(true);
+            t.start();
+        }
+
+        String target() {
+            return "127.0.0.1:" + socket.getLocalPort();
+        }
+
+        private void serve() {
+            DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+            while (!socket.isClosed()) {
+                try {
+                    socket.receive(packet);
+                    OscCodec.decode(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()), message -> {
+                        switch (message.address()) {
+                            case "/snippet/play" -> plays.incrementAndGet();
+                            case "/snippet/ping" -> {
+                                byte[] pong = OscCodec.encode("/snippet/pong", message.args().get(0));
+                                try {
+                                    socket.send(new DatagramPacket(pong, pong.length, packet.getSocketAddress()));
+                                } catch (IOException e) {
+                                    throw new RuntimeException(e);
+                                }
+                            }
+                            default -> {
+                            }
+                        }
+                    });
+                } catch (SocketException e) {
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            socket.close();
+        }
+    }
+
+    /**
+     * Plays fan out to live, stalled (never reads) and dead (nothing listening) stand-ins. Every live
+     * one gets the plays and health tells them apart; send times are printed, not asserted.
+     */
+    @Test
+    void fansOutPastStalledAndDeadTargets() throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        List<StandIn> live = new ArrayList<>();
+        for (int i = 0; i < 3; i++) live.add(new StandIn(loopback));
+        try (DatagramSocket stalled = new DatagramSocket(new InetSocketAddress(loopback, 0));
+             ServerRegistry servers = new ServerRegistry()) {
+            int deadPort;
+            try (DatagramSocket dead = new DatagramSocket(new InetSocketAddress(loopback, 0))) {
+                deadPort = dead.getLocalPort();
+            }
+            List<String> targets = new ArrayList<>(live.stream().map(StandIn::target).toList());
+            String stalledTarget = "127.0.0.1:" + stalled.getLocalPort();
+            String deadTarget = "127.0.0.1:" + deadPort;
+            targets.add(stalledTarget);
+            targets.add(deadTarget);
+            servers.setTargets(targets);
+
+            byte[] payload = SnippetPlayer.payload(Snippet.createNew("Fan-out", null,
+                    "Pbind(\\degree, Pseq([0, 2, 4, 7], inf), \\dur, 0.25)", List.of(), "test"));
+            long[] micros = new long[PLAYS];
+            for (int i = 0; i < PLAYS; i++) {
+                long start = System.nanoTime();
+                try {
+                    servers.send(payload);
+                } catch (IOException e) {
+                    // Counted per target in health
+                }
+                long end = System.nanoTime();
+                micros[i] = (end - start) / 1000;
+                // A controller-like rate the stand-ins can drain; the stalled one still fills up
+                while (System.nanoTime() - end < PACE_NANOS) Thread.onSpinWait();
+            }
+            Arrays.sort(micros);
+            System.out.printf("%d targets, send p50 %d us  p99 %d us%n", targets.size(), micros[PLAYS / 2], micros[PLAYS * 99 / 100]);
+
+            // Let the health thread ping everyone, then let the stand-ins drain
+            Thread.sleep(ServerRegistry.PING_INTERVAL.toMillis() + 500);
+            for (StandIn s : live) {
+                // Loopback UDP can still drop the odd packet under a burst
+                assertTrue(s.plays.get() > PLAYS * 0.99, s.target() + " received " + s.plays.get());
+            }
+            Map<String, ServerRegistry.State> states = servers.health().stream()
+                    .collect(Collectors.toMap(ServerRegistry.Health::target, ServerRegistry.Health::state));
+            for (StandIn s : live) assertEquals(ServerRegistry.State.UP, states.get(s.target()), s.target());
+            assertNotEquals(ServerRegistry.State.UP, states.get(stalledTarget));
+            assertNotEquals(ServerRegistry.State.UP, states.get(deadTarget));
+        } finally {
+            live.forEach(StandIn::close);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimilarityIndexTest {
+    @Test
+    void groupsEveryNearDuplicatePair() {
+        List<Snippet> library = new ArrayList<>(TestLibraries.generate(300));
+        String base = "{ var sig = SinOsc.ar(440) * EnvGen.kr(Env.perc(0.01, 1), doneAction: 2);\n"
+                + "sig = RLPF.ar(sig, 1200, 0.3);\nPan2.ar(sig, 0, 0.2) }.play;\n";
+        List<Snippet> copies = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            copies.add(snippet(base + "// take " + i));
+        }
+        library.addAll(copies);
+
+        SimilarityIndex index = new SimilarityIndex();
+        index.sync(library);
+        List<List<Snippet>> groups = index.duplicateGroups(0.8);
+
+        Set<UUID> expected = copies.stream().map(Snippet::getId).collect(Collectors.toSet());
+        assertTrue(groups.stream().anyMatch(g -> g.stream().map(Snippet::getId).collect(Collectors.toSet()).containsAll(expected)));
+        for (List<Snippet> g : groups) {
+            for (Snippet a : g) {
+                // Every member is close to some other member of its group
+                assertTrue(g.stream().anyMatch(b -> b != a && SimilarityIndex.estimate(
+                        SimilarityIndex.signature(a.getCode()), SimilarityIndex.signature(b.getCode())) >= 0.8));
+            }
+        }
+        assertEquals(groups.stream().mapToInt(List::size).sum(),
+                groups.stream().flatMap(List::stream).map(Snippet::getId).distinct().count());
+    }
+
+    private static Snippet snippet(String code) {
+        Instant now = Instant.now();
+        return new Snippet(UUID.randomUUID(), "s", null, code, List.of(), "f", now, now);
+    }
+}
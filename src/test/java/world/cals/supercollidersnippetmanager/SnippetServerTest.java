@@ -0,0 +1,195 @@
+package world.cals.supercollidersnippetmanager;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SnippetServerTest {
+    private static final ObjectMapper JSON = Json.mapper();
+    private static final Instant NOW = Instant.now();
+
+    private record Reply(int status, String contentType, String body) {}
+
+    @TempDir
+    Path dir;
+
+    private JsonFileSnippetStore store;
+    private DatagramChannel sclang;
+    private SnippetPlayer player;
+    private SnippetServer server;
+    private Snippet kick;
+    private Snippet snare;
+    private Snippet pad;
+
+    @BeforeEach
+    void start() throws IOException {
+        store = new JsonFileSnippetStore(dir);
+        kick = store.save(snippet("kick", "{ SinOsc.ar(60) }.play;", "drums", NOW.minusSeconds(3)));
+        snare = store.save(snippet("snare", "{ WhiteNoise.ar }.play;", "drums", NOW.minusSeconds(2)));
+        pad = store.save(snippet("pad", "{ Saw.ar([100, 101]) }.play;", "synths", NOW.minusSeconds(1)));
+
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        sclang = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+        sclang.socket().setSoTimeout(1000);
+        player = new SnippetPlayer(loopback.getHostAddress(), ((InetSocketAddress) sclang.getLocalAddress()).getPort());
+        server = new SnippetServer(store, player, new InetSocketAddress(loopback, 0));
+        server.start();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        server.close();
+        player.close();
+        sclang.close();
+    }
+
+    @Test
+    void reportsHealth() throws Exception {
+        Reply response = get("/health");
+        assertEquals(200, response.status());
+        assertEquals("application/json; charset=utf-8", response.contentType());
+        assertEquals(3, json(response).path("snippets").asInt());
+    }
+
+    @Test
+    void listsPagesOfSnippets() throws Exception {
+        JsonNode page = json(get("/snippets"));
+        assertEquals(3, page.path("total").asInt());
+        assertEquals(List.of("pad", "snare", "kick"), names(page.path("items")));
+
+        page = json(get("/snippets?folder=drums&sort=name&offset=1&limit=5"));
+        assertEquals(2, page.path("total").asInt());
+        assertEquals(1, page.path("offset").asInt());
+        assertEquals(List.of("snare"), names(page.path("items")));
+        assertEquals(snare.getId().toString(), page.path("items").get(0).path("id").asText());
+
+        assertEquals(0, json(get("/snippets?offset=10")).path("items").size());
+        assertEquals(400, get("/snippets?limit=-1").status());
+        assertEquals(400, get("/snippets?sort=size").status());
+    }
+
+    @Test
+    void getsOneSnippet() throws Exception {
+        Reply response = get("/snippets/" + pad.getId());
+        assertEquals(200, response.status());
+        assertEquals("pad", json(response).path("name").asText());
+        assertEquals(pad.getCode(), json(response).path("code").asText());
+
+        assertEquals(404, get("/snippets/" + UUID.randomUUID()).status());
+        assertEquals(400, get("/snippets/not-an-id").status());
+        assertEquals(404, get("/snippetsx").status());
+    }
+
+    @Test
+    void searches() throws Exception {
+        JsonNode hits = json(get("/search?q=white%20noise"));
+        assertEquals(1, hits.size());
+        assertEquals("snare", hits.get(0).path("snippet").path("name").asText());
+
+        assertEquals(2, json(get("/search?q=ar&limit=2")).size());
+        assertEquals(400, get("/search").status());
+        assertEquals(400, get("/search?q=%20").status());
+    }
+
+    @Test
+    void playsAndStops() throws Exception {
+        assertEquals(204, post("/play/" + kick.getId()).status());
+        assertEquals(List.of(new OscCodec.Message("/snippet/play", List.of(SnippetPlayer.wrap(kick.getCode())))), received());
+
+        assertEquals(204, post("/stop").status());
+        assertEquals(List.of(new OscCodec.Message("/snippet/stop", List.of())), received());
+
+        assertEquals(404, post("/play/" + UUID.randomUUID()).status());
+        assertEquals(400, post("/play").status());
+        assertEquals(405, get("/play/" + kick.getId()).status());
+        assertEquals(405, get("/stop").status());
+    }
+
+    @Test
+    void reloadsTheStore() throws Exception {
+        Snippet added = store.save(snippet("hat", "{ HPF.ar(WhiteNoise.ar, 8000) }.play;", "drums", NOW));
+        assertEquals(3, json(get("/health")).path("snippets").asInt());
+        assertEquals(404, get("/snippets/" + added.getId()).status());
+
+        Reply response = post("/reload");
+        assertEquals(200, response.status());
+        assertEquals(4, json(response).path("snippets").asInt());
+        assertEquals(200, get("/snippets/" + added.getId()).status());
+        assertEquals("hat", json(get("/search?q=hpf")).get(0).path("snippet").path("name").asText());
+    }
+
+    private Reply get(String path) throws IOException {
+        return send("GET", path);
+    }
+
+    private Reply post(String path) throws IOException {
+        return send("POST", path);
+    }
+
+    private Reply send(String method, String path) throws IOException {
+        InetSocketAddress address = server.address();
+        URI uri = URI.create("http://" + address.getAddress().getHostAddress() + ":" + address.getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+        try {
+            connection.setRequestMethod(method);
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            String body = in == null ? "" : new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            return new Reply(status, connection.getContentType(), body);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // The next packet sclang gets, passing over the registry's health pings
+    private List<OscCodec.Message> received() throws IOException {
+        DatagramPacket in = new DatagramPacket(new byte[65536], 65536);
+        while (true) {
+            try {
+                sclang.socket().receive(in);
+            } catch (SocketTimeoutException e) {
+                throw new IOException("Nothing arrived within a second", e);
+            }
+            List<OscCodec.Message> out = new ArrayList<>();
+            OscCodec.decode(ByteBuffer.wrap(in.getData(), 0, in.getLength()), out::add);
+            if (out.stream().noneMatch(m -> m.address().equals("/snippet/ping"))) return out;
+        }
+    }
+
+    private static JsonNode json(Reply response) throws IOException {
+        assertEquals(200, response.status(), response.body());
+        return JSON.readTree(response.body());
+    }
+
+    private static List<String> names(JsonNode items) {
+        List<String> out = new ArrayList<>();
+        items.forEach(item -> out.add(item.path("name").asText()));
+        return out;
+    }
+
+    private static Snippet snippet(String name, String code, String folder, Instant modified) {
+        return new Snippet(UUID.randomUUID(), name, null, code, List.of(), folder, modified, modified);
+    }
+}
@@ -0,0 +1,95 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqliteSnippetStoreTest {
+    @TempDir
+    Path dir;
+
+    private SqliteSnippetStore store;
+    private List<Snippet> library;
+
+    @BeforeEach
+    void open() throws Exception {
+        store = new SqliteSnippetStore(dir.resolve("snippets.db"));
+        library = TestLibraries.generate(200);
+        store.saveAll(library);
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        store.close();
+    }
+
+    @Test
+    void indexedFiltersMatchInMemoryFilters() throws Exception {
+        assertTrue(store.indexesSearch());
+        List<SnippetQuery> queries = List.of(
+                new SnippetQuery("", null, "bench/3"),
+                new SnippetQuery("", "test", null),
+                new SnippetQuery("Saw.ar", null, null),
+                new SnippetQuery("~s1", null, "bench/7"),
+                new SnippetQuery("pinknoise", "test", null));
+        for (SnippetQuery q : queries) {
+            List<UUID> expected = library.stream()
+                    .filter(q::matches)
+                    .sorted(Comparator.comparing(Snippet::getModifiedDate).reversed())
+                    .map(Snippet::getId)
+                    .toList();
+            assertEquals(expected, store.searchIds(q), q.toString());
+        }
+    }
+
+    @Test
+    void snapshotOrdersStoreMatches() throws Exception {
+        LibrarySnapshot snapshot = LibrarySnapshot.EMPTY.next(store.loadAll(), store.listFolders(), store.listTags());
+        assertEquals(List.of("test"), snapshot.tags());
+
+        SnippetQuery folder = new SnippetQuery("", null, "bench/5");
+        SnippetCursor byName = snapshot.query(store.searchIds(folder), SnippetSort.NAME);
+        SnippetCursor inMemory = snapshot.query(folder, SnippetSort.NAME);
+        assertEquals(inMemory.fetch(0, inMemory.size()), byName.fetch(0, byName.size()));
+
+        List<UUID> withUnknown = new java.util.ArrayList<>(store.searchIds(folder));
+        withUnknown.add(UUID.randomUUID());
+        assertEquals(inMemory.size(), new HashSet<>(snapshot.query(withUnknown, SnippetSort.MODIFIED).fetch(0, inMemory.size())).size());
+    }
+
+    @Test
+    void shortTextFallsBackToLike() throws Exception {
+        Instant now = Instant.now();
+        Snippet s = new Snippet(UUID.randomUUID(), "50% mix", null, "{ XFade2.ar }.play;", List.of(), "fx", now, now);
+        store.save(s);
+        assertEquals(List.of(s.getId()), store.searchIds(new SnippetQuery("0%", null, null)));
+    }
+
+    @Test
+    void rankedSearchPrefersNameMatches() throws Exception {
+        Instant now = Instant.now();
+        Snippet inCode = new Snippet(UUID.randomUUID(), "pad", null, "{ Wobble.ar(SinOsc.ar) }.play;", List.of(), "fx", now, now);
+        Snippet inName = new Snippet(UUID.randomUUID(), "wobble bass", null, "{ Saw.ar }.play;", List.of(), "fx", now.minusSeconds(60), now.minusSeconds(60));
+        store.saveAll(List.of(inCode, inName));
+
+        assertEquals(List.of(inName.getId(), inCode.getId()), store.rankedIds("wobble", SnippetQuery.ALL, 10));
+        assertEquals(List.of(inCode.getId()), store.rankedIds("WOBBLE sinosc", SnippetQuery.ALL, 10));
+        assertEquals(List.of(inName.getId()), store.rankedIds("bass", new SnippetQuery("", null, "fx"), 10));
+        assertEquals(List.of(), store.rankedIds("bass", new SnippetQuery("", null, "bench/1"), 10));
+        assertEquals(1, store.rankedIds("wobble", SnippetQuery.ALL, 1).size());
+
+        SearchIndex.Hit hit = SearchIndex.substringHits(List.of(inName), SnippetQuery.words("wob WOBBLE")).get(0);
+        assertEquals(List.of(new SearchIndex.Highlight(SearchIndex.Field.NAME, 0, 6)), hit.highlights());
+    }
+}
@@ -0,0 +1,27 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StartupTimingsTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void logKeepsTheLastRuns() throws Exception {
+        Path log = dir.resolve("startup.log");
+        for (int i = 0; i < StartupTimings.MAX_LINES + 30; i++) {
+            StartupTimings.append(log, "run " + i);
+        }
+        List<String> lines = Files.readAllLines(log);
+        assertEquals(StartupTimings.MAX_LINES, lines.size());
+        assertEquals("run 30", lines.get(0));
+        assertEquals("run " + (StartupTimings.MAX_LINES + 29), lines.get(lines.size() - 1));
+    }
+}
@@ -0,0 +1,87 @@
+package world.cals.supercollidersnippetmanager;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SynthDefCompilerTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void extractsEveryLiteralDefInOrder() {
+        String code = """
+                (
+                SynthDef(\\kick, { Out.ar(0, SinOsc.ar(60) ! 2) }).add;
+                SynthDef.new('snare', { Out.ar(0, WhiteNoise.ar) }).add;
+                SynthDef("hat") { Out.ar(0, HPF.ar(WhiteNoise.ar, 8000)) }.add;
+                SynthDef(~computed, { Out.ar(0, Saw.ar) }).add;
+                x = MySynthDef(\\nope, {});
+                )""";
+        List<SynthDefCompiler.Found> found = SynthDefCompiler.extract(code);
+        assertEquals(List.of("kick", "snare", "hat"), found.stream().map(SynthDefCompiler.Found::name).toList());
+        assertEquals("SynthDef(\"hat\") { Out.ar(0, HPF.ar(WhiteNoise.ar, 8000)) }", found.get(2).code());
+    }
+
+    @Test
+    void skipsCommentedOutDefs() {
+        String code = """
+                // SynthDef(\\old, { Out.ar(0, Saw.ar) }).add;
+                /* SynthDef(\\older, { /* nested */ Out.ar(0, Saw.ar) }).add; */
+                SynthDef(\\current, { Out.ar(0, Pulse.ar) }).add;""";
+        assertEquals(List.of("current"), SynthDefCompiler.extract(code).stream().map(SynthDefCompiler.Found::name).toList());
+    }
+
+    @Test
+    void bracesInStringsAndCharactersDoNotEndTheDef() {
+        String code = """
+                SynthDef(\\talk, { "} ) SynthDef(\\\\fake, {".postln; $}.postln; Out.ar(0, SinOsc.ar) }).add;
+                SynthDef(\\after, { Out.ar(0, Saw.ar) }).add;""";
+        List<SynthDefCompiler.Found> found = SynthDefCompiler.extract(code);
+        assertEquals(List.of("talk", "after"), found.stream().map(SynthDefCompiler.Found::name).toList());
+        assertTrue(found.get(0).code().endsWith("Out.ar(0, SinOsc.ar) })"));
+    }
+
+    @Test
+    void formattingAndCommentsDoNotChangeTheHash() {
+        String a = SynthDefCompiler.extract("SynthDef(\\pad, { Out.ar(0, LFTri.ar(220)) })").get(0).hash();
+        String b = SynthDefCompiler.extract("SynthDef(\\pad, {\n    // quiet\n    Out.ar(0,   LFTri.ar(220))\n})").get(0).hash();
+        String c = SynthDefCompiler.extract("SynthDef(\\pad, { Out.ar(0, LFTri.ar(330)) })").get(0).hash();
+        assertEquals(a, b);
+        assertNotEquals(a, c);
+        assertEquals("x = \"a  b\" ; y", SynthDefCompiler.normalize("x = \"a  b\"  /* c */ ;\n\ty"));
+    }
+
+    @Test
+    void duplicateNamesUseTheNewestSnippetAndAreReported() throws Exception {
+        Instant now = Instant.now();
+        Snippet older = snippet("Old bass", "SynthDef(\\bass, { Out.ar(0, Saw.ar(55)) }).add;", now.minusSeconds(60));
+        Snippet newer = snippet("New bass", "SynthDef(\\bass, { Out.ar(0, Pulse.ar(55)) }).add;", now);
+        Snippet same = snippet("Copy", "SynthDef(\\lead, { Out.ar(0, Saw.ar) }).add;\nSynthDef(\\lead, {\n    Out.ar(0, Saw.ar) // same def\n});", now);
+        Path output = dir.resolve("bundle.scd");
+
+        SynthDefCompiler.Build build = SynthDefCompiler.build(List.of(older, newer, same), output);
+        assertEquals(List.of("bass", "lead"), build.defs().stream().map(SynthDefCompiler.Def::name).toList());
+        assertEquals("New bass", build.defs().get(0).snippet());
+        assertEquals(1, build.conflicts().size());
+        assertTrue(build.conflicts().get(0).startsWith("\\bass: 2 different definitions"));
+        assertTrue(Files.readString(output).contains("Pulse.ar(55)"));
+
+        SynthDefCompiler.Build again = SynthDefCompiler.build(List.of(older, newer, same), output);
+        assertEquals(0, again.scanned());
+        assertEquals(List.of(), again.changed());
+    }
+
+    private static Snippet snippet(String name, String code, Instant modified) {
+        return new Snippet(UUID.randomUUID(), name, null, code, List.of(), "defs", modified, modified);
+    }
+}
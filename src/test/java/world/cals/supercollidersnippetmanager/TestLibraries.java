@@ -0,0 +1,40 @@
+package world.cals.supercollidersnippetmanager;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/** Generated snippet libraries shared by the tests. */
+final class TestLibraries {
+    private static final List<String> UGENS = List.of(
+            "SinOsc.ar(%d)", "Saw.ar(%d)", "LFTri.ar(%d)", "Pulse.ar(%d, 0.3)", "BPF.ar(PinkNoise.ar, %d, 0.1)",
+            "Ringz.ar(Impulse.ar(2), %d, 0.2)", "RLPF.ar(Saw.ar(%d), 1200, 0.3)", "Formant.ar(%d, 800, 200)"
+    );
+
+    private TestLibraries() {}
+
+    /**
+     * {@code count} snippets of a few lines of UGen code each, the same for every call, spread over
+     * 20 {@code bench/N} folders and tagged {@code test}; each is a second older than the last.
+     */
+    static List<Snippet> generate(int count) {
+        Random random = new Random(42);
+        List<Snippet> out = new ArrayList<>();
+        Instant now = Instant.now();
+        for (int i = 0; i < count; i++) {
+            StringBuilder code = new StringBuilder("(\n");
+            int lines = 2 + random.nextInt(25);
+            for (int l = 0; l < lines; l++) {
+                code.append("    ~s").append(l).append(" = { ")
+                        .append(String.format(UGENS.get(random.nextInt(UGENS.size())), 40 + random.nextInt(2000)))
+                        .append(" }.play;\n");
+            }
+            code.append(")");
+            out.add(new Snippet(UUID.randomUUID(), "Snippet " + i, null, code.toString(), List.of("test"),
+                    "bench/" + (i % 20), now.minusSeconds(i), now.minusSeconds(i)));
+        }
+        return out;
+    }
+}